@@ -3,6 +3,8 @@ package com.chesapeaketechnology.photomonkey;
 import android.app.Application;
 import android.content.Context;
 
+import com.chesapeaketechnology.photomonkey.service.VpnGate;
+
 /**
  * Used to provide a single point for model classes to access the application
  * context. Since the application object is only created on application start,
@@ -29,5 +31,6 @@ public class PhotoMonkeyApplication extends Application
     {
         super.onCreate();
         instance = this;
+        VpnGate.register(this);
     }
 }
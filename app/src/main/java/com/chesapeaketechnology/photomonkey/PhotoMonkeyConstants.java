@@ -72,6 +72,30 @@ public final class PhotoMonkeyConstants
     public static final long ANIMATION_FAST_MILLIS = 100;
     public static final long ANIMATION_SLOW_MILLIS = 250;
 
+    /**
+     * Burst capture settings. Captures are paced at the target frame rate while the shutter is held,
+     * but never more than the maximum number of images may be waiting to be written. When the writer
+     * falls behind, the capture interval backs off up to the maximum interval.
+     */
+    public static final int BURST_TARGET_FRAMES_PER_SECOND = 8;
+    public static final int BURST_MAX_IN_FLIGHT = 4;
+    public static final long BURST_MAX_INTERVAL_MILLIS = 1000;
+    /**
+     * Sizing for the lanes of the model layer I/O dispatcher. Each lane has a fixed number of
+     * threads and a bounded queue; once a queue is full, the submitting thread runs the task itself.
+     */
+    public static final int IO_CAPTURE_LANE_THREADS = BURST_MAX_IN_FLIGHT;
+    public static final int IO_METADATA_LANE_THREADS = 2;
+    public static final int IO_GALLERY_LANE_THREADS = 2;
+    public static final int IO_UPLOAD_LANE_THREADS = 1;
+    public static final int IO_LANE_QUEUE_CAPACITY = 64;
+    /**
+     * The gallery is loaded a page at a time. The next page is requested once the user swipes to
+     * within the prefetch distance of the end of the images loaded so far.
+     */
+    public static final int GALLERY_PAGE_SIZE = 30;
+    public static final int GALLERY_PREFETCH_DISTANCE = 5;
+
     /**
      * Attributed related to the on screen focus rectangle
      */
@@ -118,5 +142,103 @@ public final class PhotoMonkeyConstants
     public static final String PROPERTY_DEVICE_ID_KEY = "deviceId";
     public static final String PROPERTY_VPN_ONLY_KEY = "vpnOnly";
     public static final String PROPERTY_WIFI_ONLY_KEY = "wifiOnly";
+    public static final String PROPERTY_UPLOAD_FORMAT_KEY = "uploadFormat";
+
+    // Values for PROPERTY_UPLOAD_FORMAT_KEY
+    // The photo is Base64 encoded into the JSON Photo envelope (version, filename, content, device_id)
+    public static final String UPLOAD_FORMAT_JSON = "json";
+    // The photo is streamed from disk as the "content" part of a multipart/form-data request, with the other Photo fields as form fields
+    public static final String UPLOAD_FORMAT_MULTIPART = "multipart";
+    // The photo is streamed from disk as the request body, with the other Photo fields as headers
+    public static final String UPLOAD_FORMAT_RAW = "raw";
+    // The photo is sent unchanged in chunks using the tus resumable upload protocol, with the other Photo fields as Upload-Metadata
+    public static final String UPLOAD_FORMAT_RESUMABLE = "resumable";
+
+    public static final String PROPERTY_UPLOAD_PROFILE_KEY = "uploadProfile";
+    // The photo is sent at the size it is on the device. Any other value of PROPERTY_UPLOAD_PROFILE_KEY is
+    // "maxDimension:quality", for example "2304:90", to scale the photo down and re-encode it, or ":quality",
+    // for example ":85", to re-encode it at its full size
+    public static final String UPLOAD_PROFILE_ORIGINAL = "original";
+    // Whether to strip the thumbnail from the EXIF of a photo before it is sent
+    public static final String PROPERTY_UPLOAD_STRIP_THUMBNAIL_KEY = "uploadStripThumbnail";
+    /**
+     * The size of the tiles a photo is decoded in when it is scaled for an upload profile, in decoded
+     * pixels. Scaling holds the scaled photo and one tile of this size in memory at a time.
+     */
+    public static final int UPLOAD_PROFILE_TILE_PIXELS = 1024;
+
+    // The most upload requests in flight at once, across all workers
+    public static final String PROPERTY_UPLOAD_CONCURRENCY_KEY = "uploadConcurrency";
+    // The upload bandwidth caps in bytes per second on metered and unmetered networks, 0 for no cap
+    public static final String PROPERTY_UPLOAD_BANDWIDTH_METERED_KEY = "uploadBandwidthMetered";
+    public static final String PROPERTY_UPLOAD_BANDWIDTH_UNMETERED_KEY = "uploadBandwidthUnmetered";
+    public static final int DEFAULT_UPLOAD_CONCURRENCY = 2;
+    // The timeouts of the HTTP client in seconds. The defaults are the HTTP_*_TIMEOUT_SECONDS values below
+    public static final String PROPERTY_HTTP_CONNECT_TIMEOUT_KEY = "httpConnectTimeout";
+    public static final String PROPERTY_HTTP_READ_TIMEOUT_KEY = "httpReadTimeout";
+    public static final String PROPERTY_HTTP_WRITE_TIMEOUT_KEY = "httpWriteTimeout";
+    public static final String PROPERTY_HTTP_CALL_TIMEOUT_KEY = "httpCallTimeout";
+    /**
+     * How much unused bandwidth the upload throttle may save up and spend at once, as time at the cap.
+     */
+    public static final long UPLOAD_BANDWIDTH_BURST_MILLIS = 250;
+
+    /**
+     * The largest chunk sent in one request by a resumable upload. At most this much is sent again
+     * when a connection drops part way through a chunk.
+     */
+    public static final long RESUMABLE_UPLOAD_CHUNK_BYTES = 1024 * 1024;
+    /**
+     * Limits on a batch upload. Queued photos going to the same endpoint in the multipart format are
+     * sent together, up to this many photos or this many bytes of photos per request.
+     */
+    public static final int BATCH_UPLOAD_MAX_PHOTOS = 20;
+    public static final long BATCH_UPLOAD_MAX_BYTES = 32 * 1024 * 1024;
+    /**
+     * How long an endpoint that answered a batch upload with 404, 405 or 501 is sent its photos one at
+     * a time before a batch is tried again.
+     */
+    public static final long BATCH_UNSUPPORTED_TTL_MILLIS = 60 * 60_000;
+    /**
+     * Fair ordering of the upload queue. Photos are sent newest first, but every Nth place goes to the
+     * oldest queued photo once it has waited longer than the aging period, so the backlog always drains.
+     */
+    public static final int UPLOAD_QUEUE_AGED_SHARE = 4;
+    public static final long UPLOAD_QUEUE_AGING_MILLIS = 15 * 60_000;
+    /**
+     * How long a photo must have gone unmodified before the upload ledger remembers its hash. A write
+     * within one tick of the clock of the file system, which may be as coarse as two seconds, can
+     * leave the size and modification time of a photo as they were.
+     */
+    public static final long UPLOAD_LEDGER_HASH_SETTLE_MILLIS = 2_000;
+    /**
+     * Settings for the HTTP client shared by all uploads. Idle connections are kept alive so that
+     * back to back uploads skip the TCP and TLS handshakes. The write and read timeouts apply to
+     * each stall of the connection rather than to the whole request, so they hold for any photo size.
+     * The call timeout bounds the whole request, so by default there is none. Each timeout is the
+     * default for its preference; 0 means no timeout.
+     */
+    public static final int HTTP_MAX_IDLE_CONNECTIONS = 4;
+    public static final long HTTP_KEEP_ALIVE_SECONDS = 120;
+    public static final long HTTP_CONNECT_TIMEOUT_SECONDS = 15;
+    public static final long HTTP_WRITE_TIMEOUT_SECONDS = 60;
+    public static final long HTTP_READ_TIMEOUT_SECONDS = 60;
+    public static final long HTTP_CALL_TIMEOUT_SECONDS = 0;
+    /**
+     * Circuit breaker settings for upload endpoints. After the threshold number of failed calls in a
+     * row, calls to the endpoint fail fast for the open period, which doubles each time a trial call
+     * fails, up to the maximum.
+     */
+    public static final int CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+    public static final long CIRCUIT_BREAKER_OPEN_MILLIS = 30_000;
+    public static final long CIRCUIT_BREAKER_MAX_OPEN_MILLIS = 15 * 60_000;
+    /**
+     * Upload telemetry settings. Percentiles are computed over the most recent window of uploads,
+     * and the telemetry log is trimmed back to that window once it holds the maximum number of uploads.
+     */
+    public static final int UPLOAD_TELEMETRY_WINDOW = 500;
+    public static final int UPLOAD_TELEMETRY_LOG_MAX_SAMPLES = 5000;
+
+    public static final String FILE_PROVIDER_AUTHORITY = "com.chesapeaketechnology.photomonkey.provider";
 
 }
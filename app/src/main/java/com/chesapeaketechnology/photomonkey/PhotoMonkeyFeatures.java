@@ -3,6 +3,8 @@ package com.chesapeaketechnology.photomonkey;
 import android.content.Context;
 import android.provider.MediaStore;
 
+import com.chesapeaketechnology.photomonkey.model.AMetadataDelegate;
+
 /**
  * Used to provide build time feature flags for the application.
  *
@@ -31,4 +33,13 @@ public final class PhotoMonkeyFeatures
      * photo to SyncMonkey (via intent).
      */
     public static final boolean AUTOMATIC_SEND_TO_SYNC_MONKEY = false;
+
+    /**
+     * Setting indicating where edits to the image metadata are stored. EXIF keeps the metadata
+     * in the image itself so it travels with the file. SIDECAR keeps edits in a small companion
+     * file so the image is never rewritten when the description changes; photos with a sidecar are
+     * uploaded as a copy with the sidecar written into its EXIF. DATABASE keeps the
+     * metadata in the image and serves lookups from a local SQLite index.
+     */
+    public static final AMetadataDelegate.PersistenceStrategy METADATA_PERSISTENCE_STRATEGY = AMetadataDelegate.PersistenceStrategy.EXIF;
 }
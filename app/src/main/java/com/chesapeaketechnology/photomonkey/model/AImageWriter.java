@@ -5,7 +5,10 @@ import android.net.Uri;
 
 import androidx.camera.core.ImageProxy;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Abstraction for writing image files based on different storage configurations.
@@ -19,7 +22,10 @@ public abstract class AImageWriter
      *
      * @param image The {@link ImageProxy} containing the image.
      * @return a byte[] representing the image.
+     * @deprecated copies the entire image onto the heap. Use {@link #writeJpg(ImageProxy, WritableByteChannel)}
+     * to persist the image without the intermediate copy.
      */
+    @Deprecated
     public static byte[] bytesForJpg(ImageProxy image)
     {
         ByteBuffer buffer = image.getPlanes()[0].getBuffer();
@@ -30,13 +36,98 @@ public abstract class AImageWriter
     }
 
     /**
-     * Write {@link ImageProxy} to the appropriate storage.
+     * Write the jpg data of an {@link ImageProxy} straight to a channel. The plane buffer is handed
+     * to the channel as-is, so the image is never copied into a heap byte[].
+     *
+     * @param image   The {@link ImageProxy} containing the image.
+     * @param channel The {@link WritableByteChannel} to write the image to.
+     * @return the number of bytes written.
+     * @throws IOException if the channel could not be written to.
+     */
+    static long writeJpg(ImageProxy image, WritableByteChannel channel) throws IOException
+    {
+        // Work on a duplicate so the position and limit of the plane buffer are left untouched.
+        ByteBuffer buffer = image.getPlanes()[0].getBuffer().duplicate();
+        buffer.rewind();
+        long written = 0;
+        while (buffer.hasRemaining())
+        {
+            written += channel.write(buffer);
+        }
+        return written;
+    }
+
+    /**
+     * Write the jpg data of an {@link ImageProxy} to a channel with the metadata embedded as an EXIF
+     * segment, so the metadata does not need to be written by a second pass over the file.
+     *
+     * @param image    The {@link ImageProxy} containing the image.
+     * @param metadata The {@link Metadata} to embed, or null to write the image unchanged.
+     * @param channel  The {@link WritableByteChannel} to write the image to.
+     * @return the number of bytes written.
+     * @throws IOException if the channel could not be written to.
+     */
+    static long writeJpg(ImageProxy image, Metadata metadata, WritableByteChannel channel) throws IOException
+    {
+        if (metadata == null)
+        {
+            return writeJpg(image, channel);
+        }
+        return JpegExifSegmentWriter.write(image.getPlanes()[0].getBuffer(), metadata,
+                image.getImageInfo().getRotationDegrees(), channel);
+    }
+
+    /**
+     * Write {@link ImageProxy} to the appropriate storage and close it.
      * Currently, only supports {@link ImageFormat#JPEG}
      *
      * @param image the {@link ImageProxy} to write
      * @return the {@link Uri} for the written file.
      */
-    abstract Uri write(ImageProxy image) throws FormatNotSupportedException, WriteException;
+    Uri write(ImageProxy image) throws FormatNotSupportedException, WriteException
+    {
+        return write(image, null);
+    }
+
+    /**
+     * Write {@link ImageProxy} to the appropriate storage with the metadata embedded, then close it.
+     * The image is closed whether or not the write succeeded.
+     * Currently, only supports {@link ImageFormat#JPEG}
+     *
+     * @param image    the {@link ImageProxy} to write
+     * @param metadata the {@link Metadata} known at capture time, or null to write the image unchanged.
+     * @return the {@link Uri} for the written file.
+     * @since 0.3.0
+     */
+    abstract Uri write(ImageProxy image, Metadata metadata) throws FormatNotSupportedException, WriteException;
+
+    /**
+     * Write {@link ImageProxy} to the appropriate storage without blocking the calling thread.
+     * The caller remains responsible for closing the image once the returned future completes.
+     * Currently, only supports {@link ImageFormat#JPEG}
+     *
+     * @param image the {@link ImageProxy} to write
+     * @return a future completed with the {@link Uri} for the written file, or exceptionally with a
+     * {@link FormatNotSupportedException} or {@link WriteException}.
+     */
+    CompletableFuture<Uri> writeAsync(ImageProxy image)
+    {
+        return writeAsync(image, null);
+    }
+
+    /**
+     * Write {@link ImageProxy} to the appropriate storage with the metadata embedded, without
+     * blocking the calling thread. The caller remains responsible for closing the image once the
+     * returned future completes.
+     * Currently, only supports {@link ImageFormat#JPEG}
+     *
+     * @param image    the {@link ImageProxy} to write
+     * @param metadata the {@link Metadata} known at capture time, or null to write the image unchanged.
+     * @return a future completed with the {@link Uri} for the written file, or exceptionally with a
+     * {@link FormatNotSupportedException} or {@link WriteException}.
+     * @since 0.3.0
+     */
+    abstract CompletableFuture<Uri> writeAsync(ImageProxy image, Metadata metadata);
 
     /**
      * Indicates that the format of the image is not currently supported.  Currently, only
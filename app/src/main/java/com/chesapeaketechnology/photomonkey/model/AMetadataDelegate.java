@@ -1,5 +1,11 @@
 package com.chesapeaketechnology.photomonkey.model;
 
+import android.net.Uri;
+
+import com.chesapeaketechnology.photomonkey.PhotoMonkeyFeatures;
+
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Encapsulates functionality related to reading and writing the metadata related to an image.
  *
@@ -14,18 +20,29 @@ public abstract class AMetadataDelegate
     }
 
     /**
-     * Support for future alternative storage mechanisms (database, sidecar, etc).
+     * Get the delegate for a storage mechanism (EXIF, sidecar, etc). The delegate matches the
+     * configured media store ({@link PhotoMonkeyFeatures#USE_EXTERNAL_MEDIA_DIR}).
      *
      * @param strategy the persistence strategy to be used for the data
-     * @return
+     * @return the {@link AMetadataDelegate} for the strategy.
      */
     public static AMetadataDelegate getDelegate(PersistenceStrategy strategy)
     {
-        if (strategy == PersistenceStrategy.EXIF)
+        if (strategy == PersistenceStrategy.SIDECAR)
+        {
+            return new SidecarMetadataDelegate();
+        }
+        if (strategy == PersistenceStrategy.DATABASE)
+        {
+            return new DatabaseMetadataDelegate();
+        }
+        if (PhotoMonkeyFeatures.USE_EXTERNAL_MEDIA_DIR)
         {
             return new ExifMetadataDelegate();
+        } else
+        {
+            return new ExifMetadataMediaStoreDelegate();
         }
-        return defaultMetadataDelegate();
     }
 
     /**
@@ -47,11 +64,47 @@ public abstract class AMetadataDelegate
     abstract Metadata read(Image fromImage) throws ReadFailure;
 
     /**
-     * Currently, the only supported persistence strategy is EXIF.
+     * Read the data for the image into a Metadata object without blocking the calling thread.
+     *
+     * @param fromImage the {@link Image} for which we want to read the metadata
+     * @return A future completed with the {@link Metadata} for the image, or exceptionally with a
+     * {@link ReadFailure} if there is an error reading the metadata for the image.
+     */
+    abstract CompletableFuture<Metadata> readAsync(Image fromImage);
+
+    /**
+     * Notification that an image was written with its metadata already embedded, so the metadata
+     * did not have to be read back. Strategies that keep the metadata inside the image have nothing to do.
+     *
+     * @param metadata the {@link Metadata} embedded in the image
+     * @param image    the {@link Image} that was written
+     * @since 0.3.0
+     */
+    public void captured(Metadata metadata, Image image)
+    {
+    }
+
+    /**
+     * Remove any metadata stored apart from the image once the image has been deleted. Strategies
+     * that keep the metadata inside the image have nothing to do.
+     *
+     * @param forUri the {@link Uri} of the deleted image
+     * @since 0.3.0
+     */
+    public void remove(Uri forUri)
+    {
+    }
+
+    /**
+     * The supported persistence strategies. EXIF stores the metadata in the image itself,
+     * SIDECAR stores it in a companion file so the image is never rewritten, and DATABASE
+     * serves it from a local index backed by the EXIF in the image.
      */
     public enum PersistenceStrategy
     {
-        EXIF
+        EXIF,
+        SIDECAR,
+        DATABASE
     }
 
     /**
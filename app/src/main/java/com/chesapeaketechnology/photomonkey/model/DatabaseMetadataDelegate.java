@@ -0,0 +1,231 @@
+package com.chesapeaketechnology.photomonkey.model;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+
+import com.chesapeaketechnology.photomonkey.PhotoMonkeyFeatures;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyApplication.*;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
+
+import timber.log.Timber;
+
+/**
+ * Serves image metadata from the {@link MetadataIndex} and keeps the EXIF of the image as the
+ * source of truth. Reads are answered from the index and only fall through to the image on a miss;
+ * saves are written to the image and then to the index. The first delegate created in a process
+ * brings the index up to date with the gallery in the background, one image at a time, so a missing
+ * or stale index fills back in without blocking anything.
+ *
+ * @since 0.3.0
+ */
+public class DatabaseMetadataDelegate extends AMetadataDelegate
+{
+    private static final ExecutorService executorService = IoDispatcher.executor(IoDispatcher.Lane.METADATA);
+    private static final AtomicBoolean rebuildStarted = new AtomicBoolean(false);
+
+    private final ExifMetadataDelegate exifDelegate;
+    private final MetadataIndex index;
+
+    public DatabaseMetadataDelegate()
+    {
+        exifDelegate = PhotoMonkeyFeatures.USE_EXTERNAL_MEDIA_DIR ? new ExifMetadataDelegate() : new ExifMetadataMediaStoreDelegate();
+        index = MetadataIndex.getInstance(getContext());
+        if (rebuildStarted.compareAndSet(false, true))
+        {
+            IoDispatcher.runAsync(IoDispatcher.Lane.METADATA, this::rebuild).exceptionally(e -> {
+                // Let the next delegate try again.
+                rebuildStarted.set(false);
+                Timber.w(e, "Unable to start rebuilding the metadata index");
+                return null;
+            });
+        }
+    }
+
+    @Override
+    public void save(Metadata metadata, Image forImage) throws SaveFailure
+    {
+        try
+        {
+            Future<Void> result = executorService.submit(() -> {
+                exifDelegate.saveMetadata(metadata, forImage);
+                index.update(forImage.getUri(), metadata);
+                // Editing the EXIF changed the bytes of the image, refresh the size in the background.
+                indexAsync(forImage.getUri(), metadata);
+                Timber.d("Saved image with supplementary data [%s]", metadata);
+                return null;
+            });
+            result.get(SINGLE_FILE_IO_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | InterruptedException | TimeoutException | RejectedExecutionException e)
+        {
+            throw new SaveFailure("Error saving metadata.", e.getCause());
+        }
+    }
+
+    @Override
+    public Metadata read(Image fromImage) throws ReadFailure
+    {
+        try
+        {
+            // The index lookup is a SQLite query too, so it runs on the lane like the read through.
+            Future<Metadata> result = executorService.submit(() -> {
+                Metadata metadata = index.find(fromImage.getUri());
+                return metadata != null ? metadata : readThrough(fromImage);
+            });
+            return result.get(SINGLE_FILE_IO_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | InterruptedException | TimeoutException | RejectedExecutionException e)
+        {
+            throw new ReadFailure("Error reading metadata.", e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Metadata> readAsync(Image fromImage)
+    {
+        return IoDispatcher.supplyAsync(IoDispatcher.Lane.METADATA, () -> {
+            Metadata metadata = index.find(fromImage.getUri());
+            if (metadata != null)
+            {
+                return metadata;
+            }
+            try
+            {
+                return readThrough(fromImage);
+            } catch (IOException e)
+            {
+                throw new CompletionException(new ReadFailure("Error reading metadata.", e));
+            }
+        });
+    }
+
+    @Override
+    public void captured(Metadata metadata, Image image)
+    {
+        indexAsync(image.getUri(), metadata);
+    }
+
+    @Override
+    public void remove(Uri forUri)
+    {
+        IoDispatcher.runAsync(IoDispatcher.Lane.METADATA, () -> index.remove(forUri)).exceptionally(e -> {
+            Timber.w(e, "Unable to remove image %s from the index", forUri);
+            return null;
+        });
+    }
+
+    private void indexAsync(Uri imageUri, Metadata metadata)
+    {
+        IoDispatcher.runAsync(IoDispatcher.Lane.METADATA, () -> {
+            try
+            {
+                indexImage(imageUri, metadata);
+            } catch (IOException e)
+            {
+                Timber.w(e, "Unable to index image %s", imageUri);
+            }
+        }).exceptionally(e -> {
+            Timber.w(e, "Unable to index image %s", imageUri);
+            return null;
+        });
+    }
+
+    /**
+     * Read the metadata from the image on the calling thread and add it to the index.
+     */
+    private Metadata readThrough(Image fromImage) throws IOException
+    {
+        Metadata metadata = exifDelegate.readMetadata(fromImage);
+        indexImage(fromImage.getUri(), metadata);
+        return metadata;
+    }
+
+    /**
+     * Add an image to the index, along with its size and capture time. The size comes from the open
+     * descriptor, so the image itself is not read.
+     */
+    private void indexImage(Uri imageUri, Metadata metadata) throws IOException
+    {
+        ContentResolver resolver = getContext().getContentResolver();
+        final long size;
+        try (ParcelFileDescriptor descriptor = Objects.requireNonNull(resolver.openFileDescriptor(imageUri, "r")))
+        {
+            size = descriptor.getStatSize();
+        }
+        index.put(imageUri, metadata, capturedAt(imageUri), size);
+    }
+
+    /**
+     * Get the time an image was captured from storage.
+     */
+    private static long capturedAt(Uri imageUri)
+    {
+        if ("content".equals(imageUri.getScheme()))
+        {
+            try (Cursor cursor = getContext().getContentResolver().query(imageUri,
+                    new String[]{MediaStore.Images.ImageColumns.DATE_TAKEN}, null, null, null))
+            {
+                if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0))
+                {
+                    return cursor.getLong(0);
+                }
+            }
+            return System.currentTimeMillis();
+        }
+        return new File(Objects.requireNonNull(imageUri.getPath())).lastModified();
+    }
+
+    /**
+     * Bring the index up to date with the gallery: drop entries for images that no longer exist
+     * and index images that are missing, one at a time so lookups benefit as soon as an entry lands.
+     */
+    private void rebuild()
+    {
+        try
+        {
+            List<Uri> media = new GalleryManager().getMedia();
+            Set<String> stale = index.indexedUris();
+            int added = 0;
+            for (Uri uri : media)
+            {
+                if (!stale.remove(uri.toString()))
+                {
+                    try
+                    {
+                        indexImage(uri, exifDelegate.readMetadata(new Image(uri, exifDelegate)));
+                        added++;
+                    } catch (IOException e)
+                    {
+                        Timber.w(e, "Unable to index %s", uri);
+                    }
+                }
+            }
+            for (String uri : stale)
+            {
+                index.remove(Uri.parse(uri));
+            }
+            Timber.i("Metadata index up to date: %d added, %d removed", added, stale.size());
+        } catch (GalleryManager.GalleryAccessFailure e)
+        {
+            Timber.e(e, "Unable to rebuild the metadata index");
+            rebuildStarted.set(false);
+        }
+    }
+}
@@ -6,11 +6,14 @@ import android.location.Location;
 import androidx.exifinterface.media.ExifInterface;
 
 import java.io.IOException;
-import java.util.concurrent.Callable;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -26,23 +29,20 @@ import timber.log.Timber;
  */
 public class ExifMetadataDelegate extends AMetadataDelegate
 {
-    private static final ExecutorService executorService = Executors.newCachedThreadPool();
+    private static final ExecutorService executorService = IoDispatcher.executor(IoDispatcher.Lane.METADATA);
 
     @Override
     public void save(Metadata metadata, Image forImage) throws SaveFailure
     {
         try
         {
-            Callable<Void> backgroundTask = () -> {
-                ExifInterface exif = new ExifInterface(forImage.getFile().getAbsolutePath());
-                writeData(metadata, exif);
+            Future<Void> result = executorService.submit(() -> {
+                saveMetadata(metadata, forImage);
                 Timber.d("Saved image with supplementary data [%s]", metadata);
                 return null;
-            };
-
-            Future<Void> result = executorService.submit(backgroundTask);
+            });
             result.get(SINGLE_FILE_IO_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-        } catch (ExecutionException | InterruptedException | TimeoutException e)
+        } catch (ExecutionException | InterruptedException | TimeoutException | RejectedExecutionException e)
         {
             throw new SaveFailure("Error saving EXIF data.", e.getCause());
         }
@@ -53,19 +53,63 @@ public class ExifMetadataDelegate extends AMetadataDelegate
     {
         try
         {
-            Callable<Metadata> backgroundTask = () -> {
-                ExifInterface exif = new ExifInterface(fromImage.getFile().getAbsolutePath());
-                return readData(exif);
-            };
-
-            Future<Metadata> result = executorService.submit(backgroundTask);
+            Future<Metadata> result = executorService.submit(() -> readMetadata(fromImage));
             return result.get(SINGLE_FILE_IO_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-        } catch (ExecutionException | InterruptedException | TimeoutException e)
+        } catch (ExecutionException | InterruptedException | TimeoutException | RejectedExecutionException e)
         {
             throw new ReadFailure("Error accessing EXIF data.", e.getCause());
         }
     }
 
+    @Override
+    public CompletableFuture<Metadata> readAsync(Image fromImage)
+    {
+        return IoDispatcher.supplyAsync(IoDispatcher.Lane.METADATA, () -> {
+            try
+            {
+                return readMetadata(fromImage);
+            } catch (IOException e)
+            {
+                throw new CompletionException(new ReadFailure("Error accessing EXIF data.", e));
+            }
+        });
+    }
+
+    /**
+     * Write the metadata into the EXIF of the image on the calling thread. Images written with
+     * their metadata embedded are patched in place; anything else falls back to rewriting the file.
+     *
+     * @param metadata the {@link Metadata} to save for the image
+     * @param forImage the {@link Image} for which the metadata should be saved
+     * @throws IOException if the image could not be updated.
+     */
+    protected void saveMetadata(Metadata metadata, Image forImage) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(forImage.getFile().toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            if (JpegExifSegmentWriter.patch(channel, metadata))
+            {
+                Timber.d("Patched EXIF data in place for %s", forImage.getUri());
+                return;
+            }
+        }
+        ExifInterface exif = new ExifInterface(forImage.getFile().getAbsolutePath());
+        writeData(metadata, exif);
+    }
+
+    /**
+     * Read the metadata from the EXIF of the image on the calling thread.
+     *
+     * @param fromImage the {@link Image} for which we want to read the metadata
+     * @return A {@link Metadata} object populated based of the provided image.
+     * @throws IOException if the image could not be read.
+     */
+    protected Metadata readMetadata(Image fromImage) throws IOException
+    {
+        ExifInterface exif = new ExifInterface(fromImage.getFile().getAbsolutePath());
+        return readData(exif);
+    }
+
     protected Metadata readData(ExifInterface exif)
     {
         boolean reversed = exif.isFlipped();
@@ -92,7 +136,8 @@ public class ExifMetadataDelegate extends AMetadataDelegate
 
     protected void writeData(Metadata metadata, ExifInterface exif) throws IOException
     {
-        if (metadata.isReversed())
+        // Set the flip state rather than toggling it, the image may already carry it from capture.
+        if (metadata.isReversed() != exif.isFlipped())
         {
             exif.flipHorizontally();
         }
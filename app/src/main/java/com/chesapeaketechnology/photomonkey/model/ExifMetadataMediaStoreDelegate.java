@@ -3,27 +3,26 @@ package com.chesapeaketechnology.photomonkey.model;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 
 import androidx.exifinterface.media.ExifInterface;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.Objects;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 import static com.chesapeaketechnology.photomonkey.PhotoMonkeyApplication.*;
-import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
 
 import timber.log.Timber;
 
@@ -36,71 +35,65 @@ import timber.log.Timber;
  */
 public class ExifMetadataMediaStoreDelegate extends ExifMetadataDelegate
 {
-    private static final ExecutorService executorService = Executors.newCachedThreadPool();
-
+    /**
+     * Edit the EXIF of a MediaStore image through a seekable file descriptor. Images written with the
+     * EXIF segment reserved by {@link JpegExifSegmentWriter} are patched in place, touching only the
+     * fields that changed, and no copy of the image is made.
+     * <p>
+     * Anything else falls back to {@link ExifInterface#saveAttributes()} on the same descriptor: images
+     * captured before the segment was reserved, images that came from another app, and images whose
+     * segment has no GPS fields to hold a newly added location. That fallback does copy the image.
+     * ExifInterface copies the whole file to a temporary file, then writes the image back through the
+     * descriptor with the new EXIF, so it costs a full read and write of the image and its size in
+     * temporary space.
+     */
     @Override
-    public void save(Metadata metadata, Image forImage) throws SaveFailure
+    protected void saveMetadata(Metadata metadata, Image forImage) throws IOException
     {
-        try
+        Uri uri = forImage.getUri();
+        if ("content".equals(uri.getScheme()))
         {
-            Callable<Void> backgroundTask = () -> {
-                Uri uri = forImage.getUri();
-                ExifInterface exif;
-                if ("content".equals(uri.getScheme()))
+            ContentResolver resolver = getContext().getContentResolver();
+            try (ParcelFileDescriptor pfd = Objects.requireNonNull(resolver.openFileDescriptor(uri, "rw")))
+            {
+                FileDescriptor fd = pfd.getFileDescriptor();
+                // Closing these streams would close the descriptor, which is left to the ParcelFileDescriptor.
+                FileChannel reader = new FileInputStream(fd).getChannel();
+                FileChannel writer = new FileOutputStream(fd).getChannel();
+                if (JpegExifSegmentWriter.patch(reader, writer, metadata))
                 {
-                    File tempFile = forImage.getAccessibleFile(getContext());
-                    exif = new ExifInterface(tempFile.getAbsolutePath());
-                    writeData(metadata, exif);
-                    ContentResolver resolver = getContext().getContentResolver();
-                    try (OutputStream out = resolver.openOutputStream(uri, "rw"))
-                    {
-                        Files.copy(tempFile.toPath(), Objects.requireNonNull(out));
-                    }
-                    //noinspection ResultOfMethodCallIgnored
-                    tempFile.delete();
-                } else
-                {
-                    super.save(metadata, forImage);
+                    Timber.d("Patched EXIF data in place for %s", uri);
+                    return;
                 }
-                Timber.d("Saved image with supplementary data [%s]", metadata);
-                return null;
-            };
-
-            Future<Void> result = executorService.submit(backgroundTask);
-            result.get(SINGLE_FILE_IO_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-        } catch (ExecutionException | InterruptedException | TimeoutException e)
+                // Not one of ours; ExifInterface rewrites the whole image by way of a temporary copy.
+                Os.lseek(fd, 0, OsConstants.SEEK_SET);
+                ExifInterface exif = new ExifInterface(fd);
+                writeData(metadata, exif);
+            } catch (ErrnoException e)
+            {
+                throw new IOException(String.format("Unable to seek '%s'", uri), e);
+            }
+        } else
         {
-            throw new SaveFailure("Error saving EXIF data.", e.getCause());
+            super.saveMetadata(metadata, forImage);
         }
     }
 
     @Override
-    public Metadata read(Image fromImage) throws ReadFailure
+    protected Metadata readMetadata(Image fromImage) throws IOException
     {
-        try
+        Uri uri = fromImage.getUri();
+        if ("content".equals(uri.getScheme()))
         {
-            Callable<Metadata> backgroundTask = () -> {
-                Uri uri = fromImage.getUri();
-                ExifInterface exif;
-                if ("content".equals(uri.getScheme()))
-                {
-                    ContentResolver resolver = getContext().getContentResolver();
-                    try (InputStream in = resolver.openInputStream(uri))
-                    {
-                        exif = new ExifInterface(Objects.requireNonNull(in));
-                        return readData(exif);
-                    }
-                } else
-                {
-                    return super.read(fromImage);
-                }
-            };
-
-            Future<Metadata> result = executorService.submit(backgroundTask);
-            return result.get(SINGLE_FILE_IO_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-        } catch (ExecutionException | InterruptedException | TimeoutException e)
+            ContentResolver resolver = getContext().getContentResolver();
+            try (InputStream in = resolver.openInputStream(uri))
+            {
+                ExifInterface exif = new ExifInterface(Objects.requireNonNull(in));
+                return readData(exif);
+            }
+        } else
         {
-            throw new ReadFailure("Error accessing EXIF data.", e.getCause());
+            return super.readMetadata(fromImage);
         }
     }
 
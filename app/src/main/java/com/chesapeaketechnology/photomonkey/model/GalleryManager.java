@@ -1,6 +1,5 @@
 package com.chesapeaketechnology.photomonkey.model;
 
-import android.annotation.SuppressLint;
 import android.app.AlertDialog;
 import android.content.ContentResolver;
 import android.content.ContentUris;
@@ -8,6 +7,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.media.MediaScannerConnection;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.Environment;
 import android.provider.MediaStore;
 import android.view.Window;
@@ -28,13 +28,16 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
@@ -47,7 +50,8 @@ import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
  */
 public class GalleryManager
 {
-    private static final ExecutorService executorService = Executors.newCachedThreadPool();
+    private static final ExecutorService executorService = IoDispatcher.executor(IoDispatcher.Lane.GALLERY);
+    private static volatile GallerySummary cachedSummary;
 
     public static String getMediaStoreRelativePath()
     {
@@ -66,8 +70,7 @@ public class GalleryManager
      */
     public boolean isEmpty() throws GalleryAccessFailure
     {
-        List<Uri> mediaList = getMedia();
-        return (mediaList == null || mediaList.isEmpty());
+        return await(count()) == 0;
     }
 
     /**
@@ -78,20 +81,134 @@ public class GalleryManager
      */
     public Uri getLatest() throws GalleryAccessFailure
     {
-        try
+        return await(latest());
+    }
+
+    /**
+     * Get the {@link Uri} for the latest image in the gallery without blocking. The answer is
+     * cached until an image is captured or deleted, so this is normally served from memory.
+     *
+     * @return a future completed with the {@link Uri} of the latest image, or null if the gallery is empty.
+     * @since 0.3.0
+     */
+    public CompletableFuture<Uri> latest()
+    {
+        GallerySummary summary = cachedSummary;
+        if (summary != null && summary.latestKnown)
         {
-            Callable<List<Uri>> backgroundTask = this::getMediaUris;
-            Future<List<Uri>> result = executorService.submit(backgroundTask);
-            List<Uri> mediaList = result.get(MULTI_FILE_IO_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-            if (mediaList != null && !mediaList.isEmpty())
+            return CompletableFuture.completedFuture(summary.latest);
+        }
+        return IoDispatcher.supplyAsync(IoDispatcher.Lane.GALLERY, () -> {
+            List<Uri> newest = getMediaUris(0, 1);
+            Uri latest = newest.isEmpty() ? null : newest.get(0);
+            updateSummary(summary, current -> current.withLatest(latest));
+            return latest;
+        });
+    }
+
+    /**
+     * Get the number of images in the gallery without blocking. The answer is cached until an
+     * image is captured or deleted, so this is normally served from memory.
+     *
+     * @return a future completed with the number of images in the gallery.
+     * @since 0.3.0
+     */
+    public CompletableFuture<Integer> count()
+    {
+        GallerySummary summary = cachedSummary;
+        if (summary != null && summary.count >= 0)
+        {
+            return CompletableFuture.completedFuture(summary.count);
+        }
+        return IoDispatcher.supplyAsync(IoDispatcher.Lane.GALLERY, () -> {
+            int count = countMedia();
+            updateSummary(summary, current -> current.withCount(count));
+            return count;
+        });
+    }
+
+    /**
+     * Record that an image was added to the gallery, so the cached latest image and count stay current.
+     *
+     * @param imageUri the {@link Uri} of the new image.
+     * @since 0.3.0
+     */
+    public static void imageAdded(Uri imageUri)
+    {
+        synchronized (GalleryManager.class)
+        {
+            GallerySummary current = cachedSummary == null ? GallerySummary.UNKNOWN : cachedSummary;
+            cachedSummary = new GallerySummary(true, imageUri, current.count >= 0 ? current.count + 1 : -1);
+        }
+    }
+
+    /**
+     * Record that an image was removed from the gallery, so the cached latest image and count stay current.
+     *
+     * @param imageUri the {@link Uri} of the removed image.
+     * @since 0.3.0
+     */
+    public static void imageRemoved(Uri imageUri)
+    {
+        synchronized (GalleryManager.class)
+        {
+            GallerySummary current = cachedSummary == null ? GallerySummary.UNKNOWN : cachedSummary;
+            boolean latestKnown = current.latestKnown && !imageUri.equals(current.latest);
+            cachedSummary = new GallerySummary(latestKnown, latestKnown ? current.latest : null,
+                    current.count > 0 ? current.count - 1 : -1);
+        }
+    }
+
+    /**
+     * Store a freshly queried value, unless the gallery changed while the query was running.
+     */
+    private static void updateSummary(GallerySummary queriedAgainst, UnaryOperator<GallerySummary> update)
+    {
+        synchronized (GalleryManager.class)
+        {
+            if (cachedSummary == queriedAgainst)
             {
-                return mediaList.get(0);
+                cachedSummary = update.apply(queriedAgainst == null ? GallerySummary.UNKNOWN : queriedAgainst);
             }
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws GalleryAccessFailure
+    {
+        try
+        {
+            return future.get(MULTI_FILE_IO_TIMEOUT_SECONDS, TimeUnit.SECONDS);
         } catch (ExecutionException | InterruptedException | TimeoutException e)
         {
-            throw new GalleryAccessFailure("Unable to get latest image from gallery", e);
+            throw new GalleryAccessFailure("Unable to access the gallery", e);
+        }
+    }
+
+    /**
+     * Count the images in the gallery. For the MediaStore, only the id column is projected.
+     *
+     * @return the number of images.
+     */
+    private int countMedia()
+    {
+        if (PhotoMonkeyFeatures.USE_EXTERNAL_MEDIA_DIR)
+        {
+            File[] files = new FileNameGenerator().getRootDirectory().listFiles((dir, name) -> {
+                //noinspection UnstableApiUsage
+                String extension = Files.getFileExtension(name);
+                return EXTENSION_WHITELIST.contains(extension.toUpperCase(Locale.ROOT));
+            });
+            return files == null ? 0 : files.length;
+        } else
+        {
+            ContentResolver resolver = PhotoMonkeyApplication.getContext().getContentResolver();
+            try (Cursor cursor = resolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                    new String[]{MediaStore.Images.ImageColumns._ID},
+                    MediaStore.Images.ImageColumns.OWNER_PACKAGE_NAME + " = ?", new String[]{BuildConfig.APPLICATION_ID}, null))
+            {
+                return cursor == null ? 0 : cursor.getCount();
+            }
         }
-        return null;
     }
 
     /**
@@ -108,12 +225,35 @@ public class GalleryManager
             Callable<List<Uri>> backgroundTask = this::getMediaUris;
             Future<List<Uri>> result = executorService.submit(backgroundTask);
             return result.get(MULTI_FILE_IO_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-        } catch (ExecutionException | InterruptedException | TimeoutException e)
+        } catch (ExecutionException | InterruptedException | TimeoutException | RejectedExecutionException e)
         {
             throw new GalleryAccessFailure("Unable to get latest image from gallery", e);
         }
     }
 
+    /**
+     * Asynchronously get one page of the images in the gallery in descending chronological order.
+     * Only the requested page is read from storage.
+     *
+     * @param offset the number of images to skip.
+     * @param limit  the maximum number of images to return.
+     * @return a future completed with the {@link Uri}s on the page, which is shorter than the limit
+     * (possibly empty) once the end of the gallery is reached, or exceptionally with a {@link GalleryAccessFailure}.
+     * @since 0.3.0
+     */
+    public CompletableFuture<List<Uri>> getPageAsync(int offset, int limit)
+    {
+        return IoDispatcher.supplyAsync(IoDispatcher.Lane.GALLERY, () -> {
+            try
+            {
+                return getMediaUris(offset, limit);
+            } catch (RuntimeException e)
+            {
+                throw new CompletionException(new GalleryAccessFailure("Unable to get images from gallery", e));
+            }
+        });
+    }
+
     /**
      * Logic for accessing the media and pivoting between external
      * media dir and MediaStore configurations.
@@ -121,6 +261,19 @@ public class GalleryManager
      * @return a list of image Uris.
      */
     private List<Uri> getMediaUris()
+    {
+        return getMediaUris(0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get a page of images, newest first. For the MediaStore, only the id column is projected and
+     * the paging is done by the query itself.
+     *
+     * @param offset the number of images to skip.
+     * @param limit  the maximum number of images to return.
+     * @return a list of image Uris.
+     */
+    private List<Uri> getMediaUris(int offset, int limit)
     {
         if (PhotoMonkeyFeatures.USE_EXTERNAL_MEDIA_DIR)
         {
@@ -134,39 +287,44 @@ public class GalleryManager
                     })
                     )
             );
-            // Reverse the order of the list to present the last photos first
-            return files.stream().sorted(Comparator.reverseOrder()).map(Uri::fromFile).collect(Collectors.toList());
+            // File names are timestamped, so reversing the order presents the last photos first
+            return files.stream()
+                    .sorted(Comparator.reverseOrder())
+                    .skip(offset)
+                    .limit(limit)
+                    .map(Uri::fromFile)
+                    .collect(Collectors.toList());
         } else
         {
-            List<Uri> uris = new ArrayList<>();
-            ContentResolver resolver = PhotoMonkeyApplication.getContext().getContentResolver();
-            final String sortOrder;
-            final String selectionClause;
-            final String[] selectionArgs;
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q)
-            {
-                // Sort the images from most recent to least recent
-                sortOrder = MediaStore.Images.ImageColumns.DATE_TAKEN + " DESC";
-
-                // Filter the images to those take with this application.
-                selectionClause = MediaStore.Images.ImageColumns.OWNER_PACKAGE_NAME + " = ?";
-                selectionArgs = new String[]{BuildConfig.APPLICATION_ID};
-            } else
+            if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.Q)
             {
                 throw new RuntimeException("Unsupported Android version.  Must be Q or greater to use MediaStore storage.  Consider configuring for External Media Storage.");
             }
-            try (Cursor cursor = resolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, null, selectionClause, selectionArgs, sortOrder))
+            Bundle queryArgs = new Bundle();
+            // Filter the images to those take with this application.
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, MediaStore.Images.ImageColumns.OWNER_PACKAGE_NAME + " = ?");
+            queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, new String[]{BuildConfig.APPLICATION_ID});
+            // Sort the images from most recent to least recent, with the id keeping the order stable between pages
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER,
+                    MediaStore.Images.ImageColumns.DATE_TAKEN + " DESC, " + MediaStore.Images.ImageColumns._ID + " DESC");
+            queryArgs.putInt(ContentResolver.QUERY_ARG_OFFSET, offset);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
+
+            List<Uri> uris = new ArrayList<>();
+            ContentResolver resolver = PhotoMonkeyApplication.getContext().getContentResolver();
+            try (Cursor cursor = resolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                    new String[]{MediaStore.Images.ImageColumns._ID}, queryArgs, null))
             {
-                cursor.moveToFirst();
-                while (!cursor.isAfterLast())
+                if (cursor != null)
                 {
-                    @SuppressLint("Range")
-                    Uri contentUri = ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, cursor.getInt(cursor.getColumnIndex(MediaStore.Images.ImageColumns._ID)));
-                    uris.add(contentUri);
-                    cursor.moveToNext();
+                    int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.ImageColumns._ID);
+                    while (cursor.moveToNext())
+                    {
+                        uris.add(ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, cursor.getLong(idColumn)));
+                    }
                 }
             }
-            return uris.stream().sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            return uris;
         }
     }
 
@@ -253,9 +411,40 @@ public class GalleryManager
                 throw new GalleryDeleteFailure("No rows were deleted.");
             }
         }
+        imageRemoved(mediaUri);
+        AMetadataDelegate.getDelegate(PhotoMonkeyFeatures.METADATA_PERSISTENCE_STRATEGY).remove(mediaUri);
         return true;
     }
 
+    /**
+     * The cached latest image and count. A count of -1 means it is not known.
+     */
+    private static final class GallerySummary
+    {
+        static final GallerySummary UNKNOWN = new GallerySummary(false, null, -1);
+
+        final boolean latestKnown;
+        final Uri latest;
+        final int count;
+
+        GallerySummary(boolean latestKnown, Uri latest, int count)
+        {
+            this.latestKnown = latestKnown;
+            this.latest = latest;
+            this.count = count;
+        }
+
+        GallerySummary withLatest(Uri latest)
+        {
+            return new GallerySummary(true, latest, count);
+        }
+
+        GallerySummary withCount(int count)
+        {
+            return new GallerySummary(latestKnown, latest, count);
+        }
+    }
+
     /**
      * Indicates there was an issue accessing images in the gallery.
      */
@@ -14,6 +14,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.StandardCopyOption;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 import timber.log.Timber;
 
@@ -38,7 +39,7 @@ public class Image
         publicationDelegate = new PublicationDelegate();
     }
 
-    private Image(Uri uri, AMetadataDelegate metadataDelegate)
+    Image(Uri uri, AMetadataDelegate metadataDelegate)
     {
         this.uri = uri;
         this.metadataDelegate = metadataDelegate;
@@ -61,18 +62,42 @@ public class Image
             throws AImageWriter.FormatNotSupportedException, AImageWriter.WriteException,
             AMetadataDelegate.ReadFailure
     {
-        AImageWriter writer;
-        AMetadataDelegate mdd;
-        if (PhotoMonkeyFeatures.USE_EXTERNAL_MEDIA_DIR)
-        {
-            writer = new ImageFileWriter(new FileNameGenerator());
-            mdd = AMetadataDelegate.defaultMetadataDelegate();
-        } else
-        {
-            writer = new ImageMediaStoreWriter(new FileNameGenerator());
-            mdd = new ExifMetadataMediaStoreDelegate();
-        }
-        return create(image, writer, mdd);
+        return create(image, storageImageWriter(), storageMetadataDelegate());
+    }
+
+    /**
+     * Asynchronously create an {@link Image} object from an {@link ImageProxy}. Uses the
+     * default {@link AImageWriter} and {@link AMetadataDelegate} for the configured
+     * media store ({@link PhotoMonkeyFeatures#USE_EXTERNAL_MEDIA_DIR}) to persist the
+     * image and read back the associated {@link Metadata}.
+     * <p>
+     * No thread is parked waiting on the write or the metadata read, so this is safe to call
+     * from the camera callback. The {@link ImageProxy} is closed as soon as it has been written.
+     *
+     * @param image The ImageProxy object
+     * @return a future completed with the Image object created, or exceptionally with a
+     * {@link AImageWriter.FormatNotSupportedException}, {@link AImageWriter.WriteException}
+     * or {@link AMetadataDelegate.ReadFailure}.
+     */
+    public static CompletableFuture<Image> createAsync(ImageProxy image)
+    {
+        return createAsync(image, storageImageWriter(), storageMetadataDelegate());
+    }
+
+    /**
+     * Asynchronously create an {@link Image} object from an {@link ImageProxy} and the {@link Metadata}
+     * known at capture time. The metadata is embedded while the image is written, so the image is
+     * written once and never read back.
+     *
+     * @param image    The ImageProxy object
+     * @param metadata the metadata to embed in the image
+     * @return a future completed with the Image object created, or exceptionally with a
+     * {@link AImageWriter.FormatNotSupportedException} or {@link AImageWriter.WriteException}.
+     * @since 0.3.0
+     */
+    public static CompletableFuture<Image> createAsync(ImageProxy image, Metadata metadata)
+    {
+        return createAsync(image, metadata, storageImageWriter(), storageMetadataDelegate());
     }
 
     /**
@@ -87,14 +112,7 @@ public class Image
      */
     public static Image create(Uri imageUri) throws AMetadataDelegate.ReadFailure
     {
-        AMetadataDelegate mdd;
-        if (PhotoMonkeyFeatures.USE_EXTERNAL_MEDIA_DIR)
-        {
-            mdd = AMetadataDelegate.defaultMetadataDelegate();
-        } else
-        {
-            mdd = new ExifMetadataMediaStoreDelegate();
-        }
+        AMetadataDelegate mdd = storageMetadataDelegate();
         Image img = new Image(imageUri, mdd);
         Metadata metadata = mdd.read(img);
         img.setMetadata(metadata);
@@ -104,7 +122,8 @@ public class Image
     /**
      * Create an {@link Image} object from an {@link ImageProxy}. Uses the
      * provided {@link AImageWriter} and {@link AMetadataDelegate} to persist the
-     * image and save the associated {@link Metadata}.
+     * image and save the associated {@link Metadata}. The {@link ImageProxy} is closed once it
+     * has been written, whether or not the write succeeded.
      *
      * @param image            the actual image
      * @param imageWriter      the ImageWriter to be used for persisting the image
@@ -119,12 +138,91 @@ public class Image
             AMetadataDelegate.ReadFailure
     {
         Uri uri = imageWriter.write(image);
+        GalleryManager.imageAdded(uri);
         Image img = new Image(uri, metadataDelegate);
         Metadata metadata = metadataDelegate.read(img);
         img.setMetadata(metadata);
         return img;
     }
 
+    /**
+     * Asynchronously create an {@link Image} object from an {@link ImageProxy}. Uses the
+     * provided {@link AImageWriter} and {@link AMetadataDelegate} to chain the write and
+     * metadata stages without blocking. The {@link ImageProxy} is closed once the write stage
+     * completes, whether or not it succeeded.
+     *
+     * @param image            the actual image
+     * @param imageWriter      the ImageWriter to be used for persisting the image
+     * @param metadataDelegate the delegate used to read or modify the image's metatdata
+     * @return a future completed with the Image object created.
+     */
+    public static CompletableFuture<Image> createAsync(ImageProxy image, AImageWriter imageWriter, AMetadataDelegate metadataDelegate)
+    {
+        return createAsync(image, null, imageWriter, metadataDelegate);
+    }
+
+    /**
+     * Asynchronously create an {@link Image} object from an {@link ImageProxy}. Uses the
+     * provided {@link AImageWriter} and {@link AMetadataDelegate} to chain the write and
+     * metadata stages without blocking. When the metadata is known it is embedded during the
+     * write and the metadata read is skipped. The {@link ImageProxy} is closed once the write stage
+     * completes, whether or not it succeeded.
+     *
+     * @param image            the actual image
+     * @param metadata         the metadata to embed in the image, or null to read it back from the written image
+     * @param imageWriter      the ImageWriter to be used for persisting the image
+     * @param metadataDelegate the delegate used to read or modify the image's metatdata
+     * @return a future completed with the Image object created.
+     * @since 0.3.0
+     */
+    public static CompletableFuture<Image> createAsync(ImageProxy image, Metadata metadata,
+                                                       AImageWriter imageWriter, AMetadataDelegate metadataDelegate)
+    {
+        return imageWriter.writeAsync(image, metadata)
+                .whenComplete((uri, throwable) -> image.close())
+                .thenCompose(uri -> {
+                    GalleryManager.imageAdded(uri);
+                    Image img = new Image(uri, metadataDelegate);
+                    if (metadata != null)
+                    {
+                        img.setMetadata(metadata);
+                        metadataDelegate.captured(metadata, img);
+                        return CompletableFuture.completedFuture(img);
+                    }
+                    return metadataDelegate.readAsync(img).thenApply(read -> {
+                        img.setMetadata(read);
+                        return img;
+                    });
+                });
+    }
+
+    /**
+     * The {@link AImageWriter} for the configured media store ({@link PhotoMonkeyFeatures#USE_EXTERNAL_MEDIA_DIR}).
+     *
+     * @return an {@link AImageWriter}
+     */
+    private static AImageWriter storageImageWriter()
+    {
+        if (PhotoMonkeyFeatures.USE_EXTERNAL_MEDIA_DIR)
+        {
+            return new ImageFileWriter(new FileNameGenerator());
+        } else
+        {
+            return new ImageMediaStoreWriter(new FileNameGenerator());
+        }
+    }
+
+    /**
+     * The {@link AMetadataDelegate} for the configured media store ({@link PhotoMonkeyFeatures#USE_EXTERNAL_MEDIA_DIR})
+     * and persistence strategy ({@link PhotoMonkeyFeatures#METADATA_PERSISTENCE_STRATEGY}).
+     *
+     * @return an {@link AMetadataDelegate}
+     */
+    private static AMetadataDelegate storageMetadataDelegate()
+    {
+        return AMetadataDelegate.getDelegate(PhotoMonkeyFeatures.METADATA_PERSISTENCE_STRATEGY);
+    }
+
     public Metadata getMetadata()
     {
         return metadata;
@@ -6,21 +6,20 @@ import android.net.Uri;
 import androidx.camera.core.ImageProxy;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.concurrent.Callable;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
 
-import timber.log.Timber;
-
 /**
  * Write an {@link ImageProxy} to the external media directory.  This is a file system
  * write operation that bypasses media APIs.
@@ -29,7 +28,7 @@ import timber.log.Timber;
  */
 public class ImageFileWriter extends AImageWriter
 {
-    private static final ExecutorService executorService = Executors.newCachedThreadPool();
+    private static final ExecutorService executorService = IoDispatcher.executor(IoDispatcher.Lane.CAPTURE);
 
     private final FileNameGenerator fileNameGenerator;
 
@@ -40,48 +39,89 @@ public class ImageFileWriter extends AImageWriter
 
     /**
      * Asynchronously, write {@link ImageProxy} to the specified file.
-     * Currently, only supports {@link ImageFormat#JPEG}
+     * Currently, only supports {@link ImageFormat#JPEG}. The image is closed once it has been
+     * written, whether or not the write succeeded.
      *
-     * @param image the {@link ImageProxy} to write
+     * @param image    the {@link ImageProxy} to write
+     * @param metadata the {@link Metadata} to embed, or null to write the image unchanged.
      * @return The URI of the file that was written to.
      */
     @Override
-    public Uri write(ImageProxy image) throws FormatNotSupportedException, WriteException
+    public Uri write(ImageProxy image, Metadata metadata) throws FormatNotSupportedException, WriteException
     {
         if (image.getFormat() == ImageFormat.JPEG)
         {
-            File toFile = fileNameGenerator.generate();
+            Future<Uri> result;
             try
             {
-                Callable<Void> writeTask = () -> {
-                    ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-                    // Rewind to make sure it is at the beginning of the buffer
-                    buffer.rewind();
-                    byte[] data = new byte[buffer.capacity()];
-                    buffer.get(data);
-                    try (FileOutputStream output = new FileOutputStream(toFile))
-                    {
-                        output.write(data);
-                    } catch (IOException e)
+                result = executorService.submit(() -> {
+                    try
                     {
-                        Timber.e(e, "Error writing image data to file");
+                        return persist(image, metadata);
                     } finally
                     {
                         image.close();
                     }
-                    return null;
-                };
-
-                Future<Void> result = executorService.submit(writeTask);
-                result.get(SINGLE_FILE_IO_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-                return Uri.fromFile(toFile);
+                });
+            } catch (RejectedExecutionException e)
+            {
+                image.close();
+                throw new WriteException("Unable to save image", e);
+            }
+            try
+            {
+                return result.get(SINGLE_FILE_IO_TIMEOUT_SECONDS, TimeUnit.SECONDS);
             } catch (ExecutionException | InterruptedException | TimeoutException e)
             {
                 throw new WriteException("Unable to save image", e.getCause());
             }
         } else
         {
+            image.close();
             throw new FormatNotSupportedException(String.format("Format [%d] is not supported.", image.getFormat()));
         }
     }
+
+    @Override
+    public CompletableFuture<Uri> writeAsync(ImageProxy image, Metadata metadata)
+    {
+        if (image.getFormat() != ImageFormat.JPEG)
+        {
+            CompletableFuture<Uri> unsupported = new CompletableFuture<>();
+            unsupported.completeExceptionally(
+                    new FormatNotSupportedException(String.format("Format [%d] is not supported.", image.getFormat())));
+            return unsupported;
+        }
+        return IoDispatcher.supplyAsync(IoDispatcher.Lane.CAPTURE, () -> {
+            try
+            {
+                return persist(image, metadata);
+            } catch (WriteException e)
+            {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Write the image to a newly generated file on the calling thread.
+     *
+     * @param image    the {@link ImageProxy} to write
+     * @param metadata the {@link Metadata} to embed, or null to write the image unchanged.
+     * @return The URI of the file that was written to.
+     * @throws WriteException if the file could not be written.
+     */
+    private Uri persist(ImageProxy image, Metadata metadata) throws WriteException
+    {
+        File toFile = fileNameGenerator.generate();
+        try (FileChannel channel = FileChannel.open(toFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            writeJpg(image, metadata, channel);
+        } catch (IOException e)
+        {
+            throw new WriteException("Error writing image data to file", e);
+        }
+        return Uri.fromFile(toFile);
+    }
 }
@@ -5,6 +5,7 @@ import android.content.ContentValues;
 import android.graphics.ImageFormat;
 import android.net.Uri;
 import android.os.Build;
+import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 
 import androidx.camera.core.ImageProxy;
@@ -13,12 +14,13 @@ import com.chesapeaketechnology.photomonkey.PhotoMonkeyApplication;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.util.concurrent.Callable;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -31,7 +33,7 @@ import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
  */
 public class ImageMediaStoreWriter extends AImageWriter
 {
-    private static final ExecutorService executorService = Executors.newCachedThreadPool();
+    private static final ExecutorService executorService = IoDispatcher.executor(IoDispatcher.Lane.CAPTURE);
 
     private final FileNameGenerator fileNameGenerator;
 
@@ -42,62 +44,37 @@ public class ImageMediaStoreWriter extends AImageWriter
 
     /**
      * Write {@link ImageProxy} to the MediaStore.
-     * Currently, only supports {@link ImageFormat#JPEG}
+     * Currently, only supports {@link ImageFormat#JPEG}. The image is closed once it has been
+     * written, whether or not the write succeeded.
      *
-     * @param image the {@link ImageProxy} to write
+     * @param image    the {@link ImageProxy} to write
+     * @param metadata the {@link Metadata} to embed, or null to write the image unchanged.
      * @return the {@link Uri} for the written file.
      */
     @Override
-    public Uri write(ImageProxy image) throws FormatNotSupportedException, WriteException
+    public Uri write(ImageProxy image, Metadata metadata) throws FormatNotSupportedException, WriteException
     {
         if (image.getFormat() == ImageFormat.JPEG)
         {
+            Future<Uri> result;
             try
             {
-                Callable<Uri> writeTask = () -> {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+                result = executorService.submit(() -> {
+                    try
                     {
-                        ContentResolver resolver = PhotoMonkeyApplication.getContext().getContentResolver();
-                        ContentValues contentValues = new ContentValues();
-
-                        FileNameGenerator generator = new FileNameGenerator();
-                        String title = generator.generate().getName();
-                        String relativePath = GalleryManager.getMediaStoreRelativePath();
-                        contentValues.put(MediaStore.MediaColumns.TITLE, title);
-                        contentValues.put(MediaStore.MediaColumns.DISPLAY_NAME, fileNameGenerator.generate().getName());
-                        contentValues.put(MediaStore.MediaColumns.MIME_TYPE, "image/jpg");
-                        contentValues.put(MediaStore.MediaColumns.RELATIVE_PATH, relativePath);
-
-                        Uri collection = MediaStore.Images.Media.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY);
-                        Uri imageUri = resolver.insert(collection, contentValues);
-                        if (imageUri != null)
-                        {
-                            try (OutputStream out = resolver.openOutputStream(imageUri))
-                            {
-                                byte[] data = AImageWriter.bytesForJpg(image);
-                                if (out != null)
-                                {
-                                    out.write(data);
-                                }
-                                return imageUri;
-                            } catch (FileNotFoundException e)
-                            {
-                                throw new WriteException(String.format("Unable to access file uri '%s'", imageUri));
-                            } catch (IOException e)
-                            {
-                                throw new WriteException(String.format("Error accessing file '%s'", imageUri));
-                            }
-                        } else
-                        {
-                            throw new WriteException("Unable to retrieve uri for MediaStore.");
-                        }
-                    } else
+                        return persist(image, metadata);
+                    } finally
                     {
-                        throw new WriteException("Unsupported Android version.  Must be Q or greater.");
+                        image.close();
                     }
-                };
-
-                Future<Uri> result = executorService.submit(writeTask);
+                });
+            } catch (RejectedExecutionException e)
+            {
+                image.close();
+                throw new WriteException("Unable to save image", e);
+            }
+            try
+            {
                 return result.get(SINGLE_FILE_IO_TIMEOUT_SECONDS, TimeUnit.SECONDS);
             } catch (ExecutionException | InterruptedException | TimeoutException e)
             {
@@ -105,7 +82,86 @@ public class ImageMediaStoreWriter extends AImageWriter
             }
         } else
         {
+            image.close();
             throw new FormatNotSupportedException(String.format("%d is not a supported format.", image.getFormat()));
         }
     }
+
+    @Override
+    public CompletableFuture<Uri> writeAsync(ImageProxy image, Metadata metadata)
+    {
+        if (image.getFormat() != ImageFormat.JPEG)
+        {
+            CompletableFuture<Uri> unsupported = new CompletableFuture<>();
+            unsupported.completeExceptionally(
+                    new FormatNotSupportedException(String.format("%d is not a supported format.", image.getFormat())));
+            return unsupported;
+        }
+        return IoDispatcher.supplyAsync(IoDispatcher.Lane.CAPTURE, () -> {
+            try
+            {
+                return persist(image, metadata);
+            } catch (WriteException e)
+            {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Insert a new MediaStore entry and write the image to it on the calling thread.
+     *
+     * @param image    the {@link ImageProxy} to write
+     * @param metadata the {@link Metadata} to embed, or null to write the image unchanged.
+     * @return the {@link Uri} for the written file.
+     * @throws WriteException if the MediaStore entry could not be created or written.
+     */
+    private Uri persist(ImageProxy image, Metadata metadata) throws WriteException
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+        {
+            ContentResolver resolver = PhotoMonkeyApplication.getContext().getContentResolver();
+            ContentValues contentValues = new ContentValues();
+
+            FileNameGenerator generator = new FileNameGenerator();
+            String title = generator.generate().getName();
+            String relativePath = GalleryManager.getMediaStoreRelativePath();
+            contentValues.put(MediaStore.MediaColumns.TITLE, title);
+            contentValues.put(MediaStore.MediaColumns.DISPLAY_NAME, fileNameGenerator.generate().getName());
+            contentValues.put(MediaStore.MediaColumns.MIME_TYPE, "image/jpg");
+            contentValues.put(MediaStore.MediaColumns.RELATIVE_PATH, relativePath);
+
+            Uri collection = MediaStore.Images.Media.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY);
+            Uri imageUri = resolver.insert(collection, contentValues);
+            if (imageUri != null)
+            {
+                try
+                {
+                    ParcelFileDescriptor pfd = resolver.openFileDescriptor(imageUri, "w");
+                    if (pfd == null)
+                    {
+                        throw new WriteException(String.format("Unable to open file descriptor for '%s'", imageUri));
+                    }
+                    // The auto close stream releases the descriptor when the channel is closed.
+                    try (FileChannel channel = new ParcelFileDescriptor.AutoCloseOutputStream(pfd).getChannel())
+                    {
+                        writeJpg(image, metadata, channel);
+                    }
+                    return imageUri;
+                } catch (FileNotFoundException e)
+                {
+                    throw new WriteException(String.format("Unable to access file uri '%s'", imageUri));
+                } catch (IOException e)
+                {
+                    throw new WriteException(String.format("Error accessing file '%s'", imageUri));
+                }
+            } else
+            {
+                throw new WriteException("Unable to retrieve uri for MediaStore.");
+            }
+        } else
+        {
+            throw new WriteException("Unsupported Android version.  Must be Q or greater.");
+        }
+    }
 }
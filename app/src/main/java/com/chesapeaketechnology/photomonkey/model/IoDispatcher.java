@@ -0,0 +1,352 @@
+package com.chesapeaketechnology.photomonkey.model;
+
+import android.os.Looper;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
+
+/**
+ * The single place the model layer runs blocking I/O. Work is split into lanes so that a slow
+ * gallery scan or metadata rebuild can never hold up writing a captured image. Each lane has a fixed
+ * number of threads running at its own priority and a bounded queue, and keeps metrics on its queue
+ * depth, how long tasks wait and how long they run.
+ * <p>
+ * When a lane's queue is full, a background thread submitting to it waits for room, and a task
+ * submitted from one of the lane's own threads runs on that thread so the lane cannot wait on
+ * itself. The main thread is never made to wait or to run the task; its submission is rejected,
+ * which {@link #supplyAsync} and {@link #runAsync} hand back as a failed future.
+ *
+ * @since 0.3.0
+ */
+public final class IoDispatcher
+{
+    /**
+     * The lanes work is dispatched on, from highest to lowest thread priority.
+     */
+    public enum Lane
+    {
+        /**
+         * Writing captured images.
+         */
+        CAPTURE(IO_CAPTURE_LANE_THREADS, Process.THREAD_PRIORITY_FOREGROUND),
+        /**
+         * Scanning the gallery for the views.
+         */
+        GALLERY(IO_GALLERY_LANE_THREADS, Process.THREAD_PRIORITY_DEFAULT),
+        /**
+         * Reading, saving and indexing image metadata.
+         */
+        METADATA(IO_METADATA_LANE_THREADS, Process.THREAD_PRIORITY_BACKGROUND),
+        /**
+         * Handing photos over to the upload queue.
+         */
+        UPLOAD(IO_UPLOAD_LANE_THREADS, Process.THREAD_PRIORITY_BACKGROUND);
+
+        private final int threads;
+        private final int threadPriority;
+
+        Lane(int threads, int threadPriority)
+        {
+            this.threads = threads;
+            this.threadPriority = threadPriority;
+        }
+    }
+
+    private static final Map<Lane, LaneExecutor> executors = new EnumMap<>(Lane.class);
+
+    static
+    {
+        for (Lane lane : Lane.values())
+        {
+            executors.put(lane, new LaneExecutor(lane));
+        }
+    }
+
+    private IoDispatcher()
+    {
+    }
+
+    /**
+     * Get the executor for a lane. The executor is shared and must not be shut down.
+     *
+     * @param lane the {@link Lane} to run on.
+     * @return the {@link ExecutorService} for the lane.
+     */
+    public static ExecutorService executor(Lane lane)
+    {
+        return executors.get(lane);
+    }
+
+    /**
+     * Run a task on a lane, as {@link CompletableFuture#supplyAsync(Supplier, java.util.concurrent.Executor)}
+     * does, except that a submission the lane rejects completes the future exceptionally with the
+     * {@link RejectedExecutionException} rather than throwing it. Use this from the main thread.
+     *
+     * @param lane     the {@link Lane} to run on.
+     * @param supplier the task.
+     * @return the future result of the task.
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Lane lane, Supplier<T> supplier)
+    {
+        try
+        {
+            return CompletableFuture.supplyAsync(supplier, executor(lane));
+        } catch (RejectedExecutionException e)
+        {
+            final CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    /**
+     * Run a task on a lane, as {@link #supplyAsync} does for a task with no result.
+     *
+     * @param lane     the {@link Lane} to run on.
+     * @param runnable the task.
+     * @return the future completion of the task.
+     */
+    public static CompletableFuture<Void> runAsync(Lane lane, Runnable runnable)
+    {
+        return supplyAsync(lane, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Get a snapshot of the metrics for a lane.
+     *
+     * @param lane the {@link Lane}.
+     * @return the {@link LaneMetrics} for the lane at this moment.
+     */
+    public static LaneMetrics metrics(Lane lane)
+    {
+        return executors.get(lane).snapshot();
+    }
+
+    /**
+     * A point in time view of the work done on a lane.
+     */
+    public static final class LaneMetrics
+    {
+        public final Lane lane;
+        public final int queueDepth;
+        public final int activeThreads;
+        public final long completedTasks;
+        public final long callerRunTasks;
+        public final long blockedTasks;
+        public final long rejectedTasks;
+        public final long averageWaitMicros;
+        public final long maxWaitMicros;
+        public final long averageRunMicros;
+        public final long maxRunMicros;
+
+        LaneMetrics(Lane lane, int queueDepth, int activeThreads, long completedTasks, long callerRunTasks,
+                    long blockedTasks, long rejectedTasks, long averageWaitMicros, long maxWaitMicros,
+                    long averageRunMicros, long maxRunMicros)
+        {
+            this.lane = lane;
+            this.queueDepth = queueDepth;
+            this.activeThreads = activeThreads;
+            this.completedTasks = completedTasks;
+            this.callerRunTasks = callerRunTasks;
+            this.blockedTasks = blockedTasks;
+            this.rejectedTasks = rejectedTasks;
+            this.averageWaitMicros = averageWaitMicros;
+            this.maxWaitMicros = maxWaitMicros;
+            this.averageRunMicros = averageRunMicros;
+            this.maxRunMicros = maxRunMicros;
+        }
+
+        @Override
+        public @NonNull
+        String toString()
+        {
+            return String.format("%s: queued=%d active=%d completed=%d callerRuns=%d blocked=%d rejected=%d wait(avg/max)=%d/%d us run(avg/max)=%d/%d us",
+                    lane, queueDepth, activeThreads, completedTasks, callerRunTasks, blockedTasks, rejectedTasks,
+                    averageWaitMicros, maxWaitMicros, averageRunMicros, maxRunMicros);
+        }
+    }
+
+    /**
+     * A fixed size pool that records when each task was queued, started and finished.
+     */
+    private static final class LaneExecutor extends ThreadPoolExecutor
+    {
+        private final Lane lane;
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong callerRuns = new AtomicLong();
+        private final AtomicLong blocked = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final AtomicLong totalRunNanos = new AtomicLong();
+        private final AtomicLong maxRunNanos = new AtomicLong();
+
+        LaneExecutor(Lane lane)
+        {
+            super(lane.threads, lane.threads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(IO_LANE_QUEUE_CAPACITY), new LaneThreadFactory(lane), new BackPressure());
+            this.lane = lane;
+            allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        public void execute(@NonNull Runnable command)
+        {
+            super.execute(new TimedTask(command));
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r)
+        {
+            super.beforeExecute(t, r);
+            if (r instanceof TimedTask)
+            {
+                TimedTask task = (TimedTask) r;
+                task.startedAt = System.nanoTime();
+                record(totalWaitNanos, maxWaitNanos, task.startedAt - task.queuedAt);
+            }
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t)
+        {
+            super.afterExecute(r, t);
+            if (r instanceof TimedTask)
+            {
+                record(totalRunNanos, maxRunNanos, System.nanoTime() - ((TimedTask) r).startedAt);
+                completed.incrementAndGet();
+            }
+        }
+
+        private static void record(AtomicLong total, AtomicLong max, long nanos)
+        {
+            total.addAndGet(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        LaneMetrics snapshot()
+        {
+            long count = Math.max(1, completed.get());
+            return new LaneMetrics(lane, getQueue().size(), getActiveCount(), completed.get(), callerRuns.get(),
+                    blocked.get(), rejected.get(),
+                    TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.get() / count),
+                    TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()),
+                    TimeUnit.NANOSECONDS.toMicros(totalRunNanos.get() / count),
+                    TimeUnit.NANOSECONDS.toMicros(maxRunNanos.get()));
+        }
+
+        /**
+         * Apply back pressure when the lane is saturated. The main thread is turned away, one of the
+         * lane's own threads runs the task itself, and any other thread waits for room in the queue.
+         */
+        private static final class BackPressure implements RejectedExecutionHandler
+        {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+            {
+                if (executor.isShutdown()) return;
+                final LaneExecutor laneExecutor = (LaneExecutor) executor;
+                final Thread thread = Thread.currentThread();
+                if (Looper.getMainLooper() != null && Looper.getMainLooper().getThread() == thread)
+                {
+                    laneExecutor.rejected.incrementAndGet();
+                    throw new RejectedExecutionException("The " + laneExecutor.lane + " lane is full");
+                }
+                if (thread instanceof LaneThread && ((LaneThread) thread).lane == laneExecutor.lane)
+                {
+                    laneExecutor.callerRuns.incrementAndGet();
+                    r.run();
+                    return;
+                }
+
+                laneExecutor.blocked.incrementAndGet();
+                try
+                {
+                    executor.getQueue().put(r);
+                } catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted while waiting for the " + laneExecutor.lane + " lane", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A task tagged with the time it was queued.
+     */
+    private static final class TimedTask implements Runnable
+    {
+        private final Runnable delegate;
+        private final long queuedAt = System.nanoTime();
+        private long startedAt;
+
+        TimedTask(Runnable delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run()
+        {
+            delegate.run();
+        }
+    }
+
+    /**
+     * Names the threads of a lane and runs them at the lane priority.
+     */
+    private static final class LaneThreadFactory implements ThreadFactory
+    {
+        private final Lane lane;
+        private final AtomicInteger count = new AtomicInteger();
+
+        LaneThreadFactory(Lane lane)
+        {
+            this.lane = lane;
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable)
+        {
+            return new LaneThread(lane, () -> {
+                Process.setThreadPriority(lane.threadPriority);
+                runnable.run();
+            }, String.format("io-%s-%d", lane.name().toLowerCase(Locale.ROOT), count.incrementAndGet()));
+        }
+    }
+
+    /**
+     * A thread of a lane, so a task submitted from the lane to itself can be recognized.
+     */
+    private static final class LaneThread extends Thread
+    {
+        private final Lane lane;
+
+        LaneThread(Lane lane, Runnable runnable, String name)
+        {
+            super(runnable, name);
+            this.lane = lane;
+        }
+    }
+}
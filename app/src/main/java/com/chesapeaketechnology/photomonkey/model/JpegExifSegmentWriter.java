@@ -0,0 +1,842 @@
+package com.chesapeaketechnology.photomonkey.model;
+
+import android.location.Location;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a JPEG with an APP1/EXIF segment built from a {@link Metadata} object in a single pass,
+ * and patches that segment in place when the metadata changes later on.
+ * <p>
+ * The segment reserves a fixed size {@link ExifInterface#TAG_IMAGE_DESCRIPTION} field and stores the
+ * orientation and GPS values in fixed size fields, so editing them never changes the size of the
+ * file and never requires rewriting the image data.
+ * <p>
+ * The tags of any EXIF segment already present in the camera output are merged into the new segment,
+ * so the exposure, lens and device details the camera recorded survive. Only the description, the
+ * orientation and, when the metadata has a location, the GPS tags are replaced. The embedded thumbnail
+ * is carried over too unless the merged segment would not fit in an APP1 segment, in which case it is
+ * left behind, and should even that not fit the camera tags are dropped.
+ *
+ * @since 0.3.0
+ */
+public final class JpegExifSegmentWriter
+{
+    /**
+     * Number of bytes reserved for the image description, including the terminating NUL.
+     */
+    public static final int DESCRIPTION_CAPACITY = 512;
+    /**
+     * Number of bytes reserved for the GPS processing method (location provider), including the terminating NUL.
+     */
+    static final int PROCESSING_METHOD_CAPACITY = 32;
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_APP15 = 0xEF;
+    private static final byte[] EXIF_IDENTIFIER = {'E', 'x', 'i', 'f', 0, 0};
+    // Offset of the TIFF header from the start of the file: SOI(2) + APP1 marker(2) + length(2) + "Exif\0\0"(6)
+    private static final int TIFF_START = 12;
+    private static final int MAX_SEGMENT_LENGTH = 0xFFFF;
+
+    private static final int TYPE_BYTE = 1;
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_RATIONAL = 5;
+    private static final int TYPE_SRATIONAL = 10;
+    // Size in bytes of one value of each TIFF type, indexed by type.
+    private static final int[] TYPE_SIZES = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8};
+
+    private static final int TAG_IMAGE_DESCRIPTION = 0x010E;
+    private static final int TAG_STRIP_OFFSETS = 0x0111;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_SUB_IFDS = 0x014A;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+    private static final int TAG_DATETIME = 0x0132;
+    private static final int TAG_EXIF_IFD_POINTER = 0x8769;
+    private static final int TAG_GPS_IFD_POINTER = 0x8825;
+    private static final int TAG_DATETIME_ORIGINAL = 0x9003;
+    private static final int TAG_INTEROPERABILITY_IFD_POINTER = 0xA005;
+    private static final int TAG_GPS_VERSION_ID = 0x0000;
+    private static final int TAG_GPS_LATITUDE_REF = 0x0001;
+    private static final int TAG_GPS_LATITUDE = 0x0002;
+    private static final int TAG_GPS_LONGITUDE_REF = 0x0003;
+    private static final int TAG_GPS_LONGITUDE = 0x0004;
+    private static final int TAG_GPS_ALTITUDE_REF = 0x0005;
+    private static final int TAG_GPS_ALTITUDE = 0x0006;
+    private static final int TAG_GPS_SPEED_REF = 0x000C;
+    private static final int TAG_GPS_SPEED = 0x000D;
+    private static final int TAG_GPS_PROCESSING_METHOD = 0x001B;
+
+    private static final int DATETIME_LENGTH = 20;
+
+    private JpegExifSegmentWriter()
+    {
+    }
+
+    /**
+     * Write a JPEG to the channel with an EXIF segment describing the metadata. The image data is
+     * written straight from the provided buffer; only the new segment is built on the heap.
+     *
+     * @param jpeg            the JPEG produced by the camera. Its position and limit are not modified.
+     * @param metadata        the metadata to embed.
+     * @param rotationDegrees the clockwise rotation needed to display the image upright.
+     * @param channel         the channel to write the image to.
+     * @return the number of bytes written.
+     * @throws IOException if the channel could not be written to.
+     */
+    public static long write(ByteBuffer jpeg, Metadata metadata, int rotationDegrees, WritableByteChannel channel) throws IOException
+    {
+        ByteBuffer source = jpeg.duplicate();
+        source.rewind();
+        if (source.remaining() < 4 || (source.get(0) & 0xFF) != 0xFF || (source.get(1) & 0xFF) != MARKER_SOI)
+        {
+            // Not something we know how to inject into, write it unchanged.
+            return writeFully(source, channel);
+        }
+
+        // Find the EXIF segments in the camera output after the SOI marker; they are replaced by the new one.
+        List<int[]> exifSegments = new ArrayList<>();
+        int position = 2;
+        int limit = source.limit();
+        while (position + 4 <= limit && (source.get(position) & 0xFF) == 0xFF)
+        {
+            int marker = source.get(position + 1) & 0xFF;
+            if (marker < MARKER_APP0 || marker > MARKER_APP15) break;
+
+            int segmentEnd = position + 2 + (source.getShort(position + 2) & 0xFFFF);
+            if (segmentEnd > limit) break;
+
+            if (marker == MARKER_APP1 && isExifSegment(source, position + 4))
+            {
+                exifSegments.add(new int[]{position, segmentEnd});
+            }
+            position = segmentEnd;
+        }
+        CameraExif camera = exifSegments.isEmpty() ? null
+                : CameraExif.parse(sliceOf(source, exifSegments.get(0)[0] + 4 + EXIF_IDENTIFIER.length, exifSegments.get(0)[1]));
+
+        long written = writeFully(buildHeader(metadata, rotationDegrees, camera), channel);
+        int copyFrom = 2;
+        for (int[] segment : exifSegments)
+        {
+            written += writeRange(source, copyFrom, segment[0], channel);
+            copyFrom = segment[1];
+        }
+        written += writeRange(source, copyFrom, limit, channel);
+        return written;
+    }
+
+    /**
+     * Update the EXIF segment written by {@link #write} in place. Only the fixed size description,
+     * orientation and GPS fields are touched, so the rest of the file is left as is.
+     *
+     * @param channel  a readable and writable channel positioned anywhere in the image.
+     * @param metadata the metadata to store.
+     * @return true if the file was updated, false if it does not have a segment that can hold the
+     * metadata (for example, it was not written by this class, or it has no GPS fields for a new
+     * location) and must be updated by rewriting the file instead.
+     * @throws IOException if the channel could not be read or written.
+     */
+    public static boolean patch(FileChannel channel, Metadata metadata) throws IOException
+    {
+        return patch(channel, channel, metadata);
+    }
+
+    /**
+     * Update the EXIF segment written by {@link #write} in place, reading and writing through separate
+     * channels on the same file. This is how a seekable file descriptor from a
+     * {@link android.content.ContentResolver} is edited, since the streams wrapping it only expose a
+     * read-only or a write-only channel.
+     *
+     * @param reader   a readable channel on the image.
+     * @param writer   a writable channel on the same image.
+     * @param metadata the metadata to store.
+     * @return true if the file was updated, false if it must be updated by rewriting the file instead.
+     * @throws IOException if the channels could not be read or written.
+     * @see #patch(FileChannel, Metadata)
+     */
+    public static boolean patch(FileChannel reader, FileChannel writer, Metadata metadata) throws IOException
+    {
+        ByteBuffer prefix = ByteBuffer.allocate(6);
+        reader.read(prefix, 0);
+        prefix.flip();
+        if (prefix.remaining() < 6
+                || (prefix.get(0) & 0xFF) != 0xFF || (prefix.get(1) & 0xFF) != MARKER_SOI
+                || (prefix.get(2) & 0xFF) != 0xFF || (prefix.get(3) & 0xFF) != MARKER_APP1)
+        {
+            return false;
+        }
+        // Read the whole segment, the tags merged from the camera may push the GPS fields well into it.
+        ByteBuffer header = ByteBuffer.allocate((int) Math.min(reader.size(), 4 + (prefix.getShort(4) & 0xFFFF)));
+        reader.read(header, 0);
+        header.flip();
+        if (header.remaining() < TIFF_START + 8 || !isExifSegment(header, 6))
+        {
+            return false;
+        }
+        ByteBuffer tiff = sliceOf(header, TIFF_START, header.limit());
+        if (tiff.get(0) == 'I' && tiff.get(1) == 'I')
+        {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (tiff.get(0) != 'M' || tiff.get(1) != 'M')
+        {
+            return false;
+        }
+
+        int ifd0 = tiff.getInt(4);
+        int descriptionEntry = findEntry(tiff, ifd0, TAG_IMAGE_DESCRIPTION, TYPE_ASCII);
+        int orientationEntry = findEntry(tiff, ifd0, TAG_ORIENTATION, TYPE_SHORT);
+        if (descriptionEntry < 0 || tiff.getInt(descriptionEntry + 4) != DESCRIPTION_CAPACITY || orientationEntry < 0)
+        {
+            return false;
+        }
+        byte[] description = asciiBytes(metadata.getDescription());
+        if (description.length >= DESCRIPTION_CAPACITY)
+        {
+            return false;
+        }
+
+        List<int[]> gpsFields = new ArrayList<>();
+        Location location = metadata.getLocation();
+        if (location != null)
+        {
+            int gpsPointer = findEntry(tiff, ifd0, TAG_GPS_IFD_POINTER, TYPE_LONG);
+            if (gpsPointer < 0) return false;
+            int gpsIfd = tiff.getInt(gpsPointer + 8);
+            int[] tags = {TAG_GPS_LATITUDE_REF, TAG_GPS_LATITUDE, TAG_GPS_LONGITUDE_REF, TAG_GPS_LONGITUDE,
+                    TAG_GPS_ALTITUDE_REF, TAG_GPS_ALTITUDE, TAG_GPS_SPEED_REF, TAG_GPS_SPEED, TAG_GPS_PROCESSING_METHOD};
+            int[] types = {TYPE_ASCII, TYPE_RATIONAL, TYPE_ASCII, TYPE_RATIONAL,
+                    TYPE_BYTE, TYPE_RATIONAL, TYPE_ASCII, TYPE_RATIONAL, TYPE_ASCII};
+            for (int i = 0; i < tags.length; i++)
+            {
+                int entry = findEntry(tiff, gpsIfd, tags[i], types[i]);
+                if (entry < 0) return false;
+                gpsFields.add(new int[]{tags[i], entry});
+            }
+        }
+
+        // Everything needed is present, apply the changes.
+        ByteBuffer field = ByteBuffer.allocate(DESCRIPTION_CAPACITY).order(tiff.order());
+        field.put(description);
+        writeAt(writer, field, TIFF_START + tiff.getInt(descriptionEntry + 8));
+
+        int orientation = tiff.getShort(orientationEntry + 8) & 0xFFFF;
+        if (isFlipped(orientation) != metadata.isReversed())
+        {
+            field = ByteBuffer.allocate(2).order(tiff.order());
+            field.putShort((short) flipHorizontally(orientation));
+            writeAt(writer, field, TIFF_START + orientationEntry + 8);
+        }
+
+        if (location != null)
+        {
+            GpsValues gps = new GpsValues(location);
+            for (int[] gpsField : gpsFields)
+            {
+                int entry = gpsField[1];
+                int count = tiff.getInt(entry + 4);
+                field = ByteBuffer.allocate(Math.max(4, count * (tiff.getShort(entry + 2) == TYPE_RATIONAL ? 8 : 1))).order(tiff.order());
+                if (!gps.put(gpsField[0], field, count)) return false;
+                // Values of four bytes or less are stored in the entry itself.
+                int valueOffset = field.capacity() <= 4 ? entry + 8 : tiff.getInt(entry + 8);
+                writeAt(writer, field, TIFF_START + valueOffset);
+            }
+        }
+        writer.force(false);
+        return true;
+    }
+
+    /**
+     * Build the SOI marker and the complete APP1 segment for the metadata, merging in the tags of the
+     * camera segment with as much of it as fits.
+     */
+    private static ByteBuffer buildHeader(Metadata metadata, int rotationDegrees, CameraExif camera)
+    {
+        ByteBuffer header = null;
+        if (camera != null)
+        {
+            header = buildHeader(metadata, rotationDegrees, camera, true);
+            if (header == null) header = buildHeader(metadata, rotationDegrees, camera, false);
+        }
+        return header != null ? header : buildHeader(metadata, rotationDegrees, null, false);
+    }
+
+    /**
+     * Build the SOI marker and the complete APP1 segment for the metadata.
+     *
+     * @return the header, or null if the camera tags make it too large for an APP1 segment.
+     */
+    private static ByteBuffer buildHeader(Metadata metadata, int rotationDegrees, CameraExif camera, boolean withThumbnail)
+    {
+        Location location = metadata.getLocation();
+        List<Field> ifd0 = new ArrayList<>();
+        List<Field> exifIfd = new ArrayList<>();
+        List<Field> gpsIfd = new ArrayList<>();
+        List<Field> interopIfd = new ArrayList<>();
+        List<Field> ifd1 = new ArrayList<>();
+        byte[] thumbnail = null;
+        if (camera != null)
+        {
+            ifd0.addAll(camera.ifd0);
+            exifIfd.addAll(camera.exifIfd);
+            interopIfd.addAll(camera.interopIfd);
+            if (location == null) gpsIfd.addAll(camera.gpsIfd);
+            if (withThumbnail && camera.thumbnail != null)
+            {
+                ifd1.addAll(camera.ifd1);
+                thumbnail = camera.thumbnail;
+            }
+        }
+
+        int orientation = orientationFor(rotationDegrees);
+        if (metadata.isReversed())
+        {
+            orientation = flipHorizontally(orientation);
+        }
+        byte[] dateTime = asciiField(new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US).format(new Date()), DATETIME_LENGTH);
+
+        ifd0.add(new Field(TAG_IMAGE_DESCRIPTION, TYPE_ASCII, DESCRIPTION_CAPACITY, asciiField(metadata.getDescription(), DESCRIPTION_CAPACITY)));
+        ifd0.add(new Field(TAG_ORIENTATION, TYPE_SHORT, 1, new byte[]{(byte) (orientation >> 8), (byte) orientation}));
+        // The camera knows best when the photo was taken.
+        addIfMissing(ifd0, new Field(TAG_DATETIME, TYPE_ASCII, DATETIME_LENGTH, dateTime));
+        addIfMissing(exifIfd, new Field(TAG_DATETIME_ORIGINAL, TYPE_ASCII, DATETIME_LENGTH, dateTime));
+        if (location != null)
+        {
+            GpsValues gps = new GpsValues(location);
+            gpsIfd.add(new Field(TAG_GPS_VERSION_ID, TYPE_BYTE, 4, new byte[]{2, 2, 0, 0}));
+            gpsIfd.add(gps.field(TAG_GPS_LATITUDE_REF, TYPE_ASCII, 2));
+            gpsIfd.add(gps.field(TAG_GPS_LATITUDE, TYPE_RATIONAL, 3));
+            gpsIfd.add(gps.field(TAG_GPS_LONGITUDE_REF, TYPE_ASCII, 2));
+            gpsIfd.add(gps.field(TAG_GPS_LONGITUDE, TYPE_RATIONAL, 3));
+            gpsIfd.add(gps.field(TAG_GPS_ALTITUDE_REF, TYPE_BYTE, 1));
+            gpsIfd.add(gps.field(TAG_GPS_ALTITUDE, TYPE_RATIONAL, 1));
+            gpsIfd.add(gps.field(TAG_GPS_SPEED_REF, TYPE_ASCII, 2));
+            gpsIfd.add(gps.field(TAG_GPS_SPEED, TYPE_RATIONAL, 1));
+            gpsIfd.add(gps.field(TAG_GPS_PROCESSING_METHOD, TYPE_ASCII, PROCESSING_METHOD_CAPACITY));
+        }
+
+        // The pointers are filled in once the layout is known.
+        Field exifPointer = new Field(TAG_EXIF_IFD_POINTER, TYPE_LONG, 1, new byte[4]);
+        ifd0.add(exifPointer);
+        Field gpsPointer = new Field(TAG_GPS_IFD_POINTER, TYPE_LONG, 1, new byte[4]);
+        if (!gpsIfd.isEmpty()) ifd0.add(gpsPointer);
+        Field interopPointer = new Field(TAG_INTEROPERABILITY_IFD_POINTER, TYPE_LONG, 1, new byte[4]);
+        if (!interopIfd.isEmpty()) exifIfd.add(interopPointer);
+        Field thumbnailPointer = new Field(TAG_JPEG_INTERCHANGE_FORMAT, TYPE_LONG, 1, new byte[4]);
+        if (thumbnail != null) ifd1.add(thumbnailPointer);
+
+        // Layout of the TIFF structure, all offsets relative to the TIFF header. IFD0 and the GPS IFD
+        // come first so the fields patch() edits are found early in the segment.
+        int ifd0Offset = 8;
+        int gpsOffset = ifd0Offset + ifdLength(ifd0);
+        int exifOffset = gpsOffset + ifdLength(gpsIfd);
+        int interopOffset = exifOffset + ifdLength(exifIfd);
+        int ifd1Offset = interopOffset + ifdLength(interopIfd);
+        int thumbnailOffset = ifd1Offset + ifdLength(ifd1);
+        int tiffLength = thumbnailOffset + (thumbnail == null ? 0 : thumbnail.length);
+        if (2 + EXIF_IDENTIFIER.length + tiffLength > MAX_SEGMENT_LENGTH)
+        {
+            return null;
+        }
+        exifPointer.setOffset(exifOffset);
+        gpsPointer.setOffset(gpsOffset);
+        interopPointer.setOffset(interopOffset);
+        thumbnailPointer.setOffset(thumbnailOffset);
+
+        ByteBuffer header = ByteBuffer.allocate(TIFF_START + tiffLength).order(ByteOrder.BIG_ENDIAN);
+        header.put((byte) 0xFF).put((byte) MARKER_SOI);
+        header.put((byte) 0xFF).put((byte) MARKER_APP1);
+        header.putShort((short) (2 + EXIF_IDENTIFIER.length + tiffLength));
+        header.put(EXIF_IDENTIFIER);
+
+        ByteBuffer tiff = sliceOf(header, TIFF_START, header.capacity());
+        tiff.put((byte) 'M').put((byte) 'M').putShort((short) 0x002A).putInt(ifd0Offset);
+        putIfd(tiff, ifd0Offset, ifd0, ifd1.isEmpty() ? 0 : ifd1Offset);
+        putIfd(tiff, gpsOffset, gpsIfd, 0);
+        putIfd(tiff, exifOffset, exifIfd, 0);
+        putIfd(tiff, interopOffset, interopIfd, 0);
+        putIfd(tiff, ifd1Offset, ifd1, 0);
+        if (thumbnail != null)
+        {
+            tiff.position(thumbnailOffset);
+            tiff.put(thumbnail);
+        }
+
+        header.rewind();
+        return header;
+    }
+
+    private static int ifdSize(int entries)
+    {
+        return 2 + entries * 12 + 4;
+    }
+
+    /**
+     * The number of bytes an IFD takes up, including the values that do not fit in its entries.
+     */
+    private static int ifdLength(List<Field> fields)
+    {
+        if (fields.isEmpty()) return 0;
+        int length = ifdSize(fields.size());
+        for (Field field : fields)
+        {
+            if (field.value.length > 4) length += field.value.length + (field.value.length & 1);
+        }
+        return length;
+    }
+
+    /**
+     * Write an IFD at the offset, sorted by tag, followed by the values that do not fit in its entries.
+     */
+    private static void putIfd(ByteBuffer tiff, int offset, List<Field> fields, int nextIfd)
+    {
+        if (fields.isEmpty()) return;
+        Collections.sort(fields, (a, b) -> Integer.compare(a.tag, b.tag));
+        int valueOffset = offset + ifdSize(fields.size());
+        tiff.position(offset);
+        tiff.putShort((short) fields.size());
+        for (Field field : fields)
+        {
+            tiff.putShort((short) field.tag).putShort((short) field.type).putInt(field.count);
+            if (field.value.length <= 4)
+            {
+                tiff.put(field.value).put(new byte[4 - field.value.length]);
+            } else
+            {
+                tiff.putInt(valueOffset);
+                int entryEnd = tiff.position();
+                tiff.position(valueOffset);
+                tiff.put(field.value);
+                valueOffset += field.value.length + (field.value.length & 1);
+                tiff.position(entryEnd);
+            }
+        }
+        tiff.putInt(nextIfd);
+    }
+
+    private static void addIfMissing(List<Field> fields, Field field)
+    {
+        for (Field existing : fields)
+        {
+            if (existing.tag == field.tag) return;
+        }
+        fields.add(field);
+    }
+
+    /**
+     * Encode a value as a NUL padded ASCII field of the given size, truncating it if need be.
+     */
+    private static byte[] asciiField(String value, int capacity)
+    {
+        byte[] field = new byte[capacity];
+        byte[] bytes = asciiBytes(value);
+        System.arraycopy(bytes, 0, field, 0, Math.min(bytes.length, capacity - 1));
+        return field;
+    }
+
+    /**
+     * Find the entry for a tag in an IFD.
+     *
+     * @return the offset of the entry within the TIFF structure, or -1 if it is missing or of a different type.
+     */
+    private static int findEntry(ByteBuffer tiff, int ifd, int tag, int type)
+    {
+        if (ifd < 8 || ifd + 2 > tiff.limit()) return -1;
+        int count = tiff.getShort(ifd) & 0xFFFF;
+        for (int i = 0; i < count; i++)
+        {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > tiff.limit()) return -1;
+            if ((tiff.getShort(entry) & 0xFFFF) == tag)
+            {
+                return (tiff.getShort(entry + 2) & 0xFFFF) == type ? entry : -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isExifSegment(ByteBuffer buffer, int offset)
+    {
+        if (offset + EXIF_IDENTIFIER.length > buffer.limit()) return false;
+        for (int i = 0; i < EXIF_IDENTIFIER.length; i++)
+        {
+            if (buffer.get(offset + i) != EXIF_IDENTIFIER[i]) return false;
+        }
+        return true;
+    }
+
+    private static ByteBuffer sliceOf(ByteBuffer buffer, int start, int end)
+    {
+        ByteBuffer copy = buffer.duplicate();
+        copy.limit(end).position(start);
+        return copy.slice().order(buffer.order());
+    }
+
+    private static byte[] asciiBytes(String value)
+    {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Map a clockwise display rotation onto the matching EXIF orientation.
+     */
+    private static int orientationFor(int rotationDegrees)
+    {
+        switch (((rotationDegrees % 360) + 360) % 360)
+        {
+            case 90:
+                return ExifInterface.ORIENTATION_ROTATE_90;
+            case 180:
+                return ExifInterface.ORIENTATION_ROTATE_180;
+            case 270:
+                return ExifInterface.ORIENTATION_ROTATE_270;
+            default:
+                return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * Mirror an EXIF orientation the same way {@link ExifInterface#flipHorizontally()} does.
+     */
+    private static int flipHorizontally(int orientation)
+    {
+        switch (orientation)
+        {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                return ExifInterface.ORIENTATION_NORMAL;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return ExifInterface.ORIENTATION_FLIP_VERTICAL;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                return ExifInterface.ORIENTATION_ROTATE_180;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                return ExifInterface.ORIENTATION_ROTATE_270;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return ExifInterface.ORIENTATION_TRANSVERSE;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                return ExifInterface.ORIENTATION_ROTATE_90;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return ExifInterface.ORIENTATION_TRANSPOSE;
+            default:
+                return ExifInterface.ORIENTATION_FLIP_HORIZONTAL;
+        }
+    }
+
+    private static boolean isFlipped(int orientation)
+    {
+        return orientation == ExifInterface.ORIENTATION_FLIP_HORIZONTAL
+                || orientation == ExifInterface.ORIENTATION_FLIP_VERTICAL
+                || orientation == ExifInterface.ORIENTATION_TRANSPOSE
+                || orientation == ExifInterface.ORIENTATION_TRANSVERSE;
+    }
+
+    private static long writeRange(ByteBuffer source, int start, int end, WritableByteChannel channel) throws IOException
+    {
+        if (end <= start) return 0;
+        ByteBuffer range = source.duplicate();
+        range.limit(end).position(start);
+        return writeFully(range, channel);
+    }
+
+    private static long writeFully(ByteBuffer buffer, WritableByteChannel channel) throws IOException
+    {
+        long written = 0;
+        while (buffer.hasRemaining())
+        {
+            written += channel.write(buffer);
+        }
+        return written;
+    }
+
+    private static void writeAt(FileChannel channel, ByteBuffer field, long position) throws IOException
+    {
+        field.rewind();
+        while (field.hasRemaining())
+        {
+            position += channel.write(field, position);
+        }
+    }
+
+    /**
+     * A tag of an IFD with its value, in big endian order.
+     */
+    private static final class Field
+    {
+        final int tag;
+        final int type;
+        final int count;
+        final byte[] value;
+
+        Field(int tag, int type, int count, byte[] value)
+        {
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+            this.value = value;
+        }
+
+        /**
+         * Set the value of a pointer to another part of the TIFF structure.
+         */
+        void setOffset(int offset)
+        {
+            ByteBuffer.wrap(value).putInt(offset);
+        }
+    }
+
+    /**
+     * The tags of the EXIF segment in the camera output, minus the pointers between its IFDs, which
+     * are rebuilt for the new layout. Values that point elsewhere in the segment in a way that cannot
+     * be rebuilt (strips, sub IFDs) are left out, a maker note is copied as it is.
+     */
+    private static final class CameraExif
+    {
+        final List<Field> ifd0 = new ArrayList<>();
+        final List<Field> exifIfd = new ArrayList<>();
+        final List<Field> gpsIfd = new ArrayList<>();
+        final List<Field> interopIfd = new ArrayList<>();
+        final List<Field> ifd1 = new ArrayList<>();
+        byte[] thumbnail;
+
+        private CameraExif()
+        {
+        }
+
+        /**
+         * Read the tags of a TIFF structure.
+         *
+         * @return the tags, or null if the structure could not be read.
+         */
+        static CameraExif parse(ByteBuffer tiff)
+        {
+            if (tiff.remaining() < 8) return null;
+            if (tiff.get(0) == 'I' && tiff.get(1) == 'I')
+            {
+                tiff.order(ByteOrder.LITTLE_ENDIAN);
+            } else if (tiff.get(0) != 'M' || tiff.get(1) != 'M')
+            {
+                return null;
+            } else
+            {
+                tiff.order(ByteOrder.BIG_ENDIAN);
+            }
+
+            CameraExif camera = new CameraExif();
+            int ifd1Offset = readIfd(tiff, tiff.getInt(4), camera.ifd0);
+            if (ifd1Offset < 0) return null;
+            readIfd(tiff, takeOffset(camera.ifd0, TAG_EXIF_IFD_POINTER), camera.exifIfd);
+            readIfd(tiff, takeOffset(camera.ifd0, TAG_GPS_IFD_POINTER), camera.gpsIfd);
+            readIfd(tiff, takeOffset(camera.exifIfd, TAG_INTEROPERABILITY_IFD_POINTER), camera.interopIfd);
+            for (int tag : new int[]{TAG_IMAGE_DESCRIPTION, TAG_ORIENTATION, TAG_STRIP_OFFSETS, TAG_SUB_IFDS,
+                    TAG_JPEG_INTERCHANGE_FORMAT, TAG_JPEG_INTERCHANGE_FORMAT_LENGTH})
+            {
+                take(camera.ifd0, tag);
+            }
+
+            if (ifd1Offset > 0 && readIfd(tiff, ifd1Offset, camera.ifd1) >= 0)
+            {
+                int thumbnailOffset = takeOffset(camera.ifd1, TAG_JPEG_INTERCHANGE_FORMAT);
+                Field length = find(camera.ifd1, TAG_JPEG_INTERCHANGE_FORMAT_LENGTH);
+                int thumbnailLength = length == null ? -1 : (int) unsigned(length);
+                if (thumbnailOffset > 0 && thumbnailLength > 0 && find(camera.ifd1, TAG_STRIP_OFFSETS) == null
+                        && thumbnailOffset + thumbnailLength <= tiff.limit() && thumbnailOffset + thumbnailLength > 0)
+                {
+                    camera.thumbnail = new byte[thumbnailLength];
+                    ByteBuffer source = tiff.duplicate();
+                    source.position(thumbnailOffset);
+                    source.get(camera.thumbnail);
+                }
+            }
+            if (camera.thumbnail == null) camera.ifd1.clear();
+            return camera;
+        }
+
+        /**
+         * Read the entries of an IFD, skipping any that cannot be read.
+         *
+         * @return the offset of the next IFD, 0 if there is none, or -1 if the IFD could not be read.
+         */
+        private static int readIfd(ByteBuffer tiff, int offset, List<Field> into)
+        {
+            if (offset < 8 || offset + 2 > tiff.limit()) return -1;
+            int count = tiff.getShort(offset) & 0xFFFF;
+            int entry = offset + 2;
+            for (int i = 0; i < count && entry + 12 <= tiff.limit(); i++, entry += 12)
+            {
+                int tag = tiff.getShort(entry) & 0xFFFF;
+                int type = tiff.getShort(entry + 2) & 0xFFFF;
+                long valueCount = tiff.getInt(entry + 4) & 0xFFFFFFFFL;
+                if (type <= 0 || type >= TYPE_SIZES.length) continue;
+                long length = valueCount * TYPE_SIZES[type];
+                int valueOffset = length <= 4 ? entry + 8 : tiff.getInt(entry + 8);
+                if (valueOffset < 0 || length > tiff.limit() - valueOffset) continue;
+
+                byte[] value = new byte[(int) length];
+                ByteBuffer source = tiff.duplicate();
+                source.position(valueOffset);
+                source.get(value);
+                if (tiff.order() == ByteOrder.LITTLE_ENDIAN)
+                {
+                    int unit = type == TYPE_RATIONAL || type == TYPE_SRATIONAL ? 4 : TYPE_SIZES[type];
+                    for (int start = 0; start + unit <= value.length; start += unit)
+                    {
+                        reverse(value, start, unit);
+                    }
+                }
+                into.add(new Field(tag, type, (int) valueCount, value));
+            }
+            int next = offset + 2 + count * 12;
+            return next + 4 <= tiff.limit() ? tiff.getInt(next) : 0;
+        }
+
+        /**
+         * Remove a pointer from the fields.
+         *
+         * @return the offset it points to, or -1 if it is missing.
+         */
+        private static int takeOffset(List<Field> fields, int tag)
+        {
+            Field field = take(fields, tag);
+            return field == null ? -1 : (int) unsigned(field);
+        }
+
+        private static Field take(List<Field> fields, int tag)
+        {
+            Field field = find(fields, tag);
+            if (field != null) fields.remove(field);
+            return field;
+        }
+
+        private static Field find(List<Field> fields, int tag)
+        {
+            for (Field field : fields)
+            {
+                if (field.tag == tag) return field;
+            }
+            return null;
+        }
+
+        private static long unsigned(Field field)
+        {
+            if (field.type == TYPE_LONG && field.value.length == 4) return ByteBuffer.wrap(field.value).getInt() & 0xFFFFFFFFL;
+            if (field.type == TYPE_SHORT && field.value.length == 2) return ByteBuffer.wrap(field.value).getShort() & 0xFFFF;
+            return -1;
+        }
+
+        private static void reverse(byte[] bytes, int start, int length)
+        {
+            for (int i = start, j = start + length - 1; i < j; i++, j--)
+            {
+                byte swap = bytes[i];
+                bytes[i] = bytes[j];
+                bytes[j] = swap;
+            }
+        }
+    }
+
+    /**
+     * The GPS values for a {@link Location}, encoded the same way {@link ExifInterface#setGpsInfo(Location)} does.
+     */
+    private static final class GpsValues
+    {
+        private final Location location;
+
+        GpsValues(Location location)
+        {
+            this.location = location;
+        }
+
+        /**
+         * Get the field for a GPS tag.
+         */
+        Field field(int tag, int type, int count)
+        {
+            ByteBuffer value = ByteBuffer.allocate(count * TYPE_SIZES[type]);
+            put(tag, value, count);
+            return new Field(tag, type, count, value.array());
+        }
+
+        /**
+         * Put the value for a GPS tag into the buffer, padding it to the given count.
+         *
+         * @return false if the value does not fit into count.
+         */
+        boolean put(int tag, ByteBuffer buffer, int count)
+        {
+            switch (tag)
+            {
+                case TAG_GPS_LATITUDE_REF:
+                    return putAscii(buffer, location.getLatitude() >= 0 ? "N" : "S", count);
+                case TAG_GPS_LATITUDE:
+                    putDegrees(buffer, location.getLatitude());
+                    return true;
+                case TAG_GPS_LONGITUDE_REF:
+                    return putAscii(buffer, location.getLongitude() >= 0 ? "E" : "W", count);
+                case TAG_GPS_LONGITUDE:
+                    putDegrees(buffer, location.getLongitude());
+                    return true;
+                case TAG_GPS_ALTITUDE_REF:
+                    buffer.put((byte) (location.getAltitude() >= 0 ? 0 : 1));
+                    return true;
+                case TAG_GPS_ALTITUDE:
+                    putRational(buffer, Math.abs(location.getAltitude()));
+                    return true;
+                case TAG_GPS_SPEED_REF:
+                    return putAscii(buffer, "K", count);
+                case TAG_GPS_SPEED:
+                    putRational(buffer, location.getSpeed() * TimeUnit.HOURS.toSeconds(1) / 1000f);
+                    return true;
+                case TAG_GPS_PROCESSING_METHOD:
+                    return putAscii(buffer, location.getProvider(), count);
+                default:
+                    return false;
+            }
+        }
+
+        private static boolean putAscii(ByteBuffer buffer, String value, int count)
+        {
+            byte[] bytes = asciiBytes(value);
+            if (bytes.length >= count) return false;
+            buffer.put(bytes);
+            for (int i = bytes.length; i < count; i++)
+            {
+                buffer.put((byte) 0);
+            }
+            return true;
+        }
+
+        private static void putDegrees(ByteBuffer buffer, double value)
+        {
+            double position = Math.abs(value);
+            int degrees = (int) position;
+            position = (position - degrees) * 60;
+            int minutes = (int) position;
+            position = (position - minutes) * 60;
+            buffer.putInt(degrees).putInt(1);
+            buffer.putInt(minutes).putInt(1);
+            buffer.putInt((int) Math.round(position * 1000)).putInt(1000);
+        }
+
+        private static void putRational(ByteBuffer buffer, double value)
+        {
+            buffer.putInt((int) Math.round(value * 10000)).putInt(10000);
+        }
+    }
+}
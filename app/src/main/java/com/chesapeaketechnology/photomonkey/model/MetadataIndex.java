@@ -0,0 +1,230 @@
+package com.chesapeaketechnology.photomonkey.model;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.location.Location;
+import android.net.Uri;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A local SQLite index of the metadata for every image in the gallery, so that metadata lookups do
+ * not need to parse the image from storage. The index is a cache; the image (or its sidecar) remains
+ * the source of truth and the index can be rebuilt from it at any time.
+ * <p>
+ * The index also follows each image through the upload queue: it is {@link UploadState#QUEUED} when
+ * submitted, {@link UploadState#UPLOADED} once the endpoint has it and {@link UploadState#FAILED}
+ * while its last attempt failed. The content hash an upload needs is not kept here; the upload
+ * ledger works it out when the image is first sent and keeps it for as long as the image is unchanged.
+ *
+ * @since 0.3.0
+ */
+public class MetadataIndex extends SQLiteOpenHelper
+{
+    private static final String DATABASE_NAME = "metadata_index.db";
+    private static final int DATABASE_VERSION = 1;
+
+    static final String TABLE = "image_metadata";
+    static final String COLUMN_URI = "uri";
+    static final String COLUMN_CAPTURED_AT = "captured_at";
+    static final String COLUMN_PROVIDER = "provider";
+    static final String COLUMN_LATITUDE = "latitude";
+    static final String COLUMN_LONGITUDE = "longitude";
+    static final String COLUMN_ALTITUDE = "altitude";
+    static final String COLUMN_SPEED = "speed";
+    static final String COLUMN_DESCRIPTION = "description";
+    static final String COLUMN_REVERSED = "reversed";
+    static final String COLUMN_UPLOAD_STATE = "upload_state";
+    static final String COLUMN_SIZE = "size";
+
+    private static MetadataIndex instance;
+
+    /**
+     * The upload state of an image, as far as the index knows.
+     */
+    public enum UploadState
+    {
+        NOT_UPLOADED,
+        QUEUED,
+        UPLOADED,
+        FAILED
+    }
+
+    /**
+     * Get the shared index for the application.
+     *
+     * @param context any {@link Context}, the application context is retained.
+     * @return the {@link MetadataIndex}
+     */
+    public static synchronized MetadataIndex getInstance(Context context)
+    {
+        if (instance == null)
+        {
+            instance = new MetadataIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MetadataIndex(Context context)
+    {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db)
+    {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COLUMN_URI + " TEXT PRIMARY KEY NOT NULL, "
+                + COLUMN_CAPTURED_AT + " INTEGER, "
+                + COLUMN_PROVIDER + " TEXT, "
+                + COLUMN_LATITUDE + " REAL, "
+                + COLUMN_LONGITUDE + " REAL, "
+                + COLUMN_ALTITUDE + " REAL, "
+                + COLUMN_SPEED + " REAL, "
+                + COLUMN_DESCRIPTION + " TEXT, "
+                + COLUMN_REVERSED + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_UPLOAD_STATE + " TEXT NOT NULL DEFAULT '" + UploadState.NOT_UPLOADED.name() + "', "
+                + COLUMN_SIZE + " INTEGER)");
+        db.execSQL("CREATE INDEX idx_" + TABLE + "_" + COLUMN_CAPTURED_AT + " ON " + TABLE + " (" + COLUMN_CAPTURED_AT + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
+    {
+        // The index is rebuilt from storage, so it is safe to simply start over.
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    /**
+     * Look up the metadata for an image.
+     *
+     * @param imageUri the {@link Uri} of the image.
+     * @return the {@link Metadata}, or null if the image is not in the index.
+     */
+    public Metadata find(Uri imageUri)
+    {
+        try (Cursor cursor = getReadableDatabase().query(TABLE,
+                new String[]{COLUMN_DESCRIPTION, COLUMN_REVERSED, COLUMN_PROVIDER, COLUMN_LATITUDE, COLUMN_LONGITUDE, COLUMN_ALTITUDE, COLUMN_SPEED},
+                COLUMN_URI + " = ?", new String[]{imageUri.toString()}, null, null, null))
+        {
+            if (!cursor.moveToFirst())
+            {
+                return null;
+            }
+            Location location = null;
+            if (!cursor.isNull(3) && !cursor.isNull(4))
+            {
+                location = new Location(cursor.getString(2));
+                location.setLatitude(cursor.getDouble(3));
+                location.setLongitude(cursor.getDouble(4));
+                location.setAltitude(cursor.getDouble(5));
+                location.setSpeed(cursor.getFloat(6));
+            }
+            return new Metadata(cursor.getString(0), location, cursor.getInt(1) != 0);
+        }
+    }
+
+    /**
+     * Add or replace the metadata for an image. The upload state of an existing entry is kept.
+     *
+     * @param imageUri   the {@link Uri} of the image.
+     * @param metadata   the {@link Metadata} of the image.
+     * @param capturedAt when the image was captured, in milliseconds since the epoch.
+     * @param size       the size of the image in bytes, or -1 if unknown.
+     */
+    public void put(Uri imageUri, Metadata metadata, long capturedAt, long size)
+    {
+        ContentValues values = toValues(metadata);
+        values.put(COLUMN_CAPTURED_AT, capturedAt);
+        if (size >= 0) values.put(COLUMN_SIZE, size);
+
+        SQLiteDatabase db = getWritableDatabase();
+        if (db.update(TABLE, values, COLUMN_URI + " = ?", new String[]{imageUri.toString()}) == 0)
+        {
+            values.put(COLUMN_URI, imageUri.toString());
+            db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        }
+    }
+
+    /**
+     * Update the metadata for an image that has been edited.
+     *
+     * @param imageUri the {@link Uri} of the image.
+     * @param metadata the new {@link Metadata}.
+     * @return true if the image was in the index.
+     */
+    public boolean update(Uri imageUri, Metadata metadata)
+    {
+        return getWritableDatabase().update(TABLE, toValues(metadata), COLUMN_URI + " = ?", new String[]{imageUri.toString()}) > 0;
+    }
+
+    /**
+     * Record the upload state of an image.
+     *
+     * @param imageUri the {@link Uri} of the image.
+     * @param state    the new {@link UploadState}.
+     */
+    public void setUploadState(Uri imageUri, UploadState state)
+    {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_UPLOAD_STATE, state.name());
+        getWritableDatabase().update(TABLE, values, COLUMN_URI + " = ?", new String[]{imageUri.toString()});
+    }
+
+    /**
+     * Remove an image from the index.
+     *
+     * @param imageUri the {@link Uri} of the image.
+     */
+    public void remove(Uri imageUri)
+    {
+        getWritableDatabase().delete(TABLE, COLUMN_URI + " = ?", new String[]{imageUri.toString()});
+    }
+
+    /**
+     * Get the uris of all of the images in the index.
+     *
+     * @return the uris as strings.
+     */
+    public Set<String> indexedUris()
+    {
+        Set<String> uris = new HashSet<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE, new String[]{COLUMN_URI}, null, null, null, null, null))
+        {
+            while (cursor.moveToNext())
+            {
+                uris.add(cursor.getString(0));
+            }
+        }
+        return uris;
+    }
+
+    private static ContentValues toValues(Metadata metadata)
+    {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_DESCRIPTION, metadata.getDescription());
+        values.put(COLUMN_REVERSED, metadata.isReversed() ? 1 : 0);
+        Location location = metadata.getLocation();
+        if (location != null)
+        {
+            values.put(COLUMN_PROVIDER, location.getProvider());
+            values.put(COLUMN_LATITUDE, location.getLatitude());
+            values.put(COLUMN_LONGITUDE, location.getLongitude());
+            values.put(COLUMN_ALTITUDE, location.getAltitude());
+            values.put(COLUMN_SPEED, location.getSpeed());
+        } else
+        {
+            values.putNull(COLUMN_PROVIDER);
+            values.putNull(COLUMN_LATITUDE);
+            values.putNull(COLUMN_LONGITUDE);
+            values.putNull(COLUMN_ALTITUDE);
+            values.putNull(COLUMN_SPEED);
+        }
+        return values;
+    }
+}
@@ -4,22 +4,14 @@ import static com.chesapeaketechnology.photomonkey.PhotoMonkeyApplication.getCon
 
 import android.content.ActivityNotFoundException;
 import android.content.ComponentName;
-import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.media.MediaScannerConnection;
-import android.net.ConnectivityManager;
-import android.net.Network;
-import android.net.NetworkCapabilities;
-import android.net.NetworkInfo;
 import android.net.Uri;
-import android.provider.MediaStore;
 import android.webkit.MimeTypeMap;
-import android.widget.Toast;
 
 import com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants;
+import com.chesapeaketechnology.photomonkey.service.MetadataUpdate;
 import com.chesapeaketechnology.photomonkey.service.PhotoUploadSubmissionHandler;
-import com.chesapeaketechnology.photomonkey.util.PreferenceUtils;
 import com.google.common.io.Files;
 
 import java.io.File;
@@ -94,113 +86,54 @@ public class PublicationDelegate
     }
 
     /**
-     * Posts a file to an Rest API as long as current preferences (i.e. VPN and WiFi) allow it.
+     * Queues a file to be posted to an Rest API. The file is always queued; the Wi-Fi Only and VPN
+     * Only preferences decide when the upload may go out, not whether it happens.
      *
      * @param fileToUpload The Uri of the file to upload
      * @since 0.2.0
      */
     public static void uploadFileToRemoteEndpoint(Uri fileToUpload)
     {
-        Context context = getContext();
-        final boolean transmitOnlyOnVpn = PreferenceUtils.getVpnOnlyPreference(context);
-        final boolean transmitOnlyOnWiFi = PreferenceUtils.getWifiOnlyPreference(context);
-
-        if (transmitOnlyOnWiFi && !isWiFiConnected())
-        {
-            String message = "Skipping upload because Wi-Fi Only setting is enabled and no Wi-Fi is available";
-            Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
-            Timber.w(message);
-            return;
-        }
-
-        if (transmitOnlyOnVpn)
-        {
-            if (isVpnEnabled())
-            {
-                uploadFiles(fileToUpload);
-            } else
-            {
-                String message = "Skipping upload because VPN Only setting is enabled and no VPN is available";
-                Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
-                Timber.w(message);
-            }
-        } else
-        {
-            uploadFiles(fileToUpload);
-        }
-    }
-
-    /**
-     * Submit file to the submission handler for uploading
-     * @param fileToUpload
-     * @since 0.2.0
-     */
-    private static void uploadFiles(Uri fileToUpload)
-    {
-        try (Cursor cursor = getContext().getContentResolver().query(fileToUpload, null, null, null, null))
-        {
-            if (cursor != null && cursor.moveToFirst())
-            {
-                String filename = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATA));
-                PhotoUploadSubmissionHandler.uploadPhotoToRemoteEndpoint(getContext(), filename);
-            }
-        }
+        uploadFileToRemoteEndpoint(fileToUpload, false);
     }
 
     /**
-     * Check if the Android device is currently connected to a Wi-Fi network.
+     * Queues a file to be posted to an Rest API, ahead of the files already queued if it is urgent.
      *
-     * @return If the device is connected to a Wi-Fi Network return true.
+     * @param fileToUpload The Uri of the file to upload
+     * @param urgent       true to send the file before the rest of the queue
+     * @since 0.3.0
      */
-    private static boolean isWiFiConnected()
+    public static void uploadFileToRemoteEndpoint(Uri fileToUpload, boolean urgent)
     {
-        final ConnectivityManager connectivityManager = (ConnectivityManager) getContext().getSystemService(Context.CONNECTIVITY_SERVICE);
-        if (connectivityManager == null) return false;
-
-        boolean wifiConnected = false;
-
-        for (Network network : connectivityManager.getAllNetworks())
-        {
-            NetworkInfo networkInfo = connectivityManager.getNetworkInfo(network);
-            if (networkInfo == null) continue;
-
-            if (networkInfo.getType() == ConnectivityManager.TYPE_WIFI)
-            {
-                wifiConnected = networkInfo.isConnected();
-                break;
-            }
-        }
-
-        return wifiConnected;
+        // The photo is queued by its Uri and streamed from it, so no file path is needed.
+        IoDispatcher.runAsync(IoDispatcher.Lane.UPLOAD, () ->
+                PhotoUploadSubmissionHandler.uploadPhotoToRemoteEndpoint(getContext(), fileToUpload, urgent))
+                .exceptionally(e -> {
+                    Timber.e(e, "Unable to queue %s for upload", fileToUpload);
+                    return null;
+                });
     }
 
     /**
-     * Check if the Android device is currently attached to a VPN.
+     * Queues an edit to the metadata of an image to be sent to the Rest API. Only the fields that
+     * changed are sent if the endpoint already has the image; otherwise the image is queued for
+     * upload as {@link #uploadFileToRemoteEndpoint(Uri)} would.
      *
-     * @return If the device is connected to a VPN return true.
+     * @param editedFile The Uri of the edited file
+     * @param previous   The metadata before the edit
+     * @param current    The metadata after the edit
+     * @since 0.3.0
      */
-    private static boolean isVpnEnabled()
+    public static void syncMetadataToRemoteEndpoint(Uri editedFile, Metadata previous, Metadata current)
     {
-        final ConnectivityManager connectivityManager = (ConnectivityManager) getContext().getSystemService(Context.CONNECTIVITY_SERVICE);
-        if (connectivityManager == null) return false;
-
-        final Network[] networks = connectivityManager.getAllNetworks();
-
-        boolean vpnEnabled = false;
-
-        for (Network network : networks)
-        {
-            final NetworkCapabilities caps = connectivityManager.getNetworkCapabilities(network);
-            if (caps == null) continue;
-
-            if (caps.hasTransport(NetworkCapabilities.TRANSPORT_VPN)
-                    && !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_VPN))
-            {
-                vpnEnabled = true;
-            }
-        }
-
-        return vpnEnabled;
+        final MetadataUpdate update = MetadataUpdate.between(previous, current);
+        IoDispatcher.runAsync(IoDispatcher.Lane.UPLOAD, () ->
+                PhotoUploadSubmissionHandler.syncMetadataToRemoteEndpoint(getContext(), editedFile, update))
+                .exceptionally(e -> {
+                    Timber.e(e, "Unable to queue the metadata of %s for upload", editedFile);
+                    return null;
+                });
     }
 
     /**
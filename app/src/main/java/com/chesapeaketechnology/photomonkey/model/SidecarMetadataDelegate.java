@@ -0,0 +1,263 @@
+package com.chesapeaketechnology.photomonkey.model;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.location.Location;
+import android.net.Uri;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import com.chesapeaketechnology.photomonkey.PhotoMonkeyFeatures;
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyApplication.*;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
+
+import timber.log.Timber;
+
+/**
+ * Stores the metadata for an image in a small JSON companion file so that editing the metadata
+ * never rewrites the image itself. Images in the external media dir get a sidecar next to the image
+ * file. Images in the {@link android.provider.MediaStore} get a sidecar in the application files
+ * directory, keyed by the MediaStore id, since nothing can be written next to them.
+ * <p>
+ * Images without a sidecar (captured before the first edit, or by an older version) fall back to
+ * the metadata embedded in their EXIF. The remote endpoint only ever sees the image, so a photo with a
+ * sidecar is uploaded as a copy with the sidecar written into its EXIF (see {@link #embed}).
+ *
+ * @since 0.3.0
+ */
+public class SidecarMetadataDelegate extends AMetadataDelegate
+{
+    public static final String SIDECAR_EXTENSION = ".json";
+    private static final String SIDECAR_DIRECTORY = "metadata";
+
+    private static final ExecutorService executorService = IoDispatcher.executor(IoDispatcher.Lane.METADATA);
+    private static final Gson GSON = new Gson();
+
+    private final ExifMetadataDelegate exifDelegate;
+
+    public SidecarMetadataDelegate()
+    {
+        exifDelegate = PhotoMonkeyFeatures.USE_EXTERNAL_MEDIA_DIR ? new ExifMetadataDelegate() : new ExifMetadataMediaStoreDelegate();
+    }
+
+    @Override
+    public void save(Metadata metadata, Image forImage) throws SaveFailure
+    {
+        try
+        {
+            Future<Void> result = executorService.submit(() -> {
+                long start = System.nanoTime();
+                writeSidecar(metadata, sidecarFor(forImage.getUri()));
+                Timber.d("Saved sidecar metadata [%s] in %d us", metadata, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                return null;
+            });
+            result.get(SINGLE_FILE_IO_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | InterruptedException | TimeoutException | RejectedExecutionException e)
+        {
+            throw new SaveFailure("Error saving sidecar metadata.", e.getCause());
+        }
+    }
+
+    @Override
+    public Metadata read(Image fromImage) throws ReadFailure
+    {
+        try
+        {
+            Future<Metadata> result = executorService.submit(() -> readMetadata(fromImage));
+            return result.get(SINGLE_FILE_IO_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | InterruptedException | TimeoutException | RejectedExecutionException e)
+        {
+            throw new ReadFailure("Error reading sidecar metadata.", e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Metadata> readAsync(Image fromImage)
+    {
+        return IoDispatcher.supplyAsync(IoDispatcher.Lane.METADATA, () -> {
+            try
+            {
+                return readMetadata(fromImage);
+            } catch (IOException e)
+            {
+                throw new CompletionException(new ReadFailure("Error reading sidecar metadata.", e));
+            }
+        });
+    }
+
+    @Override
+    public void remove(Uri forUri)
+    {
+        File sidecar = sidecarFor(forUri);
+        if (sidecar.exists() && !sidecar.delete())
+        {
+            Timber.w("Unable to delete sidecar %s", sidecar);
+        }
+    }
+
+    /**
+     * Get when the metadata for an image was last saved to its sidecar.
+     *
+     * @param imageUri the {@link Uri} of the image.
+     * @return the time the sidecar was last modified, or 0 if the image does not have one.
+     */
+    public static long sidecarLastModified(Uri imageUri)
+    {
+        return sidecarFor(imageUri).lastModified();
+    }
+
+    /**
+     * Write the sidecar metadata of an image into the EXIF of a copy of the image on the calling
+     * thread. The image itself is left untouched.
+     *
+     * @param imageUri the {@link Uri} of the image the sidecar belongs to.
+     * @param copy     a JPEG copy of the image.
+     * @throws IOException if the sidecar could not be read or the copy could not be written.
+     */
+    public void embed(Uri imageUri, File copy) throws IOException
+    {
+        exifDelegate.writeData(readSidecar(sidecarFor(imageUri)), new ExifInterface(copy.getAbsolutePath()));
+    }
+
+    /**
+     * Read the sidecar for the image on the calling thread, falling back to the EXIF metadata if
+     * the image does not have one.
+     */
+    private Metadata readMetadata(Image fromImage) throws IOException
+    {
+        File sidecar = sidecarFor(fromImage.getUri());
+        if (!sidecar.exists())
+        {
+            return exifDelegate.readMetadata(fromImage);
+        }
+        return readSidecar(sidecar);
+    }
+
+    private static Metadata readSidecar(File sidecar) throws IOException
+    {
+        try (Reader reader = Files.newBufferedReader(sidecar.toPath(), StandardCharsets.UTF_8))
+        {
+            SidecarRecord record = GSON.fromJson(reader, SidecarRecord.class);
+            if (record == null)
+            {
+                throw new IOException(String.format("Empty sidecar %s", sidecar));
+            }
+            return record.toMetadata();
+        } catch (RuntimeException e)
+        {
+            throw new IOException(String.format("Unable to parse sidecar %s", sidecar), e);
+        }
+    }
+
+    /**
+     * Write the sidecar to a temporary file and move it over the old one, so a reader never sees
+     * a partially written sidecar.
+     */
+    private static void writeSidecar(Metadata metadata, File sidecar) throws IOException
+    {
+        File directory = sidecar.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs())
+        {
+            throw new IOException(String.format("Unable to create sidecar directory %s", directory));
+        }
+        File tempFile = File.createTempFile("tmp_", SIDECAR_EXTENSION, directory);
+        try
+        {
+            try (Writer writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8))
+            {
+                GSON.toJson(new SidecarRecord(metadata), writer);
+            }
+            Files.move(tempFile.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally
+        {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Get the sidecar file for an image.
+     *
+     * @param imageUri the {@link Uri} of the image.
+     * @return the sidecar {@link File}, which may not exist yet.
+     */
+    static File sidecarFor(Uri imageUri)
+    {
+        if ("content".equals(imageUri.getScheme()))
+        {
+            Context context = getContext();
+            File directory = new File(context.getFilesDir(), SIDECAR_DIRECTORY);
+            return new File(directory, ContentUris.parseId(imageUri) + SIDECAR_EXTENSION);
+        }
+        File imageFile = new File(imageUri.getPath());
+        return new File(imageFile.getParentFile(), imageFile.getName() + SIDECAR_EXTENSION);
+    }
+
+    /**
+     * The JSON representation of a {@link Metadata} object.
+     */
+    private static final class SidecarRecord
+    {
+        private String description;
+        private boolean reversed;
+        private String provider;
+        private Double latitude;
+        private Double longitude;
+        private Double altitude;
+        private Float speed;
+        private Long time;
+
+        private SidecarRecord()
+        {
+        }
+
+        SidecarRecord(Metadata metadata)
+        {
+            description = metadata.getDescription();
+            reversed = metadata.isReversed();
+            Location location = metadata.getLocation();
+            if (location != null)
+            {
+                provider = location.getProvider();
+                latitude = location.getLatitude();
+                longitude = location.getLongitude();
+                altitude = location.getAltitude();
+                speed = location.getSpeed();
+                time = location.getTime();
+            }
+        }
+
+        Metadata toMetadata()
+        {
+            Location location = null;
+            if (latitude != null && longitude != null)
+            {
+                location = new Location(provider);
+                location.setLatitude(latitude);
+                location.setLongitude(longitude);
+                if (altitude != null) location.setAltitude(altitude);
+                if (speed != null) location.setSpeed(speed);
+                if (time != null) location.setTime(time);
+            }
+            return new Metadata(description, location, reversed);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The response to a batch upload, with a result for each photo in the batch.
+ *
+ * @since 0.3.0
+ */
+public class BatchUploadResponse
+{
+    @SerializedName("results")
+    private List<ItemResult> results;
+
+    public List<ItemResult> getResults()
+    {
+        return results == null ? Collections.emptyList() : results;
+    }
+
+    /**
+     * The result of uploading one photo of a batch, identified by the Idempotency-Key of its part.
+     * File names need not be unique, so they only serve for logging.
+     */
+    public static class ItemResult
+    {
+        @SerializedName("idempotency_key")
+        private String idempotencyKey;
+
+        @SerializedName("filename")
+        private String filename;
+
+        @SerializedName("status")
+        private int status;
+
+        public String getIdempotencyKey()
+        {
+            return idempotencyKey;
+        }
+
+        public String getFilename()
+        {
+            return filename;
+        }
+
+        /**
+         * @return the HTTP status the endpoint would have answered for this photo alone.
+         */
+        public int getStatus()
+        {
+            return status;
+        }
+
+        public boolean isSuccessful()
+        {
+            return status >= 200 && status < 300;
+        }
+    }
+}
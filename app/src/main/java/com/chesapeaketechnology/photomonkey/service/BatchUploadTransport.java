@@ -0,0 +1,189 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.chesapeaketechnology.photomonkey.util.PhotoUploadApiUtils;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
+import retrofit2.Response;
+import timber.log.Timber;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
+
+/**
+ * Uploads several photos in one multipart request to the batch endpoint, so a backlog of photos
+ * costs one request per batch instead of one per photo. Each photo is streamed from storage as the
+ * request is written.
+ * <p>
+ * The batch endpoint is the upload path followed by {@link PhotoUploadService#BATCH_PATH_SUFFIX}, a
+ * route this app defines and the server has to implement; only photos queued in the multipart format
+ * are batched. An endpoint that answers the batch path with 404, 405 or 501 has no batch endpoint.
+ * The photos are then sent one at a time in the multipart format, and the endpoint is recorded in
+ * the {@link UnsupportedEndpoints} of the HTTP client so it is sent no more batches for a while.
+ *
+ * @since 0.3.0
+ */
+public class BatchUploadTransport
+{
+    private static final MediaType MEDIA_TYPE_JPEG = MediaType.parse("image/jpeg");
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_METHOD_NOT_ALLOWED = 405;
+    private static final int HTTP_NOT_IMPLEMENTED = 501;
+
+    private final PhotoUploadService uploadService;
+    private final String endpoint;
+    private final UnsupportedEndpoints batchUnsupported;
+
+    /**
+     * @param uploadService    the {@link PhotoUploadService} to post with.
+     * @param endpoint         the endpoint the photos are going to, as recorded in the {@link UploadLedger}.
+     * @param batchUnsupported the endpoints the HTTP client behind the service has found to have no batch endpoint.
+     */
+    public BatchUploadTransport(@NonNull PhotoUploadService uploadService, @NonNull String endpoint,
+                                @NonNull UnsupportedEndpoints batchUnsupported)
+    {
+        this.uploadService = uploadService;
+        this.endpoint = endpoint;
+        this.batchUnsupported = batchUnsupported;
+    }
+
+    /**
+     * Upload a batch of photos, blocking until the endpoint has answered. The photos must all be
+     * going to the same endpoint from the same device.
+     *
+     * @param uploads the photos to upload.
+     * @return the photos the endpoint accepted. Photos it refused, or left out of its response,
+     * should be tried again later.
+     * @throws IOException if the batch could not be sent.
+     */
+    public Set<PhotoUpload> upload(List<PhotoUpload> uploads) throws IOException
+    {
+        if (batchUnsupported.contains(endpoint)) return uploadEach(uploads);
+
+        final PhotoUpload first = uploads.get(0);
+        // Two photos with the same content share a key, and the endpoint keeps only one of them.
+        Map<String, List<PhotoUpload>> byKey = new HashMap<>();
+        List<String> hashes = new ArrayList<>(uploads.size());
+        List<MultipartBody.Part> content = new ArrayList<>(uploads.size());
+        for (PhotoUpload upload : uploads)
+        {
+            final String filename = upload.photo.name;
+            byKey.computeIfAbsent(upload.getIdempotencyKey(), key -> new ArrayList<>(1)).add(upload);
+            hashes.add(upload.contentHash);
+            // The same part createFormData would build, plus the key of this photo alone so the
+            // server can skip photos it kept from an earlier, partly failed batch.
+            Headers headers = new Headers.Builder()
+                    .add("Content-Disposition", "form-data; name=\"content\"; filename=\"" + filename + "\"")
+                    .add(PhotoUploadService.HEADER_IDEMPOTENCY_KEY, upload.getIdempotencyKey())
+                    .build();
+            content.add(MultipartBody.Part.create(headers, new PhotoRangeRequestBody(MEDIA_TYPE_JPEG, upload.photo)));
+        }
+
+        final Response<BatchUploadResponse> response = uploadService.postPhotoBatch(
+                RequestBody.create(MultipartBody.FORM, PhotoUploadApiUtils.PHOTOMONKEY_API_VERSION),
+                RequestBody.create(MultipartBody.FORM, first.deviceId),
+                content, batchKey(hashes), first.pathUrl, first.queryParameters).execute();
+
+        final int code = response.code();
+        if (code == HTTP_NOT_FOUND || code == HTTP_METHOD_NOT_ALLOWED || code == HTTP_NOT_IMPLEMENTED)
+        {
+            Timber.w("%s has no batch endpoint (%d), sending photos one at a time", endpoint, code);
+            batchUnsupported.add(endpoint);
+            return uploadEach(uploads);
+        }
+
+        Set<PhotoUpload> accepted = new HashSet<>();
+        if (!response.isSuccessful() || response.body() == null)
+        {
+            Timber.w("Batch of %d photos refused. Response: %s", uploads.size(), response);
+            return accepted;
+        }
+        for (BatchUploadResponse.ItemResult result : response.body().getResults())
+        {
+            final List<PhotoUpload> matching = byKey.get(result.getIdempotencyKey());
+            if (matching == null) continue;
+            if (result.isSuccessful())
+            {
+                accepted.addAll(matching);
+            } else
+            {
+                Timber.w("Photo %s refused with status %d", result.getFilename(), result.getStatus());
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Send the photos one per request, for an endpoint without a batch endpoint.
+     */
+    private Set<PhotoUpload> uploadEach(List<PhotoUpload> uploads) throws CircuitBreaker.OpenException
+    {
+        final SingleRequestTransport transport = new SingleRequestTransport(uploadService, UPLOAD_FORMAT_MULTIPART);
+        Set<PhotoUpload> accepted = new HashSet<>();
+        for (PhotoUpload upload : uploads)
+        {
+            try
+            {
+                if (transport.upload(upload)) accepted.add(upload);
+            } catch (CircuitBreaker.OpenException e)
+            {
+                throw e;
+            } catch (IOException e)
+            {
+                Timber.e(e, "Exception caught while uploading %s", upload.photo);
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * The key of a whole batch, which only depends on which photos are in it.
+     */
+    private static String batchKey(List<String> hashes)
+    {
+        List<String> sorted = new ArrayList<>(hashes);
+        Collections.sort(sorted);
+        return Hashing.sha256().hashString(String.join(",", sorted), StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * The endpoints found to have no batch endpoint, kept for one HTTP client. An endpoint is tried
+     * with batches again once {@link com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants#BATCH_UNSUPPORTED_TTL_MILLIS}
+     * has passed, so a server that gains a batch endpoint is picked up without restarting the app.
+     */
+    public static final class UnsupportedEndpoints
+    {
+        private final Map<String, Long> expiries = new ConcurrentHashMap<>();
+
+        boolean contains(String endpoint)
+        {
+            final Long expiry = expiries.get(endpoint);
+            if (expiry == null) return false;
+            if (SystemClock.elapsedRealtime() < expiry) return true;
+            expiries.remove(endpoint, expiry);
+            return false;
+        }
+
+        void add(String endpoint)
+        {
+            expiries.put(endpoint, SystemClock.elapsedRealtime() + BATCH_UNSUPPORTED_TTL_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import okhttp3.HttpUrl;
+import timber.log.Timber;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
+
+/**
+ * Stops calls to an endpoint that keeps failing, so a server that is down does not cost battery and
+ * radio time for every queued photo. There is one breaker per endpoint (scheme, host and port),
+ * shared by every call to it.
+ * <p>
+ * The breaker opens after {@link com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants#CIRCUIT_BREAKER_FAILURE_THRESHOLD}
+ * failures in a row. While it is open calls fail straight away with an {@link OpenException}. Once
+ * the open period is over a single trial call is let through: if it succeeds the breaker closes, if
+ * not it opens again for twice as long, up to
+ * {@link com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants#CIRCUIT_BREAKER_MAX_OPEN_MILLIS}.
+ *
+ * @since 0.3.0
+ */
+public final class CircuitBreaker
+{
+    private enum State
+    {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final String endpoint;
+    private final LongSupplier clock;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openMillis = CIRCUIT_BREAKER_OPEN_MILLIS;
+    private long openUntil;
+
+    private CircuitBreaker(String endpoint)
+    {
+        this(endpoint, SystemClock::elapsedRealtime);
+    }
+
+    /**
+     * @param endpoint the endpoint the breaker guards, for the log.
+     * @param clock    the time in milliseconds, which only has to move forward.
+     */
+    CircuitBreaker(String endpoint, LongSupplier clock)
+    {
+        this.endpoint = endpoint;
+        this.clock = clock;
+    }
+
+    /**
+     * Get the breaker for the endpoint a url belongs to.
+     *
+     * @param url the url of a call.
+     * @return the shared {@link CircuitBreaker} for the endpoint.
+     */
+    public static CircuitBreaker forUrl(HttpUrl url)
+    {
+        return breakers.computeIfAbsent(url.scheme() + "://" + url.host() + ":" + url.port(), CircuitBreaker::new);
+    }
+
+    /**
+     * Check that a call may be made, and if the breaker is ready for a trial call, let this one be it.
+     *
+     * @throws OpenException if the breaker is open.
+     */
+    public synchronized void acquire() throws OpenException
+    {
+        if (state == State.CLOSED)
+        {
+            return;
+        }
+        final long now = clock.getAsLong();
+        if (now >= openUntil)
+        {
+            // Let one trial call through. If it never reports back, another is let through after the
+            // same period.
+            state = State.HALF_OPEN;
+            openUntil = now + openMillis;
+            Timber.i("Circuit for %s half open, trying one call", endpoint);
+            return;
+        }
+        throw new OpenException(endpoint, openUntil - now);
+    }
+
+    /**
+     * Record that a call reached the endpoint and got an answer that does not indicate the server is
+     * failing.
+     */
+    public synchronized void recordSuccess()
+    {
+        if (state != State.CLOSED)
+        {
+            Timber.i("Circuit for %s closed", endpoint);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openMillis = CIRCUIT_BREAKER_OPEN_MILLIS;
+    }
+
+    /**
+     * Record that a call failed to reach the endpoint or the server failed to handle it.
+     */
+    public synchronized void recordFailure()
+    {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN)
+        {
+            openMillis = Math.min(CIRCUIT_BREAKER_MAX_OPEN_MILLIS, openMillis * 2);
+            open();
+        } else if (state == State.CLOSED && consecutiveFailures >= CIRCUIT_BREAKER_FAILURE_THRESHOLD)
+        {
+            open();
+        }
+    }
+
+    /**
+     * @return how long until the breaker lets a trial call through, in milliseconds, or 0 if it is closed.
+     */
+    public synchronized long remainingOpenMillis()
+    {
+        return state == State.CLOSED ? 0 : Math.max(0, openUntil - clock.getAsLong());
+    }
+
+    private void open()
+    {
+        state = State.OPEN;
+        openUntil = clock.getAsLong() + openMillis;
+        Timber.w("Circuit for %s opened for %d ms after %d failures", endpoint, openMillis, consecutiveFailures);
+    }
+
+    /**
+     * Thrown instead of making a call while the breaker for its endpoint is open.
+     */
+    public static class OpenException extends IOException
+    {
+        private final long remainingOpenMillis;
+
+        public OpenException(String endpoint, long remainingOpenMillis)
+        {
+            super(String.format("Circuit for %s is open for another %d ms", endpoint, remainingOpenMillis));
+            this.remainingOpenMillis = remainingOpenMillis;
+        }
+
+        public long getRemainingOpenMillis()
+        {
+            return remainingOpenMillis;
+        }
+    }
+}
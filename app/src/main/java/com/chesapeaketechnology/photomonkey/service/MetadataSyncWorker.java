@@ -0,0 +1,182 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.work.Data;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.chesapeaketechnology.photomonkey.model.MetadataIndex;
+import com.chesapeaketechnology.photomonkey.util.PhotoUploadApiUtils;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import timber.log.Timber;
+
+/**
+ * Sends an edit to the metadata of a photo that has already been uploaded, without sending the
+ * photo again. The endpoint knows the photo by the content hash it was uploaded with, which the
+ * {@link UploadLedger} keeps even after the edit has changed the bytes of the photo.
+ * <p>
+ * Once the endpoint has the edit, the edited photo is recorded in the ledger as uploaded, so
+ * submitting it again does not send it. If the endpoint turns out not to have the photo, or has no
+ * metadata endpoint, the photo is queued for a full upload instead.
+ *
+ * @since 0.3.0
+ */
+public class MetadataSyncWorker extends Worker
+{
+    public static final String METADATA_SYNC_WORK_NAME_PREFIX = "PhotoMonkey-Metadata-Sync-";
+
+    static final String KEY_PHOTO_URI = "photoUri";
+    static final String KEY_DEVICE_ID = "deviceId";
+    static final String KEY_PATH_URL = "pathUrl";
+    static final String KEY_QUERY_URL = "queryUrl";
+    static final String KEY_UPDATE = "update";
+
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_METHOD_NOT_ALLOWED = 405;
+    private static final int HTTP_GONE = 410;
+
+    private static final Gson gson = new Gson();
+
+    public MetadataSyncWorker(@NonNull Context context, @NonNull WorkerParameters workerParams)
+    {
+        super(context, workerParams);
+    }
+
+    /**
+     * Build the input for syncing an edit.
+     *
+     * @param photoUri  the content Uri of the edited photo.
+     * @param deviceId  the device ID the photo was uploaded with.
+     * @param pathUrl   the upload path.
+     * @param queryUrl  the upload query parameters, as JSON.
+     * @param update    the changed fields.
+     * @return the input {@link Data} for the worker.
+     */
+    static Data inputData(String photoUri, String deviceId, String pathUrl, String queryUrl, MetadataUpdate update)
+    {
+        return new Data.Builder()
+                .putString(KEY_PHOTO_URI, photoUri)
+                .putString(KEY_DEVICE_ID, deviceId)
+                .putString(KEY_PATH_URL, pathUrl)
+                .putString(KEY_QUERY_URL, queryUrl)
+                .putString(KEY_UPDATE, gson.toJson(update))
+                .build();
+    }
+
+    @NonNull
+    @Override
+    public Result doWork()
+    {
+        final Data input = getInputData();
+        final String photoUri = input.getString(KEY_PHOTO_URI);
+        final MetadataUpdate update = gson.fromJson(input.getString(KEY_UPDATE), MetadataUpdate.class);
+        if (photoUri == null || update == null)
+        {
+            Timber.e("Metadata sync started without a photo or an update");
+            return Result.failure();
+        }
+
+        if (!VpnGate.isOpen(getApplicationContext()))
+        {
+            Timber.i("VPN Only is set and no VPN is connected, waiting to sync metadata");
+            return Result.retry();
+        }
+
+        final String pathUrl = input.getString(KEY_PATH_URL);
+        final Map<String, String> queryParameterMap = gson.fromJson(input.getString(KEY_QUERY_URL), Map.class);
+        final Retrofit retrofit = PhotoUploadApiUtils.getRetrofitInstance(getApplicationContext());
+        final String endpoint = PhotoUploadWorker.endpointOf(retrofit, pathUrl);
+        final UploadLedger ledger = UploadLedger.getInstance(getApplicationContext());
+
+        final String uploadedHash = ledger.uploadedHashOf(photoUri, endpoint);
+        if (uploadedHash == null)
+        {
+            Timber.i("%s is not on %s yet, uploading the whole photo", photoUri, endpoint);
+            PhotoUploadSubmissionHandler.uploadPhotoToRemoteEndpoint(getApplicationContext(), Uri.parse(photoUri));
+            return Result.success();
+        }
+
+        final PhotoContent photo;
+        try
+        {
+            photo = PhotoContent.resolve(getApplicationContext(), Uri.parse(photoUri));
+        } catch (FileNotFoundException e)
+        {
+            Timber.e(e, "%s no longer exists, dropping its metadata edit", photoUri);
+            return Result.failure();
+        } catch (IOException | SecurityException e)
+        {
+            Timber.e(e, "Failed to read %s, trying its metadata edit again later", photoUri);
+            return Result.retry();
+        }
+
+        update.setHash(uploadedHash);
+        update.setFilename(photo.name);
+        update.setDeviceID(input.getString(KEY_DEVICE_ID));
+        final String body = gson.toJson(update);
+        final String idempotencyKey = Hashing.sha256().hashString(body, StandardCharsets.UTF_8).toString();
+        final MetadataIndex index = MetadataIndex.getInstance(getApplicationContext());
+
+        try
+        {
+            final Response<ResponseBody> response = retrofit.create(PhotoUploadService.class)
+                    .postMetadata(update, idempotencyKey, pathUrl, queryParameterMap).execute();
+            try (ResponseBody ignored = response.body())
+            {
+                if (response.isSuccessful())
+                {
+                    recordEdited(ledger, photo, endpoint);
+                    index.setUploadState(photo.uri, MetadataIndex.UploadState.UPLOADED);
+                    Timber.i("Synced the metadata of %s in %d bytes", photo, body.length());
+                    return Result.success();
+                }
+                final int code = response.code();
+                if (code == HTTP_NOT_FOUND || code == HTTP_METHOD_NOT_ALLOWED || code == HTTP_GONE)
+                {
+                    Timber.w("%s cannot take the metadata of %s (%d), uploading the whole photo", endpoint, photo, code);
+                    PhotoUploadSubmissionHandler.uploadPhotoToRemoteEndpoint(getApplicationContext(), photo.uri);
+                    return Result.success();
+                }
+                Timber.w("Metadata sync refused. Response: %s", response);
+                index.setUploadState(photo.uri, MetadataIndex.UploadState.FAILED);
+                return Result.retry();
+            }
+        } catch (CircuitBreaker.OpenException e)
+        {
+            Timber.w(e.getMessage());
+            return Result.retry();
+        } catch (Throwable e)
+        {
+            Timber.e(e, "Exception caught while syncing photo metadata to %s", endpoint);
+            index.setUploadState(photo.uri, MetadataIndex.UploadState.FAILED);
+            return Result.retry();
+        }
+    }
+
+    /**
+     * The endpoint now has the photo as edited, so the edited content counts as uploaded.
+     */
+    private static void recordEdited(UploadLedger ledger, PhotoContent photo, String endpoint)
+    {
+        try
+        {
+            ledger.recordUploaded(ledger.hashOf(photo), photo.getKey(), endpoint);
+        } catch (IOException e)
+        {
+            Timber.w(e, "Unable to hash %s after syncing its metadata", photo);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import android.location.Location;
+
+import com.chesapeaketechnology.photomonkey.model.Metadata;
+import com.chesapeaketechnology.photomonkey.util.PhotoUploadApiUtils;
+import com.google.gson.annotations.SerializedName;
+
+import java.util.Objects;
+
+/**
+ * A change to the metadata of a photo the endpoint already has. The photo is identified by the
+ * content hash it was uploaded with, and only the fields that changed are set; Gson leaves the rest
+ * out of the request, so an edited description costs a few hundred bytes instead of the whole photo.
+ *
+ * @since 0.3.0
+ */
+public class MetadataUpdate
+{
+    @SerializedName("version")
+    private String version;
+
+    @SerializedName("hash")
+    private String hash;
+
+    @SerializedName("filename")
+    private String filename;
+
+    @SerializedName("device_id")
+    private String deviceID;
+
+    @SerializedName("description")
+    private String description;
+
+    @SerializedName("latitude")
+    private Double latitude;
+
+    @SerializedName("longitude")
+    private Double longitude;
+
+    @SerializedName("reversed")
+    private Boolean reversed;
+
+    public MetadataUpdate()
+    {
+        version = PhotoUploadApiUtils.PHOTOMONKEY_API_VERSION;
+    }
+
+    /**
+     * Work out which fields changed between two versions of the metadata of a photo.
+     *
+     * @param previous the metadata before the edit, or null if it was unknown.
+     * @param current  the metadata after the edit.
+     * @return the {@link MetadataUpdate} with the changed fields set, or null if nothing changed.
+     */
+    public static MetadataUpdate between(Metadata previous, Metadata current)
+    {
+        MetadataUpdate update = new MetadataUpdate();
+        boolean changed = false;
+        if (previous == null || !Objects.equals(previous.getDescription(), current.getDescription()))
+        {
+            update.description = current.getDescription() == null ? "" : current.getDescription();
+            changed = true;
+        }
+        final Location location = current.getLocation();
+        final Location previousLocation = previous == null ? null : previous.getLocation();
+        if (location != null && (previousLocation == null || previousLocation.getLatitude() != location.getLatitude()
+                || previousLocation.getLongitude() != location.getLongitude()))
+        {
+            update.latitude = location.getLatitude();
+            update.longitude = location.getLongitude();
+            changed = true;
+        }
+        if (previous == null || previous.isReversed() != current.isReversed())
+        {
+            update.reversed = current.isReversed();
+            changed = true;
+        }
+        return changed ? update : null;
+    }
+
+    public String getVersion()
+    {
+        return version;
+    }
+
+    public String getHash()
+    {
+        return hash;
+    }
+
+    /**
+     * @param hash the content hash the photo was uploaded with.
+     */
+    public void setHash(String hash)
+    {
+        this.hash = hash;
+    }
+
+    public String getFilename()
+    {
+        return filename;
+    }
+
+    public void setFilename(String filename)
+    {
+        this.filename = filename;
+    }
+
+    public String getDeviceID()
+    {
+        return deviceID;
+    }
+
+    public void setDeviceID(String deviceID)
+    {
+        this.deviceID = deviceID;
+    }
+
+    public String getDescription()
+    {
+        return description;
+    }
+
+    public Double getLatitude()
+    {
+        return latitude;
+    }
+
+    public Double getLongitude()
+    {
+        return longitude;
+    }
+
+    public Boolean getReversed()
+    {
+        return reversed;
+    }
+}
@@ -0,0 +1,152 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A photo to upload, read through the {@link ContentResolver} by its content Uri. The bytes are
+ * streamed straight from a {@link ParcelFileDescriptor}, so photos in the MediaStore are uploaded
+ * without resolving a file path (which scoped storage may not allow reading) and without copying
+ * them anywhere first. The name comes from {@link OpenableColumns} and the size from the open
+ * descriptor.
+ *
+ * @since 0.3.0
+ */
+public final class PhotoContent
+{
+    public final Uri uri;
+    public final String name;
+    public final long size;
+    public final long lastModified;
+
+    private final ContentResolver resolver;
+
+    PhotoContent(ContentResolver resolver, Uri uri, String name, long size, long lastModified)
+    {
+        this.resolver = resolver;
+        this.uri = uri;
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Look up a photo. The modification time is read from the open descriptor rather than the
+     * MediaStore, so an edit made a moment ago is seen even before the MediaStore catches up. It is
+     * to the millisecond where the platform offers it, and to the second before Android 8.1.
+     *
+     * @param context any {@link Context}.
+     * @param uri     the content Uri of the photo, or a file Uri or bare path.
+     * @return the {@link PhotoContent}.
+     * @throws FileNotFoundException if the photo no longer exists or cannot be read.
+     * @throws IOException           if the photo could not be looked up.
+     */
+    public static PhotoContent resolve(Context context, Uri uri) throws IOException
+    {
+        uri = withScheme(uri);
+        final ContentResolver resolver = context.getApplicationContext().getContentResolver();
+        String name = null;
+        long providerSize = -1;
+        if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme()))
+        {
+            try (Cursor cursor = resolver.query(uri, new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE},
+                    null, null, null))
+            {
+                if (cursor == null || !cursor.moveToFirst())
+                {
+                    throw new FileNotFoundException("No photo at " + uri);
+                }
+                name = cursor.getString(0);
+                if (!cursor.isNull(1)) providerSize = cursor.getLong(1);
+            }
+        }
+        if (name == null) name = uri.getLastPathSegment();
+
+        try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "r"))
+        {
+            if (descriptor == null) throw new FileNotFoundException("Unable to open " + uri);
+            final StructStat stat = Os.fstat(descriptor.getFileDescriptor());
+            // The size is what openChannel() will stream, which the SIZE column of the provider may
+            // not be: it lags behind an edit made through a "rw" descriptor. Only a descriptor that
+            // is not a regular file, such as a pipe, has no size of its own.
+            final long size = descriptor.getStatSize();
+            final long lastModified = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1
+                    ? TimeUnit.SECONDS.toMillis(stat.st_mtim.tv_sec) + TimeUnit.NANOSECONDS.toMillis(stat.st_mtim.tv_nsec)
+                    : TimeUnit.SECONDS.toMillis(stat.st_mtime);
+            return new PhotoContent(resolver, uri, name, size >= 0 ? size : providerSize, lastModified);
+        } catch (ErrnoException e)
+        {
+            throw new IOException("Unable to stat " + uri, e);
+        }
+    }
+
+    /**
+     * Open the photo for reading. Closing the channel closes the descriptor.
+     *
+     * @return a {@link FileChannel} positioned at the first byte of the photo.
+     * @throws IOException if the photo could not be opened.
+     */
+    public FileChannel openChannel() throws IOException
+    {
+        final ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "r");
+        if (descriptor == null) throw new FileNotFoundException("Unable to open " + uri);
+        return new ParcelFileDescriptor.AutoCloseInputStream(descriptor).getChannel();
+    }
+
+    /**
+     * @param name the name to send the photo under.
+     * @return the same photo under another name.
+     */
+    PhotoContent named(String name)
+    {
+        return new PhotoContent(resolver, uri, name, size, lastModified);
+    }
+
+    /**
+     * @return the key the photo is queued, hashed and resumed under.
+     */
+    public String getKey()
+    {
+        return uri.toString();
+    }
+
+    /**
+     * @param uri the content Uri of a photo, or a file Uri or bare path.
+     * @return the key the photo is queued, hashed and resumed under, without looking it up.
+     */
+    static String keyOf(Uri uri)
+    {
+        return withScheme(uri).toString();
+    }
+
+    /**
+     * Images in the external media dir may be known by a bare path; give them a file Uri.
+     */
+    private static Uri withScheme(Uri uri)
+    {
+        return uri.getScheme() == null ? Uri.fromFile(new File(uri.getPath())) : uri;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
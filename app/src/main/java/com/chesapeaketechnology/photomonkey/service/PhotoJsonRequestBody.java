@@ -0,0 +1,185 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import androidx.annotation.NonNull;
+
+import com.chesapeaketechnology.photomonkey.util.PhotoUploadApiUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * A request body that writes the same JSON as serializing a {@link Photo} with
+ * {@link PhotoUploadApiUtils#GSON}, but Base64 encodes the photo straight from its {@link PhotoContent} channel into the
+ * sink a chunk at a time. Heap use is the same no matter how large the photo is.
+ * <p>
+ * The output matches Gson byte for byte: fields in declaration order, null fields left out, and
+ * strings escaped the way Gson's HTML safe {@link com.google.gson.stream.JsonWriter} escapes them
+ * (which writes the Base64 padding character as a unicode escape).
+ *
+ * @since 0.3.0
+ */
+public class PhotoJsonRequestBody extends RequestBody
+{
+    // Same content type as the Gson converter
+    private static final MediaType MEDIA_TYPE = MediaType.parse("application/json; charset=UTF-8");
+    // A multiple of 3, so every chunk but the last encodes without padding
+    private static final int CHUNK_SIZE = 3 * 16 * 1024;
+    private static final byte[] ESCAPED_PADDING = "\\u003d".getBytes(StandardCharsets.US_ASCII);
+
+    private final PhotoContent photo;
+    private final byte[] prefix;
+    private final byte[] suffix;
+
+    /**
+     * @param photo    the photo to send as the "content" field.
+     * @param filename the "filename" field.
+     * @param deviceID the "device_id" field, left out when null.
+     */
+    public PhotoJsonRequestBody(PhotoContent photo, String filename, String deviceID)
+    {
+        this.photo = photo;
+
+        StringBuilder head = new StringBuilder("{");
+        appendField(head, "version", PhotoUploadApiUtils.PHOTOMONKEY_API_VERSION);
+        appendField(head, "filename", filename);
+        if (head.length() > 1) head.append(',');
+        head.append("\"content\":\"");
+        prefix = head.toString().getBytes(StandardCharsets.UTF_8);
+
+        StringBuilder tail = new StringBuilder("\"");
+        appendField(tail, "device_id", deviceID);
+        tail.append('}');
+        suffix = tail.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public MediaType contentType()
+    {
+        return MEDIA_TYPE;
+    }
+
+    @Override
+    public long contentLength()
+    {
+        long size = photo.size;
+        long encoded = 4 * ((size + 2) / 3);
+        long padding = (3 - size % 3) % 3;
+        return prefix.length + encoded + padding * (ESCAPED_PADDING.length - 1) + suffix.length;
+    }
+
+    @Override
+    public void writeTo(@NonNull BufferedSink sink) throws IOException
+    {
+        sink.write(prefix);
+        Base64.Encoder encoder = Base64.getEncoder();
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        byte[] encoded = new byte[4 * CHUNK_SIZE / 3];
+        try (FileChannel channel = photo.openChannel())
+        {
+            boolean endOfFile = false;
+            while (!endOfFile)
+            {
+                // Fill the chunk completely so padding can only appear at the very end.
+                chunk.clear();
+                while (chunk.hasRemaining())
+                {
+                    if (channel.read(chunk) < 0)
+                    {
+                        endOfFile = true;
+                        break;
+                    }
+                }
+                if (chunk.position() == 0) break;
+
+                byte[] source = chunk.position() == CHUNK_SIZE ? chunk.array() : Arrays.copyOf(chunk.array(), chunk.position());
+                int length = encoder.encode(source, encoded);
+                int padding = 0;
+                while (padding < length && encoded[length - 1 - padding] == '=')
+                {
+                    padding++;
+                }
+                sink.write(encoded, 0, length - padding);
+                for (int i = 0; i < padding; i++)
+                {
+                    sink.write(ESCAPED_PADDING);
+                }
+            }
+        }
+        sink.write(suffix);
+    }
+
+    /**
+     * Append {@code "name":"value"}, preceded by a comma if it is not the first field. Null values
+     * are left out, as Gson does by default.
+     */
+    private static void appendField(StringBuilder json, String name, String value)
+    {
+        if (value == null) return;
+        if (json.charAt(json.length() - 1) != '{') json.append(',');
+        appendString(json, name);
+        json.append(':');
+        appendString(json, value);
+    }
+
+    /**
+     * Append a quoted string escaped the way Gson's HTML safe JsonWriter escapes it.
+     */
+    static void appendString(StringBuilder json, String value)
+    {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                case '\b':
+                    json.append("\\b");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\f':
+                    json.append("\\f");
+                    break;
+                case '<':
+                case '>':
+                case '&':
+                case '=':
+                case '\'':
+                case '\u2028':
+                case '\u2029':
+                    json.append(String.format("\\u%04x", (int) c));
+                    break;
+                default:
+                    if (c < 0x20)
+                    {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else
+                    {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,86 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * A request body that streams a range of bytes of a photo, or the whole photo, from its
+ * {@link PhotoContent} channel.
+ *
+ * @since 0.3.0
+ */
+public class PhotoRangeRequestBody extends RequestBody
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final MediaType contentType;
+    private final PhotoContent photo;
+    private final long offset;
+    private final long length;
+
+    /**
+     * @param contentType the content type of the body.
+     * @param photo       the photo to read from.
+     * @param offset      the position of the first byte to send.
+     * @param length      the number of bytes to send.
+     */
+    public PhotoRangeRequestBody(MediaType contentType, PhotoContent photo, long offset, long length)
+    {
+        this.contentType = contentType;
+        this.photo = photo;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @param contentType the content type of the body.
+     * @param photo       the photo to send whole.
+     */
+    public PhotoRangeRequestBody(MediaType contentType, PhotoContent photo)
+    {
+        this(contentType, photo, 0, photo.size);
+    }
+
+    @Override
+    public MediaType contentType()
+    {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength()
+    {
+        return length;
+    }
+
+    @Override
+    public void writeTo(@NonNull BufferedSink sink) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel channel = photo.openChannel())
+        {
+            long position = offset;
+            long end = offset + length;
+            while (position < end)
+            {
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+                int read = channel.read(buffer, position);
+                if (read < 0)
+                {
+                    throw new EOFException(String.format("%s ended at %d, expected %d bytes", photo, position, end));
+                }
+                sink.write(buffer.array(), 0, read);
+                position += read;
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import java.util.Map;
+
+/**
+ * A photo about to be sent, along with where to send it.
+ *
+ * @since 0.3.0
+ */
+public final class PhotoUpload
+{
+    public final PhotoContent photo;
+    public final String deviceId;
+    public final String pathUrl;
+    public final Map<String, String> queryParameters;
+    public final String contentHash;
+
+    /**
+     * @param photo           the photo to upload.
+     * @param deviceId        the device id to send with the photo.
+     * @param pathUrl         the path of the upload endpoint.
+     * @param queryParameters the query parameters of the upload endpoint.
+     * @param contentHash     the SHA-256 of the photo as hex.
+     */
+    public PhotoUpload(PhotoContent photo, String deviceId, String pathUrl, Map<String, String> queryParameters, String contentHash)
+    {
+        this.photo = photo;
+        this.deviceId = deviceId;
+        this.pathUrl = pathUrl;
+        this.queryParameters = queryParameters;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Get the key the server can use to recognize a repeat of this upload. It only depends on the
+     * bytes of the photo, so every retry and every resubmission of the same photo sends the same key.
+     *
+     * @return the value for the {@link PhotoUploadService#HEADER_IDEMPOTENCY_KEY} header.
+     */
+    public String getIdempotencyKey()
+    {
+        return contentHash;
+    }
+}
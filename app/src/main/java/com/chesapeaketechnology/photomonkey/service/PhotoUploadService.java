@@ -1,11 +1,17 @@
 package com.chesapeaketechnology.photomonkey.service;
 
+import java.util.List;
 import java.util.Map;
 
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
+import retrofit2.http.Header;
+import retrofit2.http.Multipart;
 import retrofit2.http.POST;
+import retrofit2.http.Part;
 import retrofit2.http.Path;
 import retrofit2.http.QueryMap;
 
@@ -16,6 +22,13 @@ import retrofit2.http.QueryMap;
  */
 public interface PhotoUploadService
 {
+    String HEADER_VERSION = "X-PhotoMonkey-Version";
+    String HEADER_FILENAME = "X-PhotoMonkey-Filename";
+    String HEADER_DEVICE_ID = "X-PhotoMonkey-Device-ID";
+    String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+    String BATCH_PATH_SUFFIX = "/batch";
+    String METADATA_PATH_SUFFIX = "/metadata";
+
     @Retry(max = 4)
     @POST("{optionalPathArgs}")
     Call<ResponseBody> postPhoto(
@@ -23,4 +36,93 @@ public interface PhotoUploadService
             @Path(value = "optionalPathArgs", encoded = true) String optionalPathArgs,
             @QueryMap Map<String, String> optionalQueryArgs
     );
+
+    /**
+     * Post a photo as the same JSON as {@link #postPhoto}, from a body that streams the photo
+     * such as {@link PhotoJsonRequestBody}. Like the other 0.3.0 calls it carries an
+     * Idempotency-Key, so the server can ignore a repeat of a photo it already has.
+     *
+     * @since 0.3.0
+     */
+    @Retry(max = 4)
+    @POST("{optionalPathArgs}")
+    Call<ResponseBody> postPhotoJson(
+            @Body RequestBody photoJson,
+            @Header(HEADER_IDEMPOTENCY_KEY) String idempotencyKey,
+            @Path(value = "optionalPathArgs", encoded = true) String optionalPathArgs,
+            @QueryMap Map<String, String> optionalQueryArgs
+    );
+
+    /**
+     * Post a photo as multipart/form-data. The {@link Photo} fields are sent as form fields and the
+     * photo itself as the "content" part, streamed from storage.
+     *
+     * @since 0.3.0
+     */
+    @Retry(max = 4)
+    @Multipart
+    @POST("{optionalPathArgs}")
+    Call<ResponseBody> postPhotoMultipart(
+            @Part("version") RequestBody version,
+            @Part("filename") RequestBody filename,
+            @Part("device_id") RequestBody deviceId,
+            @Part MultipartBody.Part content,
+            @Header(HEADER_IDEMPOTENCY_KEY) String idempotencyKey,
+            @Path(value = "optionalPathArgs", encoded = true) String optionalPathArgs,
+            @QueryMap Map<String, String> optionalQueryArgs
+    );
+
+    /**
+     * Post a photo as the raw request body, streamed from storage. The {@link Photo} fields are
+     * sent as headers.
+     *
+     * @since 0.3.0
+     */
+    @Retry(max = 4)
+    @POST("{optionalPathArgs}")
+    Call<ResponseBody> postPhotoRaw(
+            @Body RequestBody content,
+            @Header(HEADER_VERSION) String version,
+            @Header(HEADER_FILENAME) String filename,
+            @Header(HEADER_DEVICE_ID) String deviceId,
+            @Header(HEADER_IDEMPOTENCY_KEY) String idempotencyKey,
+            @Path(value = "optionalPathArgs", encoded = true) String optionalPathArgs,
+            @QueryMap Map<String, String> optionalQueryArgs
+    );
+
+    /**
+     * Post several photos in one multipart/form-data request to the batch endpoint, the upload
+     * path followed by {@link #BATCH_PATH_SUFFIX}. Each photo is a "content" part named after its
+     * file and carrying its own Idempotency-Key part header, and the response says, by that key,
+     * which of them the endpoint accepted. An endpoint without a batch endpoint answers 404, 405 or
+     * 501, and the photos are then posted with {@link #postPhotoMultipart} instead.
+     *
+     * @since 0.3.0
+     */
+    @Retry(max = 4)
+    @Multipart
+    @POST("{optionalPathArgs}" + BATCH_PATH_SUFFIX)
+    Call<BatchUploadResponse> postPhotoBatch(
+            @Part("version") RequestBody version,
+            @Part("device_id") RequestBody deviceId,
+            @Part List<MultipartBody.Part> content,
+            @Header(HEADER_IDEMPOTENCY_KEY) String idempotencyKey,
+            @Path(value = "optionalPathArgs", encoded = true) String optionalPathArgs,
+            @QueryMap Map<String, String> optionalQueryArgs
+    );
+
+    /**
+     * Post a change to the metadata of a photo the endpoint already has, to the upload path
+     * followed by {@link #METADATA_PATH_SUFFIX}. The photo itself is not sent.
+     *
+     * @since 0.3.0
+     */
+    @Retry(max = 4)
+    @POST("{optionalPathArgs}" + METADATA_PATH_SUFFIX)
+    Call<ResponseBody> postMetadata(
+            @Body MetadataUpdate update,
+            @Header(HEADER_IDEMPOTENCY_KEY) String idempotencyKey,
+            @Path(value = "optionalPathArgs", encoded = true) String optionalPathArgs,
+            @QueryMap Map<String, String> optionalQueryArgs
+    );
 }
@@ -2,26 +2,36 @@ package com.chesapeaketechnology.photomonkey.service;
 
 import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_DEVICE_ID_KEY;
 import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_REMOTE_POST_URL;
-import static com.chesapeaketechnology.photomonkey.service.PhotoUploadWorker.DEVICE_ID_KEY;
-import static com.chesapeaketechnology.photomonkey.service.PhotoUploadWorker.PATH_URL_KEY;
+import static com.chesapeaketechnology.photomonkey.service.MetadataSyncWorker.METADATA_SYNC_WORK_NAME_PREFIX;
 import static com.chesapeaketechnology.photomonkey.service.PhotoUploadWorker.PHOTOMONKEY_PHOTO_TAG;
-import static com.chesapeaketechnology.photomonkey.service.PhotoUploadWorker.PHOTO_PATH_KEY;
-import static com.chesapeaketechnology.photomonkey.service.PhotoUploadWorker.QUERY_URL_KEY;
+import static com.chesapeaketechnology.photomonkey.service.PhotoUploadWorker.PHOTO_UPLOAD_WORK_NAME;
 import static com.chesapeaketechnology.photomonkey.util.PreferenceUtils.getPathUrl;
 import static com.chesapeaketechnology.photomonkey.util.PreferenceUtils.getQueryParameterMap;
+import static com.chesapeaketechnology.photomonkey.util.PreferenceUtils.getUploadFormatPreference;
+import static com.chesapeaketechnology.photomonkey.util.PreferenceUtils.getWifiOnlyPreference;
 
 import android.content.Context;
+import android.net.Uri;
 
 import androidx.preference.PreferenceManager;
 import androidx.work.BackoffPolicy;
-import androidx.work.Data;
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
 import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkInfo;
 import androidx.work.WorkManager;
-import androidx.work.WorkRequest;
 
+import com.chesapeaketechnology.photomonkey.model.IoDispatcher;
+import com.chesapeaketechnology.photomonkey.model.MetadataIndex;
+import com.chesapeaketechnology.photomonkey.util.PhotoUploadApiUtils;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gson.Gson;
 
+import java.io.IOException;
 import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import timber.log.Timber;
 
@@ -37,9 +47,22 @@ public class PhotoUploadSubmissionHandler
     /**
      * Send a report to the File Upload REST API endpoint.
      *
-     * @param photoFilePath The photo to upload
+     * @param photoUri The content Uri of the photo to upload
      */
-    public static void uploadPhotoToRemoteEndpoint(Context context, String photoFilePath)
+    public static void uploadPhotoToRemoteEndpoint(Context context, Uri photoUri)
+    {
+        uploadPhotoToRemoteEndpoint(context, photoUri, false);
+    }
+
+    /**
+     * Send a report to the File Upload REST API endpoint, ahead of the photos already queued if it
+     * is urgent. An urgent photo also cuts short the backoff of a waiting upload worker.
+     *
+     * @param photoUri The content Uri of the photo to upload
+     * @param urgent   true to send the photo before the rest of the queue
+     * @since 0.3.0
+     */
+    public static void uploadPhotoToRemoteEndpoint(Context context, Uri photoUri, boolean urgent)
     {
         String deviceId = PreferenceManager.getDefaultSharedPreferences(context).getString(PROPERTY_DEVICE_ID_KEY, "");
         if (deviceId.isEmpty())
@@ -55,18 +78,166 @@ public class PhotoUploadSubmissionHandler
             return;
         }
 
-        final Data data = new Data.Builder()
-                .putString(PHOTO_PATH_KEY, photoFilePath)
-                .putString(DEVICE_ID_KEY, deviceId)
-                .putString(QUERY_URL_KEY, new Gson().toJson(getQueryParameterMap(remoteUrl)))
-                .putString(PATH_URL_KEY, getPathUrl(remoteUrl))
+        final PhotoContent photo;
+        try
+        {
+            photo = PhotoContent.resolve(context, photoUri);
+        } catch (IOException | SecurityException e)
+        {
+            Timber.e(e, "Could not read %s. Skipping file upload", photoUri);
+            return;
+        }
+
+        UploadQueue.getInstance(context).add(new UploadQueue.Item(photo.getKey(), photo.size, deviceId, getPathUrl(remoteUrl),
+                new Gson().toJson(getQueryParameterMap(remoteUrl)), getUploadFormatPreference(context), urgent));
+        MetadataIndex.getInstance(context).setUploadState(photoUri, MetadataIndex.UploadState.QUEUED);
+        if (urgent)
+        {
+            refreshUploadWork(context);
+        } else
+        {
+            enqueueUploadWork(context);
+        }
+    }
+
+    /**
+     * Send an edit to the metadata of a photo. If the endpoint already has the photo only the
+     * changed fields are sent, by the {@link MetadataSyncWorker}; otherwise the whole photo is
+     * queued for upload, as it carries its metadata with it.
+     *
+     * @param photoUri The content Uri of the edited photo
+     * @param update   The changed fields, or null if nothing changed
+     * @since 0.3.0
+     */
+    public static void syncMetadataToRemoteEndpoint(Context context, Uri photoUri, MetadataUpdate update)
+    {
+        String deviceId = PreferenceManager.getDefaultSharedPreferences(context).getString(PROPERTY_DEVICE_ID_KEY, "");
+        String remoteUrl = PreferenceManager.getDefaultSharedPreferences(context).getString(PROPERTY_REMOTE_POST_URL, "");
+        if (update == null || deviceId.isEmpty() || remoteUrl.isEmpty())
+        {
+            uploadPhotoToRemoteEndpoint(context, photoUri);
+            return;
+        }
+
+        final String pathUrl = getPathUrl(remoteUrl);
+        final String endpoint = PhotoUploadWorker.endpointOf(PhotoUploadApiUtils.getRetrofitInstance(context), pathUrl);
+        if (UploadLedger.getInstance(context).uploadedHashOf(photoUri.toString(), endpoint) == null)
+        {
+            uploadPhotoToRemoteEndpoint(context, photoUri);
+            return;
+        }
+
+        final OneTimeWorkRequest metadataSyncRequest = new OneTimeWorkRequest.Builder(MetadataSyncWorker.class)
+                .setConstraints(uploadConstraints(context))
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, Duration.ofSeconds(10))
+                .setInputData(MetadataSyncWorker.inputData(photoUri.toString(), deviceId, pathUrl,
+                        new Gson().toJson(getQueryParameterMap(remoteUrl)), update))
+                .addTag(PHOTOMONKEY_PHOTO_TAG)
                 .build();
-        final WorkRequest photoUploadRequest = new OneTimeWorkRequest.Builder(PhotoUploadWorker.class)
+
+        // Edits to the same photo are sent in the order they were made.
+        WorkManager.getInstance(context).enqueueUniqueWork(METADATA_SYNC_WORK_NAME_PREFIX + photoUri,
+                ExistingWorkPolicy.APPEND_OR_REPLACE, metadataSyncRequest);
+    }
+
+    /**
+     * Make sure the {@link PhotoUploadWorker} is scheduled to drain the {@link UploadQueue}. There is
+     * only ever one upload worker waiting to run. If it is waiting, the photos just queued are picked
+     * up by it. If it is running, a second run is chained behind it: the running worker reads the
+     * queue again after every request, but it may already have read it for the last time and be about
+     * to finish, and a photo queued in that moment would otherwise wait for the next submission.
+     * <p>
+     * The worker only runs once the network the upload settings call for is available: any
+     * connected network, or an unmetered one when Wi-Fi Only is on. WorkManager starts it as soon as
+     * such a network appears, so photos queued while offline go out without anyone retrying them.
+     * <p>
+     * Waits for the state of the upload work, so it must not be called on the main thread.
+     *
+     * @param context any {@link Context}.
+     * @since 0.3.0
+     */
+    public static synchronized void enqueueUploadWork(Context context)
+    {
+        boolean running = false;
+        boolean waiting = false;
+        try
+        {
+            for (WorkInfo workInfo : WorkManager.getInstance(context).getWorkInfosForUniqueWork(PHOTO_UPLOAD_WORK_NAME).get())
+            {
+                running |= workInfo.getState() == WorkInfo.State.RUNNING;
+                waiting |= workInfo.getState() == WorkInfo.State.ENQUEUED || workInfo.getState() == WorkInfo.State.BLOCKED;
+            }
+        } catch (ExecutionException | InterruptedException e)
+        {
+            // Chaining a run costs at most a run that finds the queue empty; stranding a photo costs more.
+            Timber.w(e, "Unable to get the state of the upload work");
+            running = true;
+        }
+
+        if (running && !waiting)
+        {
+            enqueueUploadWork(context, ExistingWorkPolicy.APPEND_OR_REPLACE);
+        } else
+        {
+            enqueueUploadWork(context, ExistingWorkPolicy.KEEP);
+        }
+    }
+
+    /**
+     * Bring the scheduled upload worker in line with the current settings and start it now if it is
+     * waiting out a backoff. A running worker is left alone, with a run chained behind it that picks
+     * up the new settings. Used when the upload settings change and when a VPN connects.
+     *
+     * @param context any {@link Context}.
+     * @since 0.3.0
+     */
+    public static void refreshUploadWork(Context context)
+    {
+        final Context appContext = context.getApplicationContext();
+        final ListenableFuture<List<WorkInfo>> workInfos = WorkManager.getInstance(appContext).getWorkInfosForUniqueWork(PHOTO_UPLOAD_WORK_NAME);
+        workInfos.addListener(() -> {
+            boolean running = false;
+            boolean waiting = false;
+            try
+            {
+                for (WorkInfo workInfo : workInfos.get())
+                {
+                    running |= workInfo.getState() == WorkInfo.State.RUNNING;
+                    waiting |= workInfo.getState() == WorkInfo.State.ENQUEUED || workInfo.getState() == WorkInfo.State.BLOCKED;
+                }
+            } catch (ExecutionException | InterruptedException e)
+            {
+                Timber.w(e, "Unable to get the state of the upload work");
+            }
+
+            if (running)
+            {
+                enqueueUploadWork(appContext);
+            } else if (waiting || UploadQueue.getInstance(appContext).count() > 0)
+            {
+                enqueueUploadWork(appContext, ExistingWorkPolicy.REPLACE);
+            }
+        }, IoDispatcher.executor(IoDispatcher.Lane.UPLOAD));
+    }
+
+    private static void enqueueUploadWork(Context context, ExistingWorkPolicy policy)
+    {
+        final OneTimeWorkRequest photoUploadRequest = new OneTimeWorkRequest.Builder(PhotoUploadWorker.class)
+                .setConstraints(uploadConstraints(context))
                 .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, Duration.ofSeconds(10))
                 .addTag(PHOTOMONKEY_PHOTO_TAG)
-                .setInputData(data)
                 .build();
 
-        WorkManager.getInstance(context).enqueue(photoUploadRequest);
+        WorkManager.getInstance(context).enqueueUniqueWork(PHOTO_UPLOAD_WORK_NAME, policy, photoUploadRequest);
+    }
+
+    /**
+     * The network uploads wait for: any connected network, or an unmetered one when Wi-Fi Only is on.
+     */
+    private static Constraints uploadConstraints(Context context)
+    {
+        return new Constraints.Builder()
+                .setRequiredNetworkType(getWifiOnlyPreference(context) ? NetworkType.UNMETERED : NetworkType.CONNECTED)
+                .build();
     }
 }
@@ -0,0 +1,22 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import java.io.IOException;
+
+/**
+ * Moves a photo from the device to the upload endpoint. The {@link PhotoUploadWorker} decides what
+ * to upload and when; a transport decides how the bytes are put on the wire.
+ *
+ * @since 0.3.0
+ */
+public interface PhotoUploadTransport
+{
+    /**
+     * Upload a photo, blocking until the endpoint has accepted or refused it.
+     *
+     * @param upload the {@link PhotoUpload} to send.
+     * @return true if the endpoint accepted the photo, false if it refused it and the upload should
+     * be tried again later.
+     * @throws IOException if the upload could not be completed.
+     */
+    boolean upload(PhotoUpload upload) throws IOException;
+}
@@ -1,46 +1,84 @@
 package com.chesapeaketechnology.photomonkey.service;
 
 import android.content.Context;
-import android.util.Base64;
+import android.net.Uri;
 
 import androidx.annotation.NonNull;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
+import com.chesapeaketechnology.photomonkey.model.MetadataIndex;
 import com.chesapeaketechnology.photomonkey.util.PhotoUploadApiUtils;
+import com.chesapeaketechnology.photomonkey.util.PreferenceUtils;
 import com.google.gson.Gson;
 
-import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
 
-import okhttp3.ResponseBody;
-import retrofit2.Call;
-import retrofit2.Response;
+import okhttp3.HttpUrl;
+import retrofit2.Retrofit;
 import timber.log.Timber;
 
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
+
 
 /**
  * Responsible for executing the POST of a Photo object to the Rest API
+ * <p>
+ * The worker drains the {@link UploadQueue} in the order the queue puts its photos: urgent first, then
+ * newest first with a share for the backlog. A photo submitted while the backlog drains makes the
+ * worker plan its remaining requests again, so the photo goes out in its turn rather than last.
+ * Photos going to the same endpoint in the multipart format are sent together in batches, if the
+ * server implements the batch endpoint (see {@link BatchUploadTransport}); other formats, the default
+ * JSON format among them, are sent one photo per request over the same pooled connection. Each photo accepted by the
+ * endpoint is removed from the queue, so a later run only sends the photos that were refused. Photos
+ * are read through their content Uri as {@link PhotoContent}, never through a file path.
+ * <p>
+ * Every photo is sent with an Idempotency-Key derived from its content hash, and the
+ * {@link UploadLedger} records each photo the endpoint accepts. Submitting a photo again, or a
+ * retry after the server stored a photo but the response was lost, costs no more than a hash lookup.
+ * <p>
+ * Each request is retried in place according to the {@link Retry} policy of its call, and that is the
+ * only retrying done for a photo the endpoint refused or failed. Such a photo stays in the queue for
+ * the next run, which the next photo queued, a change to the upload settings or a VPN connecting
+ * starts. WorkManager's backoff is only used while the circuit for the endpoint is open, when the
+ * server needs time rather than another attempt: the worker then stops straight away, rather than
+ * failing every queued photo in turn, and asks to be run again.
+ * <p>
+ * Before a photo is sent it is prepared for the {@link UploadProfile} in the settings, which may
+ * re-encode it, scale it down or strip its thumbnail in a copy in the cache directory. The ledger, the queue and the Idempotency-Key still go by
+ * the photo on the device. Each upload or batch is measured by the {@link UploadTelemetry}, along
+ * with the bytes the profile saved.
  *
  * @since 0.2.0
  */
 public class PhotoUploadWorker extends Worker
 {
-    public static final String PHOTO_PATH_KEY = "Photo-Path";
-    public static final String DEVICE_ID_KEY = "Device-ID";
-    public static final String QUERY_URL_KEY = "Query-URL";
-    public static final String PATH_URL_KEY = "PATH-URL";
     public static final String PHOTOMONKEY_PHOTO_TAG = "PhotoMonkey-Photo";
+    public static final String PHOTO_UPLOAD_WORK_NAME = "PhotoMonkey-Photo-Upload";
 
-    private final PhotoUploadService uploadService;
+    private final UploadQueue queue;
+    private final UploadLedger ledger;
+    private final MetadataIndex index;
+    private final UploadTelemetry telemetry;
+    private boolean circuitOpen = false;
 
     public PhotoUploadWorker(@NonNull Context context, @NonNull WorkerParameters workerParams)
     {
         super(context, workerParams);
-        uploadService = PhotoUploadApiUtils.getRetrofitInstance(context).create(PhotoUploadService.class);
+        queue = UploadQueue.getInstance(context);
+        ledger = UploadLedger.getInstance(context);
+        index = MetadataIndex.getInstance(context);
+        telemetry = UploadTelemetry.getInstance(context);
     }
 
     @NonNull
@@ -49,45 +87,302 @@ public class PhotoUploadWorker extends Worker
     {
         Timber.i("Running the Photo Upload worker");
 
-        final File photoFile = new File(Objects.requireNonNull(getInputData().getString(PHOTO_PATH_KEY)));
-        final String deviceID = getInputData().getString(DEVICE_ID_KEY);
-        final String queryUrl = getInputData().getString(QUERY_URL_KEY);
-        final String pathUrl = getInputData().getString(PATH_URL_KEY);
-        byte[] photoContent;
-        try
+        if (!VpnGate.isOpen(getApplicationContext()))
         {
-            photoContent = Files.readAllBytes(photoFile.toPath());
-        } catch (IOException e)
+            // The VpnGate starts the worker again as soon as a VPN connects.
+            Timber.i("VPN Only is set and no VPN is connected, waiting to upload");
+            return Result.retry();
+        }
+
+        // Photos queued while the worker runs are picked up before it finishes, in their turn;
+        // photos that failed are left for the next run. The batches are planned once, and only
+        // planned again when photos are queued, so a long backlog is read and sorted once rather
+        // than once per request.
+        final Set<String> attempted = new HashSet<>();
+        boolean failures = false;
+        Iterator<List<UploadQueue.Item>> plan = Collections.emptyIterator();
+        long plannedRevision = -1;
+        while (true)
         {
-            Timber.e("Failed to read photo content");
-            return Result.failure();
+            final long revision = queue.revision();
+            if (revision != plannedRevision)
+            {
+                plannedRevision = revision;
+                plan = batches(unattempted(queue.pending(), attempted)).iterator();
+            }
+            if (!plan.hasNext()) break;
+
+            if (isStopped() || circuitOpen)
+            {
+                // The endpoint is down; leave the rest of the queue for WorkManager's backoff.
+                return Result.retry();
+            }
+            final List<UploadQueue.Item> batch = plan.next();
+            failures |= !upload(batch);
+            for (UploadQueue.Item item : batch)
+            {
+                attempted.add(item.photoUri);
+            }
         }
 
-        Map<String, String> queryParameterMap = new Gson().fromJson(queryUrl, Map.class);
-        Photo photo = new Photo(
-                photoFile.getName(),
-                Base64.encodeToString(photoContent, Base64.NO_WRAP),
-                deviceID
-        );
-        Call<ResponseBody> call = uploadService.postPhoto(photo, pathUrl, queryParameterMap);
+        if (circuitOpen)
+        {
+            Timber.w("The circuit for the endpoint opened, retrying once it has had time to recover");
+            return Result.retry();
+        }
+        if (failures)
+        {
+            // Each request has used up its own retries; the photos wait in the queue for the next run.
+            Timber.w("Some photos failed to upload, leaving them in the queue");
+        }
+        if (queue.count() == 0) UploadProfile.clearCache(getApplicationContext());
+        return Result.success();
+    }
+
+    /**
+     * Upload a batch of photos and update the queue and ledger with the result for each one.
+     * Photos whose content the ledger says is already on the endpoint are dropped from the queue
+     * without being sent, as are photos that no longer exist. A photo that exists but could not be
+     * read stays in the queue for the next run.
+     *
+     * @return true if every photo was accepted.
+     */
+    private boolean upload(List<UploadQueue.Item> batch)
+    {
+        final UploadQueue.Item first = batch.get(0);
+        final Map<String, String> queryParameterMap = new Gson().fromJson(first.queryUrl, Map.class);
+        final Retrofit retrofit = PhotoUploadApiUtils.getRetrofitInstance(getApplicationContext());
+        final String endpoint = endpointOf(retrofit, first.pathUrl);
+        final UploadProfile profile = UploadProfile.parse(PreferenceUtils.getUploadProfilePreference(getApplicationContext()),
+                PreferenceUtils.getUploadStripThumbnailPreference(getApplicationContext()));
 
+        List<PhotoUpload> uploads = new ArrayList<>(batch.size());
+        // The photo on the device behind each upload, which may be sent as a prepared copy.
+        final Map<PhotoUpload, PhotoContent> originals = new HashMap<>();
+        long originalBytes = 0;
+        long photoBytes = 0;
+        boolean unreadable = false;
+        for (UploadQueue.Item item : batch)
+        {
+            final PhotoContent photo;
+            final String hash;
+            try
+            {
+                photo = PhotoContent.resolve(getApplicationContext(), Uri.parse(item.photoUri));
+                hash = ledger.hashOf(photo);
+            } catch (FileNotFoundException e)
+            {
+                Timber.e(e, "%s no longer exists, dropping it from the queue", item.photoUri);
+                queue.remove(item.photoUri);
+                continue;
+            } catch (IOException | SecurityException e)
+            {
+                // The storage may be busy or the permission may come back; try the photo again later.
+                Timber.e(e, "Failed to read photo content of %s, leaving it in the queue", item.photoUri);
+                queue.recordFailure(item.photoUri);
+                index.setUploadState(Uri.parse(item.photoUri), MetadataIndex.UploadState.FAILED);
+                unreadable = true;
+                continue;
+            }
+
+            if (ledger.isUploaded(hash, endpoint))
+            {
+                Timber.i("%s is already on %s, dropping it from the queue", photo, endpoint);
+                queue.remove(item.photoUri);
+                index.setUploadState(photo.uri, MetadataIndex.UploadState.UPLOADED);
+            } else
+            {
+                final PhotoContent sent = prepare(profile, photo, hash);
+                final PhotoUpload upload = new PhotoUpload(sent, item.deviceId, item.pathUrl, queryParameterMap, hash);
+                uploads.add(upload);
+                originals.put(upload, photo);
+                originalBytes += photo.size;
+                photoBytes += sent.size;
+            }
+        }
+
+        Set<PhotoUpload> accepted = new HashSet<>();
+        final UploadTelemetry.Recorder recorder = uploads.isEmpty() ? null
+                : telemetry.begin(uploads.size(), System.currentTimeMillis() - oldestEnqueuedAt(batch));
+        if (recorder != null) recorder.profiled(profile, originalBytes, photoBytes);
         try
         {
-            final Response<ResponseBody> response = call.execute();
+            accepted = send(retrofit, endpoint, first.uploadFormat, uploads);
+        } catch (CircuitBreaker.OpenException e)
+        {
+            Timber.w(e.getMessage());
+            circuitOpen = true;
+            return false;
+        } finally
+        {
+            if (recorder != null) recorder.finish(accepted.size() == uploads.size());
+        }
+        if (accepted.size() < uploads.size() && CircuitBreaker.forUrl(HttpUrl.get(endpoint)).remainingOpenMillis() > 0)
+        {
+            // The failures of this request opened the circuit.
+            circuitOpen = true;
+        }
 
-            if (response.isSuccessful())
+        for (PhotoUpload upload : uploads)
+        {
+            final PhotoContent photo = originals.get(upload);
+            if (accepted.contains(upload))
             {
-                Timber.i("Photo uploaded to Azure. Response: %s", response);
-                return Result.success();
+                ledger.recordUploaded(upload.contentHash, photo.getKey(), endpoint);
+                queue.remove(photo.getKey());
+                index.setUploadState(photo.uri, MetadataIndex.UploadState.UPLOADED);
+                UploadProfile.release(upload.photo, photo);
             } else
             {
-                Timber.w("Upload failed, retrying. Response: %s", response);
-                return Result.retry();
+                queue.recordFailure(photo.getKey());
+                index.setUploadState(photo.uri, MetadataIndex.UploadState.FAILED);
             }
-        } catch (Throwable e)
+        }
+        Timber.i("Uploaded %d of %d photos to %s", accepted.size(), uploads.size(), endpoint);
+        return !unreadable && accepted.size() == uploads.size();
+    }
+
+    /**
+     * Prepare a photo for the upload profile, with any sidecar metadata written into it. If that fails
+     * the photo is sent as it is, a photo that cannot be prepared is better sent whole than not at all.
+     *
+     * @return the photo to send.
+     */
+    private PhotoContent prepare(UploadProfile profile, PhotoContent photo, String hash)
+    {
+        try
         {
-            Timber.e("Exception caught while uploading photo to Azure");
-            return Result.retry();
+            final PhotoContent prepared = profile.apply(getApplicationContext(), photo, hash);
+            return UploadProfile.embedSidecar(getApplicationContext(), prepared, photo, hash);
+        } catch (IOException | RuntimeException | OutOfMemoryError e)
+        {
+            Timber.w(e, "Unable to prepare %s for the %s upload profile, sending the original", photo, profile);
+            return photo;
+        }
+    }
+
+    /**
+     * Send the photos, as a batch if there is more than one.
+     *
+     * @return the photos the endpoint accepted.
+     * @throws CircuitBreaker.OpenException if the circuit for the endpoint is open.
+     */
+    private Set<PhotoUpload> send(Retrofit retrofit, String endpoint, String uploadFormat, List<PhotoUpload> uploads) throws CircuitBreaker.OpenException
+    {
+        Set<PhotoUpload> accepted = new HashSet<>();
+        if (uploads.size() > 1)
+        {
+            try
+            {
+                accepted = new BatchUploadTransport(retrofit.create(PhotoUploadService.class), endpoint,
+                        PhotoUploadApiUtils.getBatchUnsupportedEndpoints(getApplicationContext())).upload(uploads);
+            } catch (CircuitBreaker.OpenException e)
+            {
+                throw e;
+            } catch (Throwable e)
+            {
+                Timber.e(e, "Exception caught while uploading a batch of photos to %s", endpoint);
+            }
+        } else if (!uploads.isEmpty())
+        {
+            try
+            {
+                if (createTransport(retrofit, uploadFormat).upload(uploads.get(0)))
+                {
+                    accepted.add(uploads.get(0));
+                }
+            } catch (CircuitBreaker.OpenException e)
+            {
+                throw e;
+            } catch (Throwable e)
+            {
+                Timber.e(e, "Exception caught while uploading photo to %s", endpoint);
+            }
+        }
+        return accepted;
+    }
+
+    private static long oldestEnqueuedAt(List<UploadQueue.Item> batch)
+    {
+        long oldest = Long.MAX_VALUE;
+        for (UploadQueue.Item item : batch)
+        {
+            oldest = Math.min(oldest, item.enqueuedAt);
+        }
+        return oldest;
+    }
+
+    /**
+     * The upload endpoint as recorded in the {@link UploadLedger}: the base url and the upload path.
+     */
+    static String endpointOf(Retrofit retrofit, String pathUrl)
+    {
+        final HttpUrl url = retrofit.baseUrl().resolve(pathUrl == null ? "" : pathUrl);
+        return (url == null ? retrofit.baseUrl() : url).toString();
+    }
+
+    /**
+     * Create the transport for the requested upload format.
+     *
+     * @param retrofit     the {@link Retrofit} instance to create the service with.
+     * @param uploadFormat one of the UPLOAD_FORMAT values in {@link com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants}.
+     * @return the {@link PhotoUploadTransport} to upload with.
+     */
+    private PhotoUploadTransport createTransport(Retrofit retrofit, String uploadFormat)
+    {
+        if (UPLOAD_FORMAT_RESUMABLE.equals(uploadFormat))
+        {
+            return new ResumableUploadTransport(getApplicationContext(), retrofit.create(ResumableUploadService.class));
+        }
+        return new SingleRequestTransport(retrofit.create(PhotoUploadService.class), uploadFormat);
+    }
+
+    private static List<UploadQueue.Item> unattempted(List<UploadQueue.Item> items, Set<String> attempted)
+    {
+        List<UploadQueue.Item> remaining = new ArrayList<>(items.size());
+        for (UploadQueue.Item item : items)
+        {
+            if (!attempted.contains(item.photoUri)) remaining.add(item);
+        }
+        return remaining;
+    }
+
+    /**
+     * Split the queued photos into the requests that will send them. Only photos going to the same
+     * endpoint, from the same device, in the multipart format are batched together; each batch is
+     * kept within {@link com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants#BATCH_UPLOAD_MAX_PHOTOS}
+     * photos and {@link com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants#BATCH_UPLOAD_MAX_BYTES}
+     * bytes. A photo larger than the byte limit is sent on its own.
+     * <p>
+     * The batches keep the order of the queue: each one takes the place of the first photo in it.
+     */
+    private static List<List<UploadQueue.Item>> batches(List<UploadQueue.Item> items)
+    {
+        Map<List<String>, List<UploadQueue.Item>> openBatches = new HashMap<>();
+        Map<List<String>, Long> openBatchBytes = new HashMap<>();
+        List<List<UploadQueue.Item>> batches = new ArrayList<>();
+        for (UploadQueue.Item item : items)
+        {
+            if (!UPLOAD_FORMAT_MULTIPART.equals(item.uploadFormat))
+            {
+                List<UploadQueue.Item> single = new ArrayList<>(1);
+                single.add(item);
+                batches.add(single);
+                continue;
+            }
+
+            List<String> endpoint = Arrays.asList(item.deviceId, item.pathUrl, item.queryUrl);
+            List<UploadQueue.Item> batch = openBatches.get(endpoint);
+            if (batch == null || batch.size() >= BATCH_UPLOAD_MAX_PHOTOS || openBatchBytes.get(endpoint) + item.size > BATCH_UPLOAD_MAX_BYTES)
+            {
+                batch = new ArrayList<>();
+                batches.add(batch);
+                openBatches.put(endpoint, batch);
+                openBatchBytes.put(endpoint, 0L);
+            }
+            batch.add(item);
+            openBatchBytes.merge(endpoint, item.size, Long::sum);
         }
+        return batches;
     }
 }
@@ -0,0 +1,72 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import java.util.Map;
+
+import okhttp3.RequestBody;
+import retrofit2.Call;
+import retrofit2.http.Body;
+import retrofit2.http.HEAD;
+import retrofit2.http.Header;
+import retrofit2.http.PATCH;
+import retrofit2.http.POST;
+import retrofit2.http.Path;
+import retrofit2.http.QueryMap;
+import retrofit2.http.Url;
+
+/**
+ * The interface for uploading photos to an endpoint that speaks the tus 1.0.0 resumable upload
+ * protocol (core and creation). An upload is created with a POST to the upload endpoint, which
+ * answers with the location of the new upload resource. The photo is then appended to that resource
+ * with a PATCH per chunk, and after an interruption a HEAD asks the server how much it has kept.
+ * <p>
+ * None of these calls are annotated with {@link Retry}; {@link ResumableUploadTransport} resumes
+ * from the server offset instead of repeating requests.
+ *
+ * @since 0.3.0
+ */
+public interface ResumableUploadService
+{
+    String TUS_VERSION = "1.0.0";
+
+    String HEADER_TUS_RESUMABLE = "Tus-Resumable";
+    String HEADER_UPLOAD_LENGTH = "Upload-Length";
+    String HEADER_UPLOAD_OFFSET = "Upload-Offset";
+    String HEADER_UPLOAD_METADATA = "Upload-Metadata";
+    String HEADER_LOCATION = "Location";
+
+    /**
+     * Create an upload resource for a photo of the given length.
+     *
+     * @param uploadMetadata comma separated {@code key base64(value)} pairs describing the photo.
+     */
+    @POST("{optionalPathArgs}")
+    Call<Void> createUpload(
+            @Header(HEADER_TUS_RESUMABLE) String tusVersion,
+            @Header(HEADER_UPLOAD_LENGTH) long uploadLength,
+            @Header(HEADER_UPLOAD_METADATA) String uploadMetadata,
+            @Header(PhotoUploadService.HEADER_IDEMPOTENCY_KEY) String idempotencyKey,
+            @Path(value = "optionalPathArgs", encoded = true) String optionalPathArgs,
+            @QueryMap Map<String, String> optionalQueryArgs
+    );
+
+    /**
+     * Ask the server how many bytes of an upload it has, returned in the Upload-Offset header.
+     */
+    @HEAD
+    Call<Void> getUploadOffset(
+            @Url String uploadUrl,
+            @Header(HEADER_TUS_RESUMABLE) String tusVersion
+    );
+
+    /**
+     * Append a chunk to an upload. The server rejects the chunk with 409 Conflict if the offset is
+     * not the number of bytes it already has.
+     */
+    @PATCH
+    Call<Void> appendChunk(
+            @Url String uploadUrl,
+            @Header(HEADER_TUS_RESUMABLE) String tusVersion,
+            @Header(HEADER_UPLOAD_OFFSET) long uploadOffset,
+            @Body RequestBody chunk
+    );
+}
@@ -0,0 +1,263 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+
+import com.chesapeaketechnology.photomonkey.util.PhotoUploadApiUtils;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import retrofit2.Response;
+import timber.log.Timber;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
+import static com.chesapeaketechnology.photomonkey.service.ResumableUploadService.*;
+
+/**
+ * Uploads a photo in chunks using the tus resumable upload protocol, so an upload that is cut off
+ * picks up where it stopped instead of starting over.
+ * <p>
+ * The upload resource and the number of bytes the server has acknowledged are saved after every
+ * chunk. The next attempt continues from the saved offset; if the server has a different offset
+ * (because a chunk was cut off part way through) it answers 409 Conflict, and the transport asks the
+ * server for its offset and continues from there. If the photo changes on disk, or the server has
+ * forgotten the upload, the upload starts over. A chunk the server accepts without moving its offset
+ * forward fails the upload rather than being sent again.
+ *
+ * @since 0.3.0
+ */
+public class ResumableUploadTransport implements PhotoUploadTransport
+{
+    private static final String PREFERENCES_NAME = "resumable_uploads";
+    private static final MediaType MEDIA_TYPE_OFFSET_OCTET_STREAM = MediaType.parse("application/offset+octet-stream");
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_CONFLICT = 409;
+    private static final int HTTP_GONE = 410;
+
+    private static final Gson gson = new Gson();
+
+    private final ResumableUploadService uploadService;
+    private final SharedPreferences sessions;
+
+    /**
+     * @param context       any {@link Context}, used to save the upload sessions.
+     * @param uploadService the {@link ResumableUploadService} to upload with.
+     */
+    public ResumableUploadTransport(@NonNull Context context, @NonNull ResumableUploadService uploadService)
+    {
+        this.uploadService = uploadService;
+        sessions = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public boolean upload(PhotoUpload upload) throws IOException
+    {
+        final PhotoContent photo = upload.photo;
+        final long length = photo.size;
+        UploadSession session = loadSession(photo);
+        boolean restarted = false;
+        boolean conflicted = false;
+
+        if (session == null)
+        {
+            session = createUpload(upload, length);
+            if (session == null) return false;
+        } else
+        {
+            Timber.i("Resuming upload of %s at %d of %d bytes", photo.name, session.offset, length);
+        }
+
+        while (session.offset < length)
+        {
+            final long chunkLength = Math.min(RESUMABLE_UPLOAD_CHUNK_BYTES, length - session.offset);
+            final Response<Void> response = uploadService.appendChunk(session.uploadUrl, TUS_VERSION, session.offset,
+                    new PhotoRangeRequestBody(MEDIA_TYPE_OFFSET_OCTET_STREAM, photo, session.offset, chunkLength)).execute();
+
+            if (response.isSuccessful())
+            {
+                final long offset = offsetOf(response, session.offset + chunkLength);
+                if (offset <= session.offset || offset > length)
+                {
+                    // Sending the chunk again would get the same answer, and the loop would never end.
+                    Timber.w("Chunk at %d of %s accepted, but the server is at %d", session.offset, photo.name, offset);
+                    return false;
+                }
+                session.offset = offset;
+                saveSession(photo, session);
+                conflicted = false;
+            } else if (response.code() == HTTP_CONFLICT && !conflicted)
+            {
+                // The server kept a different number of bytes than we think, ask it where to continue.
+                conflicted = true;
+                Long serverOffset = fetchOffset(session);
+                if (serverOffset == null) return false;
+                Timber.d("Server has %d bytes of %s, not %d", serverOffset, photo.name, session.offset);
+                session.offset = serverOffset;
+                saveSession(photo, session);
+            } else if ((response.code() == HTTP_NOT_FOUND || response.code() == HTTP_GONE) && !restarted)
+            {
+                // The server has expired the upload, start a new one.
+                restarted = true;
+                forgetSession(photo);
+                session = createUpload(upload, length);
+                if (session == null) return false;
+            } else
+            {
+                Timber.w("Chunk at %d of %s refused. Response: %s", session.offset, photo.name, response);
+                return false;
+            }
+        }
+
+        forgetSession(photo);
+        Timber.d("Uploaded all %d bytes of %s", length, photo.name);
+        return true;
+    }
+
+    /**
+     * Create the upload resource on the server and save the new session.
+     *
+     * @return the new {@link UploadSession}, or null if the server refused to create the upload.
+     */
+    private UploadSession createUpload(PhotoUpload upload, long length) throws IOException
+    {
+        final PhotoContent photo = upload.photo;
+        final Response<Void> response = uploadService.createUpload(TUS_VERSION, length,
+                uploadMetadata(photo.name, upload.deviceId), upload.getIdempotencyKey(),
+                upload.pathUrl, upload.queryParameters).execute();
+        if (!response.isSuccessful())
+        {
+            Timber.w("Unable to create an upload for %s. Response: %s", photo.name, response);
+            return null;
+        }
+
+        final String location = response.headers().get(HEADER_LOCATION);
+        final HttpUrl uploadUrl = location == null ? null : response.raw().request().url().resolve(location);
+        if (uploadUrl == null)
+        {
+            throw new IOException(String.format("Invalid upload location \"%s\"", location));
+        }
+
+        UploadSession session = new UploadSession(uploadUrl.toString(), length, photo.lastModified);
+        saveSession(photo, session);
+        return session;
+    }
+
+    /**
+     * Ask the server how many bytes of the upload it has.
+     *
+     * @return the server offset, or null if the server no longer has the upload.
+     */
+    private Long fetchOffset(UploadSession session) throws IOException
+    {
+        final Response<Void> response = uploadService.getUploadOffset(session.uploadUrl, TUS_VERSION).execute();
+        if (!response.isSuccessful())
+        {
+            Timber.w("Unable to get the offset of %s. Response: %s", session.uploadUrl, response);
+            return null;
+        }
+        return offsetOf(response, null);
+    }
+
+    private static Long offsetOf(Response<Void> response, Long defaultOffset) throws IOException
+    {
+        final String offset = response.headers().get(HEADER_UPLOAD_OFFSET);
+        if (offset == null)
+        {
+            if (defaultOffset == null) throw new IOException("Server did not send an upload offset");
+            return defaultOffset;
+        }
+        try
+        {
+            return Long.parseLong(offset.trim());
+        } catch (NumberFormatException e)
+        {
+            throw new IOException(String.format("Invalid upload offset \"%s\"", offset), e);
+        }
+    }
+
+    /**
+     * Build the Upload-Metadata header, the same fields the other formats send with the photo.
+     */
+    private static String uploadMetadata(String filename, String deviceID)
+    {
+        StringBuilder metadata = new StringBuilder();
+        appendMetadata(metadata, "version", PhotoUploadApiUtils.PHOTOMONKEY_API_VERSION);
+        appendMetadata(metadata, "filename", filename);
+        appendMetadata(metadata, "device_id", deviceID);
+        return metadata.toString();
+    }
+
+    private static void appendMetadata(StringBuilder metadata, String key, String value)
+    {
+        if (value == null) return;
+        if (metadata.length() > 0) metadata.append(',');
+        metadata.append(key).append(' ').append(Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Load the saved session for a photo, as long as the photo has not changed since it was saved.
+     */
+    private UploadSession loadSession(PhotoContent photo)
+    {
+        final String json = sessions.getString(photo.getKey(), null);
+        if (json == null) return null;
+
+        UploadSession session;
+        try
+        {
+            session = gson.fromJson(json, UploadSession.class);
+        } catch (JsonSyntaxException e)
+        {
+            session = null;
+        }
+        if (session == null || session.uploadUrl == null || session.length != photo.size
+                || session.lastModified != photo.lastModified)
+        {
+            forgetSession(photo);
+            return null;
+        }
+        return session;
+    }
+
+    private void saveSession(PhotoContent photo, UploadSession session)
+    {
+        sessions.edit().putString(photo.getKey(), gson.toJson(session)).apply();
+    }
+
+    private void forgetSession(PhotoContent photo)
+    {
+        sessions.edit().remove(photo.getKey()).apply();
+    }
+
+    /**
+     * The saved state of an upload in progress. The length and modification time of the photo are
+     * kept so that a photo edited since the upload started is uploaded again from the beginning.
+     */
+    private static final class UploadSession
+    {
+        private String uploadUrl;
+        private long length;
+        private long lastModified;
+        private long offset;
+
+        // For Gson
+        private UploadSession()
+        {
+        }
+
+        UploadSession(String uploadUrl, long length, long lastModified)
+        {
+            this.uploadUrl = uploadUrl;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+}
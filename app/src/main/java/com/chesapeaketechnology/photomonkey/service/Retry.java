@@ -9,6 +9,11 @@ import java.lang.annotation.Target;
 
 /**
  * Defines a Retry annotation that can be used to annotate Retrofit API calls so that they will be retried if they fail.
+ * <p>
+ * A call is retried when it fails with an {@link java.io.IOException} or the server answers with one of the
+ * {@link #retryOn()} status codes. The delay before retry n is {@code baseDelayMillis * multiplier^(n-1)}, capped at
+ * {@link #maxDelayMillis()}, and then moved at random by up to the {@link #jitter()} fraction either way so that
+ * many clients do not retry in step. See {@link RetryPolicy}.
  *
  * @since 0.2.0
  */
@@ -21,4 +26,35 @@ public @interface Retry
      * @return The max retry attempts before the API call is considered "failed" and will no longer be retried.
      */
     int max() default 3;
+
+    /**
+     * @return The delay before the first retry, in milliseconds.
+     * @since 0.3.0
+     */
+    long baseDelayMillis() default 1000;
+
+    /**
+     * @return The factor the delay grows by with each retry.
+     * @since 0.3.0
+     */
+    double multiplier() default 2.0;
+
+    /**
+     * @return The largest delay between retries, in milliseconds, before jitter. A server that asks through
+     * Retry-After for a longer wait than this gets its response handed back rather than a retry.
+     * @since 0.3.0
+     */
+    long maxDelayMillis() default 60_000;
+
+    /**
+     * @return The fraction of the delay, from 0 to 1, by which the delay is randomly moved.
+     * @since 0.3.0
+     */
+    double jitter() default 0.2;
+
+    /**
+     * @return The HTTP status codes that are worth retrying. Any other unsuccessful status is returned as is.
+     * @since 0.3.0
+     */
+    int[] retryOn() default {408, 429, 500, 502, 503, 504};
 }
@@ -10,11 +10,13 @@ import androidx.annotation.Nullable;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import okhttp3.Request;
 import okio.Timeout;
@@ -27,8 +29,11 @@ import timber.log.Timber;
 
 /**
  * Assists with retrying API calls to the Rest API. If the API call is annotated with
- * the {@link Retry} annotation, then the REST call will be retried the specified number of times. If no annotation is
- * present, then the REST call is tried only one time.
+ * the {@link Retry} annotation, then the REST call will be retried according to its {@link RetryPolicy}. If no
+ * annotation is present, then the REST call is tried only one time.
+ * <p>
+ * Every call, retried or not, goes through the {@link CircuitBreaker} for its endpoint, so once a server has failed
+ * enough calls in a row the remaining calls fail fast until it has had time to recover.
  *
  * @since 0.2.0
  */
@@ -59,19 +64,11 @@ public class RetryCallAdapterFactory extends CallAdapter.Factory
     @Override
     public CallAdapter<?, ?> get(@NonNull Type returnType, @NonNull Annotation[] annotations, @NonNull Retrofit retrofit)
     {
-        /**
-         * You can setup a default max retry count for all connections.
-         */
-        int itShouldRetry = 0;
-        final Retry retry = getRetry(annotations);
-        if (retry != null)
-        {
-            itShouldRetry = retry.max();
-        }
-        Timber.d("Starting a CallAdapter with %s retries.", itShouldRetry);
+        final RetryPolicy policy = RetryPolicy.from(getRetry(annotations));
+        Timber.d("Starting a CallAdapter with %s", policy);
         return new RetryCallAdapter<>(
                 retrofit.nextCallAdapter(this, returnType, annotations),
-                itShouldRetry,
+                policy,
                 restHandler
         );
     }
@@ -88,16 +85,51 @@ public class RetryCallAdapterFactory extends CallAdapter.Factory
         return null;
     }
 
+    /**
+     * @return true if the status code means the server is failing or overloaded, rather than refusing the request.
+     * A 501 only says the server does not offer what was asked for, such as a batch endpoint.
+     */
+    static boolean isServerFailure(int statusCode)
+    {
+        return (statusCode >= 500 && statusCode != 501) || statusCode == 429;
+    }
+
+    /**
+     * Get the delay before retrying a response, honoring a Retry-After header given in seconds if it asks for longer
+     * than the policy does.
+     *
+     * @return the delay in milliseconds, or -1 if the server asked to wait longer than the policy's maximum delay, in
+     * which case the response should be handed back rather than retried.
+     */
+    static long retryDelayMillis(RetryPolicy policy, int retryAttempt, Response<?> response)
+    {
+        long delayMillis = policy.delayMillis(retryAttempt);
+        final String retryAfter = response == null ? null : response.headers().get("Retry-After");
+        if (retryAfter != null)
+        {
+            try
+            {
+                final long retryAfterMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+                if (retryAfterMillis > policy.getMaxDelayMillis()) return -1;
+                delayMillis = Math.max(delayMillis, retryAfterMillis);
+            } catch (NumberFormatException ignored)
+            {
+                // An HTTP date, which we don't bother with.
+            }
+        }
+        return delayMillis;
+    }
+
     static final class RetryCallAdapter<R, T> implements CallAdapter<R, T>
     {
         private final CallAdapter<R, T> delegated;
-        private final int maxRetries;
+        private final RetryPolicy policy;
         private final Handler restHandler;
 
-        public RetryCallAdapter(CallAdapter<R, T> delegated, int maxRetries, Handler restHandler)
+        public RetryCallAdapter(CallAdapter<R, T> delegated, RetryPolicy policy, Handler restHandler)
         {
             this.delegated = delegated;
-            this.maxRetries = maxRetries;
+            this.policy = policy;
             this.restHandler = restHandler;
         }
 
@@ -110,33 +142,128 @@ public class RetryCallAdapterFactory extends CallAdapter.Factory
         @Override
         public T adapt(final @NotNull Call<R> call)
         {
-            return delegated.adapt(maxRetries > 0 ? new RetryingCall<>(call, maxRetries, restHandler) : call);
+            return delegated.adapt(new RetryingCall<>(call, policy, restHandler));
         }
     }
 
+    /**
+     * A call that is tried again according to its {@link RetryPolicy}. Each attempt is a clone of the original call;
+     * canceling cancels the attempt in flight, or ends the wait before the next one.
+     */
     static final class RetryingCall<R> implements Call<R>
     {
         private final Call<R> delegated;
-        private final int maxRetries;
+        private final RetryPolicy policy;
         private final Handler restHandler;
+        private final Object retryLock = new Object();
+        private final AtomicReference<Runnable> pendingRetry = new AtomicReference<>();
 
-        public RetryingCall(Call<R> delegated, int maxRetries, Handler restHandler)
+        private volatile Call<R> current;
+        private volatile boolean canceled;
+
+        public RetryingCall(Call<R> delegated, RetryPolicy policy, Handler restHandler)
         {
             this.delegated = delegated;
-            this.maxRetries = maxRetries;
+            this.policy = policy;
             this.restHandler = restHandler;
+            current = delegated;
         }
 
         @Override
         public Response<R> execute() throws IOException
         {
-            return delegated.execute();
+            final CircuitBreaker breaker = CircuitBreaker.forUrl(delegated.request().url());
+            Call<R> attempt = delegated;
+            int retryAttempt = 0;
+            while (true)
+            {
+                breaker.acquire();
+                startAttempt(attempt);
+                Response<R> response = null;
+                try
+                {
+                    response = attempt.execute();
+                } catch (IOException e)
+                {
+                    breaker.recordFailure();
+                    if (canceled || attempt.isCanceled() || !policy.canRetry(++retryAttempt))
+                    {
+                        throw e;
+                    }
+                    Timber.d(e, "REST API Call failed");
+                }
+
+                if (response != null)
+                {
+                    if (isServerFailure(response.code()))
+                    {
+                        breaker.recordFailure();
+                    } else
+                    {
+                        breaker.recordSuccess();
+                    }
+                    if (response.isSuccessful() || !policy.isRetryable(response.code()) || !policy.canRetry(++retryAttempt))
+                    {
+                        return response;
+                    }
+                    Timber.d("Call with no success result code: %s ", response.code());
+                }
+
+                final long retryDelayMs = retryDelayMillis(policy, retryAttempt, response);
+                if (retryDelayMs < 0)
+                {
+                    Timber.w("Server asked to wait more than %d ms, not retrying", policy.getMaxDelayMillis());
+                    return response;
+                }
+                Timber.w("Retrying API call. count=%d, maxRetries=%d, retryDelayMs=%d", retryAttempt, policy.getMaxRetries(), retryDelayMs);
+                final UploadTelemetry.Recorder recorder = UploadTelemetry.current();
+                if (recorder != null) recorder.retried();
+                awaitRetry(retryDelayMs);
+                attempt = delegated.clone();
+            }
+        }
+
+        /**
+         * Make the attempt the one {@link #cancel()} cancels. Either the attempt is set before the call is canceled,
+         * or the cancel is seen here, so an attempt is never left running after a cancel.
+         */
+        private void startAttempt(Call<R> attempt)
+        {
+            current = attempt;
+            if (canceled) attempt.cancel();
+        }
+
+        /**
+         * Wait before the next attempt, returning early if the call is canceled.
+         */
+        private void awaitRetry(long delayMillis) throws IOException
+        {
+            synchronized (retryLock)
+            {
+                try
+                {
+                    RetryPolicy.sleeper.sleep(retryLock, delayMillis, () -> canceled);
+                } catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to retry");
+                }
+            }
+            if (canceled) throw new IOException("Canceled");
         }
 
         @Override
         public void enqueue(@NonNull Callback<R> callback)
         {
-            delegated.enqueue(new RetryCallback<>(delegated, callback, maxRetries, restHandler));
+            try
+            {
+                CircuitBreaker.forUrl(delegated.request().url()).acquire();
+            } catch (CircuitBreaker.OpenException e)
+            {
+                callback.onFailure(this, e);
+                return;
+            }
+            delegated.enqueue(new RetryCallback<>(this, callback, policy, restHandler));
         }
 
         @Override
@@ -148,19 +275,31 @@ public class RetryCallAdapterFactory extends CallAdapter.Factory
         @Override
         public void cancel()
         {
-            delegated.cancel();
+            canceled = true;
+            current.cancel();
+            synchronized (retryLock)
+            {
+                retryLock.notifyAll();
+            }
+            // Run a scheduled retry now, so the callback hears about the cancel without waiting out the delay.
+            final Runnable retry = pendingRetry.get();
+            if (retry != null)
+            {
+                restHandler.removeCallbacks(retry);
+                restHandler.post(retry);
+            }
         }
 
         @Override
         public boolean isCanceled()
         {
-            return delegated.isCanceled();
+            return canceled || delegated.isCanceled();
         }
 
         @Override
         public Call<R> clone()
         {
-            return new RetryingCall<>(delegated.clone(), maxRetries, restHandler);
+            return new RetryingCall<>(delegated.clone(), policy, restHandler);
         }
 
         @Override
@@ -173,33 +312,42 @@ public class RetryCallAdapterFactory extends CallAdapter.Factory
         @Override
         public Timeout timeout()
         {
-            return new Timeout().timeout(2L, TimeUnit.SECONDS);
+            return delegated.timeout();
         }
     }
 
     static final class RetryCallback<T> implements Callback<T>
     {
-        private final Call<T> call;
+        private final RetryingCall<T> call;
         private final Callback<T> callback;
-        private final int maxRetries;
+        private final RetryPolicy policy;
         private final Handler restHandler;
+        private final CircuitBreaker breaker;
         private final AtomicInteger retryCount = new AtomicInteger(0);
 
-        public RetryCallback(Call<T> call, Callback<T> callback, int maxRetries, Handler restHandler)
+        public RetryCallback(RetryingCall<T> call, Callback<T> callback, RetryPolicy policy, Handler restHandler)
         {
             this.call = call;
             this.callback = callback;
-            this.maxRetries = maxRetries;
+            this.policy = policy;
             this.restHandler = restHandler;
+            breaker = CircuitBreaker.forUrl(call.request().url());
         }
 
         @Override
-        public void onResponse(@NonNull Call<T> call, @NonNull Response<T> response)
+        public void onResponse(@NonNull Call<T> attempt, @NonNull Response<T> response)
         {
-            if (!response.isSuccessful() && retryCount.incrementAndGet() <= maxRetries)
+            if (isServerFailure(response.code()))
+            {
+                breaker.recordFailure();
+            } else
+            {
+                breaker.recordSuccess();
+            }
+            if (!response.isSuccessful() && policy.isRetryable(response.code()) && policy.canRetry(retryCount.incrementAndGet()))
             {
                 Timber.d("Call with no success result code: %s ", response.code());
-                retryCall();
+                retryCall(response);
             } else
             {
                 callback.onResponse(call, response);
@@ -207,17 +355,21 @@ public class RetryCallAdapterFactory extends CallAdapter.Factory
         }
 
         @Override
-        public void onFailure(@NonNull Call<T> call, @NonNull Throwable t)
+        public void onFailure(@NonNull Call<T> attempt, @NonNull Throwable t)
         {
             Timber.d(t, "REST API Call failed");
-            if (retryCount.incrementAndGet() <= maxRetries)
+            breaker.recordFailure();
+            if (call.isCanceled() || attempt.isCanceled())
             {
-                retryCall();
-            } else if (maxRetries > 0)
+                callback.onFailure(call, t);
+            } else if (policy.canRetry(retryCount.incrementAndGet()))
+            {
+                retryCall(null);
+            } else if (policy.getMaxRetries() > 0)
             {
                 Timber.d("No retries left sending timeout up.");
                 callback.onFailure(call,
-                        new TimeoutException(String.format("No retries left after %s attempts.", maxRetries)));
+                        new TimeoutException(String.format("No retries left after %s attempts.", policy.getMaxRetries())));
             } else
             {
                 callback.onFailure(call, t);
@@ -225,25 +377,52 @@ public class RetryCallAdapterFactory extends CallAdapter.Factory
         }
 
         /**
-         * Handles scheduling the retry of the REST API call. This method calculates a delay to use for the retry and
-         * then schedules the call based on that delay.
+         * Handles scheduling the retry of the REST API call. The delay comes from the {@link RetryPolicy}, growing
+         * exponentially with jitter to give the server time to come back online or the network issues to resolve
+         * without every client retrying at once. If the circuit for the endpoint has opened in the meantime, or the
+         * call is canceled, the call fails instead. A response whose Retry-After asks for longer than the policy's
+         * maximum delay is handed to the callback as is.
          */
-        private void retryCall()
+        private void retryCall(Response<T> response)
         {
             final int currentRetryAttempt = retryCount.get();
-            // Introduces a delay in the retry to give the server time to come back online or the network issues to
-            // resolve. There is also a random number added for jitter to add some variance for all the clients.
-            // First retry would be 1 * 1 * 2 + jitter ~= 2 seconds
-            // ... Fifth retry would be 5 * 5 * 2 + jitter ~= 50 seconds
-            // Leaving this exponential backoff retry in case we want to make it configurable in the @Retry annotation
-            //int retryDelayMs = (currentRetryAttempt * currentRetryAttempt * 2) * 1000 + new Random().nextInt(3000);
-
-            // Linear delay instead of an exponential delay.
-            int retryDelayMs = currentRetryAttempt * 1000;
+            final long retryDelayMs = retryDelayMillis(policy, currentRetryAttempt, response);
+            if (retryDelayMs < 0)
+            {
+                Timber.w("Server asked to wait more than %d ms, not retrying", policy.getMaxDelayMillis());
+                callback.onResponse(call, response);
+                return;
+            }
 
-            Timber.w("Retrying API call. count=%d, maxRetries=%d, retryDelayMs=%d", currentRetryAttempt, maxRetries, retryDelayMs);
+            Timber.w("Retrying API call. count=%d, maxRetries=%d, retryDelayMs=%d", currentRetryAttempt, policy.getMaxRetries(), retryDelayMs);
 
-            restHandler.postDelayed(() -> call.clone().enqueue(this), retryDelayMs);
+            final Runnable retry = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    // A cancel runs the retry early; whichever run comes first is the only one that counts.
+                    if (!call.pendingRetry.compareAndSet(this, null)) return;
+                    if (call.canceled)
+                    {
+                        callback.onFailure(call, new IOException("Canceled"));
+                        return;
+                    }
+                    try
+                    {
+                        breaker.acquire();
+                    } catch (CircuitBreaker.OpenException e)
+                    {
+                        callback.onFailure(call, e);
+                        return;
+                    }
+                    final Call<T> attempt = call.delegated.clone();
+                    call.startAttempt(attempt);
+                    attempt.enqueue(RetryCallback.this);
+                }
+            };
+            call.pendingRetry.set(retry);
+            restHandler.postDelayed(retry, retryDelayMs);
         }
     }
 }
@@ -0,0 +1,150 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+
+/**
+ * The retry settings of an API call, taken from its {@link Retry} annotation. Calls without the
+ * annotation get {@link #NONE}, which never retries.
+ *
+ * @since 0.3.0
+ */
+public final class RetryPolicy
+{
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 1.0, 0, 0, new int[0]);
+
+    /**
+     * Waits out the delay before a retry on the monitor of a lock, so that a {@code notifyAll()} on the
+     * lock can end the wait early.
+     */
+    interface Sleeper
+    {
+        /**
+         * @param lock        the lock to wait on, held by the caller.
+         * @param delayMillis how long to wait.
+         * @param stop        true once the wait should end early.
+         */
+        void sleep(Object lock, long delayMillis, BooleanSupplier stop) throws InterruptedException;
+    }
+
+    /**
+     * Waits in real time.
+     */
+    static final Sleeper CLOCK = (lock, delayMillis, stop) -> {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        long remaining;
+        while (!stop.getAsBoolean() && (remaining = deadline - System.nanoTime()) > 0)
+        {
+            TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+        }
+    };
+
+    /**
+     * The {@link Sleeper} a synchronous retry waits with. Tests replace it so they do not wait in real time.
+     */
+    static volatile Sleeper sleeper = CLOCK;
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final double multiplier;
+    private final long maxDelayMillis;
+    private final double jitter;
+    private final int[] retryOn;
+
+    RetryPolicy(int maxRetries, long baseDelayMillis, double multiplier, long maxDelayMillis, double jitter, int[] retryOn)
+    {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.baseDelayMillis = Math.max(0, baseDelayMillis);
+        this.multiplier = Math.max(1.0, multiplier);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+        this.jitter = Math.min(1.0, Math.max(0.0, jitter));
+        this.retryOn = retryOn.clone();
+        Arrays.sort(this.retryOn);
+    }
+
+    /**
+     * @param retry the {@link Retry} annotation of a call, or null if it has none.
+     * @return the policy described by the annotation.
+     */
+    public static RetryPolicy from(Retry retry)
+    {
+        if (retry == null)
+        {
+            return NONE;
+        }
+        return new RetryPolicy(retry.max(), retry.baseDelayMillis(), retry.multiplier(), retry.maxDelayMillis(),
+                retry.jitter(), retry.retryOn());
+    }
+
+    public int getMaxRetries()
+    {
+        return maxRetries;
+    }
+
+    /**
+     * @return the largest delay between retries, in milliseconds, before jitter.
+     */
+    public long getMaxDelayMillis()
+    {
+        return maxDelayMillis;
+    }
+
+    /**
+     * @param retryAttempt the number of attempts made so far, starting at 1.
+     * @return true if the call may be retried again.
+     */
+    public boolean canRetry(int retryAttempt)
+    {
+        return retryAttempt <= maxRetries;
+    }
+
+    /**
+     * @param statusCode an unsuccessful HTTP status code.
+     * @return true if the status code is worth retrying.
+     */
+    public boolean isRetryable(int statusCode)
+    {
+        return Arrays.binarySearch(retryOn, statusCode) >= 0;
+    }
+
+    /**
+     * Get how long to wait before a retry.
+     *
+     * @param retryAttempt the retry about to be made, starting at 1.
+     * @return the delay in milliseconds.
+     */
+    public long delayMillis(int retryAttempt)
+    {
+        return delayMillis(retryAttempt, () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * Get how long to wait before a retry, with the jitter drawn from the given source.
+     *
+     * @param retryAttempt the retry about to be made, starting at 1.
+     * @param random       uniformly distributed values from 0 inclusive to 1 exclusive.
+     * @return the delay in milliseconds.
+     */
+    long delayMillis(int retryAttempt, DoubleSupplier random)
+    {
+        double delay = Math.min(maxDelayMillis, baseDelayMillis * Math.pow(multiplier, Math.max(0, retryAttempt - 1)));
+        if (jitter > 0)
+        {
+            delay *= 1.0 + jitter * (2 * random.getAsDouble() - 1);
+        }
+        return Math.round(delay);
+    }
+
+    @Override
+    public @NonNull
+    String toString()
+    {
+        return String.format("RetryPolicy(max=%d, base=%dms, multiplier=%s, maxDelay=%dms, jitter=%s, retryOn=%s)",
+                maxRetries, baseDelayMillis, multiplier, maxDelayMillis, jitter, Arrays.toString(retryOn));
+    }
+}
@@ -0,0 +1,83 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import androidx.annotation.NonNull;
+
+import com.chesapeaketechnology.photomonkey.util.PhotoUploadApiUtils;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Response;
+import timber.log.Timber;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
+
+/**
+ * Uploads the whole photo in a single request, in one of the JSON, multipart or raw formats. If the
+ * request fails the next attempt starts again from the first byte.
+ *
+ * @since 0.3.0
+ */
+public class SingleRequestTransport implements PhotoUploadTransport
+{
+    private static final MediaType MEDIA_TYPE_JPEG = MediaType.parse("image/jpeg");
+
+    private final PhotoUploadService uploadService;
+    private final String uploadFormat;
+
+    /**
+     * @param uploadService the {@link PhotoUploadService} to post with.
+     * @param uploadFormat  one of the UPLOAD_FORMAT values in {@link com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants}.
+     */
+    public SingleRequestTransport(@NonNull PhotoUploadService uploadService, String uploadFormat)
+    {
+        this.uploadService = uploadService;
+        this.uploadFormat = uploadFormat;
+    }
+
+    @Override
+    public boolean upload(PhotoUpload upload) throws IOException
+    {
+        final Response<ResponseBody> response = createCall(upload).execute();
+        try (ResponseBody ignored = response.body())
+        {
+            if (!response.isSuccessful())
+            {
+                Timber.w("Upload refused. Response: %s", response);
+            }
+            return response.isSuccessful();
+        }
+    }
+
+    /**
+     * Create the call that uploads the photo in the requested format. Every format streams the
+     * photo from its content Uri as the request is written, so the photo is never read into memory.
+     */
+    private Call<ResponseBody> createCall(PhotoUpload upload)
+    {
+        final PhotoContent photo = upload.photo;
+        if (UPLOAD_FORMAT_MULTIPART.equals(uploadFormat))
+        {
+            MultipartBody.Part content = MultipartBody.Part.createFormData("content", photo.name,
+                    new PhotoRangeRequestBody(MEDIA_TYPE_JPEG, photo));
+            return uploadService.postPhotoMultipart(
+                    RequestBody.create(MultipartBody.FORM, PhotoUploadApiUtils.PHOTOMONKEY_API_VERSION),
+                    RequestBody.create(MultipartBody.FORM, photo.name),
+                    RequestBody.create(MultipartBody.FORM, upload.deviceId),
+                    content, upload.getIdempotencyKey(), upload.pathUrl, upload.queryParameters);
+        } else if (UPLOAD_FORMAT_RAW.equals(uploadFormat))
+        {
+            return uploadService.postPhotoRaw(new PhotoRangeRequestBody(MEDIA_TYPE_JPEG, photo),
+                    PhotoUploadApiUtils.PHOTOMONKEY_API_VERSION, photo.name, upload.deviceId,
+                    upload.getIdempotencyKey(), upload.pathUrl, upload.queryParameters);
+        } else
+        {
+            return uploadService.postPhotoJson(new PhotoJsonRequestBody(photo, photo.name, upload.deviceId),
+                    upload.getIdempotencyKey(), upload.pathUrl, upload.queryParameters);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.google.common.io.BaseEncoding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
+
+/**
+ * A record of every photo the app has uploaded, keyed by the SHA-256 of its content and the endpoint
+ * it went to. A photo whose content has already been uploaded to an endpoint is not sent there again,
+ * no matter how many times it is submitted, while the same photo can still go to every endpoint it is
+ * submitted to. The ledger also remembers the hash of each photo, by its content Uri, along with its
+ * size and modification time, so a photo is only hashed again once it changes. An edit patched in
+ * place, such as an EXIF edit, keeps the size, so the hash of a photo modified a moment before it was
+ * read is not remembered: a second edit could land within the same tick of the clock and leave the
+ * modification time as it was.
+ *
+ * @since 0.3.0
+ */
+public class UploadLedger extends SQLiteOpenHelper
+{
+    private static final String DATABASE_NAME = "upload_ledger.db";
+    private static final int DATABASE_VERSION = 1;
+
+    static final String TABLE = "upload_ledger";
+    static final String TABLE_PHOTO_HASH = "photo_hash";
+    static final String COLUMN_HASH = "hash";
+    static final String COLUMN_PHOTO_URI = "photo_uri";
+    static final String COLUMN_SIZE = "size";
+    static final String COLUMN_MODIFIED = "modified";
+    static final String COLUMN_ENDPOINT = "endpoint";
+    static final String COLUMN_UPLOADED_AT = "uploaded_at";
+
+    private static UploadLedger instance;
+
+    /**
+     * Get the shared ledger for the application.
+     *
+     * @param context any {@link Context}, the application context is retained.
+     * @return the {@link UploadLedger}
+     */
+    public static synchronized UploadLedger getInstance(Context context)
+    {
+        if (instance == null)
+        {
+            instance = new UploadLedger(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    UploadLedger(Context context)
+    {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db)
+    {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COLUMN_HASH + " TEXT NOT NULL, "
+                + COLUMN_ENDPOINT + " TEXT NOT NULL, "
+                + COLUMN_PHOTO_URI + " TEXT, "
+                + COLUMN_UPLOADED_AT + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_HASH + ", " + COLUMN_ENDPOINT + "))");
+        db.execSQL("CREATE INDEX idx_" + TABLE + "_" + COLUMN_PHOTO_URI + " ON " + TABLE + " ("
+                + COLUMN_PHOTO_URI + ", " + COLUMN_ENDPOINT + ")");
+        db.execSQL("CREATE TABLE " + TABLE_PHOTO_HASH + " ("
+                + COLUMN_PHOTO_URI + " TEXT PRIMARY KEY NOT NULL, "
+                + COLUMN_SIZE + " INTEGER NOT NULL, "
+                + COLUMN_MODIFIED + " INTEGER NOT NULL, "
+                + COLUMN_HASH + " TEXT NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
+    {
+        // There is only the one version of the ledger so far.
+    }
+
+    /**
+     * Get the SHA-256 of a photo, from the ledger if the photo has not changed since it was last
+     * hashed, otherwise by reading the photo. The hash is only remembered if the photo had gone
+     * {@link com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants#UPLOAD_LEDGER_HASH_SETTLE_MILLIS}
+     * without being modified when it was read.
+     *
+     * @param photo the photo.
+     * @return the hash as lower case hex.
+     * @throws IOException if the photo could not be read.
+     */
+    public String hashOf(PhotoContent photo) throws IOException
+    {
+        final long size = photo.size;
+        final long modified = photo.lastModified;
+        try (Cursor cursor = getReadableDatabase().query(TABLE_PHOTO_HASH, new String[]{COLUMN_HASH},
+                COLUMN_PHOTO_URI + " = ? AND " + COLUMN_SIZE + " = ? AND " + COLUMN_MODIFIED + " = ?",
+                new String[]{photo.getKey(), Long.toString(size), Long.toString(modified)}, null, null, null))
+        {
+            if (cursor.moveToFirst())
+            {
+                return cursor.getString(0);
+            }
+        }
+
+        final long readAt = System.currentTimeMillis();
+        final String hash = sha256(photo);
+        if (readAt - modified < UPLOAD_LEDGER_HASH_SETTLE_MILLIS)
+        {
+            // A write after this read could keep the modification time; hash the photo again next time.
+            return hash;
+        }
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_PHOTO_URI, photo.getKey());
+        values.put(COLUMN_SIZE, size);
+        values.put(COLUMN_MODIFIED, modified);
+        values.put(COLUMN_HASH, hash);
+        getWritableDatabase().insertWithOnConflict(TABLE_PHOTO_HASH, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        return hash;
+    }
+
+    /**
+     * @param hash     the SHA-256 of a photo.
+     * @param endpoint the endpoint the photo is going to.
+     * @return true if a photo with this content has already been uploaded to the endpoint.
+     */
+    public boolean isUploaded(String hash, String endpoint)
+    {
+        try (Cursor cursor = getReadableDatabase().query(TABLE, new String[]{COLUMN_UPLOADED_AT},
+                COLUMN_HASH + " = ? AND " + COLUMN_ENDPOINT + " = ?",
+                new String[]{hash, endpoint}, null, null, null))
+        {
+            return cursor.moveToFirst();
+        }
+    }
+
+    /**
+     * Get the hash a photo was first uploaded to an endpoint with. A photo whose metadata has
+     * been written into it since has a new hash, but the endpoint still knows it by this one.
+     *
+     * @param photoUri the content Uri of the photo.
+     * @param endpoint the endpoint.
+     * @return the hash the photo was first uploaded with, or null if it has not been uploaded there.
+     */
+    public String uploadedHashOf(String photoUri, String endpoint)
+    {
+        try (Cursor cursor = getReadableDatabase().query(TABLE, new String[]{COLUMN_HASH},
+                COLUMN_PHOTO_URI + " = ? AND " + COLUMN_ENDPOINT + " = ?",
+                new String[]{photoUri, endpoint}, null, null, COLUMN_UPLOADED_AT + " ASC", "1"))
+        {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+
+    /**
+     * Record that a photo has been uploaded to an endpoint. A record that is already there is kept,
+     * so the ledger goes on knowing when, and as which photo, the content first reached the endpoint.
+     *
+     * @param hash     the SHA-256 of the photo.
+     * @param photoUri the content Uri of the photo.
+     * @param endpoint the endpoint the photo was uploaded to.
+     */
+    public void recordUploaded(String hash, String photoUri, String endpoint)
+    {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_HASH, hash);
+        values.put(COLUMN_ENDPOINT, endpoint);
+        values.put(COLUMN_PHOTO_URI, photoUri);
+        values.put(COLUMN_UPLOADED_AT, System.currentTimeMillis());
+        getWritableDatabase().insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    /**
+     * Compute the SHA-256 of a photo, streamed from its channel.
+     *
+     * @param photo the photo to hash.
+     * @return the hash as lower case hex.
+     * @throws IOException if the photo could not be read.
+     */
+    public static String sha256(PhotoContent photo) throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e)
+        {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        try (FileChannel channel = photo.openChannel())
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (channel.read(buffer) != -1)
+            {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return BaseEncoding.base16().lowerCase().encode(digest.digest());
+    }
+}
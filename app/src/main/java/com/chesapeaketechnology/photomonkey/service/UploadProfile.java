@@ -0,0 +1,443 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.exifinterface.media.ExifInterface;
+
+import com.chesapeaketechnology.photomonkey.PhotoMonkeyFeatures;
+import com.chesapeaketechnology.photomonkey.model.AMetadataDelegate;
+import com.chesapeaketechnology.photomonkey.model.SidecarMetadataDelegate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+import timber.log.Timber;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
+
+/**
+ * How a photo is prepared before it is uploaded. The {@link #ORIGINAL} profile sends the photo
+ * unchanged. A profile may instead re-encode the photo as a JPEG of a given quality, scaling it down
+ * first so its longer side is at most a maximum dimension if one is set, and it may strip the
+ * thumbnail embedded in the EXIF of the photo. The photo on the device is never touched.
+ * <p>
+ * The size is written as "original", as "maxDimension:quality", for example "2304:90" for photos of
+ * about 4 MP, or as ":quality" to re-encode photos at their full size. Stripping the thumbnail is a
+ * separate setting. Re-encoding is done a tile at a time with a {@link BitmapRegionDecoder}, each
+ * tile subsampled as it is decoded, so only the re-encoded photo and one tile are ever held in memory
+ * whatever the size of the original. The EXIF tags of the original are copied onto the re-encoded
+ * photo, except for its thumbnail, which ExifInterface cannot write; a re-encoded photo never has a
+ * thumbnail. A photo that is only stripped of its thumbnail is not decoded at all: its image data is
+ * copied as it is under an EXIF segment written without the thumbnail.
+ * <p>
+ * Prepared photos are kept in the cache directory until they are uploaded, so a retry sends the same
+ * bytes and a resumable upload can continue where it stopped. The same goes for the copies made by
+ * {@link #embedSidecar} when metadata edits are kept in sidecars.
+ *
+ * @since 0.3.0
+ */
+public final class UploadProfile
+{
+    public static final UploadProfile ORIGINAL = new UploadProfile(0, 0, false);
+
+    private static final String CACHE_DIRECTORY = "upload_profile";
+
+    /**
+     * The EXIF tags carried over to a prepared photo. The pixel dimensions are set from the prepared
+     * photo, and the thumbnail tags are left out on purpose.
+     */
+    private static final String[] EXIF_TAGS = {
+            ExifInterface.TAG_ORIENTATION,
+            ExifInterface.TAG_IMAGE_DESCRIPTION,
+            ExifInterface.TAG_USER_COMMENT,
+            ExifInterface.TAG_MAKE,
+            ExifInterface.TAG_MODEL,
+            ExifInterface.TAG_SOFTWARE,
+            ExifInterface.TAG_DATETIME,
+            ExifInterface.TAG_DATETIME_ORIGINAL,
+            ExifInterface.TAG_DATETIME_DIGITIZED,
+            ExifInterface.TAG_OFFSET_TIME,
+            ExifInterface.TAG_OFFSET_TIME_ORIGINAL,
+            ExifInterface.TAG_SUBSEC_TIME,
+            ExifInterface.TAG_SUBSEC_TIME_ORIGINAL,
+            ExifInterface.TAG_EXPOSURE_TIME,
+            ExifInterface.TAG_F_NUMBER,
+            ExifInterface.TAG_PHOTOGRAPHIC_SENSITIVITY,
+            ExifInterface.TAG_FOCAL_LENGTH,
+            ExifInterface.TAG_FLASH,
+            ExifInterface.TAG_WHITE_BALANCE,
+            ExifInterface.TAG_GPS_VERSION_ID,
+            ExifInterface.TAG_GPS_LATITUDE_REF,
+            ExifInterface.TAG_GPS_LATITUDE,
+            ExifInterface.TAG_GPS_LONGITUDE_REF,
+            ExifInterface.TAG_GPS_LONGITUDE,
+            ExifInterface.TAG_GPS_ALTITUDE_REF,
+            ExifInterface.TAG_GPS_ALTITUDE,
+            ExifInterface.TAG_GPS_SPEED_REF,
+            ExifInterface.TAG_GPS_SPEED,
+            ExifInterface.TAG_GPS_TIMESTAMP,
+            ExifInterface.TAG_GPS_DATESTAMP,
+            ExifInterface.TAG_GPS_PROCESSING_METHOD};
+
+    /**
+     * The longest side of a re-encoded photo in pixels, or 0 to keep the size of the photo.
+     */
+    public final int maxDimension;
+    /**
+     * The JPEG quality to re-encode the photo at, or 0 to send the image data as it is.
+     */
+    public final int quality;
+    public final boolean stripThumbnail;
+
+    private UploadProfile(int maxDimension, int quality, boolean stripThumbnail)
+    {
+        this.maxDimension = maxDimension;
+        this.quality = quality;
+        this.stripThumbnail = stripThumbnail;
+    }
+
+    /**
+     * Read a profile from its preference values.
+     *
+     * @param value          "original", the maximum dimension and the JPEG quality separated by a
+     *                       colon, or the JPEG quality alone after a colon.
+     * @param stripThumbnail true to strip the thumbnail from the EXIF of the photo.
+     * @return the {@link UploadProfile}; the size is left as it is if the value is not understood.
+     */
+    public static UploadProfile parse(String value, boolean stripThumbnail)
+    {
+        if (value != null && !UPLOAD_PROFILE_ORIGINAL.equals(value))
+        {
+            final String[] fields = value.split(":", -1);
+            try
+            {
+                if (fields.length == 2)
+                {
+                    final int maxDimension = fields[0].trim().isEmpty() ? 0 : Integer.parseInt(fields[0].trim());
+                    final int quality = Integer.parseInt(fields[1].trim());
+                    if (maxDimension >= 0 && quality > 0 && quality <= 100)
+                    {
+                        return new UploadProfile(maxDimension, quality, stripThumbnail);
+                    }
+                }
+            } catch (NumberFormatException ignored)
+            {
+            }
+            Timber.w("Unknown upload profile %s, sending photos at their original size", value);
+        }
+        return stripThumbnail ? new UploadProfile(0, 0, true) : ORIGINAL;
+    }
+
+    public boolean isOriginal()
+    {
+        return quality == 0 && !stripThumbnail;
+    }
+
+    /**
+     * Get the photo to upload under this profile. If re-encoding the photo, or stripping its
+     * thumbnail, does not make it any smaller, the original is sent instead, as it is when there is
+     * no thumbnail to strip.
+     *
+     * @param context     any {@link Context}.
+     * @param photo       the photo on the device.
+     * @param contentHash the content hash of the photo, which names the prepared copy.
+     * @return the photo to send, named like the original.
+     * @throws IOException if the photo could not be read or the prepared copy could not be written.
+     */
+    public PhotoContent apply(Context context, PhotoContent photo, String contentHash) throws IOException
+    {
+        if (isOriginal()) return photo;
+
+        final File prepared = new File(cacheDirectory(context), String.format(Locale.US, "%s-%dq%d%s.jpg",
+                contentHash, maxDimension, quality, stripThumbnail ? "s" : ""));
+        if (!prepared.exists())
+        {
+            final File partial = new File(prepared.getPath() + ".tmp");
+            try
+            {
+                if (quality > 0)
+                {
+                    reencode(photo, partial);
+                } else if (!stripThumbnail(photo, partial))
+                {
+                    return photo;
+                }
+                if (partial.length() >= photo.size)
+                {
+                    Timber.d("Preparing %s for %s saves nothing, sending the original", photo, this);
+                    return photo;
+                }
+                if (!partial.renameTo(prepared)) throw new IOException("Unable to rename " + partial);
+            } finally
+            {
+                if (partial.exists() && !partial.delete()) Timber.w("Unable to delete %s", partial);
+            }
+        }
+        return PhotoContent.resolve(context, Uri.fromFile(prepared)).named(photo.name);
+    }
+
+    /**
+     * Get the photo to upload with its sidecar metadata written into its EXIF, when metadata edits are
+     * kept in sidecars ({@link AMetadataDelegate.PersistenceStrategy#SIDECAR}). The endpoint only ever
+     * sees the image, so otherwise the edits would never reach it. The metadata goes into a copy in the
+     * cache directory, named after the sidecar version, so the photo on the device is never touched and
+     * a retry reuses the copy until the metadata is edited again.
+     *
+     * @param context     any {@link Context}.
+     * @param sent        the photo returned by {@link #apply}.
+     * @param photo       the photo on the device.
+     * @param contentHash the content hash of the photo, which names the copy.
+     * @return the photo to send, named like the original; sent itself if there is no sidecar.
+     * @throws IOException if the sidecar could not be read or the copy could not be written.
+     */
+    public static PhotoContent embedSidecar(Context context, PhotoContent sent, PhotoContent photo, String contentHash) throws IOException
+    {
+        if (PhotoMonkeyFeatures.METADATA_PERSISTENCE_STRATEGY != AMetadataDelegate.PersistenceStrategy.SIDECAR) return sent;
+        final long sidecarVersion = SidecarMetadataDelegate.sidecarLastModified(photo.uri);
+        if (sidecarVersion == 0) return sent;
+
+        final String base = sent == photo ? contentHash : new File(sent.uri.getPath()).getName().replace(".jpg", "");
+        final File embedded = new File(cacheDirectory(context), base + "-sidecar" + sidecarVersion + ".jpg");
+        if (!embedded.exists())
+        {
+            final File partial = new File(embedded.getPath() + ".tmp");
+            try
+            {
+                try (InputStream in = Channels.newInputStream(sent.openChannel()))
+                {
+                    Files.copy(in, partial.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                new SidecarMetadataDelegate().embed(photo.uri, partial);
+                if (!partial.renameTo(embedded)) throw new IOException("Unable to rename " + partial);
+            } finally
+            {
+                if (partial.exists() && !partial.delete()) Timber.w("Unable to delete %s", partial);
+            }
+        }
+        return PhotoContent.resolve(context, Uri.fromFile(embedded)).named(photo.name);
+    }
+
+    /**
+     * Delete the prepared copy of a photo once the endpoint has it.
+     *
+     * @param sent  the photo returned by {@link #apply}.
+     * @param photo the photo on the device.
+     */
+    public static void release(PhotoContent sent, PhotoContent photo)
+    {
+        if (sent == photo || !"file".equals(sent.uri.getScheme())) return;
+        final File prepared = new File(sent.uri.getPath());
+        if (!prepared.delete()) Timber.w("Unable to delete %s", prepared);
+    }
+
+    /**
+     * Delete every prepared copy, including any left behind by photos that were dropped from the queue.
+     */
+    public static void clearCache(Context context)
+    {
+        final File[] files = cacheDirectory(context).listFiles();
+        if (files == null) return;
+        for (File file : files)
+        {
+            if (!file.delete()) Timber.w("Unable to delete %s", file);
+        }
+    }
+
+    /**
+     * Write the photo to the file re-encoded at the quality, scaled down first if it is larger than
+     * the maximum dimension.
+     */
+    private void reencode(PhotoContent photo, File destination) throws IOException
+    {
+        final BitmapRegionDecoder decoder;
+        try (InputStream in = Channels.newInputStream(photo.openChannel()))
+        {
+            decoder = BitmapRegionDecoder.newInstance(in, false);
+        }
+        if (decoder == null) throw new IOException("Unable to decode " + photo);
+
+        Bitmap target = null;
+        try
+        {
+            final int width = decoder.getWidth();
+            final int height = decoder.getHeight();
+            final float scale = maxDimension > 0 ? Math.min(1f, (float) maxDimension / Math.max(width, height)) : 1f;
+
+            final int targetWidth = Math.max(1, Math.round(width * scale));
+            final int targetHeight = Math.max(1, Math.round(height * scale));
+            target = Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
+            final Canvas canvas = new Canvas(target);
+            final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+            // Subsample each tile as far as possible without going below the target size.
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = 1;
+            while (options.inSampleSize * 2 * scale <= 1) options.inSampleSize *= 2;
+
+            final int tileSize = UPLOAD_PROFILE_TILE_PIXELS * options.inSampleSize;
+            final Rect region = new Rect();
+            final RectF tileBounds = new RectF();
+            for (int top = 0; top < height; top += tileSize)
+            {
+                for (int left = 0; left < width; left += tileSize)
+                {
+                    region.set(left, top, Math.min(left + tileSize, width), Math.min(top + tileSize, height));
+                    final Bitmap tile = decoder.decodeRegion(region, options);
+                    if (tile == null) throw new IOException("Unable to decode a tile of " + photo);
+                    tileBounds.set(region.left * scale, region.top * scale, region.right * scale, region.bottom * scale);
+                    canvas.drawBitmap(tile, null, tileBounds, paint);
+                    tile.recycle();
+                }
+            }
+
+            try (OutputStream out = new FileOutputStream(destination))
+            {
+                if (!target.compress(Bitmap.CompressFormat.JPEG, quality, out))
+                {
+                    throw new IOException("Unable to encode " + photo);
+                }
+            }
+            copyExif(readExif(photo), destination, targetWidth, targetHeight);
+            Timber.d("Re-encoded %s from %dx%d to %dx%d at quality %d", photo, width, height, targetWidth, targetHeight, quality);
+        } finally
+        {
+            if (target != null) target.recycle();
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * Write the photo to the file without the thumbnail in its EXIF. The EXIF segments of the photo
+     * are left out of the copy and the tags are written back without the thumbnail; the image data is
+     * copied as it is.
+     *
+     * @return false if the photo has no thumbnail to strip.
+     */
+    private static boolean stripThumbnail(PhotoContent photo, File destination) throws IOException
+    {
+        final ExifInterface original = readExif(photo);
+        if (!original.hasThumbnail()) return false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(photo.openChannel())));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(destination)))
+        {
+            copyWithoutExif(in, out);
+        }
+        copyExif(original, destination, original.getAttributeInt(ExifInterface.TAG_IMAGE_WIDTH, 0),
+                original.getAttributeInt(ExifInterface.TAG_IMAGE_LENGTH, 0));
+        Timber.d("Stripped the thumbnail from %s", photo);
+        return true;
+    }
+
+    /**
+     * Copy a JPEG without its EXIF (APP1 "Exif") segments. The segments before the image data are
+     * read one at a time; from the start of the scan on, everything is copied as it is.
+     */
+    private static void copyWithoutExif(DataInputStream in, OutputStream out) throws IOException
+    {
+        if (in.readUnsignedShort() != 0xFFD8) throw new IOException("Not a JPEG");
+        out.write(0xFF);
+        out.write(0xD8);
+        while (true)
+        {
+            final int marker = in.readUnsignedShort();
+            if ((marker & 0xFF00) != 0xFF00) throw new IOException(String.format("Not a JPEG marker: %04x", marker));
+            final int length = in.readUnsignedShort();
+            if (length < 2) throw new IOException(String.format("Bad length %d of JPEG segment %04x", length, marker));
+            final byte[] segment = new byte[length - 2];
+            in.readFully(segment);
+            final boolean exif = marker == 0xFFE1 && segment.length >= 6 && segment[0] == 'E' && segment[1] == 'x'
+                    && segment[2] == 'i' && segment[3] == 'f' && segment[4] == 0 && segment[5] == 0;
+            if (!exif)
+            {
+                out.write(marker >> 8);
+                out.write(marker);
+                out.write(length >> 8);
+                out.write(length);
+                out.write(segment);
+            }
+            if (marker == 0xFFDA)
+            {
+                final byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1)
+                {
+                    out.write(buffer, 0, read);
+                }
+                return;
+            }
+        }
+    }
+
+    private static ExifInterface readExif(PhotoContent photo) throws IOException
+    {
+        try (InputStream in = Channels.newInputStream(photo.openChannel()))
+        {
+            return new ExifInterface(in);
+        }
+    }
+
+    /**
+     * Write the tags in {@link #EXIF_TAGS} from the original onto a prepared photo, with its pixel
+     * dimensions if they are known.
+     */
+    private static void copyExif(ExifInterface original, File prepared, int width, int height) throws IOException
+    {
+        final ExifInterface exif = new ExifInterface(prepared.getAbsolutePath());
+        for (String tag : EXIF_TAGS)
+        {
+            final String value = original.getAttribute(tag);
+            if (value != null) exif.setAttribute(tag, value);
+        }
+        if (width > 0 && height > 0)
+        {
+            exif.setAttribute(ExifInterface.TAG_PIXEL_X_DIMENSION, String.valueOf(width));
+            exif.setAttribute(ExifInterface.TAG_PIXEL_Y_DIMENSION, String.valueOf(height));
+        }
+        exif.saveAttributes();
+    }
+
+    private static File cacheDirectory(Context context)
+    {
+        final File directory = new File(context.getCacheDir(), CACHE_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) Timber.w("Unable to create %s", directory);
+        return directory;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        final String size;
+        if (quality == 0)
+        {
+            size = UPLOAD_PROFILE_ORIGINAL;
+        } else if (maxDimension == 0)
+        {
+            size = String.format(Locale.US, ":%d", quality);
+        } else
+        {
+            size = String.format(Locale.US, "%d:%d", maxDimension, quality);
+        }
+        return stripThumbnail ? size + " without thumbnail" : size;
+    }
+}
@@ -0,0 +1,278 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
+
+/**
+ * The photos waiting to be uploaded. Submitting a photo only adds it here; the
+ * {@link PhotoUploadWorker} drains the queue, removing each photo once the endpoint has accepted it
+ * and leaving the rest for its next run. Submitting a photo that is already queued replaces the
+ * queued entry rather than adding a second one.
+ * <p>
+ * Photos are queued by their content Uri, and their size is recorded so batches can be planned
+ * without opening them.
+ * <p>
+ * The queue hands out urgent photos first and the rest newest first, so after an outage the photo
+ * someone is waiting for is not stuck behind the backlog. The backlog still moves: a share of the
+ * places goes to the oldest photos once they have waited long enough. See {@link #prioritize}.
+ *
+ * @since 0.3.0
+ */
+public class UploadQueue extends SQLiteOpenHelper
+{
+    private static final String DATABASE_NAME = "upload_queue.db";
+    private static final int DATABASE_VERSION = 1;
+
+    static final String TABLE = "upload_queue";
+    static final String COLUMN_PHOTO_URI = "photo_uri";
+    static final String COLUMN_SIZE = "size";
+    static final String COLUMN_DEVICE_ID = "device_id";
+    static final String COLUMN_PATH_URL = "path_url";
+    static final String COLUMN_QUERY_URL = "query_url";
+    static final String COLUMN_UPLOAD_FORMAT = "upload_format";
+    static final String COLUMN_ENQUEUED_AT = "enqueued_at";
+    static final String COLUMN_ATTEMPTS = "attempts";
+    static final String COLUMN_URGENT = "urgent";
+
+    private static final String[] ITEM_COLUMNS = {COLUMN_PHOTO_URI, COLUMN_SIZE, COLUMN_DEVICE_ID, COLUMN_PATH_URL,
+            COLUMN_QUERY_URL, COLUMN_UPLOAD_FORMAT, COLUMN_ENQUEUED_AT, COLUMN_ATTEMPTS, COLUMN_URGENT};
+
+    private static UploadQueue instance;
+
+    private volatile long revision;
+
+    /**
+     * Get the shared queue for the application.
+     *
+     * @param context any {@link Context}, the application context is retained.
+     * @return the {@link UploadQueue}
+     */
+    public static synchronized UploadQueue getInstance(Context context)
+    {
+        if (instance == null)
+        {
+            instance = new UploadQueue(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private UploadQueue(Context context)
+    {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db)
+    {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COLUMN_PHOTO_URI + " TEXT PRIMARY KEY NOT NULL, "
+                + COLUMN_SIZE + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_DEVICE_ID + " TEXT, "
+                + COLUMN_PATH_URL + " TEXT, "
+                + COLUMN_QUERY_URL + " TEXT, "
+                + COLUMN_UPLOAD_FORMAT + " TEXT, "
+                + COLUMN_ENQUEUED_AT + " INTEGER NOT NULL, "
+                + COLUMN_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_URGENT + " INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
+    {
+        // There is only the one version of the queue so far.
+    }
+
+    /**
+     * Add a photo to the queue, or update the upload settings of a photo that is already queued. A
+     * queued photo that is submitted again as urgent becomes urgent; it never stops being urgent.
+     *
+     * @param item the {@link Item} to queue.
+     */
+    public synchronized void add(Item item)
+    {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_DEVICE_ID, item.deviceId);
+        values.put(COLUMN_PATH_URL, item.pathUrl);
+        values.put(COLUMN_QUERY_URL, item.queryUrl);
+        values.put(COLUMN_UPLOAD_FORMAT, item.uploadFormat);
+        values.put(COLUMN_SIZE, item.size);
+        if (item.urgent) values.put(COLUMN_URGENT, 1);
+
+        SQLiteDatabase db = getWritableDatabase();
+        if (db.update(TABLE, values, COLUMN_PHOTO_URI + " = ?", new String[]{item.photoUri}) == 0)
+        {
+            values.put(COLUMN_PHOTO_URI, item.photoUri);
+            values.put(COLUMN_ENQUEUED_AT, item.enqueuedAt);
+            db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        }
+        revision++;
+    }
+
+    /**
+     * Get a number that changes whenever a photo is added to the queue or a queued photo is
+     * submitted again. Removing photos and recording failures leave it alone, so the worker can
+     * tell when the order it planned from {@link #pending()} has gone stale.
+     *
+     * @return the revision of the queue.
+     */
+    public long revision()
+    {
+        return revision;
+    }
+
+    /**
+     * Get the queued photos in the order they should be sent.
+     *
+     * @return the queued {@link Item}s, as ordered by {@link #prioritize}.
+     */
+    public List<Item> pending()
+    {
+        List<Item> items = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE, ITEM_COLUMNS, null, null, null, null,
+                COLUMN_ENQUEUED_AT + " DESC"))
+        {
+            while (cursor.moveToNext())
+            {
+                items.add(new Item(cursor.getString(0), cursor.getLong(1), cursor.getString(2), cursor.getString(3),
+                        cursor.getString(4), cursor.getString(5), cursor.getLong(6), cursor.getInt(7),
+                        cursor.getInt(8) != 0));
+            }
+        }
+        return prioritize(items, System.currentTimeMillis());
+    }
+
+    /**
+     * Order queued photos for sending. Urgent photos go first, newest first. The rest follow newest
+     * first, except that every {@link com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants#UPLOAD_QUEUE_AGED_SHARE}th
+     * place goes to the oldest photo, if it has waited longer than
+     * {@link com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants#UPLOAD_QUEUE_AGING_MILLIS}. However many
+     * photos keep arriving, the backlog is sent at no less than that share of the upload rate.
+     *
+     * @param newestFirst the queued photos, newest first.
+     * @param now         the current time in milliseconds.
+     * @return the photos in the order to send them.
+     */
+    static List<Item> prioritize(List<Item> newestFirst, long now)
+    {
+        final List<Item> ordered = new ArrayList<>(newestFirst.size());
+        final Deque<Item> rest = new ArrayDeque<>(newestFirst.size());
+        for (Item item : newestFirst)
+        {
+            if (item.urgent)
+            {
+                ordered.add(item);
+            } else
+            {
+                rest.addLast(item);
+            }
+        }
+
+        int place = 0;
+        while (!rest.isEmpty())
+        {
+            place++;
+            final Item oldest = rest.peekLast();
+            if (place % UPLOAD_QUEUE_AGED_SHARE == 0 && now - oldest.enqueuedAt > UPLOAD_QUEUE_AGING_MILLIS)
+            {
+                ordered.add(rest.pollLast());
+            } else
+            {
+                ordered.add(rest.pollFirst());
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * @return the number of photos in the queue.
+     */
+    public long count()
+    {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE);
+    }
+
+    /**
+     * Remove a photo from the queue, once it has been uploaded or can never be.
+     *
+     * @param photoUri the Uri of the photo.
+     */
+    public void remove(String photoUri)
+    {
+        getWritableDatabase().delete(TABLE, COLUMN_PHOTO_URI + " = ?", new String[]{photoUri});
+    }
+
+    /**
+     * Record a failed attempt to upload a photo. The photo stays in the queue.
+     *
+     * @param photoUri the Uri of the photo.
+     */
+    public void recordFailure(String photoUri)
+    {
+        getWritableDatabase().execSQL("UPDATE " + TABLE + " SET " + COLUMN_ATTEMPTS + " = " + COLUMN_ATTEMPTS
+                + " + 1 WHERE " + COLUMN_PHOTO_URI + " = ?", new Object[]{photoUri});
+    }
+
+    /**
+     * A photo waiting to be uploaded, along with where and how to upload it.
+     */
+    public static final class Item
+    {
+        public final String photoUri;
+        public final long size;
+        public final String deviceId;
+        public final String pathUrl;
+        public final String queryUrl;
+        public final String uploadFormat;
+        public final long enqueuedAt;
+        public final int attempts;
+        public final boolean urgent;
+
+        /**
+         * @param photoUri     the content Uri of the photo.
+         * @param size         the size of the photo in bytes.
+         * @param deviceId     the device id to send with the photo.
+         * @param pathUrl      the path of the upload endpoint.
+         * @param queryUrl     the query parameters of the upload endpoint, as a JSON map.
+         * @param uploadFormat one of the UPLOAD_FORMAT values in {@link com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants}.
+         */
+        public Item(String photoUri, long size, String deviceId, String pathUrl, String queryUrl, String uploadFormat)
+        {
+            this(photoUri, size, deviceId, pathUrl, queryUrl, uploadFormat, false);
+        }
+
+        /**
+         * @param urgent true to send the photo ahead of the rest of the queue.
+         * @see #Item(String, long, String, String, String, String)
+         */
+        public Item(String photoUri, long size, String deviceId, String pathUrl, String queryUrl, String uploadFormat,
+                    boolean urgent)
+        {
+            this(photoUri, size, deviceId, pathUrl, queryUrl, uploadFormat, System.currentTimeMillis(), 0, urgent);
+        }
+
+        Item(String photoUri, long size, String deviceId, String pathUrl, String queryUrl, String uploadFormat,
+             long enqueuedAt, int attempts, boolean urgent)
+        {
+            this.photoUri = photoUri;
+            this.size = size;
+            this.deviceId = deviceId;
+            this.pathUrl = pathUrl;
+            this.queryUrl = queryUrl;
+            this.uploadFormat = uploadFormat;
+            this.enqueuedAt = enqueuedAt;
+            this.attempts = attempts;
+            this.urgent = urgent;
+        }
+    }
+}
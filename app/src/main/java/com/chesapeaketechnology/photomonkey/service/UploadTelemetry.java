@@ -0,0 +1,588 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Response;
+import timber.log.Timber;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
+
+/**
+ * Records how each upload behaves on the wire: bytes sent, time to first byte, total duration,
+ * throughput, HTTP status, retries and how long the photos waited in the {@link UploadQueue}. It also
+ * records the {@link UploadProfile} the photos were sent with and how many bytes it saved.
+ * <p>
+ * The {@link PhotoUploadWorker} begins a {@link Recorder} before each upload or batch, on the thread
+ * that sends it. The shared HTTP client reports every request made on that thread to the recorder
+ * through an OkHttp {@link EventListener}, so the transports need no changes to be measured. When the
+ * upload finishes the recorder becomes a {@link Sample}, which is kept in a rolling window for the
+ * percentiles shown on the diagnostics screen and appended to a CSV log that can be exported.
+ *
+ * @since 0.3.0
+ */
+public final class UploadTelemetry
+{
+    private static final String LOG_FILE_NAME = "upload_telemetry.csv";
+    private static final String EXPORT_DIRECTORY = "telemetry";
+    private static final String CSV_HEADER = "timestamp,photos,bytes_sent,requests,retries,status,ttfb_ms,duration_ms,throughput_bps,queue_wait_ms,success,profile,original_bytes,photo_bytes";
+
+    private static final ThreadLocal<Recorder> currentRecorder = new ThreadLocal<>();
+    private static UploadTelemetry instance;
+
+    private final File logFile;
+    private final ArrayDeque<Sample> window = new ArrayDeque<>(UPLOAD_TELEMETRY_WINDOW);
+    private int loggedSamples;
+
+    public static synchronized UploadTelemetry getInstance(Context context)
+    {
+        if (instance == null)
+        {
+            instance = new UploadTelemetry(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private UploadTelemetry(Context context)
+    {
+        logFile = new File(context.getFilesDir(), LOG_FILE_NAME);
+        load();
+    }
+
+    /**
+     * Start recording an upload. Every HTTP request made on the calling thread is counted towards it
+     * until {@link Recorder#finish(boolean)} is called.
+     *
+     * @param photos          the number of photos in the upload.
+     * @param queueWaitMillis how long the oldest of the photos waited in the queue.
+     * @return the {@link Recorder} for the upload.
+     */
+    public Recorder begin(int photos, long queueWaitMillis)
+    {
+        final Recorder recorder = new Recorder(this, photos, queueWaitMillis);
+        currentRecorder.set(recorder);
+        return recorder;
+    }
+
+    /**
+     * @return the recorder for the upload running on the calling thread, or null if there is none.
+     */
+    static Recorder current()
+    {
+        return currentRecorder.get();
+    }
+
+    /**
+     * Get the listener factory to install on the HTTP client. Calls created on a thread with no upload
+     * being recorded get no listener.
+     *
+     * @return the {@link EventListener.Factory} that feeds the recorders.
+     */
+    public static EventListener.Factory eventListenerFactory()
+    {
+        return call -> {
+            final Recorder recorder = currentRecorder.get();
+            return recorder == null ? EventListener.NONE : new RecorderListener(recorder);
+        };
+    }
+
+    /**
+     * @return the percentiles over the most recent uploads.
+     */
+    public synchronized Summary summary()
+    {
+        return new Summary(new ArrayList<>(window));
+    }
+
+    /**
+     * Write the summary and the whole telemetry log to a file in the cache directory, where it can
+     * be shared through the {@link androidx.core.content.FileProvider}.
+     *
+     * @param context any {@link Context}.
+     * @return the exported file.
+     * @throws IOException if the file could not be written.
+     */
+    public synchronized File export(Context context) throws IOException
+    {
+        final File exportDirectory = new File(context.getCacheDir(), EXPORT_DIRECTORY);
+        if (!exportDirectory.isDirectory() && !exportDirectory.mkdirs())
+        {
+            throw new IOException("Unable to create " + exportDirectory);
+        }
+        final String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        final File exportFile = new File(exportDirectory, "upload_telemetry_" + timestamp + ".csv");
+
+        try (Writer writer = new BufferedWriter(new FileWriter(exportFile)))
+        {
+            for (String line : summary().toString().split("\n"))
+            {
+                writer.write("# " + line + "\n");
+            }
+            writer.write(CSV_HEADER + "\n");
+            if (logFile.exists())
+            {
+                try (BufferedReader reader = new BufferedReader(new FileReader(logFile)))
+                {
+                    String line;
+                    while ((line = reader.readLine()) != null)
+                    {
+                        if (!line.equals(CSV_HEADER)) writer.write(line + "\n");
+                    }
+                }
+            }
+        }
+        return exportFile;
+    }
+
+    private synchronized void add(Sample sample)
+    {
+        if (window.size() == UPLOAD_TELEMETRY_WINDOW) window.removeFirst();
+        window.addLast(sample);
+
+        try
+        {
+            if (loggedSamples >= UPLOAD_TELEMETRY_LOG_MAX_SAMPLES)
+            {
+                // Keep the log bounded; the window holds everything the percentiles need.
+                writeLog(new ArrayList<>(window), false);
+                loggedSamples = window.size();
+            } else
+            {
+                writeLog(Arrays.asList(sample), true);
+                loggedSamples++;
+            }
+        } catch (IOException e)
+        {
+            Timber.w(e, "Unable to write the upload telemetry log");
+        }
+    }
+
+    private void writeLog(List<Sample> samples, boolean append) throws IOException
+    {
+        final boolean writeHeader = !append || !logFile.exists();
+        try (Writer writer = new BufferedWriter(new FileWriter(logFile, append)))
+        {
+            if (writeHeader) writer.write(CSV_HEADER + "\n");
+            for (Sample sample : samples)
+            {
+                writer.write(sample.toCsv() + "\n");
+            }
+        }
+    }
+
+    /**
+     * Load the most recent samples from the log, so the percentiles survive a restart.
+     */
+    private void load()
+    {
+        if (!logFile.exists()) return;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(logFile)))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                final Sample sample = Sample.fromCsv(line);
+                if (sample == null) continue;
+                if (window.size() == UPLOAD_TELEMETRY_WINDOW) window.removeFirst();
+                window.addLast(sample);
+                loggedSamples++;
+            }
+        } catch (IOException e)
+        {
+            Timber.w(e, "Unable to read the upload telemetry log");
+        }
+    }
+
+    /**
+     * Collects the measurements of one upload, which may take several HTTP requests: retries, the
+     * chunks of a resumable upload, or a batch.
+     */
+    public static final class Recorder
+    {
+        private final UploadTelemetry telemetry;
+        private final int photos;
+        private final long queueWaitMillis;
+        private final long startNanos = System.nanoTime();
+
+        private long bytesSent;
+        private int requests;
+        private int retries;
+        private int status;
+        private long ttfbMillis = -1;
+        private long wireNanos;
+        private long requestStartNanos;
+        private String profile = UPLOAD_PROFILE_ORIGINAL;
+        private long originalBytes;
+        private long photoBytes;
+        private boolean finished;
+
+        private Recorder(UploadTelemetry telemetry, int photos, long queueWaitMillis)
+        {
+            this.telemetry = telemetry;
+            this.photos = photos;
+            this.queueWaitMillis = queueWaitMillis;
+        }
+
+        synchronized void requestStarted()
+        {
+            requests++;
+            requestStartNanos = System.nanoTime();
+        }
+
+        synchronized void bodySent(long byteCount)
+        {
+            bytesSent += byteCount;
+        }
+
+        synchronized void firstByteReceived()
+        {
+            // Time to first byte of the last request, the one whose status is recorded.
+            ttfbMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestStartNanos);
+        }
+
+        synchronized void responseReceived(int code)
+        {
+            status = code;
+        }
+
+        synchronized void requestEnded()
+        {
+            wireNanos += System.nanoTime() - requestStartNanos;
+        }
+
+        synchronized void retried()
+        {
+            retries++;
+        }
+
+        /**
+         * Record the upload profile the photos are sent with.
+         *
+         * @param profile       the {@link UploadProfile}.
+         * @param originalBytes the size of the photos on the device.
+         * @param photoBytes    the size of the photos as sent.
+         */
+        synchronized void profiled(UploadProfile profile, long originalBytes, long photoBytes)
+        {
+            this.profile = profile.toString();
+            this.originalBytes = originalBytes;
+            this.photoBytes = photoBytes;
+        }
+
+        /**
+         * Stop recording and add the upload to the telemetry. Calling this more than once has no
+         * further effect.
+         *
+         * @param success true if the endpoint accepted every photo in the upload.
+         */
+        public void finish(boolean success)
+        {
+            if (currentRecorder.get() == this) currentRecorder.remove();
+
+            final Sample sample;
+            synchronized (this)
+            {
+                if (finished) return;
+                finished = true;
+                final long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                final long wireMillis = TimeUnit.NANOSECONDS.toMillis(wireNanos);
+                final long throughput = wireMillis > 0 ? bytesSent * 1000 / wireMillis : 0;
+                sample = new Sample(System.currentTimeMillis(), photos, bytesSent, requests, retries, status,
+                        ttfbMillis, durationMillis, throughput, queueWaitMillis, success, profile, originalBytes, photoBytes);
+            }
+            Timber.d("Upload telemetry: %s", sample.toCsv());
+            telemetry.add(sample);
+        }
+    }
+
+    /**
+     * Feeds the events of one HTTP call to a {@link Recorder}.
+     */
+    private static final class RecorderListener extends EventListener
+    {
+        private final Recorder recorder;
+
+        RecorderListener(Recorder recorder)
+        {
+            this.recorder = recorder;
+        }
+
+        @Override
+        public void callStart(@NonNull Call call)
+        {
+            recorder.requestStarted();
+        }
+
+        @Override
+        public void requestBodyEnd(@NonNull Call call, long byteCount)
+        {
+            recorder.bodySent(byteCount);
+        }
+
+        @Override
+        public void responseHeadersStart(@NonNull Call call)
+        {
+            recorder.firstByteReceived();
+        }
+
+        @Override
+        public void responseHeadersEnd(@NonNull Call call, @NonNull Response response)
+        {
+            recorder.responseReceived(response.code());
+        }
+
+        @Override
+        public void callEnd(@NonNull Call call)
+        {
+            recorder.requestEnded();
+        }
+
+        @Override
+        public void callFailed(@NonNull Call call, @NonNull IOException ioe)
+        {
+            recorder.requestEnded();
+        }
+    }
+
+    /**
+     * The measurements of one finished upload. A status of 0 means no response was received, and a
+     * time to first byte of -1 means no response byte was received.
+     */
+    public static final class Sample
+    {
+        public final long timestamp;
+        public final int photos;
+        public final long bytesSent;
+        public final int requests;
+        public final int retries;
+        public final int status;
+        public final long ttfbMillis;
+        public final long durationMillis;
+        public final long throughputBytesPerSecond;
+        public final long queueWaitMillis;
+        public final boolean success;
+        public final String profile;
+        public final long originalBytes;
+        public final long photoBytes;
+
+        Sample(long timestamp, int photos, long bytesSent, int requests, int retries, int status, long ttfbMillis,
+               long durationMillis, long throughputBytesPerSecond, long queueWaitMillis, boolean success,
+               String profile, long originalBytes, long photoBytes)
+        {
+            this.timestamp = timestamp;
+            this.photos = photos;
+            this.bytesSent = bytesSent;
+            this.requests = requests;
+            this.retries = retries;
+            this.status = status;
+            this.ttfbMillis = ttfbMillis;
+            this.durationMillis = durationMillis;
+            this.throughputBytesPerSecond = throughputBytesPerSecond;
+            this.queueWaitMillis = queueWaitMillis;
+            this.success = success;
+            this.profile = profile;
+            this.originalBytes = originalBytes;
+            this.photoBytes = photoBytes;
+        }
+
+        /**
+         * @return the bytes the upload profile kept off the wire.
+         */
+        public long savedBytes()
+        {
+            return originalBytes - photoBytes;
+        }
+
+        String toCsv()
+        {
+            return timestamp + "," + photos + "," + bytesSent + "," + requests + "," + retries + "," + status + ","
+                    + ttfbMillis + "," + durationMillis + "," + throughputBytesPerSecond + "," + queueWaitMillis + ","
+                    + success + "," + profile + "," + originalBytes + "," + photoBytes;
+        }
+
+        /**
+         * @return the sample in a log line, or null if the line is the header or unreadable.
+         */
+        static Sample fromCsv(String line)
+        {
+            final String[] fields = line.split(",");
+            if (fields.length != 14) return null;
+            try
+            {
+                return new Sample(Long.parseLong(fields[0]), Integer.parseInt(fields[1]), Long.parseLong(fields[2]),
+                        Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), Integer.parseInt(fields[5]),
+                        Long.parseLong(fields[6]), Long.parseLong(fields[7]), Long.parseLong(fields[8]),
+                        Long.parseLong(fields[9]), Boolean.parseBoolean(fields[10]),
+                        fields[11], Long.parseLong(fields[12]), Long.parseLong(fields[13]));
+            } catch (NumberFormatException e)
+            {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * The 50th, 90th and 99th percentiles and the maximum of one measurement.
+     */
+    public static final class Percentiles
+    {
+        public final long p50;
+        public final long p90;
+        public final long p99;
+        public final long max;
+
+        Percentiles(long[] values)
+        {
+            Arrays.sort(values);
+            p50 = rank(values, 50);
+            p90 = rank(values, 90);
+            p99 = rank(values, 99);
+            max = values.length == 0 ? 0 : values[values.length - 1];
+        }
+
+        /**
+         * Nearest rank percentile.
+         */
+        private static long rank(long[] sorted, int percentile)
+        {
+            if (sorted.length == 0) return 0;
+            final int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, index)];
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.US, "p50 %d  p90 %d  p99 %d  max %d", p50, p90, p99, max);
+        }
+    }
+
+    /**
+     * Percentiles over a window of uploads. Time to first byte only counts uploads that received a
+     * response, and throughput only counts uploads that sent something.
+     */
+    public static final class Summary
+    {
+        public final int uploads;
+        public final int failures;
+        public final long bytesSent;
+        public final Percentiles bytesPerUpload;
+        public final Percentiles ttfbMillis;
+        public final Percentiles durationMillis;
+        public final Percentiles throughputBytesPerSecond;
+        public final Percentiles retries;
+        public final Percentiles queueWaitMillis;
+        /**
+         * The number of uploads that ended with each HTTP status, 0 for no response.
+         */
+        public final Map<Integer, Integer> statusCounts = new TreeMap<>();
+        /**
+         * The size of the photos on the device and as sent, for each upload profile.
+         */
+        public final Map<String, long[]> bytesByProfile = new TreeMap<>();
+
+        Summary(List<Sample> samples)
+        {
+            uploads = samples.size();
+            int failed = 0;
+            long sent = 0;
+            final List<Long> ttfb = new ArrayList<>();
+            final List<Long> throughput = new ArrayList<>();
+            final long[] bytes = new long[uploads];
+            final long[] durations = new long[uploads];
+            final long[] retryCounts = new long[uploads];
+            final long[] waits = new long[uploads];
+            for (int i = 0; i < uploads; i++)
+            {
+                final Sample sample = samples.get(i);
+                if (!sample.success) failed++;
+                sent += sample.bytesSent;
+                bytes[i] = sample.bytesSent;
+                durations[i] = sample.durationMillis;
+                retryCounts[i] = sample.retries;
+                waits[i] = sample.queueWaitMillis;
+                if (sample.ttfbMillis >= 0) ttfb.add(sample.ttfbMillis);
+                if (sample.bytesSent > 0) throughput.add(sample.throughputBytesPerSecond);
+                statusCounts.merge(sample.status, 1, Integer::sum);
+                if (sample.originalBytes > 0)
+                {
+                    final long[] profileBytes = bytesByProfile.computeIfAbsent(sample.profile, key -> new long[2]);
+                    profileBytes[0] += sample.originalBytes;
+                    profileBytes[1] += sample.photoBytes;
+                }
+            }
+            failures = failed;
+            bytesSent = sent;
+            bytesPerUpload = new Percentiles(bytes);
+            ttfbMillis = new Percentiles(toArray(ttfb));
+            durationMillis = new Percentiles(durations);
+            throughputBytesPerSecond = new Percentiles(toArray(throughput));
+            retries = new Percentiles(retryCounts);
+            queueWaitMillis = new Percentiles(waits);
+        }
+
+        private static long[] toArray(List<Long> values)
+        {
+            final long[] array = new long[values.size()];
+            for (int i = 0; i < array.length; i++)
+            {
+                array[i] = values.get(i);
+            }
+            return array;
+        }
+
+        /**
+         * @return how much of the size of the photos each upload profile saved.
+         */
+        private String profileSavings()
+        {
+            final StringBuilder savings = new StringBuilder();
+            for (Map.Entry<String, long[]> entry : bytesByProfile.entrySet())
+            {
+                final long original = entry.getValue()[0];
+                final long saved = original - entry.getValue()[1];
+                savings.append(String.format(Locale.US, "\n  %s: %d bytes saved (%d%%)", entry.getKey(), saved,
+                        original > 0 ? saved * 100 / original : 0));
+            }
+            return savings.toString();
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.US, "Last %d uploads, %d failed, %d bytes sent\n", uploads, failures, bytesSent)
+                    + "Bytes per upload: " + bytesPerUpload + "\n"
+                    + "Time to first byte (ms): " + ttfbMillis + "\n"
+                    + "Duration (ms): " + durationMillis + "\n"
+                    + "Throughput (bytes/s): " + throughputBytesPerSecond + "\n"
+                    + "Retries: " + retries + "\n"
+                    + "Queue wait (ms): " + queueWaitMillis + "\n"
+                    + "HTTP status: " + statusCounts + "\n"
+                    + "Upload profiles:" + profileSavings();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+
+import androidx.annotation.NonNull;
+
+import com.chesapeaketechnology.photomonkey.util.PreferenceUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+import timber.log.Timber;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
+
+/**
+ * Keeps uploads from taking over the uplink. Installed as an interceptor on the shared HTTP client,
+ * it limits how many upload requests may be in flight at once across every worker, and paces the
+ * bytes of request bodies through a token bucket at the bandwidth cap for the current network:
+ * one cap for metered networks and one for unmetered networks, either of which may be unlimited.
+ * <p>
+ * The limits are read from the settings for every request, so a change applies to the next request
+ * and a move from Wi-Fi to cellular applies to the next upload. The bucket is shared, so the cap
+ * holds for all uploads together rather than for each one. A snapshot of how much the throttle has
+ * passed and held back is shown on the diagnostics screen, along with the highest rate it let
+ * through in any one second.
+ *
+ * @since 0.3.0
+ */
+public final class UploadThrottle implements Interceptor
+{
+    private static UploadThrottle instance;
+
+    private final Context context;
+    private final TokenBucket bucket = new TokenBucket();
+
+    private int inFlight;
+    private int concurrencyLimit;
+    private long bandwidthCap;
+    private boolean metered;
+    private long bytesPassed;
+    private long slotWaitNanos;
+    private long bandwidthWaitNanos;
+    private long currentSecond;
+    private long bytesThisSecond;
+    private long peakBytesPerSecond;
+
+    public static synchronized UploadThrottle getInstance(Context context)
+    {
+        if (instance == null)
+        {
+            instance = new UploadThrottle(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private UploadThrottle(Context context)
+    {
+        this.context = context;
+    }
+
+    @NonNull
+    @Override
+    public Response intercept(@NonNull Chain chain) throws IOException
+    {
+        final boolean meteredNetwork = isMetered();
+        final long cap = meteredNetwork ? PreferenceUtils.getUploadBandwidthMeteredPreference(context)
+                : PreferenceUtils.getUploadBandwidthUnmeteredPreference(context);
+        synchronized (this)
+        {
+            metered = meteredNetwork;
+            bandwidthCap = cap;
+        }
+        bucket.setRate(cap);
+
+        acquireSlot(PreferenceUtils.getUploadConcurrencyPreference(context));
+        try
+        {
+            final Request request = chain.request();
+            final RequestBody body = request.body();
+            if (body == null) return chain.proceed(request);
+            return chain.proceed(request.newBuilder().method(request.method(), new ThrottledRequestBody(body)).build());
+        } finally
+        {
+            releaseSlot();
+        }
+    }
+
+    /**
+     * @return what the throttle has done so far.
+     */
+    public synchronized Metrics snapshot()
+    {
+        return new Metrics(concurrencyLimit, inFlight, bandwidthCap, metered, bytesPassed,
+                TimeUnit.NANOSECONDS.toMillis(slotWaitNanos), TimeUnit.NANOSECONDS.toMillis(bandwidthWaitNanos),
+                peakBytesPerSecond);
+    }
+
+    /**
+     * Wait until fewer than the limit of upload requests are in flight. The limit is checked again
+     * whenever a request finishes, so lowering it takes effect as requests drain.
+     */
+    private synchronized void acquireSlot(int limit) throws InterruptedIOException
+    {
+        concurrencyLimit = Math.max(1, limit);
+        final long start = System.nanoTime();
+        try
+        {
+            while (inFlight >= concurrencyLimit)
+            {
+                wait();
+            }
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to upload");
+        }
+        slotWaitNanos += System.nanoTime() - start;
+        inFlight++;
+    }
+
+    private synchronized void releaseSlot()
+    {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Take the tokens for the bytes about to be written, waiting for the bucket to refill if needed.
+     */
+    private void pace(long byteCount) throws InterruptedIOException
+    {
+        final long waitNanos = bucket.take(byteCount);
+        if (waitNanos > 0)
+        {
+            try
+            {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling an upload");
+            }
+        }
+
+        synchronized (this)
+        {
+            bandwidthWaitNanos += waitNanos;
+            bytesPassed += byteCount;
+            final long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+            if (second != currentSecond)
+            {
+                currentSecond = second;
+                bytesThisSecond = 0;
+            }
+            bytesThisSecond += byteCount;
+            peakBytesPerSecond = Math.max(peakBytesPerSecond, bytesThisSecond);
+        }
+    }
+
+    private boolean isMetered()
+    {
+        final ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) return true;
+
+        final Network network = connectivityManager.getActiveNetwork();
+        final NetworkCapabilities caps = network == null ? null : connectivityManager.getNetworkCapabilities(network);
+        return caps == null || !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+    }
+
+    /**
+     * A token bucket that runs into debt rather than splitting writes: a write of any size takes its
+     * tokens at once, and the writer then waits for the debt to be paid back at the rate. The bucket
+     * holds at most {@link com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants#UPLOAD_BANDWIDTH_BURST_MILLIS}
+     * worth of tokens, which bounds how far the rate can overshoot after an idle spell.
+     */
+    static final class TokenBucket
+    {
+        private long bytesPerSecond;
+        private double tokens;
+        private long refilledAtNanos = System.nanoTime();
+
+        /**
+         * @param bytesPerSecond the rate, or 0 for no limit.
+         */
+        synchronized void setRate(long bytesPerSecond)
+        {
+            if (bytesPerSecond == this.bytesPerSecond) return;
+            refill();
+            this.bytesPerSecond = Math.max(0, bytesPerSecond);
+            tokens = Math.min(tokens, capacity());
+            Timber.d("Upload bandwidth cap set to %d bytes/s", this.bytesPerSecond);
+        }
+
+        /**
+         * @return how long to wait before writing the bytes, in nanoseconds.
+         */
+        synchronized long take(long byteCount)
+        {
+            if (bytesPerSecond <= 0) return 0;
+            refill();
+            tokens -= byteCount;
+            return tokens >= 0 ? 0 : (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+        }
+
+        private void refill()
+        {
+            final long now = System.nanoTime();
+            if (bytesPerSecond > 0)
+            {
+                tokens = Math.min(capacity(), tokens + (double) (now - refilledAtNanos) * bytesPerSecond / TimeUnit.SECONDS.toNanos(1));
+            }
+            refilledAtNanos = now;
+        }
+
+        private double capacity()
+        {
+            return (double) bytesPerSecond * UPLOAD_BANDWIDTH_BURST_MILLIS / 1000;
+        }
+    }
+
+    /**
+     * Passes a request body through the throttle as it is written to the connection.
+     */
+    private final class ThrottledRequestBody extends RequestBody
+    {
+        private final RequestBody delegate;
+
+        ThrottledRequestBody(RequestBody delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public MediaType contentType()
+        {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException
+        {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public boolean isOneShot()
+        {
+            return delegate.isOneShot();
+        }
+
+        @Override
+        public void writeTo(@NonNull BufferedSink sink) throws IOException
+        {
+            final BufferedSink throttled = Okio.buffer(new ForwardingSink(sink)
+            {
+                @Override
+                public void write(@NonNull Buffer source, long byteCount) throws IOException
+                {
+                    pace(byteCount);
+                    super.write(source, byteCount);
+                }
+            });
+            delegate.writeTo(throttled);
+            // Hand over what is left in the buffer without closing the connection's sink.
+            throttled.emit();
+        }
+    }
+
+    /**
+     * A point in time view of the throttle.
+     */
+    public static final class Metrics
+    {
+        public final int concurrencyLimit;
+        public final int inFlight;
+        public final long bandwidthCap;
+        public final boolean metered;
+        public final long bytesPassed;
+        public final long slotWaitMillis;
+        public final long bandwidthWaitMillis;
+        public final long peakBytesPerSecond;
+
+        Metrics(int concurrencyLimit, int inFlight, long bandwidthCap, boolean metered, long bytesPassed,
+                long slotWaitMillis, long bandwidthWaitMillis, long peakBytesPerSecond)
+        {
+            this.concurrencyLimit = concurrencyLimit;
+            this.inFlight = inFlight;
+            this.bandwidthCap = bandwidthCap;
+            this.metered = metered;
+            this.bytesPassed = bytesPassed;
+            this.slotWaitMillis = slotWaitMillis;
+            this.bandwidthWaitMillis = bandwidthWaitMillis;
+            this.peakBytesPerSecond = peakBytesPerSecond;
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.US, "Upload throttle: %d of %d requests in flight, cap %s on %s network\n"
+                            + "  %d bytes passed, peak %d bytes/s, waited %d ms for a slot and %d ms for bandwidth",
+                    inFlight, concurrencyLimit, bandwidthCap > 0 ? bandwidthCap + " bytes/s" : "unlimited",
+                    metered ? "a metered" : "an unmetered", bytesPassed, peakBytesPerSecond, slotWaitMillis,
+                    bandwidthWaitMillis);
+        }
+    }
+}
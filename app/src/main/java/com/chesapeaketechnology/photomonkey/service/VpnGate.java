@@ -0,0 +1,81 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+
+import androidx.annotation.NonNull;
+
+import com.chesapeaketechnology.photomonkey.util.PreferenceUtils;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import timber.log.Timber;
+
+/**
+ * Holds uploads back until a VPN is up when the VPN Only setting is on. WorkManager has no VPN
+ * constraint, so the {@link PhotoUploadWorker} checks the gate before it sends anything and backs off
+ * while it is closed, and the gate watches for VPN networks so that queued uploads start as soon as
+ * one connects instead of waiting out the backoff.
+ *
+ * @since 0.3.0
+ */
+public final class VpnGate
+{
+    private static final AtomicBoolean registered = new AtomicBoolean(false);
+
+    private VpnGate()
+    {
+    }
+
+    /**
+     * Start watching for VPN networks. Safe to call more than once.
+     *
+     * @param context any {@link Context}, the application context is retained.
+     */
+    public static void register(Context context)
+    {
+        final Context appContext = context.getApplicationContext();
+        final ConnectivityManager connectivityManager = (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null || !registered.compareAndSet(false, true)) return;
+
+        final NetworkRequest vpnRequest = new NetworkRequest.Builder()
+                .addTransportType(NetworkCapabilities.TRANSPORT_VPN)
+                .removeCapability(NetworkCapabilities.NET_CAPABILITY_NOT_VPN)
+                .build();
+        connectivityManager.registerNetworkCallback(vpnRequest, new ConnectivityManager.NetworkCallback()
+        {
+            @Override
+            public void onAvailable(@NonNull Network network)
+            {
+                if (PreferenceUtils.getVpnOnlyPreference(appContext))
+                {
+                    Timber.i("VPN connected, starting any queued uploads");
+                    PhotoUploadSubmissionHandler.refreshUploadWork(appContext);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param context any {@link Context}.
+     * @return true if uploads may go out now: either the VPN Only setting is off or a VPN is up.
+     */
+    public static boolean isOpen(Context context)
+    {
+        return !PreferenceUtils.getVpnOnlyPreference(context) || isVpnConnected(context);
+    }
+
+    private static boolean isVpnConnected(Context context)
+    {
+        final ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) return false;
+
+        // While a VPN is up it is the default network, so only the active network needs checking.
+        final Network network = connectivityManager.getActiveNetwork();
+        final NetworkCapabilities caps = network == null ? null : connectivityManager.getNetworkCapabilities(network);
+        return caps != null && caps.hasTransport(NetworkCapabilities.TRANSPORT_VPN);
+    }
+}
@@ -1,21 +1,41 @@
 package com.chesapeaketechnology.photomonkey.util;
 
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
 import static com.chesapeaketechnology.photomonkey.util.PreferenceUtils.getBaseUrl;
 
 import android.content.Context;
 
+import com.chesapeaketechnology.photomonkey.service.BatchUploadTransport;
 import com.chesapeaketechnology.photomonkey.service.RetryCallAdapterFactory;
+import com.chesapeaketechnology.photomonkey.service.UploadTelemetry;
+import com.chesapeaketechnology.photomonkey.service.UploadThrottle;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializer;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
+import timber.log.Timber;
 
 /**
  * Wrapper for easier access to Rest photo upload API
+ * <p>
+ * Every upload goes through one {@link OkHttpClient}, so connections (and their TLS sessions) are
+ * kept alive in a single pool and reused from one upload to the next, and HTTP/2 is used when the
+ * server offers it. The {@link Retrofit} instance is rebuilt on that same client whenever the upload
+ * endpoint preference points at a different server, so endpoint changes from the code scanner or
+ * MDM take effect on the next upload without a restart and without starting any new threads. The
+ * timeouts of the client come from the preferences too, and the client is rebuilt, on the same
+ * connection pool, when they change.
  *
  * @since 0.2.0
  */
@@ -24,6 +44,12 @@ public class PhotoUploadApiUtils
     public static final String PHOTOMONKEY_API_VERSION = "0.1.0";
 
     private static Retrofit retrofit = null;
+    private static String retrofitBaseUrl = null;
+    private static OkHttpClient httpClient = null;
+    private static List<Long> httpClientTimeouts = null;
+    private static RetryCallAdapterFactory retryCallAdapterFactory = null;
+    private static BatchUploadTransport.UnsupportedEndpoints batchUnsupportedEndpoints = null;
+
     public static final Gson GSON = new GsonBuilder()
             .registerTypeAdapter(byte[].class, (JsonSerializer<byte[]>) (src, typeOfSrc, context) -> new JsonPrimitive(new String(src)))
             .registerTypeAdapter(byte[].class, (JsonDeserializer<byte[]>) (json, typeOfT, context) -> json == null ? null : json.getAsString() == null ? null : json.getAsString().getBytes())
@@ -32,14 +58,93 @@ public class PhotoUploadApiUtils
 
     public static synchronized Retrofit getRetrofitInstance(Context context)
     {
-        if (retrofit == null)
+        final String baseUrl = getBaseUrl(PreferenceUtils.getPostEndpointPreference(context));
+        final OkHttpClient client = getHttpClient(context);
+        if (retrofit == null || !baseUrl.equals(retrofitBaseUrl) || retrofit.callFactory() != client)
         {
+            if (retrofit != null && !baseUrl.equals(retrofitBaseUrl))
+            {
+                Timber.i("Upload endpoint changed from %s to %s", retrofitBaseUrl, baseUrl);
+                // Idle connections to the old server will never be used again.
+                client.connectionPool().evictAll();
+            }
+            if (retryCallAdapterFactory == null)
+            {
+                retryCallAdapterFactory = RetryCallAdapterFactory.create();
+            }
             retrofit = new retrofit2.Retrofit.Builder()
-                    .baseUrl(getBaseUrl(PreferenceUtils.getPostEndpointPreference(context)))
-                    .addCallAdapterFactory(RetryCallAdapterFactory.create())
+                    .baseUrl(baseUrl)
+                    .client(client)
+                    .addCallAdapterFactory(retryCallAdapterFactory)
                     .addConverterFactory(GsonConverterFactory.create(GSON))
                     .build();
+            retrofitBaseUrl = baseUrl;
+            batchUnsupportedEndpoints = new BatchUploadTransport.UnsupportedEndpoints();
         }
         return retrofit;
     }
+
+    /**
+     * Get the endpoints the current {@link Retrofit} instance has found to have no batch endpoint. The
+     * record starts empty whenever the instance is rebuilt, so a new server is tried with batches.
+     *
+     * @param context any {@link Context}.
+     * @return the {@link BatchUploadTransport.UnsupportedEndpoints} for the current instance.
+     * @since 0.3.0
+     */
+    public static synchronized BatchUploadTransport.UnsupportedEndpoints getBatchUnsupportedEndpoints(Context context)
+    {
+        getRetrofitInstance(context);
+        return batchUnsupportedEndpoints;
+    }
+
+    /**
+     * Get the HTTP client shared by all uploads. Its timeouts come from the preferences, and default
+     * to values sized for large photos on slow links: the write and read timeouts bound how long the
+     * connection may stall, not how long a whole upload may take. When the timeouts change the client
+     * is rebuilt, keeping its connection pool, so calls already made finish with the old timeouts.
+     * Requests made while an upload is being recorded are measured by the {@link UploadTelemetry},
+     * and every request is held to the limits of the {@link UploadThrottle}.
+     *
+     * @param context any {@link Context}.
+     * @return the shared {@link OkHttpClient}.
+     * @since 0.3.0
+     */
+    public static synchronized OkHttpClient getHttpClient(Context context)
+    {
+        final List<Long> timeouts = Arrays.asList(
+                PreferenceUtils.getHttpConnectTimeoutPreference(context),
+                PreferenceUtils.getHttpReadTimeoutPreference(context),
+                PreferenceUtils.getHttpWriteTimeoutPreference(context),
+                PreferenceUtils.getHttpCallTimeoutPreference(context));
+        if (httpClient == null)
+        {
+            httpClient = withTimeouts(new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(HTTP_MAX_IDLE_CONNECTIONS, HTTP_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS))
+                    .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                    .retryOnConnectionFailure(true)
+                    .eventListenerFactory(UploadTelemetry.eventListenerFactory())
+                    .addInterceptor(UploadThrottle.getInstance(context)), timeouts)
+                    .build();
+        } else if (!timeouts.equals(httpClientTimeouts))
+        {
+            Timber.i("HTTP timeouts changed from %s to %s seconds", httpClientTimeouts, timeouts);
+            // The new client shares the connection pool, dispatcher and interceptors of the old one.
+            httpClient = withTimeouts(httpClient.newBuilder(), timeouts).build();
+        }
+        httpClientTimeouts = timeouts;
+        return httpClient;
+    }
+
+    /**
+     * Set the connect, read, write and call timeouts, in that order, on a client builder.
+     */
+    private static OkHttpClient.Builder withTimeouts(OkHttpClient.Builder builder, List<Long> timeouts)
+    {
+        return builder
+                .connectTimeout(timeouts.get(0), TimeUnit.SECONDS)
+                .readTimeout(timeouts.get(1), TimeUnit.SECONDS)
+                .writeTimeout(timeouts.get(2), TimeUnit.SECONDS)
+                .callTimeout(timeouts.get(3), TimeUnit.SECONDS);
+    }
 }
@@ -117,6 +117,181 @@ public class PreferenceUtils
         return preferences.getBoolean(PhotoMonkeyConstants.PROPERTY_WIFI_ONLY_KEY, true);
     }
 
+    public static String getUploadFormatPreference(Context context)
+    {
+        final RestrictionsManager restrictionsManager = (RestrictionsManager) context.getSystemService(Context.RESTRICTIONS_SERVICE);
+
+        final boolean mdmOverride = PreferenceManager.getDefaultSharedPreferences(context).getBoolean(PhotoMonkeyConstants.PROPERTY_MDM_OVERRIDE_KEY, false);
+
+        // First try to use the MDM provided value.
+        if (restrictionsManager != null && !mdmOverride)
+        {
+            final Bundle mdmProperties = restrictionsManager.getApplicationRestrictions();
+
+            if (mdmProperties.containsKey(PhotoMonkeyConstants.PROPERTY_UPLOAD_FORMAT_KEY))
+            {
+                return mdmProperties.getString(PhotoMonkeyConstants.PROPERTY_UPLOAD_FORMAT_KEY);
+            }
+        }
+
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+
+        // Next, try to use the value from user preferences
+        return preferences.getString(PhotoMonkeyConstants.PROPERTY_UPLOAD_FORMAT_KEY, PhotoMonkeyConstants.UPLOAD_FORMAT_JSON);
+    }
+
+    public static String getUploadProfilePreference(Context context)
+    {
+        final RestrictionsManager restrictionsManager = (RestrictionsManager) context.getSystemService(Context.RESTRICTIONS_SERVICE);
+
+        final boolean mdmOverride = PreferenceManager.getDefaultSharedPreferences(context).getBoolean(PhotoMonkeyConstants.PROPERTY_MDM_OVERRIDE_KEY, false);
+
+        // First try to use the MDM provided value.
+        if (restrictionsManager != null && !mdmOverride)
+        {
+            final Bundle mdmProperties = restrictionsManager.getApplicationRestrictions();
+
+            if (mdmProperties.containsKey(PhotoMonkeyConstants.PROPERTY_UPLOAD_PROFILE_KEY))
+            {
+                return mdmProperties.getString(PhotoMonkeyConstants.PROPERTY_UPLOAD_PROFILE_KEY);
+            }
+        }
+
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+
+        // Next, try to use the value from user preferences
+        return preferences.getString(PhotoMonkeyConstants.PROPERTY_UPLOAD_PROFILE_KEY, PhotoMonkeyConstants.UPLOAD_PROFILE_ORIGINAL);
+    }
+
+    /**
+     * @return true if the thumbnail is stripped from the EXIF of a photo before it is sent.
+     */
+    public static boolean getUploadStripThumbnailPreference(Context context)
+    {
+        final RestrictionsManager restrictionsManager = (RestrictionsManager) context.getSystemService(Context.RESTRICTIONS_SERVICE);
+
+        final boolean mdmOverride = PreferenceManager.getDefaultSharedPreferences(context).getBoolean(PhotoMonkeyConstants.PROPERTY_MDM_OVERRIDE_KEY, false);
+
+        // First try to use the MDM provided value.
+        if (restrictionsManager != null && !mdmOverride)
+        {
+            final Bundle mdmProperties = restrictionsManager.getApplicationRestrictions();
+
+            if (mdmProperties.containsKey(PhotoMonkeyConstants.PROPERTY_UPLOAD_STRIP_THUMBNAIL_KEY))
+            {
+                return mdmProperties.getBoolean(PhotoMonkeyConstants.PROPERTY_UPLOAD_STRIP_THUMBNAIL_KEY);
+            }
+        }
+
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+
+        // Next, try to use the value from user preferences
+        return preferences.getBoolean(PhotoMonkeyConstants.PROPERTY_UPLOAD_STRIP_THUMBNAIL_KEY, false);
+    }
+
+    /**
+     * @return the most upload requests that may be in flight at once.
+     */
+    public static int getUploadConcurrencyPreference(Context context)
+    {
+        return (int) parseLong(getStringPreference(context, PhotoMonkeyConstants.PROPERTY_UPLOAD_CONCURRENCY_KEY,
+                String.valueOf(PhotoMonkeyConstants.DEFAULT_UPLOAD_CONCURRENCY)), PhotoMonkeyConstants.DEFAULT_UPLOAD_CONCURRENCY);
+    }
+
+    /**
+     * @return the upload bandwidth cap on metered networks in bytes per second, 0 for no cap.
+     */
+    public static long getUploadBandwidthMeteredPreference(Context context)
+    {
+        return parseLong(getStringPreference(context, PhotoMonkeyConstants.PROPERTY_UPLOAD_BANDWIDTH_METERED_KEY, "0"), 0);
+    }
+
+    /**
+     * @return the upload bandwidth cap on unmetered networks in bytes per second, 0 for no cap.
+     */
+    public static long getUploadBandwidthUnmeteredPreference(Context context)
+    {
+        return parseLong(getStringPreference(context, PhotoMonkeyConstants.PROPERTY_UPLOAD_BANDWIDTH_UNMETERED_KEY, "0"), 0);
+    }
+
+    /**
+     * @return the connect timeout of the HTTP client in seconds, 0 for no timeout.
+     */
+    public static long getHttpConnectTimeoutPreference(Context context)
+    {
+        return getTimeoutPreference(context, PhotoMonkeyConstants.PROPERTY_HTTP_CONNECT_TIMEOUT_KEY, PhotoMonkeyConstants.HTTP_CONNECT_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * @return the read timeout of the HTTP client in seconds, 0 for no timeout.
+     */
+    public static long getHttpReadTimeoutPreference(Context context)
+    {
+        return getTimeoutPreference(context, PhotoMonkeyConstants.PROPERTY_HTTP_READ_TIMEOUT_KEY, PhotoMonkeyConstants.HTTP_READ_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * @return the write timeout of the HTTP client in seconds, 0 for no timeout.
+     */
+    public static long getHttpWriteTimeoutPreference(Context context)
+    {
+        return getTimeoutPreference(context, PhotoMonkeyConstants.PROPERTY_HTTP_WRITE_TIMEOUT_KEY, PhotoMonkeyConstants.HTTP_WRITE_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * @return the timeout of a whole HTTP call in seconds, 0 for no timeout.
+     */
+    public static long getHttpCallTimeoutPreference(Context context)
+    {
+        return getTimeoutPreference(context, PhotoMonkeyConstants.PROPERTY_HTTP_CALL_TIMEOUT_KEY, PhotoMonkeyConstants.HTTP_CALL_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Get a timeout preference in seconds, falling back to the default if it is not a number or is negative.
+     */
+    private static long getTimeoutPreference(Context context, String key, long defaultSeconds)
+    {
+        final long seconds = parseLong(getStringPreference(context, key, String.valueOf(defaultSeconds)), defaultSeconds);
+        return seconds < 0 ? defaultSeconds : seconds;
+    }
+
+    /**
+     * Get a string preference, from the MDM provided value first and the user preferences next.
+     */
+    private static String getStringPreference(Context context, String key, String defaultValue)
+    {
+        final RestrictionsManager restrictionsManager = (RestrictionsManager) context.getSystemService(Context.RESTRICTIONS_SERVICE);
+
+        final boolean mdmOverride = PreferenceManager.getDefaultSharedPreferences(context).getBoolean(PhotoMonkeyConstants.PROPERTY_MDM_OVERRIDE_KEY, false);
+
+        // First try to use the MDM provided value.
+        if (restrictionsManager != null && !mdmOverride)
+        {
+            final Bundle mdmProperties = restrictionsManager.getApplicationRestrictions();
+
+            if (mdmProperties.containsKey(key))
+            {
+                return mdmProperties.getString(key);
+            }
+        }
+
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+
+        // Next, try to use the value from user preferences
+        return preferences.getString(key, defaultValue);
+    }
+
+    private static long parseLong(String value, long defaultValue)
+    {
+        try
+        {
+            return value == null ? defaultValue : Long.parseLong(value.trim());
+        } catch (NumberFormatException e)
+        {
+            return defaultValue;
+        }
+    }
+
     public static String getBaseUrl(String url)
     {
         Uri remoteUri = Uri.parse(url);
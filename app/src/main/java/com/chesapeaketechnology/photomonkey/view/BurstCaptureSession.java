@@ -0,0 +1,156 @@
+package com.chesapeaketechnology.photomonkey.view;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks a single burst of captures while the shutter button is held. Keeps a bounded number of
+ * captures in flight and adapts the capture interval so that a slow writer throttles the burst
+ * instead of letting captured images pile up in memory.
+ *
+ * @since 0.3.0
+ */
+class BurstCaptureSession
+{
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final long targetIntervalMillis;
+    private final long maxIntervalMillis;
+    private final long startedAtMillis;
+    private final AtomicInteger savedFrames = new AtomicInteger();
+    private final AtomicInteger droppedFrames = new AtomicInteger();
+    private final AtomicInteger failedFrames = new AtomicInteger();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private volatile long intervalMillis;
+    private volatile long stoppedAtMillis;
+
+    /**
+     * Create a new burst session.
+     *
+     * @param targetFramesPerSecond the rate to capture at when the writer keeps up.
+     * @param maxInFlight           the maximum number of captures that may be waiting to be written.
+     * @param maxIntervalMillis     the slowest the burst is allowed to back off to.
+     */
+    BurstCaptureSession(int targetFramesPerSecond, int maxInFlight, long maxIntervalMillis)
+    {
+        inFlight = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+        targetIntervalMillis = 1000L / targetFramesPerSecond;
+        this.maxIntervalMillis = maxIntervalMillis;
+        intervalMillis = targetIntervalMillis;
+        startedAtMillis = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Reserve a slot for the next capture. If every slot is taken the frame is counted as dropped
+     * and the capture interval is doubled so the burst slows down to the speed of the writer.
+     *
+     * @return true if the frame should be captured.
+     */
+    boolean tryBeginFrame()
+    {
+        if (inFlight.tryAcquire())
+        {
+            return true;
+        }
+        droppedFrames.incrementAndGet();
+        intervalMillis = Math.min(maxIntervalMillis, intervalMillis * 2);
+        return false;
+    }
+
+    /**
+     * Release the slot reserved by {@link #tryBeginFrame()} for a frame that was written, and ease
+     * the capture interval back towards the target rate.
+     */
+    void frameSaved()
+    {
+        inFlight.release();
+        savedFrames.incrementAndGet();
+        intervalMillis = Math.max(targetIntervalMillis, intervalMillis * 3 / 4);
+    }
+
+    /**
+     * Release the slot reserved by {@link #tryBeginFrame()} for a frame whose capture or write failed.
+     * Failed frames are counted apart from the frames dropped because the writer was behind.
+     */
+    void frameFailed()
+    {
+        inFlight.release();
+        failedFrames.incrementAndGet();
+    }
+
+    /**
+     * @return the delay before the next capture should be attempted.
+     */
+    long nextDelayMillis()
+    {
+        return intervalMillis;
+    }
+
+    /**
+     * Mark the end of the burst. Frames still in flight continue to be counted.
+     */
+    void stop()
+    {
+        stoppedAtMillis = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Check whether the burst is over: it has been stopped and none of its frames are still in flight.
+     * Only the first call that finds the burst over returns true, so the work that follows a burst is
+     * done once however many frames finish around the same time.
+     *
+     * @return true the first time the burst is found to be over.
+     */
+    boolean finish()
+    {
+        return stoppedAtMillis != 0 && inFlight.availablePermits() == maxInFlight && finished.compareAndSet(false, true);
+    }
+
+    /**
+     * Make sure {@link #finish()} never returns true, for a burst that is abandoned rather than finished.
+     */
+    void abandon()
+    {
+        finished.set(true);
+    }
+
+    int getSavedFrames()
+    {
+        return savedFrames.get();
+    }
+
+    int getDroppedFrames()
+    {
+        return droppedFrames.get();
+    }
+
+    int getFailedFrames()
+    {
+        return failedFrames.get();
+    }
+
+    /**
+     * @return the number of frames written per second over the duration of the burst.
+     */
+    double getSustainedFramesPerSecond()
+    {
+        long endMillis = stoppedAtMillis == 0 ? SystemClock.elapsedRealtime() : stoppedAtMillis;
+        long elapsedMillis = Math.max(1, endMillis - startedAtMillis);
+        return savedFrames.get() * 1000.0 / elapsedMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return String.format(Locale.US, "Burst: %d frames at %.1f fps, %d dropped, %d failed",
+                getSavedFrames(), getSustainedFramesPerSecond(), getDroppedFrames(), getFailedFrames());
+    }
+}
@@ -58,20 +58,27 @@ import com.bumptech.glide.request.RequestOptions;
 import com.chesapeaketechnology.photomonkey.R;
 import com.chesapeaketechnology.photomonkey.loc.ILocationManagerProvider;
 import com.chesapeaketechnology.photomonkey.loc.LocationManager;
+import com.chesapeaketechnology.photomonkey.model.AImageWriter;
 import com.chesapeaketechnology.photomonkey.model.AMetadataDelegate;
 import com.chesapeaketechnology.photomonkey.model.GalleryManager;
 import com.chesapeaketechnology.photomonkey.model.Image;
-import com.chesapeaketechnology.photomonkey.model.ImageFileWriter;
+import com.chesapeaketechnology.photomonkey.model.IoDispatcher;
+import com.chesapeaketechnology.photomonkey.model.Metadata;
 import com.chesapeaketechnology.photomonkey.model.PublicationDelegate;
 
 import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.BURST_MAX_INTERVAL_MILLIS;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.BURST_MAX_IN_FLIGHT;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.BURST_TARGET_FRAMES_PER_SECOND;
 import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.FOCUS_RECT_SIZE;
 import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.FOCUS_STROKE_WIDTH;
 import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.KEY_EVENT_ACTION;
@@ -136,6 +143,29 @@ public class CameraFragment extends Fragment
     private Preview preview;
     private int displayId = -1;
     private ExecutorService cameraExecutor;
+    private final Handler burstHandler = new Handler(Looper.getMainLooper());
+    private BurstCaptureSession burstSession;
+    /**
+     * Captures the next frame of a burst and schedules the one after it.
+     */
+    private final Runnable burstTick = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            BurstCaptureSession session = burstSession;
+            if (session == null) return;
+
+            if (session.tryBeginFrame())
+            {
+                captureBurstFrame(session);
+            } else
+            {
+                Timber.d("Burst frame dropped, writer is behind. Next capture in %d ms", session.nextDelayMillis());
+            }
+            burstHandler.postDelayed(this, session.nextDelayMillis());
+        }
+    };
     /**
      * Takes picture when the volume down hardware button is pressed.
      * <p>
@@ -192,6 +222,8 @@ public class CameraFragment extends Fragment
     {
         super.onDestroyView();
 
+        stopBurst(false);
+
         // Shut down our background executor
         cameraExecutor.shutdown();
 
@@ -244,8 +276,9 @@ public class CameraFragment extends Fragment
         focusView.setColor(Color.valueOf(Color.WHITE));
         focusView.setStrokeWidth(FOCUS_STROKE_WIDTH);
 
-        // Initialize our background executor
-        cameraExecutor = Executors.newCachedThreadPool();
+        // Camera callbacks get a thread of their own. They only hand the image to the capture lane,
+        // which writes it, so a callback never waits for a write to finish.
+        cameraExecutor = Executors.newSingleThreadExecutor();
 
         // Set up the intent filter that will receive events from our main activity
         // Used take pictures when volume down is pressed.
@@ -516,19 +549,17 @@ public class CameraFragment extends Fragment
         View controls = View.inflate(requireContext(), R.layout.camera_ui_container, container);
 
         // Load latest photo taken (if any) for gallery thumbnail
-        try
-        {
-            Uri latestUri = new GalleryManager().getLatest();
-            if (latestUri != null)
+        new GalleryManager().latest().whenComplete((latestUri, throwable) -> {
+            if (throwable != null)
+            {
+                Timber.e(throwable, "updateCameraUi: Unable to find existing images.");
+                Throwable rootCause = Throwables.getRootCause(throwable);
+                viewFinder.post(() -> Toast.makeText(requireContext(), String.format("Unable to find existing images. %s", rootCause.getMessage()), Toast.LENGTH_SHORT).show());
+            } else if (latestUri != null)
             {
                 setGalleryThumbnail(latestUri);
             }
-        } catch (GalleryManager.GalleryAccessFailure e)
-        {
-            Timber.e(e, "updateCameraUi: Unable to find existing images.");
-            Throwable rootCause = Throwables.getRootCause(e);
-            viewFinder.post(() -> Toast.makeText(requireContext(), String.format("Unable to find existing images. %s", rootCause.getMessage()), Toast.LENGTH_SHORT).show());
-        }
+        });
 
         ImageButton prefsButton = controls.findViewById(R.id.prefsButton);
         prefsButton.setOnClickListener(v -> openPreferences());
@@ -568,7 +599,20 @@ public class CameraFragment extends Fragment
         });
 
         // Listener for button used to capture photo
-        controls.findViewById(R.id.camera_capture_button).setOnClickListener(v -> takePicture());
+        View captureButton = controls.findViewById(R.id.camera_capture_button);
+        captureButton.setOnClickListener(v -> takePicture());
+        // Holding the capture button takes a burst of photos until it is released
+        captureButton.setOnLongClickListener(v -> {
+            startBurst();
+            return true;
+        });
+        captureButton.setOnTouchListener((v, event) -> {
+            if (event.getActionMasked() == MotionEvent.ACTION_UP || event.getActionMasked() == MotionEvent.ACTION_CANCEL)
+            {
+                stopBurst(true);
+            }
+            return false;
+        });
 
         // Listener for button used to switch cameras
         controls.findViewById(R.id.camera_switch_button).setOnClickListener(v -> {
@@ -586,20 +630,18 @@ public class CameraFragment extends Fragment
         // Listener for button used to view the most recent photo
         controls.findViewById(R.id.photo_view_button).setOnClickListener(v -> {
             // Only navigate when the gallery has photos
-            GalleryManager galleryManager = new GalleryManager();
-            try
-            {
-                if (!galleryManager.isEmpty())
+            new GalleryManager().count().whenComplete((count, throwable) -> viewFinder.post(() -> {
+                if (throwable != null)
+                {
+                    Timber.e(throwable, "updateCameraUi: Unable to find existing images.");
+                    Throwable rootCause = Throwables.getRootCause(throwable);
+                    Toast.makeText(requireContext(), String.format("Unable to find existing images. %s", rootCause.getMessage()), Toast.LENGTH_SHORT).show();
+                } else if (count > 0 && isAdded())
                 {
                     Navigation.findNavController(requireActivity(), R.id.fragment_container)
                             .navigate(CameraFragmentDirections.actionCameraFragmentToGalleryFragment());
                 }
-            } catch (GalleryManager.GalleryAccessFailure galleryAccessFailure)
-            {
-                Timber.e(galleryAccessFailure, "updateCameraUi: Unable to find existing images.");
-                Throwable rootCause = Throwables.getRootCause(galleryAccessFailure);
-                viewFinder.post(() -> Toast.makeText(requireContext(), String.format("Unable to find existing images. %s", rootCause.getMessage()), Toast.LENGTH_SHORT).show());
-            }
+            }));
         });
     }
 
@@ -640,55 +682,20 @@ public class CameraFragment extends Fragment
                                 shutterSound.start();
                             }
 
-                            Image image = null;
-                            try
-                            {
-                                // create an image model object
-                                image = Image.create(imageProxy);
-                                viewModel.setImage(image);
-                                // if the current value of lensFacing is front, then the image is horizontally reversed.
-                                viewModel.setReversed((lensFacing == CameraSelector.LENS_FACING_FRONT));
-                                Uri savedUri = image.getUri();
+                            // if the current value of lensFacing is front, then the image is horizontally reversed.
+                            viewModel.setReversed((lensFacing == CameraSelector.LENS_FACING_FRONT));
 
-                                Timber.d(savedUri.getPath(), "Photo capture succeeded: %s");
-                                setGalleryThumbnail(savedUri);
-
-                                try
+                            // Hand the buffer off to the write -> metadata -> publish pipeline and return right
+                            // away so CameraX can reuse the capture slot. The image proxy is closed once written.
+                            saveCapturedImage(imageProxy).whenComplete((image, throwable) -> {
+                                if (throwable == null)
                                 {
-                                    // Publish the image to other services
-                                    image.publish();
-                                } catch (PublicationDelegate.PublicationFailure publicationFailure)
+                                    onImageSaved(image, null);
+                                } else
                                 {
-                                    Timber.e(publicationFailure, "Unable to publish image.");
-                                    viewFinder.post(() ->
-                                            Toast.makeText(requireContext(), String.format("Unable to publish image. %s", publicationFailure.getMessage()), Toast.LENGTH_LONG).show());
+                                    onImageSaveFailed(throwable instanceof CompletionException ? throwable.getCause() : throwable);
                                 }
-                                // Automatically navigate to edit the supplementary data.
-                                new Handler(Looper.getMainLooper()).post(() ->
-                                        Navigation.findNavController(requireActivity(), R.id.fragment_container)
-                                                .navigate(CameraFragmentDirections.actionCameraFragmentToSupplementaryInputFragment()));
-
-                            } catch (ImageFileWriter.FormatNotSupportedException unlikely)
-                            {
-                                // OnCaptureSuccess doc says "The image is of format ImageFormat.JPEG". So, this should never happen.
-                                // https://developer.android.com/reference/androidx/camera/core/ImageCapture.OnImageCapturedListener#onCaptureSuccess(androidx.camera.core.ImageProxy,%20int)
-                                Timber.wtf(unlikely, "Format not supported.");
-                                viewFinder.post(() ->
-                                        Toast.makeText(requireContext(), String.format("Camera capture format not supported. %s", unlikely.getMessage()), Toast.LENGTH_LONG).show());
-                            } catch (ImageFileWriter.WriteException writeException)
-                            {
-                                Timber.e(writeException, "Unable to save image.");
-                                viewFinder.post(() ->
-                                        Toast.makeText(requireContext(), String.format("Unable to save image. %s", writeException.getMessage()), Toast.LENGTH_LONG).show());
-                            } catch (AMetadataDelegate.ReadFailure readFailure)
-                            {
-                                Timber.w(readFailure, "Unable to read image metadata.");
-                                viewFinder.post(() ->
-                                        Toast.makeText(requireContext(), String.format("Unable to read image metadata. %s", readFailure.getMessage()), Toast.LENGTH_SHORT).show());
-                            } finally
-                            {
-                                imageProxy.close();
-                            }
+                            });
                         }
 
                         @Override
@@ -702,4 +709,207 @@ public class CameraFragment extends Fragment
             );
         }
     }
+
+    /**
+     * Start the write -> publish pipeline for a captured image. The location and lens direction are
+     * embedded while the image is written, with an empty description for the user to fill in later.
+     *
+     * @param imageProxy the captured image. It is closed once it has been written.
+     * @return a future completed with the saved {@link Image}.
+     */
+    private CompletableFuture<Image> saveCapturedImage(ImageProxy imageProxy)
+    {
+        Metadata metadata = new Metadata("", viewModel.getLastLocation(), viewModel.isReversed());
+        return Image.createAsync(imageProxy, metadata)
+                .thenApply(image -> {
+                    try
+                    {
+                        // Publish the image to other services
+                        image.publish();
+                    } catch (PublicationDelegate.PublicationFailure publicationFailure)
+                    {
+                        Timber.e(publicationFailure, "Unable to publish image.");
+                        viewFinder.post(() ->
+                                Toast.makeText(requireContext(), String.format("Unable to publish image. %s", publicationFailure.getMessage()), Toast.LENGTH_LONG).show());
+                    }
+                    return image;
+                });
+    }
+
+    /**
+     * Start capturing a burst of photos. The burst continues until {@link #stopBurst(boolean)} is
+     * called when the capture button is released.
+     */
+    private void startBurst()
+    {
+        if (imageCapture == null || burstSession != null) return;
+
+        Timber.i("Starting burst capture");
+        imageCapture.setFlashMode(viewModel.getFlashMode());
+        // if the current value of lensFacing is front, then the image is horizontally reversed.
+        viewModel.setReversed((lensFacing == CameraSelector.LENS_FACING_FRONT));
+        burstSession = new BurstCaptureSession(BURST_TARGET_FRAMES_PER_SECOND, BURST_MAX_IN_FLIGHT, BURST_MAX_INTERVAL_MILLIS);
+        burstHandler.post(burstTick);
+    }
+
+    /**
+     * Stop the current burst, if any. When the user ends the burst, how it performed is reported and
+     * the last frame goes to the supplementary input form once every frame has finished. When the view
+     * is torn down the burst is abandoned: the frames still in flight are saved and queued for upload,
+     * but nothing is shown.
+     *
+     * @param report true if the user ended the burst, false if the view is being torn down.
+     */
+    private void stopBurst(boolean report)
+    {
+        BurstCaptureSession session = burstSession;
+        if (session == null) return;
+
+        burstSession = null;
+        burstHandler.removeCallbacks(burstTick);
+        session.stop();
+        Timber.i("%s", session);
+        Timber.i("%s", IoDispatcher.metrics(IoDispatcher.Lane.CAPTURE));
+        if (!report)
+        {
+            session.abandon();
+            return;
+        }
+        viewFinder.post(() -> {
+            if (getContext() != null)
+            {
+                Toast.makeText(getContext(), session.toString(), Toast.LENGTH_SHORT).show();
+            }
+        });
+        onBurstFrameFinished(session);
+    }
+
+    /**
+     * Capture a single frame of a burst. Each frame that is saved goes through
+     * {@link #onImageSaved(Image, BurstCaptureSession)}, as a single picture does.
+     *
+     * @param session the burst the frame belongs to.
+     */
+    private void captureBurstFrame(BurstCaptureSession session)
+    {
+        imageCapture.takePicture(cameraExecutor,
+                new ImageCapture.OnImageCapturedCallback()
+                {
+                    @Override
+                    public void onCaptureSuccess(@NonNull ImageProxy imageProxy)
+                    {
+                        saveCapturedImage(imageProxy).whenComplete((image, throwable) -> {
+                            if (throwable == null)
+                            {
+                                session.frameSaved();
+                                onImageSaved(image, session);
+                            } else
+                            {
+                                session.frameFailed();
+                                Timber.e(throwable, "Unable to save burst frame.");
+                                burstHandler.post(() -> onBurstFrameFinished(session));
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onError(@NonNull ImageCaptureException exception)
+                    {
+                        session.frameFailed();
+                        Timber.e(exception, "onError: Unable to capture burst frame.");
+                        burstHandler.post(() -> onBurstFrameFinished(session));
+                    }
+                }
+        );
+    }
+
+    /**
+     * Called once a captured image has been written with its metadata embedded, and published. Every
+     * capture goes through here, whether it is a single picture or a frame of a burst: the image
+     * becomes the one in the shared view model and the gallery thumbnail, and the user is asked for
+     * supplementary data. A single picture goes to the supplementary input form right away and is
+     * queued for upload when the form is closed. A burst frame is queued for upload as soon as it is
+     * saved, and the form is shown for the last frame once the burst is over.
+     *
+     * @param image the saved {@link Image}
+     * @param burst the burst the image is a frame of, or null for a single picture
+     */
+    private void onImageSaved(Image image, @Nullable BurstCaptureSession burst)
+    {
+        if (burst != null)
+        {
+            PublicationDelegate.kickOffSyncMonkeySync();
+            PublicationDelegate.uploadFileToRemoteEndpoint(image.getUri());
+        }
+        new Handler(Looper.getMainLooper()).post(() -> {
+            viewModel.setImage(image);
+            Uri savedUri = image.getUri();
+
+            Timber.d("Photo capture succeeded: %s", savedUri.getPath());
+            if (isAdded())
+            {
+                setGalleryThumbnail(savedUri);
+            }
+
+            if (burst == null)
+            {
+                // Automatically navigate to edit the supplementary data.
+                navigateToSupplementaryInput();
+            } else
+            {
+                onBurstFrameFinished(burst);
+            }
+        });
+    }
+
+    /**
+     * Called on the main thread when a frame of a burst finishes and when the burst is stopped. Once
+     * the burst is over, the last frame saved goes to the supplementary input form.
+     *
+     * @param session the burst the frame belongs to.
+     */
+    private void onBurstFrameFinished(BurstCaptureSession session)
+    {
+        if (session.finish() && session.getSavedFrames() > 0 && isAdded())
+        {
+            navigateToSupplementaryInput();
+        }
+    }
+
+    /**
+     * Navigate to the form that asks the user for supplementary data about the image in the shared
+     * view model.
+     */
+    private void navigateToSupplementaryInput()
+    {
+        Navigation.findNavController(requireActivity(), R.id.fragment_container)
+                .navigate(CameraFragmentDirections.actionCameraFragmentToSupplementaryInputFragment());
+    }
+
+    /**
+     * Called when any stage of the capture pipeline fails.
+     *
+     * @param failure the cause of the failure.
+     */
+    private void onImageSaveFailed(Throwable failure)
+    {
+        if (failure instanceof AImageWriter.FormatNotSupportedException)
+        {
+            // OnCaptureSuccess doc says "The image is of format ImageFormat.JPEG". So, this should never happen.
+            // https://developer.android.com/reference/androidx/camera/core/ImageCapture.OnImageCapturedListener#onCaptureSuccess(androidx.camera.core.ImageProxy,%20int)
+            Timber.wtf(failure, "Format not supported.");
+            viewFinder.post(() ->
+                    Toast.makeText(requireContext(), String.format("Camera capture format not supported. %s", failure.getMessage()), Toast.LENGTH_LONG).show());
+        } else if (failure instanceof AMetadataDelegate.ReadFailure)
+        {
+            Timber.w(failure, "Unable to read image metadata.");
+            viewFinder.post(() ->
+                    Toast.makeText(requireContext(), String.format("Unable to read image metadata. %s", failure.getMessage()), Toast.LENGTH_SHORT).show());
+        } else
+        {
+            Timber.e(failure, "Unable to save image.");
+            viewFinder.post(() ->
+                    Toast.makeText(requireContext(), String.format("Unable to save image. %s", failure.getMessage()), Toast.LENGTH_LONG).show());
+        }
+    }
 }
@@ -0,0 +1,133 @@
+package com.chesapeaketechnology.photomonkey.view;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.FileProvider;
+import androidx.fragment.app.Fragment;
+
+import com.chesapeaketechnology.photomonkey.R;
+import com.chesapeaketechnology.photomonkey.model.IoDispatcher;
+import com.chesapeaketechnology.photomonkey.service.UploadQueue;
+import com.chesapeaketechnology.photomonkey.service.UploadTelemetry;
+import com.chesapeaketechnology.photomonkey.service.UploadThrottle;
+
+import java.io.File;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
+
+import timber.log.Timber;
+
+/**
+ * Shows the {@link UploadTelemetry} percentiles for the most recent uploads, along with the upload
+ * queue depth, the {@link UploadThrottle} limits and what they held back, and the I/O lane metrics, and exports the telemetry log for analysis off the device.
+ *
+ * @since 0.3.0
+ */
+public class DiagnosticsFragment extends Fragment
+{
+    @Nullable
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState)
+    {
+        return inflater.inflate(R.layout.fragment_diagnostics, container, false);
+    }
+
+    @Override
+    public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState)
+    {
+        super.onViewCreated(view, savedInstanceState);
+        view.findViewById(R.id.diagnostics_export_button).setOnClickListener(v -> export());
+    }
+
+    @Override
+    public void onResume()
+    {
+        super.onResume();
+        refresh();
+    }
+
+    /**
+     * Load the telemetry off the main thread, it may have to read the log the first time.
+     */
+    private void refresh()
+    {
+        final Context context = requireContext().getApplicationContext();
+        IoDispatcher.supplyAsync(IoDispatcher.Lane.UPLOAD, () -> describe(context))
+                .whenComplete((text, throwable) -> {
+                    final View view = getView();
+                    if (view == null) return;
+                    view.post(() -> {
+                        if (throwable != null)
+                        {
+                            Timber.e(throwable, "Unable to load the upload telemetry");
+                            return;
+                        }
+                        ((TextView) view.findViewById(R.id.diagnostics_text)).setText(text);
+                    });
+                });
+    }
+
+    private static String describe(Context context)
+    {
+        final UploadTelemetry.Summary summary = UploadTelemetry.getInstance(context).summary();
+        final StringBuilder text = new StringBuilder();
+        text.append(summary.uploads == 0 ? context.getString(R.string.upload_diagnostics_empty) : summary.toString())
+                .append("\n\nPhotos queued: ").append(UploadQueue.getInstance(context).count())
+                .append("\n").append(UploadThrottle.getInstance(context).snapshot()).append("\n");
+        for (IoDispatcher.Lane lane : IoDispatcher.Lane.values())
+        {
+            text.append("\n").append(IoDispatcher.metrics(lane));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Export the telemetry log and offer it to any app that can take a CSV file.
+     */
+    private void export()
+    {
+        final Context context = requireContext().getApplicationContext();
+        IoDispatcher.supplyAsync(IoDispatcher.Lane.UPLOAD, () -> {
+            try
+            {
+                return UploadTelemetry.getInstance(context).export(context);
+            } catch (Exception e)
+            {
+                throw new IllegalStateException("Unable to export the upload telemetry. " + e.getMessage(), e);
+            }
+        }).whenComplete((file, throwable) -> {
+            final View view = getView();
+            if (view == null) return;
+            view.post(() -> {
+                if (throwable != null)
+                {
+                    Timber.e(throwable, "Unable to export the upload telemetry");
+                    Toast.makeText(context, "Unable to export the upload telemetry", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                share(file);
+            });
+        });
+    }
+
+    private void share(File file)
+    {
+        final Uri uri = FileProvider.getUriForFile(requireContext(), FILE_PROVIDER_AUTHORITY, file);
+        Intent intent = new Intent();
+        intent.setType("text/csv");
+        intent.setAction(Intent.ACTION_SEND);
+        intent.putExtra(Intent.EXTRA_STREAM, uri);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(intent, getString(R.string.share_hint)));
+    }
+}
@@ -13,6 +13,7 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
 import androidx.core.content.FileProvider;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentManager;
@@ -36,6 +37,8 @@ import java.util.List;
 import java.util.Objects;
 import java.util.function.Consumer;
 
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
+
 import timber.log.Timber;
 
 /**
@@ -47,6 +50,8 @@ public class GalleryFragment extends Fragment
 {
     private final GalleryManager galleryManager;
     private List<Uri> mediaList = new ArrayList<>();
+    private boolean loadingPage;
+    private boolean lastPageLoaded;
 
     public GalleryFragment()
     {
@@ -59,18 +64,75 @@ public class GalleryFragment extends Fragment
         super.onCreate(savedInstanceState);
         setRetainInstance(true);
 
-        //Get images from the gallery manager and load into list.
-        try
-        {
-            mediaList = galleryManager.getMedia();
-        } catch (GalleryManager.GalleryAccessFailure e)
+        // Get the first page of images from the gallery manager without waiting for it on the main
+        // thread; the pager fills in when it arrives.
+        loadingPage = true;
+        galleryManager.getPageAsync(0, GALLERY_PAGE_SIZE)
+                .whenCompleteAsync(this::firstPageLoaded, ContextCompat.getMainExecutor(requireContext()));
+    }
+
+    /**
+     * Show the first page of images, on the main thread.
+     */
+    private void firstPageLoaded(List<Uri> page, Throwable throwable)
+    {
+        loadingPage = false;
+        if (throwable != null)
         {
-            Timber.e(e, "updateCameraUi: Unable to find existing images.");
-            Throwable rootCause = Throwables.getRootCause(e);
-            requireView().post(() -> {
-                Toast.makeText(requireContext(), String.format("Unable to find existing images. %s", rootCause.getMessage()), Toast.LENGTH_SHORT).show();
-            });
+            Timber.e(throwable, "Unable to find existing images.");
+            if (getContext() != null)
+            {
+                Throwable rootCause = Throwables.getRootCause(throwable);
+                Toast.makeText(getContext(), String.format("Unable to find existing images. %s", rootCause.getMessage()), Toast.LENGTH_SHORT).show();
+            }
+            return;
         }
+
+        mediaList.addAll(page);
+        lastPageLoaded = page.size() < GALLERY_PAGE_SIZE;
+        final View view = getView();
+        if (view == null) return;
+
+        setButtonsEnabled(view, !mediaList.isEmpty());
+        ViewPager mediaViewPager = view.findViewById(R.id.photo_view_pager);
+        Objects.requireNonNull(mediaViewPager.getAdapter()).notifyDataSetChanged();
+        loadNextPageIfNeeded(mediaViewPager.getCurrentItem(), mediaViewPager);
+    }
+
+    private static void setButtonsEnabled(View view, boolean enabled)
+    {
+        view.findViewById(R.id.delete_button).setEnabled(enabled);
+        view.findViewById(R.id.share_button).setEnabled(enabled);
+        view.findViewById(R.id.edit_button).setEnabled(enabled);
+        view.findViewById(R.id.upload_button).setEnabled(enabled);
+    }
+
+    /**
+     * Load the next page of images if the user is close to the end of the images loaded so far.
+     *
+     * @param position  the position the user is viewing.
+     * @param viewPager the {@link ViewPager} to update once the page is loaded.
+     */
+    private void loadNextPageIfNeeded(int position, ViewPager viewPager)
+    {
+        if (loadingPage || lastPageLoaded || position < mediaList.size() - GALLERY_PREFETCH_DISTANCE) return;
+
+        loadingPage = true;
+        galleryManager.getPageAsync(mediaList.size(), GALLERY_PAGE_SIZE).whenComplete((page, throwable) ->
+                viewPager.post(() -> {
+                    loadingPage = false;
+                    if (throwable != null)
+                    {
+                        Timber.e(throwable, "Unable to load more images.");
+                        return;
+                    }
+                    lastPageLoaded = page.size() < GALLERY_PAGE_SIZE;
+                    if (!page.isEmpty())
+                    {
+                        mediaList.addAll(page);
+                        Objects.requireNonNull(viewPager.getAdapter()).notifyDataSetChanged();
+                    }
+                }));
     }
 
     @Nullable
@@ -88,16 +150,22 @@ public class GalleryFragment extends Fragment
         //Checking media files list
         if (mediaList.isEmpty())
         {
-            view.findViewById(R.id.delete_button).setEnabled(false);
-            view.findViewById(R.id.share_button).setEnabled(false);
-            view.findViewById(R.id.edit_button).setEnabled(false);
-            view.findViewById(R.id.upload_button).setEnabled(false);
+            setButtonsEnabled(view, false);
         }
 
         // Populate the ViewPager and implement a cache of two media items
         ViewPager mediaViewPager = view.findViewById(R.id.photo_view_pager);
         mediaViewPager.setOffscreenPageLimit(2);
         mediaViewPager.setAdapter(new MediaPagerAdapter(getChildFragmentManager()));
+        mediaViewPager.addOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener()
+        {
+            @Override
+            public void onPageSelected(int position)
+            {
+                loadNextPageIfNeeded(position, mediaViewPager);
+            }
+        });
+        loadNextPageIfNeeded(mediaViewPager.getCurrentItem(), mediaViewPager);
 
         // Make sure that the cutout "safe area" avoids the screen notch if any
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
@@ -178,21 +246,16 @@ public class GalleryFragment extends Fragment
         });
 
         // ***** Upload to Sync Monkey and Azure DataFileReceiver *****
-        view.findViewById(R.id.upload_button).setOnClickListener(v -> {
-            Uri mediaUri = mediaList.get(mediaViewPager.getCurrentItem());
-            try
-            {
-                Image img = Image.create(mediaUri);
-                PublicationDelegate pd = new PublicationDelegate();
-                pd.sendToSyncMonkey(img);
-                PublicationDelegate.uploadFileToRemoteEndpoint(mediaUri);
-            } catch (AMetadataDelegate.ReadFailure | PublicationDelegate.PublicationFailure e)
+        view.findViewById(R.id.upload_button).setOnClickListener(v ->
+                upload(view, mediaList.get(mediaViewPager.getCurrentItem()), false));
+
+        // A long press sends the photo ahead of any queued uploads.
+        view.findViewById(R.id.upload_button).setOnLongClickListener(v -> {
+            if (upload(view, mediaList.get(mediaViewPager.getCurrentItem()), true))
             {
-                Timber.e(e, "Unable to publish photo. %s", e.getMessage());
-                view.post(() -> {
-                    Toast.makeText(requireContext(), String.format("Unable to publish photo. %s", e.getMessage()), Toast.LENGTH_LONG).show();
-                });
+                Toast.makeText(requireContext(), R.string.upload_urgent_queued, Toast.LENGTH_SHORT).show();
             }
+            return true;
         });
 
         // ***** Delete *****
@@ -204,6 +267,7 @@ public class GalleryFragment extends Fragment
                         (Consumer<Uri>) uri -> {
                             mediaList.remove(mediaViewPager.getCurrentItem());
                             Objects.requireNonNull(mediaViewPager.getAdapter()).notifyDataSetChanged();
+                            loadNextPageIfNeeded(mediaViewPager.getCurrentItem(), mediaViewPager);
                             if (mediaList.isEmpty())
                             {
                                 Navigation.findNavController(requireActivity(), R.id.fragment_container).navigateUp();
@@ -223,6 +287,33 @@ public class GalleryFragment extends Fragment
         });
     }
 
+    /**
+     * Send a photo to Sync Monkey and queue it for upload to the Azure DataFileReceiver.
+     *
+     * @param view     the fragment view, to report a failure on.
+     * @param mediaUri the Uri of the photo.
+     * @param urgent   true to upload the photo ahead of the photos already queued.
+     * @return true if the photo was published.
+     */
+    private boolean upload(View view, Uri mediaUri, boolean urgent)
+    {
+        try
+        {
+            Image img = Image.create(mediaUri);
+            PublicationDelegate pd = new PublicationDelegate();
+            pd.sendToSyncMonkey(img);
+            PublicationDelegate.uploadFileToRemoteEndpoint(mediaUri, urgent);
+            return true;
+        } catch (AMetadataDelegate.ReadFailure | PublicationDelegate.PublicationFailure e)
+        {
+            Timber.e(e, "Unable to publish photo. %s", e.getMessage());
+            view.post(() -> {
+                Toast.makeText(requireContext(), String.format("Unable to publish photo. %s", e.getMessage()), Toast.LENGTH_LONG).show();
+            });
+            return false;
+        }
+    }
+
     /**
      * Paging adapter for the images in the gallery.
      *
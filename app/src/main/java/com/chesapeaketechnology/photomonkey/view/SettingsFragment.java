@@ -1,8 +1,18 @@
 package com.chesapeaketechnology.photomonkey.view;
 
 import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_DEVICE_ID_KEY;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_HTTP_CALL_TIMEOUT_KEY;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_HTTP_CONNECT_TIMEOUT_KEY;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_HTTP_READ_TIMEOUT_KEY;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_HTTP_WRITE_TIMEOUT_KEY;
 import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_MDM_OVERRIDE_KEY;
 import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_REMOTE_POST_URL;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_UPLOAD_BANDWIDTH_METERED_KEY;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_UPLOAD_BANDWIDTH_UNMETERED_KEY;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_UPLOAD_CONCURRENCY_KEY;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_UPLOAD_FORMAT_KEY;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_UPLOAD_PROFILE_KEY;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_UPLOAD_STRIP_THUMBNAIL_KEY;
 import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_VPN_ONLY_KEY;
 import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.PROPERTY_WIFI_ONLY_KEY;
 
@@ -17,6 +27,7 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.navigation.Navigation;
 import androidx.preference.EditTextPreference;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
@@ -25,6 +36,7 @@ import androidx.preference.SwitchPreferenceCompat;
 
 
 import com.chesapeaketechnology.photomonkey.R;
+import com.chesapeaketechnology.photomonkey.service.PhotoUploadSubmissionHandler;
 import com.chesapeaketechnology.photomonkey.util.MdmUtils;
 
 import java.util.Objects;
@@ -44,7 +56,22 @@ public class SettingsFragment extends PreferenceFragmentCompat implements Shared
     private static final String[] PROPERTY_KEYS = {PROPERTY_REMOTE_POST_URL,
             PROPERTY_DEVICE_ID_KEY,
             PROPERTY_VPN_ONLY_KEY,
-            PROPERTY_WIFI_ONLY_KEY};
+            PROPERTY_WIFI_ONLY_KEY,
+            PROPERTY_UPLOAD_FORMAT_KEY,
+            PROPERTY_UPLOAD_PROFILE_KEY,
+            PROPERTY_UPLOAD_STRIP_THUMBNAIL_KEY,
+            PROPERTY_UPLOAD_CONCURRENCY_KEY,
+            PROPERTY_UPLOAD_BANDWIDTH_METERED_KEY,
+            PROPERTY_UPLOAD_BANDWIDTH_UNMETERED_KEY,
+            PROPERTY_HTTP_CONNECT_TIMEOUT_KEY,
+            PROPERTY_HTTP_READ_TIMEOUT_KEY,
+            PROPERTY_HTTP_WRITE_TIMEOUT_KEY,
+            PROPERTY_HTTP_CALL_TIMEOUT_KEY};
+
+    /**
+     * The preference that opens the {@link DiagnosticsFragment}. It holds no value of its own.
+     */
+    private static final String PREFERENCE_UPLOAD_DIAGNOSTICS_KEY = "uploadDiagnostics";
 
     @NonNull
     @Override
@@ -78,6 +105,16 @@ public class SettingsFragment extends PreferenceFragmentCompat implements Shared
             );
         }
 
+        Preference diagnosticsPreference = findPreference(PREFERENCE_UPLOAD_DIAGNOSTICS_KEY);
+        if (diagnosticsPreference != null)
+        {
+            diagnosticsPreference.setOnPreferenceClickListener(preference -> {
+                Navigation.findNavController(requireActivity(), R.id.fragment_container)
+                        .navigate(SettingsFragmentDirections.actionSettingsFragmentToDiagnosticsFragment());
+                return true;
+            });
+        }
+
         updateUiForMdmIfNecessary();
     }
 
@@ -112,6 +149,33 @@ public class SettingsFragment extends PreferenceFragmentCompat implements Shared
                 edit.apply();
                 break;
 
+            case PROPERTY_UPLOAD_FORMAT_KEY:
+                Timber.d("Upload format Preference Changed to %s", sharedPreferences.getString(key, ""));
+                break;
+
+            case PROPERTY_UPLOAD_PROFILE_KEY:
+                Timber.d("Upload profile Preference Changed to %s", sharedPreferences.getString(key, ""));
+                break;
+
+            case PROPERTY_UPLOAD_STRIP_THUMBNAIL_KEY:
+                Timber.d("Strip thumbnail Preference Changed to %s", sharedPreferences.getBoolean(key, false));
+                break;
+
+            case PROPERTY_UPLOAD_CONCURRENCY_KEY:
+            case PROPERTY_UPLOAD_BANDWIDTH_METERED_KEY:
+            case PROPERTY_UPLOAD_BANDWIDTH_UNMETERED_KEY:
+                // The upload throttle reads these for every request.
+                Timber.d("%s Preference Changed to %s", key, sharedPreferences.getString(key, ""));
+                break;
+
+            case PROPERTY_HTTP_CONNECT_TIMEOUT_KEY:
+            case PROPERTY_HTTP_READ_TIMEOUT_KEY:
+            case PROPERTY_HTTP_WRITE_TIMEOUT_KEY:
+            case PROPERTY_HTTP_CALL_TIMEOUT_KEY:
+                // The HTTP client is rebuilt with these before the next upload.
+                Timber.d("%s Preference Changed to %s", key, sharedPreferences.getString(key, ""));
+                break;
+
             case PROPERTY_REMOTE_POST_URL:
                 String urlPreference = sharedPreferences.getString(key, "");
                 if (urlPreference.matches("https://(.*)"))
@@ -130,6 +194,8 @@ public class SettingsFragment extends PreferenceFragmentCompat implements Shared
             case PROPERTY_WIFI_ONLY_KEY:
                 edit.putBoolean(key, sharedPreferences.getBoolean(key, false));
                 edit.apply();
+                // Queued uploads wait on the network these settings call for.
+                PhotoUploadSubmissionHandler.refreshUploadWork(requireContext());
                 break;
             default:
                 Timber.wtf("Unknown preference key %s", key);
@@ -178,9 +244,19 @@ public class SettingsFragment extends PreferenceFragmentCompat implements Shared
 
         updateBooleanPreferenceForMdm(preferenceScreen, mdmProperties, PROPERTY_VPN_ONLY_KEY);
         updateBooleanPreferenceForMdm(preferenceScreen, mdmProperties, PROPERTY_WIFI_ONLY_KEY);
+        updateBooleanPreferenceForMdm(preferenceScreen, mdmProperties, PROPERTY_UPLOAD_STRIP_THUMBNAIL_KEY);
 
         updateStringPreferenceForMdm(preferenceScreen, mdmProperties, PROPERTY_REMOTE_POST_URL);
         updateStringPreferenceForMdm(preferenceScreen, mdmProperties, PROPERTY_DEVICE_ID_KEY);
+        updateStringPreferenceForMdm(preferenceScreen, mdmProperties, PROPERTY_UPLOAD_FORMAT_KEY);
+        updateStringPreferenceForMdm(preferenceScreen, mdmProperties, PROPERTY_UPLOAD_PROFILE_KEY);
+        updateStringPreferenceForMdm(preferenceScreen, mdmProperties, PROPERTY_UPLOAD_CONCURRENCY_KEY);
+        updateStringPreferenceForMdm(preferenceScreen, mdmProperties, PROPERTY_UPLOAD_BANDWIDTH_METERED_KEY);
+        updateStringPreferenceForMdm(preferenceScreen, mdmProperties, PROPERTY_UPLOAD_BANDWIDTH_UNMETERED_KEY);
+        updateStringPreferenceForMdm(preferenceScreen, mdmProperties, PROPERTY_HTTP_CONNECT_TIMEOUT_KEY);
+        updateStringPreferenceForMdm(preferenceScreen, mdmProperties, PROPERTY_HTTP_READ_TIMEOUT_KEY);
+        updateStringPreferenceForMdm(preferenceScreen, mdmProperties, PROPERTY_HTTP_WRITE_TIMEOUT_KEY);
+        updateStringPreferenceForMdm(preferenceScreen, mdmProperties, PROPERTY_HTTP_CALL_TIMEOUT_KEY);
     }
 
     /**
@@ -220,7 +296,7 @@ public class SettingsFragment extends PreferenceFragmentCompat implements Shared
     {
         try
         {
-            final EditTextPreference preference = preferenceScreen.findPreference(preferenceKey);
+            final Preference preference = preferenceScreen.findPreference(preferenceKey);
 
             if (preference != null && mdmProperties.containsKey(preferenceKey))
             {
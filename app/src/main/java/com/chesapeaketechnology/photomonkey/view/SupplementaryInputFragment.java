@@ -83,6 +83,7 @@ public class SupplementaryInputFragment extends Fragment
         view.findViewById(R.id.saveButton).setOnClickListener(e -> {
             try
             {
+                Metadata previous = model.getImage().getMetadata();
                 Metadata metadata = new Metadata(
                         descriptionField.getText().toString(),
                         model.getLastLocation(),
@@ -91,7 +92,7 @@ public class SupplementaryInputFragment extends Fragment
                 model.setImage(image);
 
                 PublicationDelegate.kickOffSyncMonkeySync();
-                PublicationDelegate.uploadFileToRemoteEndpoint(model.getImage().getUri());
+                PublicationDelegate.syncMetadataToRemoteEndpoint(model.getImage().getUri(), previous, metadata);
                 Navigation.findNavController(requireActivity(), R.id.fragment_container).navigateUp();
             } catch (AMetadataDelegate.SaveFailure mse)
             {
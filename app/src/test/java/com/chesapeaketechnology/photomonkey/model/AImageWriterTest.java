@@ -0,0 +1,144 @@
+package com.chesapeaketechnology.photomonkey.model;
+
+import androidx.camera.core.ImageInfo;
+import androidx.camera.core.ImageProxy;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that {@link AImageWriter#writeJpg} hands the plane buffer of a captured image to the channel
+ * without copying it onto the heap, by counting the bytes the writing thread allocates.
+ */
+public class AImageWriterTest
+{
+    private static final int IMAGE_BYTES = 16 * 1024 * 1024;
+    // Room for the EXIF segment and the odd iterator, far short of a copy of the image.
+    private static final long ALLOCATION_BUDGET = 256 * 1024;
+
+    private com.sun.management.ThreadMXBean threads;
+    private ByteBuffer plane;
+    private ImageProxy image;
+
+    @Before
+    public void setUp()
+    {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        plane = ByteBuffer.allocateDirect(IMAGE_BYTES);
+        // A JPEG SOI marker followed by a DQT segment, so the EXIF segment is written in front of it.
+        plane.put(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDB, 0, 4, 0, 0});
+        plane.position(IMAGE_BYTES / 2);
+        image = image(plane);
+    }
+
+    @Test
+    public void writesThePlaneWithoutCopyingIt() throws IOException
+    {
+        final DiscardingChannel channel = new DiscardingChannel();
+        AImageWriter.writeJpg(image, channel);
+
+        final long before = allocatedBytes();
+        final long written = AImageWriter.writeJpg(image, channel);
+        final long allocated = allocatedBytes() - before;
+
+        assertEquals(IMAGE_BYTES, written);
+        assertTrue("allocated " + allocated + " bytes", allocated < ALLOCATION_BUDGET);
+        assertPlaneUntouched();
+    }
+
+    @Test
+    public void embedsMetadataWithoutCopyingThePlane() throws IOException
+    {
+        final Metadata metadata = new Metadata("A description", null, false);
+        final DiscardingChannel channel = new DiscardingChannel();
+        AImageWriter.writeJpg(image, metadata, channel);
+
+        final long before = allocatedBytes();
+        final long written = AImageWriter.writeJpg(image, metadata, channel);
+        final long allocated = allocatedBytes() - before;
+
+        assertTrue(written > IMAGE_BYTES);
+        assertTrue("allocated " + allocated + " bytes", allocated < ALLOCATION_BUDGET);
+        assertPlaneUntouched();
+    }
+
+    private void assertPlaneUntouched()
+    {
+        assertEquals(IMAGE_BYTES / 2, plane.position());
+        assertEquals(IMAGE_BYTES, plane.limit());
+    }
+
+    private long allocatedBytes()
+    {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * An {@link ImageProxy} over a single plane, built as a proxy so it keeps up with the interface.
+     */
+    private static ImageProxy image(ByteBuffer buffer)
+    {
+        final ImageProxy.PlaneProxy plane = proxy(ImageProxy.PlaneProxy.class, "getBuffer", buffer);
+        final ImageInfo info = proxy(ImageInfo.class, "getRotationDegrees", 0);
+        return (ImageProxy) Proxy.newProxyInstance(AImageWriterTest.class.getClassLoader(), new Class<?>[]{ImageProxy.class},
+                (proxy, method, args) -> {
+                    switch (method.getName())
+                    {
+                        case "getPlanes":
+                            return new ImageProxy.PlaneProxy[]{plane};
+                        case "getImageInfo":
+                            return info;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, String methodName, Object value)
+    {
+        return (T) Proxy.newProxyInstance(AImageWriterTest.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (method.getName().equals(methodName)) return value;
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    /**
+     * A channel that takes everything it is given without keeping it.
+     */
+    private static final class DiscardingChannel implements WritableByteChannel
+    {
+        @Override
+        public int write(ByteBuffer source)
+        {
+            final int length = source.remaining();
+            source.position(source.limit());
+            return length;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return true;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
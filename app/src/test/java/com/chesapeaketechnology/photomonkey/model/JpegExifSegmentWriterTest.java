@@ -0,0 +1,432 @@
+package com.chesapeaketechnology.photomonkey.model;
+
+import android.location.Location;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips the segments {@link JpegExifSegmentWriter} writes through {@link ExifInterface}, on small
+ * hand-made JPEGs: with no EXIF at all, and with a little endian EXIF segment like a camera writes.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JpegExifSegmentWriterTest
+{
+    private static final String CAMERA_DATETIME = "2020:01:02 03:04:05";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesEveryTag() throws IOException
+    {
+        final File file = write(jpeg(null), new Metadata("A description", location(), true), 90);
+
+        final ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+        assertEquals("A description", exif.getAttribute(ExifInterface.TAG_IMAGE_DESCRIPTION));
+        assertEquals(ExifInterface.ORIENTATION_TRANSVERSE, exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, 0));
+        assertNotNull(exif.getAttribute(ExifInterface.TAG_DATETIME));
+        assertNotNull(exif.getAttribute(ExifInterface.TAG_DATETIME_ORIGINAL));
+        final double[] latLong = exif.getLatLong();
+        assertNotNull(latLong);
+        assertEquals(38.9784, latLong[0], 1e-5);
+        assertEquals(-76.4922, latLong[1], 1e-5);
+        assertEquals("N", exif.getAttribute(ExifInterface.TAG_GPS_LATITUDE_REF));
+        assertEquals("W", exif.getAttribute(ExifInterface.TAG_GPS_LONGITUDE_REF));
+        assertEquals(12.5, exif.getAttributeDouble(ExifInterface.TAG_GPS_ALTITUDE, 0), 1e-4);
+        assertEquals(36, exif.getAttributeDouble(ExifInterface.TAG_GPS_SPEED, 0), 1e-4);
+        assertEquals("K", exif.getAttribute(ExifInterface.TAG_GPS_SPEED_REF));
+        assertEquals("gps", exif.getAttribute(ExifInterface.TAG_GPS_PROCESSING_METHOD));
+    }
+
+    @Test
+    public void keepsTheCameraTags() throws IOException
+    {
+        final byte[] thumbnail = new byte[1000];
+        for (int i = 0; i < thumbnail.length; i++) thumbnail[i] = (byte) i;
+        final File file = write(jpeg(cameraExif(thumbnail)), new Metadata("A description", null, false), 0);
+
+        final ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+        assertEquals("A description", exif.getAttribute(ExifInterface.TAG_IMAGE_DESCRIPTION));
+        assertEquals(ExifInterface.ORIENTATION_NORMAL, exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, 0));
+        assertEquals("Camera", exif.getAttribute(ExifInterface.TAG_MAKE));
+        assertEquals("Phone", exif.getAttribute(ExifInterface.TAG_MODEL));
+        assertEquals(CAMERA_DATETIME, exif.getAttribute(ExifInterface.TAG_DATETIME));
+        assertEquals(CAMERA_DATETIME, exif.getAttribute(ExifInterface.TAG_DATETIME_ORIGINAL));
+        assertEquals(0.01, exif.getAttributeDouble(ExifInterface.TAG_EXPOSURE_TIME, 0), 1e-9);
+        assertEquals(1.8, exif.getAttributeDouble(ExifInterface.TAG_F_NUMBER, 0), 1e-9);
+        assertEquals(4.7, exif.getAttributeDouble(ExifInterface.TAG_FOCAL_LENGTH, 0), 1e-9);
+        assertTrue(exif.hasThumbnail());
+        assertArrayEquals(thumbnail, exif.getThumbnail());
+    }
+
+    @Test
+    public void replacesTheCameraLocation() throws IOException
+    {
+        final File file = write(jpeg(cameraExif(null)), new Metadata(null, location(), false), 0);
+
+        final ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+        assertEquals("Camera", exif.getAttribute(ExifInterface.TAG_MAKE));
+        assertEquals("gps", exif.getAttribute(ExifInterface.TAG_GPS_PROCESSING_METHOD));
+        assertEquals(38.9784, exif.getLatLong()[0], 1e-5);
+    }
+
+    @Test
+    public void leavesALargeThumbnailBehind() throws IOException
+    {
+        // The camera segment fits, but not once the reserved description and GPS fields are added.
+        final byte[] thumbnail = new byte[64_800];
+        final File file = write(jpeg(cameraExif(thumbnail)), new Metadata("A description", null, false), 0);
+
+        final ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+        assertEquals("A description", exif.getAttribute(ExifInterface.TAG_IMAGE_DESCRIPTION));
+        assertEquals("Camera", exif.getAttribute(ExifInterface.TAG_MAKE));
+        assertFalse(exif.hasThumbnail());
+    }
+
+    @Test
+    public void patchesAMergedSegment() throws IOException
+    {
+        final File file = write(jpeg(cameraExif(jpeg(null))), new Metadata("Before", location(), false), 0);
+        final long length = file.length();
+
+        final Location moved = location();
+        moved.setLatitude(-12.5);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            assertTrue(JpegExifSegmentWriter.patch(channel, new Metadata("After", moved, true)));
+        }
+
+        assertEquals(length, file.length());
+        final ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+        assertEquals("After", exif.getAttribute(ExifInterface.TAG_IMAGE_DESCRIPTION));
+        assertEquals(ExifInterface.ORIENTATION_FLIP_HORIZONTAL, exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, 0));
+        assertEquals(-12.5, exif.getLatLong()[0], 1e-5);
+        assertEquals("Camera", exif.getAttribute(ExifInterface.TAG_MAKE));
+        assertEquals(CAMERA_DATETIME, exif.getAttribute(ExifInterface.TAG_DATETIME_ORIGINAL));
+    }
+
+    /**
+     * A MediaStore image is patched through separate read and write channels on one descriptor. The
+     * edit should cost a read of the EXIF segment and a write of the changed fields, where rewriting
+     * the image used to cost copying all of it out and back.
+     */
+    @Test
+    public void patchesThroughSeparateChannelsWithoutCopyingTheImage() throws IOException
+    {
+        final byte[] image = jpeg(null, 1024 * 1024);
+        final File file = write(image, new Metadata("Before", location(), false), 0);
+        final byte[] before = Files.readAllBytes(file.toPath());
+
+        final CountingFileChannel reader;
+        final CountingFileChannel writer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            reader = new CountingFileChannel(channel);
+            writer = new CountingFileChannel(channel);
+            assertTrue(JpegExifSegmentWriter.patch(reader, writer, new Metadata("After", location(), true)));
+        }
+
+        final byte[] after = Files.readAllBytes(file.toPath());
+        final int segmentLength = 2 + 2 + (((before[4] & 0xFF) << 8) | (before[5] & 0xFF));
+        assertEquals(before.length, after.length);
+        assertTrue("read " + reader.read, reader.read <= segmentLength + 6);
+        assertEquals(0, writer.read);
+        assertTrue("wrote " + writer.written, writer.written <= JpegExifSegmentWriter.DESCRIPTION_CAPACITY + 128);
+        assertEquals(0, reader.written);
+        // Everything after the segment, the image itself, is untouched.
+        assertArrayEquals(Arrays.copyOfRange(before, segmentLength, before.length), Arrays.copyOfRange(after, segmentLength, after.length));
+        assertEquals("After", new ExifInterface(file.getAbsolutePath()).getAttribute(ExifInterface.TAG_IMAGE_DESCRIPTION));
+    }
+
+    private File write(byte[] jpeg, Metadata metadata, int rotationDegrees) throws IOException
+    {
+        final File file = folder.newFile();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE))
+        {
+            final long written = JpegExifSegmentWriter.write(ByteBuffer.wrap(jpeg), metadata, rotationDegrees, channel);
+            assertEquals(channel.size(), written);
+        }
+        return file;
+    }
+
+    private static Location location()
+    {
+        final Location location = new Location("gps");
+        location.setLatitude(38.9784);
+        location.setLongitude(-76.4922);
+        location.setAltitude(12.5);
+        location.setSpeed(10);
+        return location;
+    }
+
+    /**
+     * A 16x16 grayscale JPEG with just the segments a decoder looks for: SOI, DQT, SOF0, SOS, the
+     * entropy coded data and EOI, preceded by the given APP1 segment if there is one. The data is
+     * padded past the first 5000 bytes, which ExifInterface reads to tell the format of a file.
+     */
+    private static byte[] jpeg(byte[] app1)
+    {
+        return jpeg(app1, 6000);
+    }
+
+    static byte[] jpeg(byte[] app1, int dataLength)
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+        if (app1 != null) segment(out, 0xE1, app1);
+
+        final byte[] quantization = new byte[65];
+        for (int i = 1; i < quantization.length; i++) quantization[i] = 1;
+        segment(out, 0xDB, quantization);
+        segment(out, 0xC0, new byte[]{8, 0, 16, 0, 16, 1, 1, 0x11, 0});
+        segment(out, 0xDA, new byte[]{1, 1, 0, 0, 63, 0});
+        final byte[] data = new byte[dataLength];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i % 0x7F);
+        out.write(data, 0, data.length);
+        out.write(0xFF);
+        out.write(0xD9);
+        return out.toByteArray();
+    }
+
+    private static void segment(ByteArrayOutputStream out, int marker, byte[] payload)
+    {
+        out.write(0xFF);
+        out.write(marker);
+        out.write((payload.length + 2) >> 8);
+        out.write(payload.length + 2);
+        out.write(payload, 0, payload.length);
+    }
+
+    /**
+     * An EXIF segment like a camera writes, little endian, with device and exposure details in IFD0
+     * and the EXIF IFD, and the thumbnail (if any) in IFD1.
+     */
+    private static byte[] cameraExif(byte[] thumbnail)
+    {
+        final ByteBuffer tiff = ByteBuffer.allocate(1024 + (thumbnail == null ? 0 : thumbnail.length)).order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) 'I').put((byte) 'I').putShort((short) 0x2A).putInt(8);
+
+        final int ifd0 = 8;
+        final int ifd0Data = ifd0 + 2 + 6 * 12 + 4;
+        final int exifIfd = 200;
+        final int exifData = exifIfd + 2 + 4 * 12 + 4;
+        final int ifd1 = 400;
+        final int thumbnailOffset = 512;
+
+        tiff.position(ifd0);
+        tiff.putShort((short) 6);
+        entry(tiff, 0x010F, 2, 7, ifd0Data);
+        entry(tiff, 0x0110, 2, 6, ifd0Data + 8);
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) 6).putShort((short) 0);
+        entry(tiff, 0x0132, 2, 20, ifd0Data + 16);
+        entry(tiff, 0x010E, 2, 6, ifd0Data + 36);
+        entry(tiff, 0x8769, 4, 1, exifIfd);
+        tiff.putInt(thumbnail == null ? 0 : ifd1);
+        tiff.position(ifd0Data);
+        tiff.put(ascii("Camera", 8)).put(ascii("Phone", 8)).put(ascii(CAMERA_DATETIME, 20)).put(ascii("Old", 6));
+
+        tiff.position(exifIfd);
+        tiff.putShort((short) 4);
+        entry(tiff, 0x829A, 5, 1, exifData);
+        entry(tiff, 0x829D, 5, 1, exifData + 8);
+        entry(tiff, 0x9003, 2, 20, exifData + 16);
+        entry(tiff, 0x920A, 5, 1, exifData + 36);
+        tiff.putInt(0);
+        tiff.position(exifData);
+        tiff.putInt(1).putInt(100).putInt(18).putInt(10).put(ascii(CAMERA_DATETIME, 20)).putInt(47).putInt(10);
+
+        if (thumbnail != null)
+        {
+            tiff.position(ifd1);
+            tiff.putShort((short) 2);
+            entry(tiff, 0x0201, 4, 1, thumbnailOffset);
+            entry(tiff, 0x0202, 4, 1, thumbnail.length);
+            tiff.putInt(0);
+            tiff.position(thumbnailOffset);
+            tiff.put(thumbnail);
+        }
+
+        final byte[] segment = new byte[6 + tiff.position()];
+        System.arraycopy("Exif\0\0".getBytes(StandardCharsets.US_ASCII), 0, segment, 0, 6);
+        System.arraycopy(tiff.array(), 0, segment, 6, tiff.position());
+        return segment;
+    }
+
+    private static void entry(ByteBuffer tiff, int tag, int type, int count, int value)
+    {
+        tiff.putShort((short) tag).putShort((short) type).putInt(count).putInt(value);
+    }
+
+    private static byte[] ascii(String value, int length)
+    {
+        final byte[] field = new byte[length];
+        final byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, field, 0, bytes.length);
+        return field;
+    }
+
+    /**
+     * A {@link FileChannel} that counts the bytes read and written through it.
+     */
+    private static final class CountingFileChannel extends FileChannel
+    {
+        private final FileChannel channel;
+        long read;
+        long written;
+
+        CountingFileChannel(FileChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        private int countRead(int count)
+        {
+            if (count > 0) read += count;
+            return count;
+        }
+
+        private long countRead(long count)
+        {
+            if (count > 0) read += count;
+            return count;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException
+        {
+            return countRead(channel.read(destination));
+        }
+
+        @Override
+        public long read(ByteBuffer[] destinations, int offset, int length) throws IOException
+        {
+            return countRead(channel.read(destinations, offset, length));
+        }
+
+        @Override
+        public int read(ByteBuffer destination, long position) throws IOException
+        {
+            return countRead(channel.read(destination, position));
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException
+        {
+            final int count = channel.write(source);
+            written += count;
+            return count;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) throws IOException
+        {
+            final long count = channel.write(sources, offset, length);
+            written += count;
+            return count;
+        }
+
+        @Override
+        public int write(ByteBuffer source, long position) throws IOException
+        {
+            final int count = channel.write(source, position);
+            written += count;
+            return count;
+        }
+
+        @Override
+        public long position() throws IOException
+        {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException
+        {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException
+        {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException
+        {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException
+        {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel source, long position, long count)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void implCloseChannel()
+        {
+            // The underlying channel is closed by its owner.
+        }
+    }
+}
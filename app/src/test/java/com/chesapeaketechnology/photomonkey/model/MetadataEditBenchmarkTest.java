@@ -0,0 +1,98 @@
+package com.chesapeaketechnology.photomonkey.model;
+
+import android.net.Uri;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares how long it takes to edit the description of a 20 MB image with the
+ * {@link SidecarMetadataDelegate} and with the {@link ExifMetadataDelegate}, both when the EXIF can be
+ * patched in place and when ExifInterface has to rewrite the image.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MetadataEditBenchmarkTest
+{
+    private static final int IMAGE_BYTES = 20 * 1024 * 1024;
+    private static final int EDITS = 5;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sidecarEditsDoNotCostAnImageRewrite() throws Exception
+    {
+        final byte[] jpeg = JpegExifSegmentWriterTest.jpeg(null, IMAGE_BYTES);
+
+        final SidecarMetadataDelegate sidecarDelegate = new SidecarMetadataDelegate();
+        final Image sidecarImage = image(jpeg, true, sidecarDelegate);
+        final byte[] untouched = Files.readAllBytes(sidecarImage.getFile().toPath());
+        final long sidecar = medianEditNanos(sidecarImage, sidecarDelegate);
+        final ExifMetadataDelegate exifDelegate = new ExifMetadataDelegate();
+        final long patch = medianEditNanos(image(jpeg, true, exifDelegate), exifDelegate);
+        final long rewrite = medianEditNanos(image(jpeg, false, exifDelegate), exifDelegate);
+
+        final String report = String.format(Locale.US, "median edit of a %d MB image: sidecar %.2f ms, EXIF patch %.2f ms, EXIF rewrite %.2f ms",
+                IMAGE_BYTES / (1024 * 1024), sidecar / 1e6, patch / 1e6, rewrite / 1e6);
+        assertTrue(report, sidecar < rewrite);
+        assertTrue(report, patch < rewrite);
+        // The sidecar delegate never writes to the image.
+        assertArrayEquals(untouched, Files.readAllBytes(sidecarImage.getFile().toPath()));
+    }
+
+    /**
+     * Write the image to a file, with an EXIF segment that can be patched in place if asked for, or
+     * without one as older versions did, so ExifInterface has to rewrite the file to add it.
+     */
+    private Image image(byte[] jpeg, boolean embedded, AMetadataDelegate delegate) throws IOException
+    {
+        final File file = folder.newFile();
+        if (embedded)
+        {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE))
+            {
+                JpegExifSegmentWriter.write(ByteBuffer.wrap(jpeg), new Metadata("", null, false), 0, channel);
+            }
+        } else
+        {
+            Files.write(file.toPath(), jpeg);
+        }
+        return new Image(Uri.fromFile(file), delegate);
+    }
+
+    /**
+     * Edit the description of the image a few times after one edit to warm up, and check the last
+     * edit reads back.
+     */
+    private static long medianEditNanos(Image image, AMetadataDelegate delegate) throws Exception
+    {
+        image.updateMetadata(new Metadata("Warm up", null, false));
+        final long[] nanos = new long[EDITS];
+        for (int edit = 1; edit <= EDITS; edit++)
+        {
+            final long start = System.nanoTime();
+            image.updateMetadata(new Metadata("Edit " + edit, null, false));
+            nanos[edit - 1] = System.nanoTime() - start;
+        }
+
+        assertEquals("Edit " + EDITS, delegate.read(image).getDescription());
+        Arrays.sort(nanos);
+        return nanos[EDITS / 2];
+    }
+}
@@ -0,0 +1,134 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import org.junit.Test;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.CIRCUIT_BREAKER_FAILURE_THRESHOLD;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.CIRCUIT_BREAKER_MAX_OPEN_MILLIS;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.CIRCUIT_BREAKER_OPEN_MILLIS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Walks a {@link CircuitBreaker} through its states on a clock the test moves by hand.
+ */
+public class CircuitBreakerTest
+{
+    private long now = 1_000_000;
+    private final CircuitBreaker breaker = new CircuitBreaker("http://test:80", () -> now);
+
+    @Test
+    public void staysClosedBelowTheFailureThreshold() throws Exception
+    {
+        for (int failure = 1; failure < CIRCUIT_BREAKER_FAILURE_THRESHOLD; failure++)
+        {
+            breaker.recordFailure();
+            breaker.acquire();
+        }
+        // A success starts the count again.
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.acquire();
+
+        assertEquals(0, breaker.remainingOpenMillis());
+    }
+
+    @Test
+    public void opensAtTheFailureThreshold()
+    {
+        open();
+
+        assertEquals(CIRCUIT_BREAKER_OPEN_MILLIS, assertOpen());
+        now += CIRCUIT_BREAKER_OPEN_MILLIS - 1;
+        assertEquals(1, assertOpen());
+    }
+
+    @Test
+    public void letsOneTrialThroughOnceTheOpenPeriodIsOver() throws Exception
+    {
+        open();
+        now += CIRCUIT_BREAKER_OPEN_MILLIS;
+
+        breaker.acquire();
+        // The trial has not reported back, so the next call still waits.
+        assertEquals(CIRCUIT_BREAKER_OPEN_MILLIS, assertOpen());
+    }
+
+    @Test
+    public void closesWhenTheTrialSucceeds() throws Exception
+    {
+        open();
+        now += CIRCUIT_BREAKER_OPEN_MILLIS;
+        breaker.acquire();
+
+        breaker.recordSuccess();
+
+        assertEquals(0, breaker.remainingOpenMillis());
+        breaker.acquire();
+        breaker.acquire();
+    }
+
+    @Test
+    public void doublesTheOpenPeriodEachTimeTheTrialFails() throws Exception
+    {
+        open();
+        long openMillis = CIRCUIT_BREAKER_OPEN_MILLIS;
+        while (openMillis < CIRCUIT_BREAKER_MAX_OPEN_MILLIS)
+        {
+            now += openMillis;
+            breaker.acquire();
+            breaker.recordFailure();
+
+            openMillis = Math.min(CIRCUIT_BREAKER_MAX_OPEN_MILLIS, openMillis * 2);
+            assertEquals(openMillis, assertOpen());
+        }
+
+        // The open period stops growing at the maximum.
+        now += CIRCUIT_BREAKER_MAX_OPEN_MILLIS;
+        breaker.acquire();
+        breaker.recordFailure();
+        assertEquals(CIRCUIT_BREAKER_MAX_OPEN_MILLIS, assertOpen());
+    }
+
+    @Test
+    public void startsAgainFromTheFirstOpenPeriodAfterClosing() throws Exception
+    {
+        open();
+        now += CIRCUIT_BREAKER_OPEN_MILLIS;
+        breaker.acquire();
+        breaker.recordFailure();
+        assertEquals(2 * CIRCUIT_BREAKER_OPEN_MILLIS, assertOpen());
+        now += 2 * CIRCUIT_BREAKER_OPEN_MILLIS;
+        breaker.acquire();
+        breaker.recordSuccess();
+
+        open();
+
+        assertEquals(CIRCUIT_BREAKER_OPEN_MILLIS, assertOpen());
+    }
+
+    private void open()
+    {
+        for (int failure = 0; failure < CIRCUIT_BREAKER_FAILURE_THRESHOLD; failure++)
+        {
+            breaker.recordFailure();
+        }
+    }
+
+    /**
+     * Check a call is refused, and that the breaker and the refusal agree on how long it stays open.
+     *
+     * @return how long until the breaker lets a trial through, in milliseconds.
+     */
+    private long assertOpen()
+    {
+        try
+        {
+            breaker.acquire();
+            fail("The circuit should be open");
+        } catch (CircuitBreaker.OpenException e)
+        {
+            assertEquals(breaker.remainingOpenMillis(), e.getRemainingOpenMillis());
+        }
+        return breaker.remainingOpenMillis();
+    }
+}
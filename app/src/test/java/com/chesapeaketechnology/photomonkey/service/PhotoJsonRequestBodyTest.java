@@ -0,0 +1,120 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.chesapeaketechnology.photomonkey.util.PhotoUploadApiUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.Random;
+
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link PhotoJsonRequestBody} streams exactly the bytes that serializing a {@link Photo}
+ * with {@link PhotoUploadApiUtils#GSON} produces, and that its content length matches.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PhotoJsonRequestBodyTest
+{
+    // The size of the chunks the body encodes at a time.
+    private static final int CHUNK = 3 * 16 * 1024;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Context context;
+
+    @Before
+    public void setUp()
+    {
+        context = RuntimeEnvironment.getApplication();
+    }
+
+    @Test
+    public void matchesGsonForAnEmptyPhoto() throws IOException
+    {
+        assertMatchesGson(0, "photo.jpg", "device");
+    }
+
+    @Test
+    public void matchesGsonForEveryPadding() throws IOException
+    {
+        assertMatchesGson(1, "photo.jpg", "device");
+        assertMatchesGson(2, "photo.jpg", "device");
+        assertMatchesGson(3, "photo.jpg", "device");
+        assertMatchesGson(100_001, "photo.jpg", "device");
+    }
+
+    @Test
+    public void matchesGsonAroundTheChunkSize() throws IOException
+    {
+        assertMatchesGson(CHUNK - 1, "photo.jpg", "device");
+        assertMatchesGson(CHUNK, "photo.jpg", "device");
+        assertMatchesGson(CHUNK + 1, "photo.jpg", "device");
+        assertMatchesGson(2 * CHUNK + 2, "photo.jpg", "device");
+    }
+
+    @Test
+    public void matchesGsonForHtmlCharacters() throws IOException
+    {
+        assertMatchesGson(10, "<a href='x'>&amp;=</a>.jpg", "<device>&='");
+    }
+
+    @Test
+    public void matchesGsonForLineSeparators() throws IOException
+    {
+        assertMatchesGson(10, "line\u2028paragraph\u2029.jpg", "\u2028\u2029");
+    }
+
+    @Test
+    public void matchesGsonForControlCharacters() throws IOException
+    {
+        assertMatchesGson(10, "\u0000\u0001\b\t\n\u000b\f\r\u001f\u007f.jpg", "\"quoted\" \\ back\\slash");
+    }
+
+    @Test
+    public void matchesGsonForOtherCharacters() throws IOException
+    {
+        assertMatchesGson(10, "caf\u00e9 \ud83d\udcf7 \u65e5\u672c.jpg", "d\u00e9vice");
+    }
+
+    @Test
+    public void matchesGsonWithoutADevice() throws IOException
+    {
+        assertMatchesGson(10, "photo.jpg", null);
+    }
+
+    private void assertMatchesGson(int size, String filename, String deviceId) throws IOException
+    {
+        final byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        final File file = folder.newFile();
+        Files.write(file.toPath(), bytes);
+        final PhotoContent photo = new PhotoContent(context.getContentResolver(), Uri.fromFile(file), filename, size, file.lastModified());
+
+        final PhotoJsonRequestBody body = new PhotoJsonRequestBody(photo, filename, deviceId);
+        final Buffer sink = new Buffer();
+        body.writeTo(sink);
+        final byte[] streamed = sink.readByteArray();
+
+        final String json = PhotoUploadApiUtils.GSON.toJson(new Photo(filename, Base64.getEncoder().encodeToString(bytes), deviceId));
+        assertArrayEquals("size " + size, json.getBytes(StandardCharsets.UTF_8), streamed);
+        assertEquals("size " + size, streamed.length, body.contentLength());
+    }
+}
@@ -0,0 +1,212 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import android.content.Context;
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import retrofit2.Retrofit;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.RESUMABLE_UPLOAD_CHUNK_BYTES;
+import static com.chesapeaketechnology.photomonkey.service.ResumableUploadService.HEADER_LOCATION;
+import static com.chesapeaketechnology.photomonkey.service.ResumableUploadService.HEADER_UPLOAD_OFFSET;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Drives {@link ResumableUploadTransport} against a {@link MockWebServer} standing in for a tus
+ * endpoint, checking each request the transport makes as an upload is cut off and resumed.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ResumableUploadTransportTest
+{
+    private static final long PHOTO_LENGTH = RESUMABLE_UPLOAD_CHUNK_BYTES * 5 / 2;
+    private static final long MODIFIED = 1_600_000_000_000L;
+
+    private final MockWebServer server = new MockWebServer();
+
+    private Context context;
+    private ResumableUploadTransport transport;
+    private File file;
+    private byte[] bytes;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server.start();
+        context = RuntimeEnvironment.getApplication();
+        final Retrofit retrofit = new Retrofit.Builder()
+                .baseUrl(server.url("/files/"))
+                .client(new OkHttpClient.Builder().retryOnConnectionFailure(false).build())
+                .build();
+        transport = new ResumableUploadTransport(context, retrofit.create(ResumableUploadService.class));
+
+        bytes = new byte[(int) PHOTO_LENGTH];
+        new Random(42).nextBytes(bytes);
+        file = new File(context.getCacheDir(), "photo.jpg");
+        try (OutputStream out = new FileOutputStream(file))
+        {
+            out.write(bytes);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        server.shutdown();
+    }
+
+    @Test
+    public void resumesAtTheServerOffsetAfterAConflict() throws Exception
+    {
+        final long serverOffset = RESUMABLE_UPLOAD_CHUNK_BYTES * 3 / 2;
+        server.enqueue(created("/files/a"));
+        server.enqueue(accepted(RESUMABLE_UPLOAD_CHUNK_BYTES));
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_DURING_REQUEST_BODY));
+        assertCutOff(MODIFIED);
+
+        // The server kept part of the chunk that was cut off, so the saved offset is behind it.
+        server.enqueue(new MockResponse().setResponseCode(409));
+        server.enqueue(new MockResponse().setHeader(HEADER_UPLOAD_OFFSET, serverOffset));
+        server.enqueue(accepted(PHOTO_LENGTH));
+        assertTrue(transport.upload(upload(MODIFIED)));
+
+        assertRequest("POST", "/files/", -1);
+        assertChunk("/files/a", 0, RESUMABLE_UPLOAD_CHUNK_BYTES);
+        assertEquals("PATCH", server.takeRequest().getMethod());
+        assertRequest("PATCH", "/files/a", RESUMABLE_UPLOAD_CHUNK_BYTES);
+        assertRequest("HEAD", "/files/a", -1);
+        assertChunk("/files/a", serverOffset, PHOTO_LENGTH - serverOffset);
+        assertEquals(6, server.getRequestCount());
+    }
+
+    @Test
+    public void startsOverWhenTheUploadIsNotFound() throws Exception
+    {
+        startsOverWhenTheServerForgets(404);
+    }
+
+    @Test
+    public void startsOverWhenTheUploadIsGone() throws Exception
+    {
+        startsOverWhenTheServerForgets(410);
+    }
+
+    @Test
+    public void startsOverWhenThePhotoChanges() throws Exception
+    {
+        server.enqueue(created("/files/a"));
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_DURING_REQUEST_BODY));
+        assertCutOff(MODIFIED);
+
+        server.enqueue(created("/files/b"));
+        server.enqueue(accepted(RESUMABLE_UPLOAD_CHUNK_BYTES));
+        server.enqueue(accepted(RESUMABLE_UPLOAD_CHUNK_BYTES * 2));
+        server.enqueue(accepted(PHOTO_LENGTH));
+        assertTrue(transport.upload(upload(MODIFIED + 1000)));
+
+        assertRequest("POST", "/files/", -1);
+        assertEquals("PATCH", server.takeRequest().getMethod());
+        assertRequest("POST", "/files/", -1);
+        assertChunk("/files/b", 0, RESUMABLE_UPLOAD_CHUNK_BYTES);
+        assertChunk("/files/b", RESUMABLE_UPLOAD_CHUNK_BYTES, RESUMABLE_UPLOAD_CHUNK_BYTES);
+        assertChunk("/files/b", RESUMABLE_UPLOAD_CHUNK_BYTES * 2, PHOTO_LENGTH - RESUMABLE_UPLOAD_CHUNK_BYTES * 2);
+    }
+
+    @Test
+    public void failsWhenAnAcceptedChunkDoesNotMoveTheOffset() throws Exception
+    {
+        server.enqueue(created("/files/a"));
+        server.enqueue(accepted(0));
+
+        assertFalse(transport.upload(upload(MODIFIED)));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    private void startsOverWhenTheServerForgets(int code) throws Exception
+    {
+        server.enqueue(created("/files/a"));
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_DURING_REQUEST_BODY));
+        assertCutOff(MODIFIED);
+
+        server.enqueue(new MockResponse().setResponseCode(code));
+        server.enqueue(created("/files/b"));
+        server.enqueue(accepted(RESUMABLE_UPLOAD_CHUNK_BYTES));
+        server.enqueue(accepted(RESUMABLE_UPLOAD_CHUNK_BYTES * 2));
+        server.enqueue(accepted(PHOTO_LENGTH));
+        assertTrue(transport.upload(upload(MODIFIED)));
+
+        assertRequest("POST", "/files/", -1);
+        assertEquals("PATCH", server.takeRequest().getMethod());
+        assertRequest("PATCH", "/files/a", 0);
+        assertRequest("POST", "/files/", -1);
+        assertChunk("/files/b", 0, RESUMABLE_UPLOAD_CHUNK_BYTES);
+    }
+
+    private PhotoUpload upload(long lastModified)
+    {
+        final PhotoContent photo = new PhotoContent(context.getContentResolver(), Uri.fromFile(file), "photo.jpg",
+                PHOTO_LENGTH, lastModified);
+        return new PhotoUpload(photo, "device", "", Collections.emptyMap(), "hash");
+    }
+
+    private void assertCutOff(long lastModified)
+    {
+        try
+        {
+            transport.upload(upload(lastModified));
+            fail("The upload should have been cut off");
+        } catch (IOException expected)
+        {
+        }
+    }
+
+    private void assertRequest(String method, String path, long offset) throws InterruptedException
+    {
+        final RecordedRequest request = server.takeRequest();
+        assertEquals(method, request.getMethod());
+        assertEquals(path, request.getPath());
+        if (offset >= 0) assertEquals(String.valueOf(offset), request.getHeader(HEADER_UPLOAD_OFFSET));
+    }
+
+    private void assertChunk(String path, long offset, long length) throws InterruptedException
+    {
+        final RecordedRequest request = server.takeRequest();
+        assertEquals("PATCH", request.getMethod());
+        assertEquals(path, request.getPath());
+        assertEquals(String.valueOf(offset), request.getHeader(HEADER_UPLOAD_OFFSET));
+        assertArrayEquals(Arrays.copyOfRange(bytes, (int) offset, (int) (offset + length)),
+                request.getBody().readByteArray());
+    }
+
+    private static MockResponse created(String location)
+    {
+        return new MockResponse().setResponseCode(201).setHeader(HEADER_LOCATION, location);
+    }
+
+    private static MockResponse accepted(long offset)
+    {
+        return new MockResponse().setResponseCode(204).setHeader(HEADER_UPLOAD_OFFSET, offset);
+    }
+}
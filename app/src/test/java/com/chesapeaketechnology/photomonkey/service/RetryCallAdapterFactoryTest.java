@@ -0,0 +1,231 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.http.GET;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how {@link RetryCallAdapterFactory} retries, honors Retry-After and cancels calls, against a
+ * {@link MockWebServer}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RetryCallAdapterFactoryTest
+{
+    private static final long WAIT_SECONDS = 5;
+
+    /**
+     * A quick policy for the retries that should happen, and a slow one for the waits that should be cut short.
+     */
+    interface TestService
+    {
+        @Retry(max = 3, baseDelayMillis = 10, maxDelayMillis = 1000, jitter = 0)
+        @GET("quick")
+        Call<Void> quick();
+
+        @Retry(max = 3, baseDelayMillis = 30_000, maxDelayMillis = 60_000, jitter = 0)
+        @GET("slow")
+        Call<Void> slow();
+    }
+
+    private final MockWebServer server = new MockWebServer();
+
+    private TestService service;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server.start();
+        service = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .addCallAdapterFactory(RetryCallAdapterFactory.create())
+                .callbackExecutor(Runnable::run)
+                .build()
+                .create(TestService.class);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        server.shutdown();
+    }
+
+    @Test
+    public void retriesServerFailures() throws Exception
+    {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse());
+
+        assertTrue(service.quick().execute().isSuccessful());
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void returnsTheResponseWhenRetryAfterIsLongerThanTheMaxDelay() throws Exception
+    {
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "120"));
+
+        assertEquals(503, service.quick().execute().code());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void callsBackWithTheResponseWhenRetryAfterIsLongerThanTheMaxDelay() throws Exception
+    {
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "120"));
+
+        final Outcome outcome = enqueue(service.quick());
+        assertTrue(outcome.done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertNotNull(outcome.response.get());
+        assertEquals(503, outcome.response.get().code());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void cancelEndsTheWaitForTheNextAttempt() throws Exception
+    {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        final Call<Void> call = service.slow();
+        final CountDownLatch failed = new CountDownLatch(1);
+        new Thread(() -> {
+            try
+            {
+                call.execute();
+            } catch (IOException e)
+            {
+                failed.countDown();
+            }
+        }).start();
+
+        server.takeRequest();
+        Thread.sleep(100);
+        call.cancel();
+        assertTrue(failed.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void cancelCancelsTheAttemptInFlight() throws Exception
+    {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        final Call<Void> call = service.quick();
+        final CountDownLatch failed = new CountDownLatch(1);
+        new Thread(() -> {
+            try
+            {
+                call.execute();
+            } catch (IOException e)
+            {
+                failed.countDown();
+            }
+        }).start();
+
+        server.takeRequest();
+        server.takeRequest();
+        call.cancel();
+        assertTrue(failed.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cancelEndsTheScheduledRetryOfAnEnqueuedCall() throws Exception
+    {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        final Call<Void> call = service.slow();
+        final Outcome outcome = enqueue(call);
+
+        server.takeRequest();
+        Thread.sleep(100);
+        call.cancel();
+        assertTrue(outcome.done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(outcome.failure.get() instanceof IOException);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void cancelCancelsTheRetryInFlightOfAnEnqueuedCall() throws Exception
+    {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        final Call<Void> call = service.quick();
+        final Outcome outcome = enqueue(call);
+
+        advanceClockUntilRequests(2);
+        server.takeRequest();
+        server.takeRequest();
+        call.cancel();
+        assertTrue(outcome.done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(outcome.failure.get() instanceof IOException);
+    }
+
+    /**
+     * The retries of an enqueued call are posted to a Handler, which runs them once the clock Robolectric keeps
+     * reaches their time rather than the wall clock.
+     */
+    private void advanceClockUntilRequests(int count) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+        while (server.getRequestCount() < count && System.nanoTime() < deadline)
+        {
+            ShadowSystemClock.advanceBy(Duration.ofMillis(100));
+            Thread.sleep(10);
+        }
+    }
+
+    private static Outcome enqueue(Call<Void> call)
+    {
+        final Outcome outcome = new Outcome();
+        call.enqueue(new Callback<Void>()
+        {
+            @Override
+            public void onResponse(@NonNull Call<Void> call, @NonNull Response<Void> response)
+            {
+                outcome.response.set(response);
+                outcome.done.countDown();
+            }
+
+            @Override
+            public void onFailure(@NonNull Call<Void> call, @NonNull Throwable t)
+            {
+                outcome.failure.set(t);
+                outcome.done.countDown();
+            }
+        });
+        return outcome;
+    }
+
+    private static final class Outcome
+    {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Response<Void>> response = new AtomicReference<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        private Outcome()
+        {
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the delays a {@link RetryPolicy} asks for: exponential growth, the cap and the jitter.
+ */
+public class RetryPolicyTest
+{
+    private static final int[] RETRY_ON = {503, 500, 429};
+
+    @Test
+    public void growsTheDelayByTheMultiplier()
+    {
+        final RetryPolicy policy = new RetryPolicy(5, 100, 2.0, 10_000, 0, RETRY_ON);
+
+        assertEquals(100, policy.delayMillis(1));
+        assertEquals(200, policy.delayMillis(2));
+        assertEquals(400, policy.delayMillis(3));
+        assertEquals(800, policy.delayMillis(4));
+    }
+
+    @Test
+    public void capsTheDelay()
+    {
+        final RetryPolicy policy = new RetryPolicy(10, 1000, 3.0, 5000, 0, RETRY_ON);
+
+        assertEquals(3000, policy.delayMillis(2));
+        assertEquals(5000, policy.delayMillis(3));
+        assertEquals(5000, policy.delayMillis(10));
+    }
+
+    @Test
+    public void spreadsTheDelayByTheJitterEitherWay()
+    {
+        final RetryPolicy policy = new RetryPolicy(5, 1000, 2.0, 4000, 0.25, RETRY_ON);
+
+        assertEquals(750, policy.delayMillis(1, () -> 0.0));
+        assertEquals(1000, policy.delayMillis(1, () -> 0.5));
+        assertEquals(1250, policy.delayMillis(1, () -> 1.0));
+        // The jitter is applied after the cap.
+        assertEquals(3000, policy.delayMillis(5, () -> 0.0));
+        assertEquals(5000, policy.delayMillis(5, () -> 1.0));
+    }
+
+    @Test
+    public void keepsRandomDelaysWithinTheJitter()
+    {
+        final RetryPolicy policy = new RetryPolicy(5, 1000, 2.0, 4000, 0.5, RETRY_ON);
+        final Random random = new Random(42);
+
+        for (int draw = 0; draw < 1000; draw++)
+        {
+            final long delay = policy.delayMillis(2, random::nextDouble);
+            assertTrue(String.valueOf(delay), delay >= 1000 && delay <= 3000);
+        }
+    }
+
+    @Test
+    public void clampsOutOfRangeSettings()
+    {
+        final RetryPolicy policy = new RetryPolicy(-1, 1000, 0.5, 10, 2.0, RETRY_ON);
+
+        assertFalse(policy.canRetry(1));
+        // The multiplier is at least 1 and the cap at least the base delay.
+        assertEquals(1000, policy.getMaxDelayMillis());
+        assertEquals(1000, policy.delayMillis(3, () -> 0.5));
+        // The jitter is at most the whole delay.
+        assertEquals(0, policy.delayMillis(1, () -> 0.0));
+        assertEquals(2000, policy.delayMillis(1, () -> 1.0));
+    }
+
+    @Test
+    public void retriesOnlyTheListedStatusCodesUpToTheMaximum()
+    {
+        final RetryPolicy policy = new RetryPolicy(2, 100, 2.0, 1000, 0, RETRY_ON);
+
+        assertTrue(policy.isRetryable(503));
+        assertTrue(policy.isRetryable(429));
+        assertFalse(policy.isRetryable(404));
+        assertTrue(policy.canRetry(2));
+        assertFalse(policy.canRetry(3));
+        assertFalse(RetryPolicy.NONE.canRetry(1));
+    }
+}
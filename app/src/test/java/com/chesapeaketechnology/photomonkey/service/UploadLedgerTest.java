@@ -0,0 +1,100 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Checks when {@link UploadLedger#hashOf} answers from the hashes it remembers, against photos edited
+ * in place without changing their size or modification time.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class UploadLedgerTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private UploadLedger ledger;
+
+    /**
+     * A ledger of the test's own rather than the shared one, whose database stays tied to the test it
+     * was first opened in.
+     */
+    @Before
+    public void setUp()
+    {
+        ledger = new UploadLedger(RuntimeEnvironment.getApplication());
+    }
+
+    @After
+    public void tearDown()
+    {
+        ledger.close();
+    }
+
+    @Test
+    public void remembersTheHashOnlyOnceThePhotoHasSettled() throws Exception
+    {
+        final long now = System.currentTimeMillis();
+
+        final File settled = photo(now - 60_000);
+        final String settledHash = ledger.hashOf(resolve(settled));
+        editInPlace(settled);
+        // Nothing the ledger can see has changed, so the photo is not read again.
+        assertEquals(settledHash, ledger.hashOf(resolve(settled)));
+
+        final File fresh = photo(now);
+        final String freshHash = ledger.hashOf(resolve(fresh));
+        editInPlace(fresh);
+        final PhotoContent edited = resolve(fresh);
+        assertNotEquals(freshHash, ledger.hashOf(edited));
+        assertEquals(UploadLedger.sha256(edited), ledger.hashOf(edited));
+    }
+
+    private File photo(long modified) throws Exception
+    {
+        final File file = folder.newFile();
+        Files.write(file.toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        file.setLastModified(modified);
+        return file;
+    }
+
+    /**
+     * Change a byte of the photo and put its modification time back, as an edit within the same tick
+     * of the clock would leave it.
+     */
+    private static void editInPlace(File file) throws Exception
+    {
+        final long modified = file.lastModified();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw"))
+        {
+            out.seek(4);
+            out.write(42);
+        }
+        file.setLastModified(modified);
+    }
+
+    /**
+     * Look up the photo as {@link PhotoContent#resolve} would, with the modification time taken from
+     * the file, which is all Robolectric can stat.
+     */
+    private static PhotoContent resolve(File file)
+    {
+        return new PhotoContent(RuntimeEnvironment.getApplication().getContentResolver(), Uri.fromFile(file),
+                file.getName(), file.length(), file.lastModified());
+    }
+}
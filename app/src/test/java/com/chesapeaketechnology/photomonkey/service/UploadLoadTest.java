@@ -0,0 +1,365 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.preference.PreferenceManager;
+import androidx.work.testing.TestWorkerBuilder;
+
+import com.chesapeaketechnology.photomonkey.util.PreferenceUtils;
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A load test of the upload path. Backlogs of 10 and 100 photos, and of 1,000 photos when the
+ * {@value #LARGE_BACKLOG_PROPERTY} system property is true, are queued and drained by
+ * {@link PhotoUploadWorker}, which posts them through {@link PhotoUploadService} and
+ * {@link RetryCallAdapterFactory} to a {@link MockWebServer} standing in for the endpoint. The
+ * endpoint answers slowly, throttles with 429 and Retry-After, fails in bursts of 503 and drops
+ * connections, some of them after it has stored the photo. While photos are left in the queue the
+ * test runs the worker again, the way WorkManager's backoff or the next submission would, moving the
+ * clock past any open circuit. Retries do not wait in real time: the test's {@link RetryPolicy.Sleeper}
+ * only adds up the delays the retries asked for.
+ * <p>
+ * Each backlog reports its throughput, the peak heap in use above where it started, the bytes the
+ * uploading thread allocated per photo, the requests the endpoint saw per photo (the retry
+ * amplification), the retry delays and how long it took to drain, in the message of its assertions.
+ * The run fails if a photo is lost or if a fault costs more than the one request it takes to send the
+ * photo again.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class UploadLoadTest
+{
+    private static final String LARGE_BACKLOG_PROPERTY = "photomonkey.loadTest.large";
+
+    private static final int PHOTO_BYTES = 4 * 1024;
+    private static final int MAX_LATENCY_MILLIS = 10;
+    private static final int BURST_LENGTH = 3;
+    private static final int MAX_WORKER_RUNS = 10;
+    private static final String UPLOAD_PATH = "photos";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final MockWebServer server = new MockWebServer();
+    private final Random random = new Random(25);
+    private final AtomicLong retryDelayMillis = new AtomicLong();
+
+    private Context context;
+    private UploadQueue queue;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        // The endpoint keeps none of the photos it is sent, only how many bytes they had.
+        server.setBodyLimit(0);
+        server.start();
+        context = RuntimeEnvironment.getApplication();
+        // There is no MDM in the test, the settings come from the preferences.
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putBoolean(PROPERTY_MDM_OVERRIDE_KEY, true)
+                .putString(PROPERTY_REMOTE_POST_URL, server.url("/" + UPLOAD_PATH).toString())
+                .putString(PROPERTY_DEVICE_ID_KEY, "load-test")
+                .commit();
+        queue = UploadQueue.getInstance(context);
+        RetryPolicy.sleeper = (lock, delayMillis, stop) -> retryDelayMillis.addAndGet(delayMillis);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        RetryPolicy.sleeper = RetryPolicy.CLOCK;
+        server.shutdown();
+    }
+
+    /**
+     * The backlogs run one after another on the same endpoint, as the queue, ledger and HTTP client
+     * are shared by the whole process just as they are on a device.
+     */
+    @Test
+    public void drainsBacklogsUnderFaults() throws Exception
+    {
+        // Load the classes of the upload path before anything is measured.
+        drain(1);
+        final int[] backlogs = Boolean.getBoolean(LARGE_BACKLOG_PROPERTY) ? new int[]{10, 100, 1000} : new int[]{10, 100};
+        for (int photos : backlogs)
+        {
+            final Report report = drain(photos);
+
+            assertEquals(report.toString(), photos, report.stored);
+            assertEquals(report.toString(), 0, queue.count());
+            assertTrue(report.toString(), report.requests <= photos + report.faults);
+        }
+    }
+
+    /**
+     * Queue a backlog of new photos and run the worker until it has sent them all.
+     */
+    private Report drain(int photos) throws IOException, InterruptedException
+    {
+        final SimulatedEndpoint endpoint = new SimulatedEndpoint(photos);
+        server.setDispatcher(endpoint);
+        // Queued the way PhotoUploadSubmissionHandler queues a photo.
+        final String remoteUrl = PreferenceUtils.getPostEndpointPreference(context);
+        final String pathUrl = PreferenceUtils.getPathUrl(remoteUrl);
+        final String queryUrl = new Gson().toJson(PreferenceUtils.getQueryParameterMap(remoteUrl));
+        for (int i = 0; i < photos; i++)
+        {
+            final byte[] bytes = new byte[PHOTO_BYTES];
+            random.nextBytes(bytes);
+            final File file = folder.newFile(String.format(Locale.US, "photo-%d-%04d.jpg", photos, i));
+            Files.write(file.toPath(), bytes);
+            queue.add(new UploadQueue.Item(Uri.fromFile(file).toString(), PHOTO_BYTES, "load-test", pathUrl, queryUrl,
+                    UPLOAD_FORMAT_JSON));
+        }
+
+        final HeapSampler heap = new HeapSampler();
+        final long allocatedBefore = allocatedBytes();
+        final long start = System.nanoTime();
+        retryDelayMillis.set(0);
+        int runs = 0;
+        do
+        {
+            final PhotoUploadWorker worker = TestWorkerBuilder.from(context, PhotoUploadWorker.class, Runnable::run)
+                    .setRunAttemptCount(runs++)
+                    .build();
+            worker.doWork();
+            // WorkManager would back off before the next run; let the open circuit, if any, run out.
+            ShadowSystemClock.advanceBy(Duration.ofMillis(CircuitBreaker.forUrl(server.url("/")).remainingOpenMillis() + 1));
+        } while (queue.count() > 0 && runs < MAX_WORKER_RUNS);
+        final long elapsedNanos = System.nanoTime() - start;
+        final long allocated = allocatedBefore < 0 ? -1 : allocatedBytes() - allocatedBefore;
+
+        return new Report(photos, runs, elapsedNanos, heap.stop(), allocated < 0 ? -1 : allocated / photos,
+                endpoint.requests.get(), endpoint.faults(), endpoint.stored.size(), endpoint.duplicates.get(),
+                retryDelayMillis.get());
+    }
+
+    /**
+     * @return the bytes allocated by the calling thread so far, or -1 if the JVM does not count them.
+     */
+    private static long allocatedBytes()
+    {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) return -1;
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return -1;
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * The endpoint under load. Every response is held back by up to {@link #MAX_LATENCY_MILLIS}, and
+     * for a backlog of n photos the first n requests include, at random places, one in a hundred that
+     * is throttled, one in a hundred whose connection is dropped (half of them after the photo is
+     * stored), and one in 250 that starts a burst of {@link #BURST_LENGTH} server errors; small
+     * backlogs get one of each. Every other photo is stored under its Idempotency-Key.
+     */
+    private final class SimulatedEndpoint extends Dispatcher
+    {
+        private final Fault[] plan;
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger duplicates = new AtomicInteger();
+        final Set<String> stored = ConcurrentHashMap.newKeySet();
+
+        SimulatedEndpoint(int photos)
+        {
+            plan = new Fault[photos + BURST_LENGTH];
+            final List<Integer> places = new ArrayList<>();
+            for (int i = 0; i < photos; i++)
+            {
+                places.add(i);
+            }
+            Collections.shuffle(places, random);
+            int next = 0;
+            for (int i = 0; i < Math.max(1, photos / 250); i++)
+            {
+                final int place = places.get(next++);
+                for (int j = 0; j < BURST_LENGTH; j++)
+                {
+                    plan[place + j] = Fault.SERVER_ERROR;
+                }
+            }
+            next = plan(places, next, Math.max(1, photos / 100), Fault.THROTTLE);
+            next = plan(places, next, Math.max(1, photos / 200), Fault.DROP);
+            plan(places, next, Math.max(1, photos / 200), Fault.DROP_AFTER_STORING);
+        }
+
+        private int plan(List<Integer> places, int next, int count, Fault fault)
+        {
+            for (int i = 0; i < count && next < places.size(); next++)
+            {
+                if (plan[places.get(next)] == null)
+                {
+                    plan[places.get(next)] = fault;
+                    i++;
+                }
+            }
+            return next;
+        }
+
+        int faults()
+        {
+            int faults = 0;
+            for (Fault fault : plan)
+            {
+                if (fault != null) faults++;
+            }
+            return faults;
+        }
+
+        @NonNull
+        @Override
+        public MockResponse dispatch(@NonNull RecordedRequest request)
+        {
+            final int place = requests.getAndIncrement();
+            final Fault fault = place < plan.length ? plan[place] : null;
+            final MockResponse response = new MockResponse()
+                    .setHeadersDelay(random.nextInt(MAX_LATENCY_MILLIS + 1), TimeUnit.MILLISECONDS);
+            if (fault == Fault.SERVER_ERROR) return response.setResponseCode(503);
+            if (fault == Fault.THROTTLE) return response.setResponseCode(429).setHeader("Retry-After", "1");
+            if (fault == Fault.DROP) return response.setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+
+            final String key = request.getHeader(PhotoUploadService.HEADER_IDEMPOTENCY_KEY);
+            if (key == null || request.getBodySize() <= PHOTO_BYTES) return response.setResponseCode(400);
+            if (!stored.add(key)) duplicates.incrementAndGet();
+            if (fault == Fault.DROP_AFTER_STORING) return response.setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+            return response.setResponseCode(201);
+        }
+    }
+
+    private enum Fault
+    {
+        SERVER_ERROR,
+        THROTTLE,
+        DROP,
+        DROP_AFTER_STORING
+    }
+
+    /**
+     * Samples the heap in use from a background thread while a backlog drains.
+     */
+    private static final class HeapSampler implements Runnable
+    {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final Thread thread = new Thread(this, "HeapSampler");
+        private final long baseline;
+        private volatile boolean running = true;
+        private volatile long peak;
+
+        HeapSampler()
+        {
+            System.gc();
+            baseline = memory.getHeapMemoryUsage().getUsed();
+            peak = baseline;
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run()
+        {
+            while (running)
+            {
+                peak = Math.max(peak, memory.getHeapMemoryUsage().getUsed());
+                try
+                {
+                    Thread.sleep(1);
+                } catch (InterruptedException e)
+                {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return the most heap in use above the baseline while sampling.
+         */
+        long stop() throws InterruptedException
+        {
+            running = false;
+            thread.join();
+            return Math.max(0, peak - baseline);
+        }
+    }
+
+    /**
+     * What one backlog cost to drain.
+     */
+    private static final class Report
+    {
+        final int photos;
+        final int workerRuns;
+        final long elapsedNanos;
+        final long peakHeapBytes;
+        final long allocatedPerPhoto;
+        final int requests;
+        final int faults;
+        final int stored;
+        final int duplicates;
+        final long retryDelayMillis;
+
+        Report(int photos, int workerRuns, long elapsedNanos, long peakHeapBytes, long allocatedPerPhoto, int requests,
+               int faults, int stored, int duplicates, long retryDelayMillis)
+        {
+            this.photos = photos;
+            this.workerRuns = workerRuns;
+            this.elapsedNanos = elapsedNanos;
+            this.peakHeapBytes = peakHeapBytes;
+            this.allocatedPerPhoto = allocatedPerPhoto;
+            this.requests = requests;
+            this.faults = faults;
+            this.stored = stored;
+            this.duplicates = duplicates;
+            this.retryDelayMillis = retryDelayMillis;
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            final double seconds = elapsedNanos / 1e9;
+            return String.format(Locale.US, "%5d photos in %.2f s over %d worker runs: %.1f photos/s, %.0f KiB/s,"
+                            + " peak heap %d KiB, %d bytes allocated per photo, %d requests for %d faults"
+                            + " (%.2f per photo), %d stored, %d duplicates, %.1f s of retry delays skipped",
+                    photos, seconds, workerRuns, photos / seconds, photos * (PHOTO_BYTES / 1024.0) / seconds,
+                    peakHeapBytes / 1024, allocatedPerPhoto, requests, faults, (double) requests / photos, stored,
+                    duplicates, retryDelayMillis / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how {@link UploadProfile#parse} reads the upload size and strip thumbnail settings.
+ */
+public class UploadProfileTest
+{
+    @Test
+    public void readsTheOriginalSize()
+    {
+        assertSame(UploadProfile.ORIGINAL, UploadProfile.parse("original", false));
+        assertSame(UploadProfile.ORIGINAL, UploadProfile.parse(null, false));
+        assertTrue(UploadProfile.ORIGINAL.isOriginal());
+    }
+
+    @Test
+    public void readsAMaximumDimensionAndQuality()
+    {
+        final UploadProfile profile = UploadProfile.parse("2304:90", false);
+
+        assertEquals(2304, profile.maxDimension);
+        assertEquals(90, profile.quality);
+        assertFalse(profile.stripThumbnail);
+        assertEquals("2304:90", profile.toString());
+    }
+
+    @Test
+    public void readsAQualityAlone()
+    {
+        final UploadProfile profile = UploadProfile.parse(":85", false);
+
+        assertEquals(0, profile.maxDimension);
+        assertEquals(85, profile.quality);
+        assertFalse(profile.isOriginal());
+        assertEquals(":85", profile.toString());
+    }
+
+    @Test
+    public void stripsTheThumbnailWhateverTheSize()
+    {
+        final UploadProfile original = UploadProfile.parse("original", true);
+        assertEquals(0, original.quality);
+        assertTrue(original.stripThumbnail);
+        assertFalse(original.isOriginal());
+        assertEquals("original without thumbnail", original.toString());
+
+        final UploadProfile scaled = UploadProfile.parse("1152:80", true);
+        assertEquals(1152, scaled.maxDimension);
+        assertTrue(scaled.stripThumbnail);
+    }
+
+    @Test
+    public void sendsTheOriginalSizeForValuesItDoesNotUnderstand()
+    {
+        for (String value : new String[]{"", "large", "2304", "2304:", ":", ":0", ":101", "-1:90", "2304:90:1"})
+        {
+            assertSame(value, UploadProfile.ORIGINAL, UploadProfile.parse(value, false));
+            assertEquals(value, 0, UploadProfile.parse(value, true).quality);
+        }
+    }
+}
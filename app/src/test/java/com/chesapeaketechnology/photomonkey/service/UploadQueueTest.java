@@ -0,0 +1,124 @@
+package com.chesapeaketechnology.photomonkey.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.UPLOAD_QUEUE_AGED_SHARE;
+import static com.chesapeaketechnology.photomonkey.PhotoMonkeyConstants.UPLOAD_QUEUE_AGING_MILLIS;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the order {@link UploadQueue#prioritize} hands out queued photos in.
+ */
+public class UploadQueueTest
+{
+    private static final long NOW = 1_600_000_000_000L;
+    private static final long MINUTE = 60_000;
+
+    @Test
+    public void sendsUrgentPhotosFirst()
+    {
+        final List<UploadQueue.Item> newestFirst = new ArrayList<>();
+        newestFirst.add(item("a", NOW - MINUTE, false));
+        newestFirst.add(item("b", NOW - 2 * MINUTE, true));
+        newestFirst.add(item("c", NOW - 3 * MINUTE, false));
+        newestFirst.add(item("d", NOW - 4 * MINUTE, true));
+
+        assertEquals("[b, d, a, c]", uris(UploadQueue.prioritize(newestFirst, NOW)).toString());
+    }
+
+    @Test
+    public void sendsTheNewestFirstWhenNothingHasWaitedLong()
+    {
+        final List<UploadQueue.Item> newestFirst = backlog(10, NOW, MINUTE);
+
+        assertEquals(uris(newestFirst), uris(UploadQueue.prioritize(newestFirst, NOW)));
+    }
+
+    @Test
+    public void givesEveryAgedSharePlaceToTheOldestPhoto()
+    {
+        // The expected order is worked out by hand for these settings.
+        assertEquals(4, UPLOAD_QUEUE_AGED_SHARE);
+        assertEquals(15 * MINUTE, UPLOAD_QUEUE_AGING_MILLIS);
+        final List<UploadQueue.Item> newestFirst = new ArrayList<>();
+        newestFirst.add(item("a", NOW - MINUTE, false));
+        newestFirst.add(item("b", NOW - 2 * MINUTE, false));
+        newestFirst.add(item("c", NOW - 3 * MINUTE, false));
+        newestFirst.add(item("d", NOW - 4 * MINUTE, false));
+        newestFirst.add(item("e", NOW - 5 * MINUTE, false));
+        newestFirst.add(item("f", NOW - 6 * MINUTE, false));
+        newestFirst.add(item("g", NOW - 7 * MINUTE, false));
+        newestFirst.add(item("h", NOW - 20 * MINUTE, false));
+        newestFirst.add(item("i", NOW - 30 * MINUTE, false));
+
+        // Places 4 and 8 go to the oldest photos, which have both waited longer than the aging period.
+        assertEquals("[a, b, c, i, d, e, f, h, g]", uris(UploadQueue.prioritize(newestFirst, NOW)).toString());
+    }
+
+    @Test
+    public void waitsForAPhotoToAgeBeforeSkippingTheQueue()
+    {
+        final List<UploadQueue.Item> newestFirst = backlog(UPLOAD_QUEUE_AGED_SHARE, NOW, MINUTE);
+        newestFirst.add(item("old", NOW - UPLOAD_QUEUE_AGING_MILLIS, false));
+
+        final List<UploadQueue.Item> ordered = UploadQueue.prioritize(newestFirst, NOW);
+        assertEquals("old", ordered.get(ordered.size() - 1).photoUri);
+    }
+
+    @Test
+    public void movesAThousandPhotoBacklog()
+    {
+        final List<UploadQueue.Item> newestFirst = backlog(1000, NOW, MINUTE);
+        newestFirst.add(0, item("urgent", NOW - 500 * MINUTE, true));
+
+        final List<UploadQueue.Item> ordered = UploadQueue.prioritize(newestFirst, NOW);
+        assertEquals(newestFirst.size(), ordered.size());
+        assertEquals(newestFirst.size(), new HashSet<>(uris(ordered)).size());
+        assertEquals("urgent", ordered.get(0).photoUri);
+        assertEquals("0", ordered.get(1).photoUri);
+        // The oldest photo is not stuck behind the other 999.
+        assertEquals("999", ordered.get(UPLOAD_QUEUE_AGED_SHARE).photoUri);
+
+        // Each run of places sends its share of the photos that have waited longest.
+        final Set<String> agedSent = new HashSet<>();
+        for (int place = 1; place <= 400; place++)
+        {
+            final int index = Integer.parseInt(ordered.get(place).photoUri);
+            if (index >= 1000 - 400 / UPLOAD_QUEUE_AGED_SHARE) agedSent.add(ordered.get(place).photoUri);
+        }
+        assertEquals(400 / UPLOAD_QUEUE_AGED_SHARE, agedSent.size());
+    }
+
+    /**
+     * A backlog of photos named by their index, newest first, enqueued a fixed interval apart.
+     */
+    private static List<UploadQueue.Item> backlog(int count, long newest, long interval)
+    {
+        final List<UploadQueue.Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            items.add(item(String.valueOf(i), newest - i * interval, false));
+        }
+        return items;
+    }
+
+    private static UploadQueue.Item item(String photoUri, long enqueuedAt, boolean urgent)
+    {
+        return new UploadQueue.Item(photoUri, 1024, "device", "upload", "{}", "json", enqueuedAt, 0, urgent);
+    }
+
+    private static List<String> uris(List<UploadQueue.Item> items)
+    {
+        final List<String> uris = new ArrayList<>(items.size());
+        for (UploadQueue.Item item : items)
+        {
+            uris.add(item.photoUri);
+        }
+        return uris;
+    }
+}